@@ -0,0 +1,290 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.reporting;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * <p>
+ * Report listener decorator which suppresses repeated reports. Reports are
+ * considered equal if they have the same source (by identity), the same
+ * message and a cause of the same type. The first report of a kind is passed
+ * to the delegate, further reports within the suppression window are only
+ * counted.
+ * </p>
+ *
+ * <p>
+ * When a report arrives after its window has expired, a summary with the
+ * number of suppressed reports is delivered before the new report. Expired
+ * windows are not flushed by themselves: without a new report of the same
+ * kind, their summaries are only delivered when the key limit forces a purge
+ * or when {@link #flush()} is called, so call it periodically, e.g. from the
+ * {@link de.ovgu.dke.glue.api.util.HashedWheelTimer shared timer}, and on
+ * shutdown. Summaries carry the message of the original report, the highest
+ * suppressed level and no cause.
+ * </p>
+ *
+ * <p>
+ * The number of tracked report kinds is capped. If the cap is reached and no
+ * expired windows can be purged, reports are passed through without
+ * suppression.
+ * </p>
+ *
+ * <p>
+ * This class is thread safe, provided the delegate is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class DeduplicatingReportListener implements LeveledReportListener {
+	/**
+	 * Default suppression window in milliseconds.
+	 */
+	public static final long DEFAULT_WINDOW = 10000;
+
+	/**
+	 * Default maximum number of tracked report kinds.
+	 */
+	public static final int DEFAULT_MAX_KEYS = 1024;
+
+	private final ReportListener delegate;
+	private final Reporter.Level minLevel;
+	private final long window;
+	private final int maxKeys;
+
+	private final ConcurrentMap<Key, Window> windows;
+
+	/**
+	 * Create a de-duplicating listener with the default window and key limit.
+	 *
+	 * @param delegate
+	 *            the listener which gets the de-duplicated reports
+	 * @throws NullPointerException
+	 *             if the delegate is {@code null}
+	 */
+	public DeduplicatingReportListener(final ReportListener delegate) {
+		this(delegate, DEFAULT_WINDOW, DEFAULT_MAX_KEYS);
+	}
+
+	/**
+	 * Create a de-duplicating listener.
+	 *
+	 * @param delegate
+	 *            the listener which gets the de-duplicated reports; if it is a
+	 *            {@link LeveledReportListener} its minimum level is adopted
+	 * @param window
+	 *            the suppression window in milliseconds
+	 * @param maxKeys
+	 *            the maximum number of tracked report kinds
+	 * @throws NullPointerException
+	 *             if the delegate is {@code null}
+	 * @throws IllegalArgumentException
+	 *             if window or maxKeys are not positive
+	 */
+	public DeduplicatingReportListener(final ReportListener delegate,
+			final long window, final int maxKeys) {
+		if (delegate == null)
+			throw new NullPointerException("Delegate may not be null!");
+		if (window <= 0)
+			throw new IllegalArgumentException("Window must be positive!");
+		if (maxKeys <= 0)
+			throw new IllegalArgumentException("Key limit must be positive!");
+
+		this.delegate = delegate;
+		if (delegate instanceof LeveledReportListener)
+			this.minLevel = ((LeveledReportListener) delegate)
+					.getMinimumLevel();
+		else
+			this.minLevel = Reporter.Level.INFO;
+		this.window = window;
+		this.maxKeys = maxKeys;
+		this.windows = new ConcurrentHashMap<Key, Window>();
+	}
+
+	@Override
+	public Reporter.Level getMinimumLevel() {
+		return minLevel;
+	}
+
+	@Override
+	public void onReport(Reporter source, String msg, Throwable cause,
+			Reporter.Level level) {
+		if (level.ordinal() < minLevel.ordinal())
+			return;
+
+		final Key key = new Key(source, msg, cause);
+		final long now = currentTimeMillis();
+
+		// retry if the window has been summarized before the report counted
+		for (;;) {
+			final Window w = windows.get(key);
+			if (w != null && now - w.start < window) {
+				if (w.suppress(level))
+					return;
+				continue;
+			}
+
+			if (w == null && windows.size() >= maxKeys && purge(now) == 0) {
+				// cannot track more kinds, pass through
+				delegate.onReport(source, msg, cause, level);
+				return;
+			}
+
+			// only the thread which removes an expired window summarizes it
+			if (w != null && windows.remove(key, w))
+				summarize(key, w);
+
+			final Window other = windows.putIfAbsent(key,
+					new Window(now, level));
+			if (other == null)
+				break;
+			// somebody else opened a window concurrently
+			if (other.suppress(level))
+				return;
+		}
+		delegate.onReport(source, msg, cause, level);
+	}
+
+	/**
+	 * Deliver summaries for all report kinds with suppressed reports and reset
+	 * their windows.
+	 */
+	public void flush() {
+		final Iterator<Map.Entry<Key, Window>> it = windows.entrySet()
+				.iterator();
+		while (it.hasNext()) {
+			final Map.Entry<Key, Window> e = it.next();
+			if (windows.remove(e.getKey(), e.getValue()))
+				summarize(e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * Get the number of currently tracked report kinds.
+	 *
+	 * @return number of open suppression windows
+	 */
+	public int getTrackedCount() {
+		return windows.size();
+	}
+
+	/**
+	 * Get the current time in milliseconds, may be overwritten for testing.
+	 *
+	 * @return the current time in milliseconds
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private int purge(final long now) {
+		int purged = 0;
+		for (final Map.Entry<Key, Window> e : windows.entrySet())
+			if (now - e.getValue().start >= window
+					&& windows.remove(e.getKey(), e.getValue())) {
+				summarize(e.getKey(), e.getValue());
+				purged++;
+			}
+		return purged;
+	}
+
+	private void summarize(final Key key, final Window w) {
+		final int count;
+		final int maxLevel;
+		// reports counted later go to a new window
+		synchronized (w) {
+			w.closed = true;
+			count = w.suppressed;
+			maxLevel = w.maxLevel;
+		}
+		if (count > 0)
+			delegate.onReport(key.source, "Suppressed " + count
+					+ " similar report(s): " + key.msg, null,
+					Reporter.Level.values()[maxLevel]);
+	}
+
+	private static final class Key {
+		final Reporter source;
+		final String msg;
+		final Class<?> causeType;
+		final int hash;
+
+		Key(Reporter source, String msg, Throwable cause) {
+			this.source = source;
+			this.msg = msg;
+			this.causeType = cause == null ? null : cause.getClass();
+
+			int h = System.identityHashCode(source);
+			h = 31 * h + (msg == null ? 0 : msg.hashCode());
+			h = 31 * h + (causeType == null ? 0 : causeType.hashCode());
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			final Key other = (Key) obj;
+			return source == other.source
+					&& causeType == other.causeType
+					&& (msg == null ? other.msg == null : msg
+							.equals(other.msg));
+		}
+	}
+
+	private static final class Window {
+		final long start;
+		// guarded by this
+		int suppressed = 0;
+		int maxLevel;
+		boolean closed = false;
+
+		Window(long start, Reporter.Level level) {
+			this.start = start;
+			this.maxLevel = level.ordinal();
+		}
+
+		/**
+		 * Count a suppressed report.
+		 * 
+		 * @return {@code false} if the window has already been summarized
+		 */
+		synchronized boolean suppress(Reporter.Level level) {
+			if (closed)
+				return false;
+			suppressed++;
+			maxLevel = Math.max(maxLevel, level.ordinal());
+			return true;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.reporting;
+
+/**
+ * <p>
+ * A report listener which is only interested in reports of a minimum level.
+ * </p>
+ * 
+ * <p>
+ * Reporters based on {@link ReportListenerSupport} evaluate the minimum level
+ * when the listener is added and will not call the listener for reports below
+ * this level. If no listener is interested in a level, reports on this level
+ * are dropped before any listener is called, see
+ * {@link ReportListenerSupport#isReportable(Reporter.Level)}.
+ * </p>
+ */
+public interface LeveledReportListener extends ReportListener {
+	/**
+	 * Get the minimum level of reports this listener wants to receive. The
+	 * value must not change after the listener has been added to a reporter.
+	 * 
+	 * @return The minimum report level, must be non-null.
+	 */
+	public Reporter.Level getMinimumLevel();
+}
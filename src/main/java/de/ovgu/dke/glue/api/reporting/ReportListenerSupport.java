@@ -21,14 +21,28 @@
  */
 package de.ovgu.dke.glue.api.reporting;
 
-import java.util.Collection;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
+ * <p>
  * Support class to implement reporters to be used as a targe in the proxy
  * pattern.
+ * </p>
  * 
- * This implementation is thread safe.
+ * <p>
+ * Listeners may subscribe with a minimum report level, either explicitly via
+ * {@link #addReportListener(ReportListener, Reporter.Level)} or by
+ * implementing {@link LeveledReportListener}. Reports below the lowest
+ * subscribed level are dropped without calling any listener; check
+ * {@link #isReportable(Reporter.Level)} before creating expensive report
+ * messages or exceptions.
+ * </p>
+ * 
+ * <p>
+ * This implementation is thread safe. The listener list is copied on write,
+ * thus firing reports does not need any locks.
+ * </p>
  * 
  * @author Stefan Haun (stefan.haun@ovgu.de), Sebastian Stober
  *         (sebastian.stober@ovgu.de), Thomas Low (thomas.low@ovgu.de)
@@ -41,7 +55,13 @@ public class ReportListenerSupport implements Reporter {
 	 */
 	private final Reporter source;
 
-	private Collection<ReportListener> listeners = null;
+	private final List<Subscription> listeners;
+
+	/**
+	 * Ordinal of the lowest level any listener is subscribed to or
+	 * {@code Integer.MAX_VALUE} if there are no listeners.
+	 */
+	private volatile int threshold = Integer.MAX_VALUE;
 
 	/**
 	 * Creates a new report listener support instance.
@@ -51,29 +71,100 @@ public class ReportListenerSupport implements Reporter {
 	 */
 	public ReportListenerSupport(final Reporter source) {
 		this.source = source;
+		this.listeners = new CopyOnWriteArrayList<Subscription>();
 	}
 
+	/**
+	 * Add a report listener. If the listener implements
+	 * {@link LeveledReportListener} only reports on its minimum level or above
+	 * are delivered, otherwise the listener gets all reports.
+	 */
 	@Override
-	public synchronized void addReportListener(ReportListener listener) {
+	public void addReportListener(ReportListener listener) {
 		if (listener == null)
 			return;
 
-		if (listeners == null)
-			listeners = new LinkedList<ReportListener>();
+		if (listener instanceof LeveledReportListener)
+			addReportListener(listener,
+					((LeveledReportListener) listener).getMinimumLevel());
+		else
+			addReportListener(listener, Reporter.Level.INFO);
+	}
+
+	/**
+	 * Add a report listener which gets only reports on the specified level or
+	 * above. If the listener is already registered, its minimum level is
+	 * updated.
+	 * 
+	 * @param listener
+	 *            the report listener to be added
+	 * @param minLevel
+	 *            the minimum report level, must be non-null
+	 * @throws NullPointerException
+	 *             if the minLevel parameter is {@code null}
+	 */
+	public synchronized void addReportListener(ReportListener listener,
+			Reporter.Level minLevel) {
+		if (minLevel == null)
+			throw new NullPointerException("Minimum level may not be null!");
+		if (listener == null)
+			return;
 
-		listeners.add(listener);
+		removeSubscription(listener);
+		listeners.add(new Subscription(listener, minLevel));
+		updateThreshold();
 	}
 
 	@Override
 	public synchronized void removeReportListener(ReportListener listener) {
-		if (listeners != null && listener != null)
-			listeners.remove(listener);
+		if (listener != null && removeSubscription(listener))
+			updateThreshold();
 	}
 
-	public synchronized void fireReport(String msg, Throwable cause,
-			Reporter.Level level) {
-		if (listeners != null)
-			for (final ReportListener listener : listeners)
-				listener.onReport(this.source, msg, cause, level);
+	/**
+	 * Check whether a report on the specified level would reach any listener.
+	 * Reporters may use this to avoid creating messages and exceptions for
+	 * reports nobody is interested in.
+	 * 
+	 * @param level
+	 *            The report level to check.
+	 * @return {@code true} if at least one listener gets reports on this
+	 *         level.
+	 */
+	public boolean isReportable(Reporter.Level level) {
+		return level.ordinal() >= threshold;
+	}
+
+	public void fireReport(String msg, Throwable cause, Reporter.Level level) {
+		if (!isReportable(level))
+			return;
+
+		for (final Subscription sub : listeners)
+			if (level.ordinal() >= sub.minLevel)
+				sub.listener.onReport(this.source, msg, cause, level);
+	}
+
+	private boolean removeSubscription(ReportListener listener) {
+		for (final Subscription sub : listeners)
+			if (sub.listener == listener)
+				return listeners.remove(sub);
+		return false;
+	}
+
+	private void updateThreshold() {
+		int min = Integer.MAX_VALUE;
+		for (final Subscription sub : listeners)
+			min = Math.min(min, sub.minLevel);
+		this.threshold = min;
+	}
+
+	private static final class Subscription {
+		final ReportListener listener;
+		final int minLevel;
+
+		Subscription(ReportListener listener, Reporter.Level minLevel) {
+			this.listener = listener;
+			this.minLevel = minLevel.ordinal();
+		}
 	}
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.serialization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * <p>
+ * Discovery of the serialization providers on the class path via the
+ * {@link ServiceLoader} mechanism, i.e. the provider classes listed in the
+ * {@code META-INF/services/de.ovgu.dke.glue.api.serialization.SerializationProvider}
+ * resources. The providers are loaded once, on first access.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public final class SerializationProviders {
+	private SerializationProviders() {
+		// do not allow instantiation
+	}
+
+	/**
+	 * Get the discovered serialization providers.
+	 * 
+	 * @return an unmodifiable list of providers, in class path order
+	 * @throws SerializationException
+	 *             if a provider cannot be loaded or instantiated
+	 */
+	public static List<SerializationProvider> getProviders()
+			throws SerializationException {
+		final Loaded loaded = Holder.LOADED;
+		if (loaded.failure != null)
+			throw new SerializationException(
+					"Could not load serialization provider: "
+							+ loaded.failure.getMessage(), loaded.failure);
+		return loaded.providers;
+	}
+
+	/**
+	 * Get the first discovered serialization provider which supports a
+	 * format.
+	 * 
+	 * @param format
+	 *            The serialization format.
+	 * @return the provider or {@code null} if no provider supports the format
+	 * @throws SerializationException
+	 *             if a provider cannot be loaded or instantiated
+	 */
+	public static SerializationProvider getProvider(final String format)
+			throws SerializationException {
+		for (final SerializationProvider provider : getProviders())
+			if (provider.availableFormats().contains(format))
+				return provider;
+		return null;
+	}
+
+	private static final class Holder {
+		static final Loaded LOADED = load();
+	}
+
+	private static Loaded load() {
+		final List<SerializationProvider> providers = new ArrayList<SerializationProvider>();
+		try {
+			final Iterator<SerializationProvider> it = ServiceLoader.load(
+					SerializationProvider.class).iterator();
+			while (it.hasNext())
+				providers.add(it.next());
+		} catch (ServiceConfigurationError e) {
+			return new Loaded(null, e);
+		}
+		return new Loaded(Collections.unmodifiableList(providers), null);
+	}
+
+	private static final class Loaded {
+		final List<SerializationProvider> providers;
+		final Throwable failure;
+
+		Loaded(List<SerializationProvider> providers, Throwable failure) {
+			this.providers = providers;
+			this.failure = failure;
+		}
+	}
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.reporting.ReportListener;
+import de.ovgu.dke.glue.api.reporting.ReportListenerSupport;
+import de.ovgu.dke.glue.api.reporting.Reporter;
+import de.ovgu.dke.glue.api.transport.flow.QueueWatermarkListener;
+
+/**
+ * <p>
+ * Base class for transport factory implementations, which takes care of the
+ * report and life-cycle listeners. Implementations call the {@code fire...}
+ * methods on status changes and packet thread creation or disposal.
+ * </p>
+ *
+ * <p>
+ * Listeners are stored in copy-on-write lists, i.e. firing an event does not
+ * need any locks and does not allocate if there are no listeners. By default,
+ * life-cycle listeners are invoked in the caller's thread context. If a
+ * listener executor is set, events are delivered asynchronously via this
+ * executor, so that listener work does not block the transport. In
+ * asynchronous mode the order of events is only retained if the executor runs
+ * its tasks in submission order, e.g. a single thread executor, and
+ * {@code onThreadDisposal} may be called after the packet thread has been
+ * disposed.
+ * </p>
+ *
+ * <p>
+ * Runtime exceptions thrown by life-cycle listeners are reported at
+ * {@code WARN} level and do not affect the other listeners.
+ * </p>
+ *
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public abstract class AbstractTransportFactory implements TransportFactory {
+	private final ReportListenerSupport reportListeners;
+
+	private final CopyOnWriteArrayList<TransportLifecycleListener> lifecycleListeners;
+
+	private volatile Executor listenerExecutor = null;
+
+	/**
+	 * Create the factory base with synchronous listener delivery.
+	 */
+	protected AbstractTransportFactory() {
+		this.reportListeners = new ReportListenerSupport(this);
+		this.lifecycleListeners = new CopyOnWriteArrayList<TransportLifecycleListener>();
+	}
+
+	@Override
+	public void addReportListener(ReportListener listener) {
+		reportListeners.addReportListener(listener);
+	}
+
+	@Override
+	public void removeReportListener(ReportListener listener) {
+		reportListeners.removeReportListener(listener);
+	}
+
+	@Override
+	public void addTransportLifecycleListener(
+			TransportLifecycleListener listener) {
+		if (listener == null)
+			throw new NullPointerException("Listener may not be null!");
+
+		lifecycleListeners.addIfAbsent(listener);
+	}
+
+	@Override
+	public void removeTransportLifecycleListener(
+			TransportLifecycleListener listener) {
+		if (listener != null)
+			lifecycleListeners.remove(listener);
+	}
+
+	/**
+	 * Set the executor for asynchronous life-cycle event delivery.
+	 *
+	 * @param executor
+	 *            The executor to deliver events or {@code null} to invoke
+	 *            listeners in the caller's thread context. The executor is not
+	 *            shut down by the factory.
+	 */
+	public void setListenerExecutor(final Executor executor) {
+		this.listenerExecutor = executor;
+	}
+
+	/**
+	 * Get the executor for asynchronous life-cycle event delivery.
+	 *
+	 * @return the listener executor or {@code null} if events are delivered
+	 *         synchronously.
+	 */
+	public Executor getListenerExecutor() {
+		return listenerExecutor;
+	}
+
+	/**
+	 * Check whether any life-cycle listener is registered. Implementations may
+	 * use this to skip preparing event data.
+	 *
+	 * @return {@code true} if there is at least one life-cycle listener
+	 */
+	protected boolean hasTransportLifecycleListeners() {
+		return !lifecycleListeners.isEmpty();
+	}
+
+	/**
+	 * Check whether a report on the specified level would reach any report
+	 * listener.
+	 *
+	 * @param level
+	 *            The report level.
+	 * @return {@code true} if the report would be delivered
+	 */
+	protected boolean isReportable(final Reporter.Level level) {
+		return reportListeners.isReportable(level);
+	}
+
+	/**
+	 * Send a report to the registered report listeners.
+	 *
+	 * @param msg
+	 *            The message, may be {@code null}.
+	 * @param cause
+	 *            The cause, may be {@code null}.
+	 * @param level
+	 *            The report level, must be non-null.
+	 */
+	protected void fireReport(final String msg, final Throwable cause,
+			final Reporter.Level level) {
+		reportListeners.fireReport(msg, cause, level);
+	}
+
+	/**
+	 * Notify the life-cycle listeners about a status change.
+	 *
+	 * @param transport
+	 *            The transport which changed its status.
+	 * @param oldStatus
+	 *            The old status.
+	 * @param newStatus
+	 *            The new status.
+	 */
+	protected void fireStatusChange(final Transport transport,
+			final Transport.Status oldStatus, final Transport.Status newStatus) {
+		if (lifecycleListeners.isEmpty())
+			return;
+
+		dispatch(new LifecycleEvent() {
+			@Override
+			void deliver(TransportLifecycleListener listener) {
+				listener.onStatusChange(transport, oldStatus, newStatus);
+			}
+		});
+	}
+
+	/**
+	 * Notify the life-cycle listeners about a new packet thread. Call after
+	 * the packet thread has been created.
+	 *
+	 * @param pt
+	 *            The new packet thread.
+	 */
+	protected void fireThreadCreation(final PacketThread pt) {
+		if (lifecycleListeners.isEmpty())
+			return;
+
+		dispatch(new LifecycleEvent() {
+			@Override
+			void deliver(TransportLifecycleListener listener) {
+				listener.onThreadCreation(pt);
+			}
+		});
+	}
+
+	/**
+	 * Notify the life-cycle listeners about a packet thread disposal. Call
+	 * before the packet thread is disposed.
+	 *
+	 * @param pt
+	 *            The packet thread to be disposed.
+	 */
+	protected void fireThreadDisposal(final PacketThread pt) {
+		if (lifecycleListeners.isEmpty())
+			return;
+
+		dispatch(new LifecycleEvent() {
+			@Override
+			void deliver(TransportLifecycleListener listener) {
+				listener.onThreadDisposal(pt);
+			}
+		});
+	}
+
+	/**
+	 * Notify the {@link QueueWatermarkListener}s that an outbound queue has
+	 * reached its high watermark.
+	 *
+	 * @param connection
+	 *            The connection the queue belongs to.
+	 * @param pt
+	 *            The packet thread the queue belongs to or {@code null} for a
+	 *            connection-level queue.
+	 * @param queued
+	 *            The number of queued packets.
+	 */
+	protected void fireHighWatermark(final Connection connection,
+			final PacketThread pt, final int queued) {
+		if (lifecycleListeners.isEmpty())
+			return;
+
+		dispatch(new LifecycleEvent() {
+			@Override
+			void deliver(TransportLifecycleListener listener) {
+				if (listener instanceof QueueWatermarkListener)
+					((QueueWatermarkListener) listener).onHighWatermark(
+							connection, pt, queued);
+			}
+		});
+	}
+
+	/**
+	 * Notify the {@link QueueWatermarkListener}s that an outbound queue has
+	 * drained to its low watermark.
+	 *
+	 * @param connection
+	 *            The connection the queue belongs to.
+	 * @param pt
+	 *            The packet thread the queue belongs to or {@code null} for a
+	 *            connection-level queue.
+	 * @param queued
+	 *            The number of queued packets.
+	 */
+	protected void fireLowWatermark(final Connection connection,
+			final PacketThread pt, final int queued) {
+		if (lifecycleListeners.isEmpty())
+			return;
+
+		dispatch(new LifecycleEvent() {
+			@Override
+			void deliver(TransportLifecycleListener listener) {
+				if (listener instanceof QueueWatermarkListener)
+					((QueueWatermarkListener) listener).onLowWatermark(
+							connection, pt, queued);
+			}
+		});
+	}
+
+	/**
+	 * Deliver an event to all life-cycle listeners, either directly or via the
+	 * listener executor.
+	 *
+	 * @param event
+	 *            the event to deliver
+	 */
+	private void dispatch(final LifecycleEvent event) {
+		final Executor executor = this.listenerExecutor;
+		if (executor == null) {
+			event.run();
+			return;
+		}
+
+		try {
+			executor.execute(event);
+		} catch (RejectedExecutionException e) {
+			fireReport("Listener executor rejected life-cycle event, "
+					+ "delivering synchronously.", e, Reporter.Level.WARN);
+			event.run();
+		}
+	}
+
+	/**
+	 * A life-cycle event, which is delivered to all listeners registered at
+	 * the time of delivery.
+	 */
+	private abstract class LifecycleEvent implements Runnable {
+		abstract void deliver(TransportLifecycleListener listener);
+
+		@Override
+		public void run() {
+			for (final TransportLifecycleListener listener : lifecycleListeners)
+				try {
+					deliver(listener);
+				} catch (RuntimeException e) {
+					fireReport("Life-cycle listener failed: " + e.getMessage(),
+							e, Reporter.Level.WARN);
+				}
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * <p>
+ * A typed packet attribute key. Keys are registered once per name and get a
+ * small, dense index, which packet implementations use to store attributes in
+ * an array, see {@link PooledPacket}. Keys should be kept in constants:
+ * </p>
+ * 
+ * <pre>
+ * public static final AttributeKey&lt;String&gt; SENDER = AttributeKey.valueOf(
+ * 		&quot;sender&quot;, String.class);
+ * 
+ * String sender = SENDER.get(packet);
+ * </pre>
+ * 
+ * <p>
+ * {@link Packet#getAttribute(String)} remains available for compatibility,
+ * it resolves the name to the key first.
+ * </p>
+ * 
+ * <p>
+ * This class is immutable and thread safe.
+ * </p>
+ * 
+ * @param <T>
+ *            the attribute value type
+ */
+@Immutable
+public final class AttributeKey<T> {
+	private static final ConcurrentMap<String, AttributeKey<?>> KEYS = new ConcurrentHashMap<String, AttributeKey<?>>();
+
+	private static int next = 0;
+
+	/**
+	 * Get the key for a name, register it if necessary.
+	 * 
+	 * @param name
+	 *            the attribute name
+	 * @param type
+	 *            the value type
+	 * @return the attribute key
+	 * @throws NullPointerException
+	 *             if one of the parameters is {@code null}
+	 * @throws IllegalArgumentException
+	 *             if the name is registered with another type
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> AttributeKey<T> valueOf(final String name,
+			final Class<T> type) {
+		if (name == null)
+			throw new NullPointerException("Name may not be null!");
+		if (type == null)
+			throw new NullPointerException("Type may not be null!");
+
+		AttributeKey<?> key = KEYS.get(name);
+		if (key == null)
+			synchronized (KEYS) {
+				key = KEYS.get(name);
+				if (key == null) {
+					key = new AttributeKey<T>(name, type, next++);
+					KEYS.put(name, key);
+				}
+			}
+
+		if (key.type != type)
+			throw new IllegalArgumentException("Attribute " + name
+					+ " is registered with type " + key.type.getName());
+		return (AttributeKey<T>) key;
+	}
+
+	/**
+	 * Get the key for a name.
+	 * 
+	 * @param name
+	 *            the attribute name
+	 * @return the attribute key or {@code null} if the name is not registered
+	 * @throws NullPointerException
+	 *             if the name is {@code null}
+	 */
+	public static AttributeKey<?> forName(final String name) {
+		if (name == null)
+			throw new NullPointerException("Name may not be null!");
+		return KEYS.get(name);
+	}
+
+	/**
+	 * Get the number of registered keys, which is one above the highest
+	 * index.
+	 * 
+	 * @return the number of keys
+	 */
+	public static int count() {
+		return KEYS.size();
+	}
+
+	private final String name;
+	private final Class<T> type;
+	private final int index;
+
+	private AttributeKey(final String name, final Class<T> type,
+			final int index) {
+		this.name = name;
+		this.type = type;
+		this.index = index;
+	}
+
+	/**
+	 * Get the attribute name.
+	 * 
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the value type.
+	 * 
+	 * @return the type
+	 */
+	public Class<T> getType() {
+		return type;
+	}
+
+	/**
+	 * Get the index of this key.
+	 * 
+	 * @return the index, starting at 0
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Get the attribute value of a packet. Pooled packets are read by index,
+	 * other packets by name.
+	 * 
+	 * @param packet
+	 *            the packet
+	 * @return the value or {@code null} if the attribute is not set
+	 * @throws ClassCastException
+	 *             if the value does not match the key type
+	 */
+	public T get(final Packet packet) {
+		if (packet instanceof PooledPacket)
+			return ((PooledPacket) packet).getAttribute(this);
+		return type.cast(packet.getAttribute(name));
+	}
+
+	@Override
+	public String toString() {
+		return name + "#" + index;
+	}
+}
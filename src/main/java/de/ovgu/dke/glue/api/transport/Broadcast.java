@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * <p>
+ * Send the same payload on many packet threads, serializing it only once per
+ * connection schema and serialization format. The packet threads are grouped
+ * by schema and format, the serialized payload of a group is handed to every
+ * packet thread of the group. Binary payloads are shared, i.e. the transports
+ * must not modify them; a serialized {@link ByteBuffer} is passed as read-only
+ * view with its own position to each packet thread.
+ * </p>
+ * 
+ * <p>
+ * A failure on one packet thread does not stop the broadcast; the failures
+ * are collected and returned. The same rules as for
+ * {@link PacketThread#send(Object, Packet.Priority)} apply, in particular a
+ * packet thread must not be used concurrently by the caller and another
+ * thread.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public final class Broadcast {
+	private Broadcast() {
+		// do not allow instantiation
+	}
+
+	/**
+	 * Send a payload on all packet threads.
+	 * 
+	 * @param threads
+	 *            The packet threads, duplicates receive the payload several
+	 *            times.
+	 * @param payload
+	 *            The payload to send.
+	 * @param priority
+	 *            The packet priority.
+	 * @return the failed packet threads with the cause, an empty map if the
+	 *         payload has been passed to all packet threads; the causes are
+	 *         either {@link TransportException}s or
+	 *         {@link IllegalStateException}s as thrown by
+	 *         {@link PacketThread#send(Object, Packet.Priority)}
+	 * @throws NullPointerException
+	 *             if the collection or one of its elements is {@code null}
+	 */
+	public static Map<PacketThread, Exception> send(
+			final Collection<? extends PacketThread> threads,
+			final Object payload, final Packet.Priority priority) {
+		if (threads == null)
+			throw new NullPointerException("Threads may not be null!");
+
+		// group by schema and format, retain the order of the threads
+		final Map<Group, List<PacketThread>> groups = new LinkedHashMap<Group, List<PacketThread>>();
+		for (final PacketThread pt : threads) {
+			if (pt == null)
+				throw new NullPointerException(
+						"Packet thread may not be null!");
+			final Group group = new Group(pt.getSchemaId(), pt
+					.getConnection().getSerializationFormat());
+			List<PacketThread> members = groups.get(group);
+			if (members == null) {
+				members = new ArrayList<PacketThread>();
+				groups.put(group, members);
+			}
+			members.add(pt);
+		}
+
+		Map<PacketThread, Exception> failures = null;
+		for (final List<PacketThread> members : groups.values()) {
+			final Object serialized;
+			try {
+				serialized = members.get(0).serialize(payload);
+			} catch (TransportException e) {
+				for (final PacketThread pt : members)
+					failures = fail(failures, pt, e);
+				continue;
+			}
+
+			for (final PacketThread pt : members)
+				try {
+					if (pt.getConnection().getTransport() == null)
+						throw new IllegalStateException(
+								"Transport not available, connection already disposed?");
+					pt.sendSerializedPayload(share(serialized), priority);
+				} catch (TransportException e) {
+					failures = fail(failures, pt, e);
+				} catch (IllegalStateException e) {
+					failures = fail(failures, pt, e);
+				}
+		}
+
+		if (failures == null)
+			return Collections.emptyMap();
+		return failures;
+	}
+
+	private static Object share(final Object serialized) {
+		if (serialized instanceof ByteBuffer)
+			return ((ByteBuffer) serialized).asReadOnlyBuffer();
+		return serialized;
+	}
+
+	private static Map<PacketThread, Exception> fail(
+			final Map<PacketThread, Exception> failures, final PacketThread pt,
+			final Exception cause) {
+		final Map<PacketThread, Exception> result = failures == null ? new LinkedHashMap<PacketThread, Exception>()
+				: failures;
+		result.put(pt, cause);
+		return result;
+	}
+
+	private static final class Group {
+		final int schemaId;
+		final String format;
+
+		Group(int schemaId, String format) {
+			this.schemaId = schemaId;
+			this.format = format;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * schemaId + (format == null ? 0 : format.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Group))
+				return false;
+			final Group other = (Group) obj;
+			return schemaId == other.schemaId
+					&& (format == null ? other.format == null : format
+							.equals(other.format));
+		}
+	}
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * <p>
+ * Cache for the results of {@link Connection#checkCapabilities()}, keyed by
+ * peer, connection schema and serialization format. Within the time to live
+ * the check is answered from the cache, concurrent checks for the same key
+ * wait for a single remote check.
+ * </p>
+ *
+ * <p>
+ * Cached results are bound to the transport of the checked connection and are
+ * invalidated on every status change of this transport. Register the cache as
+ * life-cycle listener at the transport factory to get these notifications.
+ * Results are also invalidated when the {@link SchemaRegistry} changes, which
+ * is detected by its version.
+ * Failed checks, i.e. checks throwing a {@link TransportException}, are not
+ * cached.
+ * </p>
+ *
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class CapabilityCache implements TransportLifecycleListener {
+	/**
+	 * Default time to live for cached results in milliseconds.
+	 */
+	public static final long DEFAULT_TTL = 60 * 1000;
+
+	private final long ttl;
+
+	private final ConcurrentMap<Key, Entry> cache;
+
+	/**
+	 * Create a capability cache with the default time to live.
+	 */
+	public CapabilityCache() {
+		this(DEFAULT_TTL);
+	}
+
+	/**
+	 * Create a capability cache.
+	 *
+	 * @param ttl
+	 *            time to live for cached results in milliseconds
+	 * @throws IllegalArgumentException
+	 *             if the time to live is not positive
+	 */
+	public CapabilityCache(final long ttl) {
+		if (ttl <= 0)
+			throw new IllegalArgumentException("TTL must be positive!");
+
+		this.ttl = ttl;
+		this.cache = new ConcurrentHashMap<Key, Entry>();
+	}
+
+	/**
+	 * Check the capabilities of a connection, use the cached result if
+	 * available.
+	 *
+	 * @param connection
+	 *            The connection to check.
+	 * @return the (cached) result of {@link Connection#checkCapabilities()}
+	 * @throws TransportException
+	 *             if the check fails
+	 * @throws IllegalStateException
+	 *             if the transport is not available
+	 * @throws NullPointerException
+	 *             if the connection parameter is {@code null}
+	 */
+	public boolean checkCapabilities(final Connection connection)
+			throws TransportException {
+		final Key key = new Key(connection.getPeer(),
+				connection.getConnectionSchema(),
+				connection.getSerializationFormat());
+		final Transport transport = connection.getTransport();
+		final long version = SchemaRegistry.getInstance().getVersion();
+		final long now = currentTimeMillis();
+
+		Entry entry = cache.get(key);
+		if (entry == null || entry.transport != transport
+				|| entry.version != version || entry.expires <= now) {
+			final Entry fresh = new Entry(transport, version, now + ttl,
+					new FutureTask<Boolean>(new Callable<Boolean>() {
+						@Override
+						public Boolean call() throws TransportException {
+							return Boolean.valueOf(connection
+									.checkCapabilities());
+						}
+					}));
+
+			final boolean installed = (entry == null) ? cache.putIfAbsent(
+					key, fresh) == null : cache.replace(key, entry, fresh);
+			if (installed) {
+				fresh.check.run();
+				entry = fresh;
+			} else {
+				// another thread is checking, use its result
+				entry = cache.get(key);
+				if (entry == null)
+					return connection.checkCapabilities();
+			}
+		}
+
+		try {
+			return entry.check.get().booleanValue();
+		} catch (ExecutionException e) {
+			cache.remove(key, entry);
+			final Throwable cause = e.getCause();
+			if (cause instanceof TransportException)
+				throw (TransportException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new TransportException("Capability check failed: "
+					+ cause.getMessage(), cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TransportException(
+					"Interrupted while waiting for capability check.", e);
+		}
+	}
+
+	/**
+	 * Remove all cached results for a transport.
+	 *
+	 * @param transport
+	 *            the transport
+	 */
+	public void invalidate(final Transport transport) {
+		for (final Map.Entry<Key, Entry> e : cache.entrySet())
+			if (e.getValue().transport == transport)
+				cache.remove(e.getKey(), e.getValue());
+	}
+
+	/**
+	 * Remove all cached results for a peer.
+	 *
+	 * @param peer
+	 *            the peer URI
+	 */
+	public void invalidate(final URI peer) {
+		for (final Key key : cache.keySet())
+			if (peer == null ? key.peer == null : peer.equals(key.peer))
+				cache.remove(key);
+	}
+
+	/**
+	 * Remove all cached results.
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * Get the number of cached results.
+	 *
+	 * @return the number of cache entries
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	@Override
+	public void onStatusChange(Transport transport, Transport.Status oldStatus,
+			Transport.Status newStatus) {
+		invalidate(transport);
+	}
+
+	@Override
+	public void onThreadCreation(PacketThread pt) {
+		// not relevant for capabilities
+	}
+
+	@Override
+	public void onThreadDisposal(PacketThread pt) {
+		// not relevant for capabilities
+	}
+
+	/**
+	 * Get the current time in milliseconds, may be overwritten for testing.
+	 *
+	 * @return the current time in milliseconds
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private static final class Key {
+		final URI peer;
+		final String schema;
+		final String format;
+
+		Key(URI peer, String schema, String format) {
+			this.peer = peer;
+			this.schema = schema;
+			this.format = format;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = peer == null ? 0 : peer.hashCode();
+			h = 31 * h + (schema == null ? 0 : schema.hashCode());
+			return 31 * h + (format == null ? 0 : format.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			final Key other = (Key) obj;
+			return eq(peer, other.peer) && eq(schema, other.schema)
+					&& eq(format, other.format);
+		}
+
+		private static boolean eq(Object a, Object b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+
+	private static final class Entry {
+		final Transport transport;
+		final long version;
+		final long expires;
+		final FutureTask<Boolean> check;
+
+		Entry(Transport transport, long version, long expires,
+				FutureTask<Boolean> check) {
+			this.transport = transport;
+			this.version = version;
+			this.expires = expires;
+			this.check = check;
+		}
+	}
+}
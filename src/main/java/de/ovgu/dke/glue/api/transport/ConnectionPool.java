@@ -0,0 +1,493 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * <p>
+ * Pool for transports and connections, keyed by transport factory, peer URI
+ * and connection schema. Asking the pool for a connection to a known peer
+ * returns the cached connection instead of creating a new transport.
+ * </p>
+ *
+ * <p>
+ * The pool registers itself as life-cycle listener at each factory it uses and
+ * drops the entries of a transport when it reports {@code CLOSED} or
+ * {@code FAILED}. {@link #clear()} unregisters it again. Connections which have not been used for the idle timeout
+ * are removed by {@link #evictIdle()}, which should be called periodically,
+ * e.g. via {@link #scheduleEviction(ScheduledExecutorService, long, TimeUnit)}
+ * . If a peer exceeds the maximum number of connections, its least recently
+ * used connection is dropped.
+ * </p>
+ *
+ * <p>
+ * Dropping a connection only removes it from the pool, as the transport API
+ * does not offer a way to close connections. Packet threads created on a
+ * dropped connection remain valid as long as the transport does.
+ * </p>
+ *
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class ConnectionPool implements TransportLifecycleListener {
+	/**
+	 * Default maximum number of pooled connections per peer.
+	 */
+	public static final int DEFAULT_MAX_PER_PEER = 16;
+
+	/**
+	 * Default idle timeout in milliseconds.
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000;
+
+	private final int maxPerPeer;
+	private final long idleTimeout;
+
+	private final ConcurrentMap<PeerKey, PeerEntry> peers;
+	private final ConcurrentMap<TransportFactory, Boolean> factories;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Create a connection pool with default limits.
+	 */
+	public ConnectionPool() {
+		this(DEFAULT_MAX_PER_PEER, DEFAULT_IDLE_TIMEOUT);
+	}
+
+	/**
+	 * Create a connection pool.
+	 *
+	 * @param maxPerPeer
+	 *            maximum number of pooled connections per peer
+	 * @param idleTimeout
+	 *            time in milliseconds after which unused connections are
+	 *            evicted
+	 * @throws IllegalArgumentException
+	 *             if one of the parameters is not positive
+	 */
+	public ConnectionPool(final int maxPerPeer, final long idleTimeout) {
+		if (maxPerPeer <= 0)
+			throw new IllegalArgumentException(
+					"Maximum connections per peer must be positive!");
+		if (idleTimeout <= 0)
+			throw new IllegalArgumentException(
+					"Idle timeout must be positive!");
+
+		this.maxPerPeer = maxPerPeer;
+		this.idleTimeout = idleTimeout;
+		this.peers = new ConcurrentHashMap<PeerKey, PeerEntry>();
+		this.factories = new ConcurrentHashMap<TransportFactory, Boolean>();
+	}
+
+	/**
+	 * Get a pooled transport to a peer, create it if necessary.
+	 *
+	 * @param factory
+	 *            The transport factory for the peer.
+	 * @param peer
+	 *            The peer URI.
+	 * @return the transport to the peer
+	 * @throws TransportException
+	 *             if the transport cannot be created
+	 * @throws NullPointerException
+	 *             if one of the parameters is {@code null}
+	 */
+	public Transport getTransport(final TransportFactory factory,
+			final URI peer) throws TransportException {
+		return getPeerEntry(factory, peer, currentTimeMillis())
+				.getTransport();
+	}
+
+	/**
+	 * Get a pooled connection, create the transport and connection if
+	 * necessary.
+	 *
+	 * @param factory
+	 *            The transport factory for the peer.
+	 * @param peer
+	 *            The peer URI.
+	 * @param schema
+	 *            The connection schema.
+	 * @return the connection to the peer
+	 * @throws TransportException
+	 *             if the transport or connection cannot be created
+	 * @throws NullPointerException
+	 *             if one of the parameters is {@code null}
+	 */
+	public Connection getConnection(final TransportFactory factory,
+			final URI peer, final String schema) throws TransportException {
+		if (schema == null)
+			throw new NullPointerException("Schema may not be null!");
+
+		final long now = currentTimeMillis();
+		for (;;) {
+			final PeerEntry entry = getPeerEntry(factory, peer, now);
+
+			// fails if the connection is being evicted
+			final PooledConnection pooled = entry.connections.get(schema);
+			if (pooled != null && pooled.touch(now)) {
+				hits.incrementAndGet();
+				return pooled.connection;
+			}
+
+			synchronized (entry) {
+				// the peer has been evicted concurrently, use a new entry
+				if (entry.removed)
+					continue;
+
+				misses.incrementAndGet();
+				PooledConnection created = entry.connections.get(schema);
+				if (created == null) {
+					created = new PooledConnection(entry.getTransport()
+							.getConnection(schema), now);
+					if (entry.connections.size() >= maxPerPeer)
+						entry.evictLeastRecentlyUsed();
+					entry.connections.put(schema, created);
+				}
+				// connections are only evicted under the lock on the entry
+				created.touch(now);
+				return created.connection;
+			}
+		}
+	}
+
+	/**
+	 * Create the transports and connections to the specified peers in
+	 * advance, so that the first packets do not pay for the handshake.
+	 *
+	 * @param factory
+	 *            The transport factory for the peers.
+	 * @param peers
+	 *            The peer URIs.
+	 * @param schemas
+	 *            The connection schemas to open for each peer.
+	 * @throws TransportException
+	 *             if a transport or connection cannot be created
+	 */
+	public void warmUp(final TransportFactory factory,
+			final Collection<URI> peers, final Collection<String> schemas)
+			throws TransportException {
+		for (final URI peer : peers)
+			for (final String schema : schemas)
+				getConnection(factory, peer, schema);
+	}
+
+	/**
+	 * Remove all connections which have been idle for longer than the idle
+	 * timeout. Peers without connections are removed as well.
+	 *
+	 * @return the number of evicted connections
+	 */
+	public int evictIdle() {
+		final long now = currentTimeMillis();
+		int evicted = 0;
+
+		final Iterator<Map.Entry<PeerKey, PeerEntry>> it = peers.entrySet()
+				.iterator();
+		while (it.hasNext()) {
+			final PeerEntry entry = it.next().getValue();
+			synchronized (entry) {
+				final Iterator<PooledConnection> cit = entry.connections
+						.values().iterator();
+				while (cit.hasNext())
+					if (cit.next().evict(now, idleTimeout)) {
+						cit.remove();
+						evicted++;
+					}
+				if (entry.connections.isEmpty()
+						&& now - entry.lastUsed >= idleTimeout) {
+					entry.removed = true;
+					it.remove();
+				}
+			}
+		}
+
+		return evicted;
+	}
+
+	/**
+	 * Schedule periodic idle eviction.
+	 *
+	 * @param executor
+	 *            the executor to run the eviction
+	 * @param period
+	 *            the eviction period
+	 * @param unit
+	 *            the time unit of the period
+	 * @return the scheduled eviction task, cancel to stop eviction
+	 */
+	public ScheduledFuture<?> scheduleEviction(
+			final ScheduledExecutorService executor, final long period,
+			final TimeUnit unit) {
+		return executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				evictIdle();
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Remove all entries for a transport from the pool.
+	 *
+	 * @param transport
+	 *            the transport to remove
+	 * @return {@code true} if the transport was pooled
+	 */
+	public boolean invalidate(final Transport transport) {
+		boolean removed = false;
+		for (final Map.Entry<PeerKey, PeerEntry> e : peers.entrySet())
+			if (e.getValue().transport == transport)
+				removed |= peers.remove(e.getKey(), e.getValue());
+		return removed;
+	}
+
+	/**
+	 * Remove all entries from the pool and unregister the pool from the
+	 * transport factories. The pool may still be used, it registers again on
+	 * the next request.
+	 */
+	public void clear() {
+		for (final TransportFactory factory : factories.keySet())
+			if (factories.remove(factory) != null)
+				factory.removeTransportLifecycleListener(this);
+		peers.clear();
+	}
+
+	/**
+	 * Get the number of pooled connections.
+	 *
+	 * @return the number of connections in the pool
+	 */
+	public int size() {
+		int size = 0;
+		for (final PeerEntry entry : peers.values())
+			size += entry.connections.size();
+		return size;
+	}
+
+	/**
+	 * Get the number of connection requests which were served from the pool.
+	 *
+	 * @return the pool hit count
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of connection requests which had to create a connection.
+	 *
+	 * @return the pool miss count
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	@Override
+	public void onStatusChange(Transport transport, Transport.Status oldStatus,
+			Transport.Status newStatus) {
+		if (newStatus == Transport.Status.CLOSED
+				|| newStatus == Transport.Status.FAILED)
+			invalidate(transport);
+	}
+
+	@Override
+	public void onThreadCreation(PacketThread pt) {
+		// not relevant for pooling
+	}
+
+	@Override
+	public void onThreadDisposal(PacketThread pt) {
+		// not relevant for pooling
+	}
+
+	/**
+	 * Get the current time in milliseconds, may be overwritten for testing.
+	 *
+	 * @return the current time in milliseconds
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private PeerEntry getPeerEntry(final TransportFactory factory,
+			final URI peer, final long now) {
+		if (factory == null)
+			throw new NullPointerException("Factory may not be null!");
+		if (peer == null)
+			throw new NullPointerException("Peer may not be null!");
+
+		if (factories.putIfAbsent(factory, Boolean.TRUE) == null)
+			factory.addTransportLifecycleListener(this);
+
+		final PeerKey key = new PeerKey(factory, peer);
+		PeerEntry entry = peers.get(key);
+		if (entry == null) {
+			final PeerEntry created = new PeerEntry(factory, peer);
+			entry = peers.putIfAbsent(key, created);
+			if (entry == null)
+				entry = created;
+		}
+		entry.lastUsed = now;
+		return entry;
+	}
+
+	private static final class PeerKey {
+		final TransportFactory factory;
+		final URI peer;
+
+		PeerKey(TransportFactory factory, URI peer) {
+			this.factory = factory;
+			this.peer = peer;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(factory) + peer.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof PeerKey))
+				return false;
+			final PeerKey other = (PeerKey) obj;
+			return factory == other.factory && peer.equals(other.peer);
+		}
+	}
+
+	private static final class PeerEntry {
+		final TransportFactory factory;
+		final URI peer;
+		final ConcurrentMap<String, PooledConnection> connections;
+		volatile long lastUsed;
+
+		/**
+		 * Whether the entry has been evicted from the pool, guarded by this.
+		 */
+		boolean removed = false;
+
+		/**
+		 * The transport, created on first access and guarded by this.
+		 */
+		volatile Transport transport = null;
+
+		PeerEntry(TransportFactory factory, URI peer) {
+			this.factory = factory;
+			this.peer = peer;
+			this.connections = new ConcurrentHashMap<String, PooledConnection>();
+		}
+
+		Transport getTransport() throws TransportException {
+			Transport t = transport;
+			if (t == null)
+				synchronized (this) {
+					t = transport;
+					if (t == null) {
+						t = factory.createTransport(peer);
+						if (t == null)
+							throw new TransportException(
+									"Factory did not create a transport for "
+											+ peer);
+						transport = t;
+					}
+				}
+			return t;
+		}
+
+		/**
+		 * Drop the least recently used connection, must be called while
+		 * holding the lock on this.
+		 */
+		void evictLeastRecentlyUsed() {
+			Map.Entry<String, PooledConnection> lru = null;
+			for (final Map.Entry<String, PooledConnection> e : connections
+					.entrySet())
+				if (lru == null
+						|| e.getValue().lastUsed.get() < lru.getValue().lastUsed
+								.get())
+					lru = e;
+			if (lru != null)
+				connections.remove(lru.getKey());
+		}
+	}
+
+	private static final class PooledConnection {
+		/**
+		 * Value of lastUsed once the connection has been evicted.
+		 */
+		static final long EVICTED = Long.MIN_VALUE;
+
+		final Connection connection;
+		final AtomicLong lastUsed;
+
+		PooledConnection(Connection connection, long lastUsed) {
+			this.connection = connection;
+			this.lastUsed = new AtomicLong(lastUsed);
+		}
+
+		/**
+		 * Mark the connection as used.
+		 * 
+		 * @return {@code false} if the connection has been evicted
+		 */
+		boolean touch(final long now) {
+			long last;
+			do {
+				last = lastUsed.get();
+				if (last == EVICTED)
+					return false;
+			} while (!lastUsed.compareAndSet(last, now));
+			return true;
+		}
+
+		/**
+		 * Mark the connection as evicted if it has been idle for the timeout
+		 * and has not been used in the meantime.
+		 * 
+		 * @return {@code true} if the connection has been evicted
+		 */
+		boolean evict(final long now, final long idleTimeout) {
+			final long last = lastUsed.get();
+			return last != EVICTED && now - last >= idleTimeout
+					&& lastUsed.compareAndSet(last, EVICTED);
+		}
+	}
+}
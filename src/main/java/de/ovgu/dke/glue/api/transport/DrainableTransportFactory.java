@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Transport factory which supports a graceful shutdown: after
+ * {@link #quiesce()} no new packets are accepted, while the queued packets are
+ * still delivered. {@link #awaitDrained(long, TimeUnit)} waits until the
+ * queues are empty, then the factory can be disposed without dropping
+ * packets, see {@link TransportRegistry#disposeAll(long, TimeUnit)}.
+ * </p>
+ */
+public interface DrainableTransportFactory extends TransportFactory {
+	/**
+	 * Stop accepting packets. Sending on the factory's packet threads fails
+	 * with a {@link TransportException} afterwards, queued packets are still
+	 * delivered. The call does not block.
+	 */
+	public void quiesce();
+
+	/**
+	 * Wait until all queued packets have been delivered.
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return {@code true} if the queues are empty, {@code false} if the
+	 *         timeout elapsed before
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	public boolean awaitDrained(long timeout, TimeUnit unit)
+			throws InterruptedException;
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.serialization.SerializationProvider;
+
+/**
+ * <p>
+ * Negotiation of the serialization format of a connection from the formats
+ * both peers support, i.e. the {@link SerializationProvider#availableFormats()}
+ * of each side. The format is chosen by a preference order, which defaults to
+ * {@link #DEFAULT_RANKING}; common formats which are not in the preference
+ * order are chosen in the order of the local list.
+ * </p>
+ * 
+ * <p>
+ * The agreed format is cached by peer and connection schema, so that further
+ * connections to the same peer skip the negotiation. Cached formats are
+ * invalidated when the {@link SchemaRegistry} changes, which is detected by
+ * its version, and on every status change of the transport they have been
+ * negotiated on. Register the negotiator as life-cycle listener at the
+ * transport factory to get these notifications.
+ * </p>
+ * 
+ * <p>
+ * Both peers must use the same preference order to agree on a format if they
+ * negotiate independently.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class FormatNegotiator implements TransportLifecycleListener {
+	/**
+	 * The built-in speed ranking, fastest first: objects passed by reference,
+	 * raw bytes, strings, XML and Java serialization.
+	 */
+	public static final List<String> DEFAULT_RANKING = Collections
+			.unmodifiableList(Arrays.asList(SerializationProvider.JAVA,
+					SerializationProvider.BINARY, SerializationProvider.STRING,
+					SerializationProvider.XML,
+					SerializationProvider.SERIALIZABLE));
+
+	private final List<String> preference;
+
+	private final ConcurrentMap<Key, Agreement> cache;
+
+	/**
+	 * Create a negotiator with the built-in speed ranking.
+	 */
+	public FormatNegotiator() {
+		this(DEFAULT_RANKING);
+	}
+
+	/**
+	 * Create a negotiator.
+	 * 
+	 * @param preference
+	 *            The formats in order of preference, most preferred first.
+	 *            The list is copied.
+	 * @throws NullPointerException
+	 *             if the list or one of its elements is {@code null}
+	 */
+	public FormatNegotiator(final List<String> preference) {
+		if (preference == null)
+			throw new NullPointerException("Preference may not be null!");
+		for (final String format : preference)
+			if (format == null)
+				throw new NullPointerException("Format may not be null!");
+
+		this.preference = Collections.unmodifiableList(new ArrayList<String>(
+				preference));
+		this.cache = new ConcurrentHashMap<Key, Agreement>();
+	}
+
+	/**
+	 * Get the preference order.
+	 * 
+	 * @return an unmodifiable list of formats, most preferred first
+	 */
+	public List<String> getPreference() {
+		return preference;
+	}
+
+	/**
+	 * Choose the most preferred format supported by both sides.
+	 * 
+	 * @param local
+	 *            The formats supported by this side.
+	 * @param remote
+	 *            The formats supported by the peer.
+	 * @return the chosen format or {@code null} if there is no common format
+	 * @throws NullPointerException
+	 *             if a list is {@code null}
+	 */
+	public String select(final List<String> local, final List<String> remote) {
+		if (local == null || remote == null)
+			throw new NullPointerException("Formats may not be null!");
+
+		for (final String format : preference)
+			if (local.contains(format) && remote.contains(format))
+				return format;
+		for (final String format : local)
+			if (format != null && remote.contains(format))
+				return format;
+		return null;
+	}
+
+	/**
+	 * Negotiate the format of a connection, use the cached agreement for the
+	 * peer if available.
+	 * 
+	 * @param transport
+	 *            The transport of the connection, cached agreements are
+	 *            invalidated on its status changes. May be {@code null}.
+	 * @param peer
+	 *            The peer URI.
+	 * @param schema
+	 *            The connection schema.
+	 * @param local
+	 *            The formats supported by this side.
+	 * @param remote
+	 *            The formats supported by the peer.
+	 * @return the agreed format
+	 * @throws TransportException
+	 *             if there is no common format
+	 * @throws NullPointerException
+	 *             if the schema or a list is {@code null}
+	 */
+	public String negotiate(final Transport transport, final URI peer,
+			final String schema, final List<String> local,
+			final List<String> remote) throws TransportException {
+		if (schema == null)
+			throw new NullPointerException("Schema may not be null!");
+
+		final Key key = new Key(peer, schema);
+		final long version = SchemaRegistry.getInstance().getVersion();
+
+		final Agreement cached = cache.get(key);
+		if (cached != null && cached.version == version)
+			return cached.format;
+
+		final String format = select(local, remote);
+		if (format == null)
+			throw new TransportException(
+					"No common serialization format with " + peer
+							+ " for schema " + schema + ": local " + local
+							+ ", remote " + remote);
+
+		cache.put(key, new Agreement(transport, version, format));
+		return format;
+	}
+
+	/**
+	 * Get the cached agreement for a peer and schema.
+	 * 
+	 * @param peer
+	 *            The peer URI.
+	 * @param schema
+	 *            The connection schema.
+	 * @return the agreed format or {@code null} if there is no valid agreement
+	 */
+	public String getCachedFormat(final URI peer, final String schema) {
+		final Agreement cached = cache.get(new Key(peer, schema));
+		return cached == null
+				|| cached.version != SchemaRegistry.getInstance().getVersion() ? null
+				: cached.format;
+	}
+
+	/**
+	 * Remove all agreements negotiated on a transport.
+	 * 
+	 * @param transport
+	 *            the transport
+	 */
+	public void invalidate(final Transport transport) {
+		for (final Map.Entry<Key, Agreement> e : cache.entrySet())
+			if (e.getValue().transport == transport)
+				cache.remove(e.getKey(), e.getValue());
+	}
+
+	/**
+	 * Remove all agreements with a peer.
+	 * 
+	 * @param peer
+	 *            the peer URI
+	 */
+	public void invalidate(final URI peer) {
+		for (final Key key : cache.keySet())
+			if (peer == null ? key.peer == null : peer.equals(key.peer))
+				cache.remove(key);
+	}
+
+	/**
+	 * Remove all agreements.
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * Get the number of cached agreements.
+	 * 
+	 * @return the number of cache entries
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	@Override
+	public void onStatusChange(Transport transport, Transport.Status oldStatus,
+			Transport.Status newStatus) {
+		invalidate(transport);
+	}
+
+	@Override
+	public void onThreadCreation(PacketThread pt) {
+		// not relevant for formats
+	}
+
+	@Override
+	public void onThreadDisposal(PacketThread pt) {
+		// not relevant for formats
+	}
+
+	private static final class Key {
+		final URI peer;
+		final String schema;
+
+		Key(URI peer, String schema) {
+			this.peer = peer;
+			this.schema = schema;
+		}
+
+		@Override
+		public int hashCode() {
+			final int h = peer == null ? 0 : peer.hashCode();
+			return 31 * h + (schema == null ? 0 : schema.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			final Key other = (Key) obj;
+			return (peer == null ? other.peer == null : peer
+					.equals(other.peer))
+					&& (schema == null ? other.schema == null : schema
+							.equals(other.schema));
+		}
+	}
+
+	private static final class Agreement {
+		final Transport transport;
+		final long version;
+		final String format;
+
+		Agreement(Transport transport, long version, String format) {
+			this.transport = transport;
+			this.version = version;
+			this.format = format;
+		}
+	}
+}
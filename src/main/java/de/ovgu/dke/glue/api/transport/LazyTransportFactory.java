@@ -0,0 +1,358 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport;
+
+import java.net.URI;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.reporting.ReportListener;
+
+/**
+ * <p>
+ * Transport factory wrapper which defers {@link TransportFactory#init(Properties)}
+ * of the wrapped factory to the first call of
+ * {@link #createTransport(URI)}. Registration, listeners and the registry key
+ * are available without initialization.
+ * </p>
+ * 
+ * <p>
+ * Factories which accept incoming connections are not reachable before their
+ * initialization, so they should be initialized explicitly via
+ * {@link #ensureInitialized()} or in the background via
+ * {@link #initialize(Executor)}. The initialization runs exactly once, its
+ * completion can be awaited via the readiness future.
+ * </p>
+ * 
+ * <p>
+ * Calls to {@link #quiesce()} and {@link #dispose()} while the
+ * initialization is running are recorded and applied to the wrapped factory
+ * as soon as the initialization completes; {@link #awaitDrained(long, TimeUnit)}
+ * waits for a running initialization within its timeout. A factory disposed
+ * before its initialization has started is not initialized anymore.
+ * </p>
+ * 
+ * <p>
+ * The wrapper records the time needed to create and to initialize the wrapped
+ * factory, for startup instrumentation.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class LazyTransportFactory implements DrainableTransportFactory {
+	private final TransportFactory delegate;
+	private final long creationNanos;
+
+	// guarded by this, released after initialization
+	private Properties config;
+
+	private final FutureTask<TransportFactory> ready;
+
+	// written under this
+	private volatile boolean started = false;
+	private volatile boolean initialized = false;
+	private volatile boolean quiesced = false;
+	private volatile boolean disposed = false;
+
+	private volatile long initNanos = -1;
+
+	/**
+	 * Wrap a factory.
+	 * 
+	 * @param delegate
+	 *            the factory to initialize lazily
+	 * @param config
+	 *            the configuration for the factory, may be {@code null}
+	 * @param creationNanos
+	 *            the time in nanoseconds it took to create the factory
+	 * @throws NullPointerException
+	 *             if the delegate is {@code null}
+	 */
+	public LazyTransportFactory(final TransportFactory delegate,
+			final Properties config, final long creationNanos) {
+		if (delegate == null)
+			throw new NullPointerException("Delegate may not be null!");
+
+		this.delegate = delegate;
+		this.config = config;
+		this.creationNanos = creationNanos;
+		this.ready = new FutureTask<TransportFactory>(
+				new Callable<TransportFactory>() {
+					@Override
+					public TransportFactory call() throws TransportException {
+						final Properties cfg;
+						synchronized (LazyTransportFactory.this) {
+							if (disposed)
+								throw new TransportException(
+										"Factory has been disposed!");
+							started = true;
+							cfg = LazyTransportFactory.this.config;
+							LazyTransportFactory.this.config = null;
+						}
+
+						final long start = System.nanoTime();
+						try {
+							delegate.init(cfg);
+						} finally {
+							initNanos = System.nanoTime() - start;
+						}
+						onInitialized();
+						return delegate;
+					}
+				});
+	}
+
+	/**
+	 * Mark the wrapped factory as initialized and apply a shutdown which has
+	 * been requested during the initialization.
+	 */
+	private void onInitialized() {
+		final boolean quiesce;
+		final boolean dispose;
+		synchronized (this) {
+			initialized = true;
+			quiesce = quiesced;
+			dispose = disposed;
+		}
+		if (dispose)
+			delegate.dispose();
+		else if (quiesce && delegate instanceof DrainableTransportFactory)
+			((DrainableTransportFactory) delegate).quiesce();
+	}
+
+	/**
+	 * Initialize the wrapped factory if this has not been done yet, wait if
+	 * the initialization is running in another thread. A failed
+	 * initialization is not repeated, the failure is thrown again.
+	 * 
+	 * @throws TransportException
+	 *             if the initialization fails or the thread is interrupted
+	 *             while waiting
+	 */
+	public void ensureInitialized() throws TransportException {
+		if (initialized)
+			return;
+
+		ready.run();
+		try {
+			ready.get();
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof TransportException)
+				throw (TransportException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new TransportException("Initialization failed: "
+					+ cause.getMessage(), cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TransportException(
+					"Interrupted while waiting for initialization.", e);
+		}
+	}
+
+	/**
+	 * Start the initialization of the wrapped factory via an executor, unless
+	 * it has already been started.
+	 * 
+	 * @param executor
+	 *            the executor to run the initialization
+	 * @return the readiness future
+	 * @throws NullPointerException
+	 *             if the executor is {@code null}
+	 * @throws java.util.concurrent.RejectedExecutionException
+	 *             if the executor does not accept the initialization
+	 */
+	public Future<TransportFactory> initialize(final Executor executor) {
+		if (executor == null)
+			throw new NullPointerException("Executor may not be null!");
+
+		if (!ready.isDone())
+			executor.execute(ready);
+		return ready;
+	}
+
+	/**
+	 * Get the readiness future, which completes with the wrapped factory after
+	 * its initialization or fails with the initialization exception.
+	 * 
+	 * @return the readiness future
+	 */
+	public Future<TransportFactory> getReadiness() {
+		return ready;
+	}
+
+	/**
+	 * Check whether the wrapped factory has been initialized.
+	 * 
+	 * @return {@code true} if the factory has been initialized successfully
+	 */
+	public boolean isInitialized() {
+		return initialized;
+	}
+
+	/**
+	 * Get the wrapped factory.
+	 * 
+	 * @return the wrapped factory, which may not be initialized
+	 */
+	public TransportFactory getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * Get the time it took to create the wrapped factory.
+	 * 
+	 * @return the creation time in nanoseconds
+	 */
+	public long getCreationNanos() {
+		return creationNanos;
+	}
+
+	/**
+	 * Get the time it took to initialize the wrapped factory.
+	 * 
+	 * @return the initialization time in nanoseconds or -1 if the
+	 *         initialization has not been attempted yet
+	 */
+	public long getInitNanos() {
+		return initNanos;
+	}
+
+	@Override
+	public Transport createTransport(final URI peer) throws TransportException {
+		ensureInitialized();
+		return delegate.createTransport(peer);
+	}
+
+	@Override
+	public String getDefaultRegistryKey() {
+		return delegate.getDefaultRegistryKey();
+	}
+
+	/**
+	 * Initialize the wrapped factory now, with the given configuration
+	 * instead of the one passed on construction.
+	 */
+	@Override
+	public void init(final Properties config) throws TransportException {
+		synchronized (this) {
+			if (!initialized)
+				this.config = config;
+		}
+		ensureInitialized();
+	}
+
+	/**
+	 * Dispose the wrapped factory if it has been initialized, otherwise after
+	 * a running initialization has completed.
+	 */
+	@Override
+	public void dispose() {
+		final boolean init;
+		synchronized (this) {
+			disposed = true;
+			init = initialized;
+		}
+		if (init)
+			delegate.dispose();
+	}
+
+	/**
+	 * Quiesce the wrapped factory if it supports draining, after a running
+	 * initialization has completed.
+	 */
+	@Override
+	public void quiesce() {
+		final boolean init;
+		synchronized (this) {
+			quiesced = true;
+			init = initialized;
+		}
+		if (init && delegate instanceof DrainableTransportFactory)
+			((DrainableTransportFactory) delegate).quiesce();
+	}
+
+	/**
+	 * Wait for the wrapped factory to drain, if it supports draining. A
+	 * running initialization is awaited within the timeout.
+	 */
+	@Override
+	public boolean awaitDrained(final long timeout, final TimeUnit unit)
+			throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		if (!initialized && started)
+			try {
+				ready.get(timeout, unit);
+			} catch (ExecutionException e) {
+				// failed initialization, nothing to drain
+				return true;
+			} catch (TimeoutException e) {
+				return false;
+			}
+
+		if (initialized && delegate instanceof DrainableTransportFactory)
+			return ((DrainableTransportFactory) delegate).awaitDrained(
+					Math.max(0, deadline - System.nanoTime()),
+					TimeUnit.NANOSECONDS);
+		return true;
+	}
+
+	@Override
+	public void addTransportLifecycleListener(
+			final TransportLifecycleListener listener) {
+		delegate.addTransportLifecycleListener(listener);
+	}
+
+	@Override
+	public void removeTransportLifecycleListener(
+			final TransportLifecycleListener listener) {
+		delegate.removeTransportLifecycleListener(listener);
+	}
+
+	@Override
+	public void addReportListener(final ReportListener listener) {
+		delegate.addReportListener(listener);
+	}
+
+	@Override
+	public void removeReportListener(final ReportListener listener) {
+		delegate.removeReportListener(listener);
+	}
+
+	@Override
+	public String toString() {
+		return "Lazy(" + delegate + ")";
+	}
+}
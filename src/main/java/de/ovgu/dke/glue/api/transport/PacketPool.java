@@ -0,0 +1,186 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * <p>
+ * Pool of {@link PooledPacket}s for the receive path of a transport. Released
+ * packets are kept in a small cache per thread, which is accessed without
+ * locks. If a thread releases more packets than it acquires, e.g. a
+ * dispatcher thread handling packets acquired by the senders, the surplus
+ * goes to a shared stack from which other threads refill. Once the pool has
+ * warmed up, acquiring packets does not allocate.
+ * </p>
+ * 
+ * <p>
+ * Transports using pooled packets with further fields subclass both the
+ * packet and the pool and override {@link #newPacket()}.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class PacketPool {
+	/**
+	 * Default number of cached packets per thread.
+	 */
+	public static final int DEFAULT_THREAD_CACHE = 32;
+
+	/**
+	 * Default number of packets in the shared stack.
+	 */
+	public static final int DEFAULT_SHARED_SIZE = 1024;
+
+	private final int threadCacheSize;
+
+	private final ThreadLocal<Cache> caches;
+
+	private final PooledPacket[] shared;
+	private int sharedCount = 0;
+
+	private final AtomicLong allocated = new AtomicLong();
+
+	/**
+	 * Create a pool with the default sizes.
+	 */
+	public PacketPool() {
+		this(DEFAULT_THREAD_CACHE, DEFAULT_SHARED_SIZE);
+	}
+
+	/**
+	 * Create a pool.
+	 * 
+	 * @param threadCacheSize
+	 *            the number of cached packets per thread
+	 * @param sharedSize
+	 *            the number of packets in the shared stack, packets released
+	 *            beyond this size are left to the garbage collector
+	 * @throws IllegalArgumentException
+	 *             if one of the sizes is negative
+	 */
+	public PacketPool(final int threadCacheSize, final int sharedSize) {
+		if (threadCacheSize < 0 || sharedSize < 0)
+			throw new IllegalArgumentException("Sizes may not be negative!");
+
+		this.threadCacheSize = threadCacheSize;
+		this.shared = new PooledPacket[sharedSize];
+		this.caches = new ThreadLocal<Cache>() {
+			@Override
+			protected Cache initialValue() {
+				return new Cache(PacketPool.this.threadCacheSize);
+			}
+		};
+	}
+
+	/**
+	 * Acquire a packet with one reference.
+	 * 
+	 * @param payload
+	 *            the packet payload
+	 * @param priority
+	 *            the packet priority
+	 * @return the packet
+	 */
+	public PooledPacket acquire(final Object payload,
+			final Packet.Priority priority) {
+		PooledPacket packet = caches.get().pop();
+		if (packet == null)
+			synchronized (shared) {
+				if (sharedCount > 0) {
+					packet = shared[--sharedCount];
+					shared[sharedCount] = null;
+				}
+			}
+
+		if (packet == null) {
+			packet = newPacket();
+			allocated.incrementAndGet();
+		}
+		packet.init(payload, priority);
+		return packet;
+	}
+
+	/**
+	 * Get the number of packets allocated by this pool.
+	 * 
+	 * @return the allocation count
+	 */
+	public long getAllocatedCount() {
+		return allocated.get();
+	}
+
+	/**
+	 * Create a new packet for this pool. Override to create packets of a
+	 * subclass.
+	 * 
+	 * @return a new packet
+	 */
+	protected PooledPacket newPacket() {
+		return new PooledPacket(this);
+	}
+
+	/**
+	 * Return a released packet to the pool.
+	 */
+	void recycle(final PooledPacket packet) {
+		if (caches.get().push(packet))
+			return;
+
+		synchronized (shared) {
+			if (sharedCount < shared.length)
+				shared[sharedCount++] = packet;
+		}
+	}
+
+	/**
+	 * Per-thread stack of released packets.
+	 */
+	private static final class Cache {
+		private final PooledPacket[] packets;
+		private int size = 0;
+
+		Cache(final int capacity) {
+			this.packets = new PooledPacket[capacity];
+		}
+
+		PooledPacket pop() {
+			if (size == 0)
+				return null;
+			final PooledPacket packet = packets[--size];
+			packets[size] = null;
+			return packet;
+		}
+
+		boolean push(final PooledPacket packet) {
+			if (size == packets.length)
+				return false;
+			packets[size++] = packet;
+			return true;
+		}
+	}
+}
@@ -60,6 +60,9 @@ public abstract class PacketThread {
 
 	private final Connection connection;
 
+	// resolved on first send, racy single-check is fine as the id is stable
+	private int schemaId = -1;
+
 	/**
 	 * Create a packet thread for the specified connection
 	 * 
@@ -102,10 +105,27 @@ public abstract class PacketThread {
 			throw new IllegalStateException(
 					"Transport not available, connection already disposed?");
 
+		// send the serialized payload
+		sendSerializedPayload(serialize(payload), priority);
+	}
+
+	/**
+	 * Serialize a payload with the serializer of the connection's schema and
+	 * format.
+	 * 
+	 * @param payload
+	 *            the payload
+	 * @return the serialized payload or the payload itself if there is no
+	 *         serializer for the format
+	 * @throws TransportException
+	 *             If the connection schema is unknown or the payload cannot be
+	 *             serialized.
+	 */
+	final Object serialize(final Object payload) throws TransportException {
 		try {
 			// retrieve the schema record
-			final SchemaRecord record = SchemaRegistry.getInstance().getRecord(
-					getConnection().getConnectionSchema());
+			final SchemaRecord record = SchemaRegistry.getInstance()
+					.getRecord(getSchemaId());
 			if (record == null)
 				// TODO use a more verbose exception, e.g.
 				// UnknownTransportSchemaException or maybe
@@ -121,21 +141,31 @@ public abstract class PacketThread {
 					.getSerializer(getConnection().getSerializationFormat());
 
 			// serialize the payload
-			final Object p;
 			if (serializer != null)
 				// may throw a SeralizationException
-				p = serializer.serialize(payload);
+				return serializer.serialize(payload);
 			else
-				p = payload;
-
-			// send the serialized payload
-			sendSerializedPayload(p, priority);
+				return payload;
 		} catch (SerializationException e) {
 			throw new TransportException("Error on payload serialization: "
 					+ e.getMessage(), e);
 		}
 	}
 
+	/**
+	 * Get the registry id of the connection schema, which is resolved on first
+	 * use.
+	 * 
+	 * @return the schema id
+	 */
+	final int getSchemaId() {
+		int id = schemaId;
+		if (id < 0)
+			schemaId = id = SchemaRegistry.getInstance().getSchemaId(
+					getConnection().getConnectionSchema());
+		return id;
+	}
+
 	/**
 	 * Send a serialized packet in this thread. This method needs to be
 	 * overwritten by the transport implementation.
@@ -145,7 +175,9 @@ public abstract class PacketThread {
 	 *            parameter is not {@code null} and the packet thread belongs to
 	 *            this connection.
 	 * @param payload
-	 *            Serialized payload to send with this message.
+	 *            Serialized payload to send with this message. The payload may
+	 *            be shared with other packet threads, see {@link Broadcast},
+	 *            and must not be modified.
 	 * @param priority
 	 *            The message priority, if supported by the transport, otherwise
 	 *            this parameter may be ignored.
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * <p>
+ * A recyclable packet, acquired from a {@link PacketPool}. Attributes are
+ * stored in an array indexed by their {@link AttributeKey}; a packet may hold
+ * up to {@link #ATTRIBUTE_SLOTS} attributes. String keys are resolved to
+ * attribute keys for compatibility.
+ * </p>
+ * 
+ * <p>
+ * Pooled packets are reference counted. A packet is acquired with one
+ * reference, which the transport releases after the packet handler has
+ * returned; the packet is then reset and returned to its pool. A handler which
+ * keeps a packet beyond {@link PacketHandler#handle(PacketThread, Packet)}
+ * must call {@link #retain()} and {@link #release()} the packet when done.
+ * Accessing a released packet throws an {@link IllegalStateException} if the
+ * packet has not yet been re-used.
+ * </p>
+ * 
+ * <p>
+ * Like any packet, a pooled packet must not be changed after it has been
+ * handed to a packet handler. The reference count is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class PooledPacket implements Packet {
+	/**
+	 * Number of attribute slots per packet.
+	 */
+	public static final int ATTRIBUTE_SLOTS = 8;
+
+	private static final AtomicIntegerFieldUpdater<PooledPacket> REFS = AtomicIntegerFieldUpdater
+			.newUpdater(PooledPacket.class, "refs");
+
+	private final PacketPool pool;
+
+	/**
+	 * Attribute values by key index, grows with the number of keys.
+	 */
+	private Object[] values = new Object[ATTRIBUTE_SLOTS];
+	private int attributes = 0;
+	private int highest = -1;
+
+	private Object payload = null;
+	private Priority priority = null;
+
+	private volatile int refs = 0;
+
+	/**
+	 * Create a packet for a pool. Packets are created by the pool, see
+	 * {@link PacketPool#newPacket()}.
+	 * 
+	 * @param pool
+	 *            the pool the packet returns to
+	 */
+	protected PooledPacket(final PacketPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Prepare the packet for use, called by the pool.
+	 */
+	void init(final Object payload, final Priority priority) {
+		this.payload = payload;
+		this.priority = priority;
+		this.refs = 1;
+	}
+
+	@Override
+	public Object getPayload() {
+		checkLive();
+		return payload;
+	}
+
+	@Override
+	public Priority getPriority() {
+		checkLive();
+		return priority;
+	}
+
+	/**
+	 * Get an attribute by name. Prefer {@link #getAttribute(AttributeKey)},
+	 * which does not need to resolve the name.
+	 */
+	@Override
+	public Object getAttribute(final String key) {
+		final AttributeKey<?> k = AttributeKey.forName(key);
+		if (k == null) {
+			checkLive();
+			return null;
+		}
+		return getAttribute(k);
+	}
+
+	/**
+	 * Get an attribute.
+	 * 
+	 * @param key
+	 *            the attribute key
+	 * @return the value or {@code null} if the attribute is not set
+	 * @throws NullPointerException
+	 *             if the key is {@code null}
+	 */
+	public <T> T getAttribute(final AttributeKey<T> key) {
+		checkLive();
+		final int index = key.getIndex();
+		return index < values.length ? key.getType().cast(values[index])
+				: null;
+	}
+
+	/**
+	 * Set an attribute by name. Unknown names are registered as attribute
+	 * keys of type {@code Object}.
+	 * 
+	 * @param key
+	 *            the attribute name, preferably a constant
+	 * @param value
+	 *            the attribute value, {@code null} removes the attribute
+	 * @throws NullPointerException
+	 *             if the key is {@code null}
+	 * @throws ClassCastException
+	 *             if the value does not match the type of a registered key
+	 * @throws IllegalStateException
+	 *             if all attribute slots are in use
+	 */
+	@SuppressWarnings("unchecked")
+	public void setAttribute(final String key, final Object value) {
+		AttributeKey<?> k = AttributeKey.forName(key);
+		if (k == null)
+			k = AttributeKey.valueOf(key, Object.class);
+		setAttribute((AttributeKey<Object>) k, value);
+	}
+
+	/**
+	 * Set an attribute. Must only be called before the packet is handed to a
+	 * packet handler.
+	 * 
+	 * @param key
+	 *            the attribute key
+	 * @param value
+	 *            the attribute value, {@code null} removes the attribute
+	 * @throws NullPointerException
+	 *             if the key is {@code null}
+	 * @throws ClassCastException
+	 *             if the value does not match the key type
+	 * @throws IllegalStateException
+	 *             if all attribute slots are in use
+	 */
+	public <T> void setAttribute(final AttributeKey<T> key, final T value) {
+		final int index = key.getIndex();
+		if (index >= values.length) {
+			if (value == null)
+				return;
+			final Object[] grown = new Object[Math.max(index + 1,
+					2 * values.length)];
+			System.arraycopy(values, 0, grown, 0, values.length);
+			values = grown;
+		}
+
+		final Object old = values[index];
+		if (old == null && value != null) {
+			if (attributes == ATTRIBUTE_SLOTS)
+				throw new IllegalStateException("All " + ATTRIBUTE_SLOTS
+						+ " attribute slots are in use!");
+			attributes++;
+		} else if (old != null && value == null)
+			attributes--;
+
+		values[index] = key.getType().cast(value);
+		if (index > highest)
+			highest = index;
+	}
+
+	/**
+	 * Add a reference, so that the packet is not recycled when the transport
+	 * releases it.
+	 * 
+	 * @return this packet
+	 * @throws IllegalStateException
+	 *             if the packet has already been released
+	 */
+	public PooledPacket retain() {
+		int current;
+		do {
+			current = refs;
+			if (current <= 0)
+				throw new IllegalStateException(
+						"Packet has already been released!");
+		} while (!REFS.compareAndSet(this, current, current + 1));
+		return this;
+	}
+
+	/**
+	 * Remove a reference. The packet is reset and returned to its pool when
+	 * the last reference is released.
+	 * 
+	 * @return {@code true} if the packet has been recycled
+	 * @throws IllegalStateException
+	 *             if the packet has already been released
+	 */
+	public boolean release() {
+		int current;
+		do {
+			current = refs;
+			if (current <= 0)
+				throw new IllegalStateException(
+						"Packet has already been released!");
+		} while (!REFS.compareAndSet(this, current, current - 1));
+
+		if (current > 1)
+			return false;
+
+		clear();
+		pool.recycle(this);
+		return true;
+	}
+
+	/**
+	 * Get the number of references.
+	 * 
+	 * @return the reference count, 0 if the packet is in the pool
+	 */
+	public int getReferenceCount() {
+		return refs;
+	}
+
+	/**
+	 * Reset the packet before it returns to the pool. Subclasses with further
+	 * fields must reset them and call this method.
+	 */
+	protected void clear() {
+		payload = null;
+		priority = null;
+		for (int i = 0; i <= highest; i++)
+			values[i] = null;
+		attributes = 0;
+		highest = -1;
+	}
+
+	private void checkLive() {
+		if (refs <= 0)
+			throw new IllegalStateException("Packet has already been released!");
+	}
+}
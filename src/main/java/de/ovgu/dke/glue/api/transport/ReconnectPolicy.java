@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * <p>
+ * Reconnection schedule of a {@link ReconnectingTransport}: the delay doubles
+ * with every failed attempt, starting at the initial delay, up to the maximum
+ * delay. To avoid that many clients reconnect at the same time after an
+ * outage, the delay is jittered between half and the full value.
+ * </p>
+ * 
+ * <p>
+ * This class is immutable and thread safe.
+ * </p>
+ */
+@Immutable
+public final class ReconnectPolicy {
+	/**
+	 * Unlimited number of attempts.
+	 */
+	public static final int UNLIMITED = 0;
+
+	/**
+	 * Default policy: 100 ms initial and 30 s maximum delay, unlimited
+	 * attempts.
+	 */
+	public static final ReconnectPolicy DEFAULT = new ReconnectPolicy(100,
+			30 * 1000, TimeUnit.MILLISECONDS, UNLIMITED);
+
+	private final long initialDelay;
+	private final long maxDelay;
+	private final int maxAttempts;
+
+	/**
+	 * Create a reconnect policy.
+	 * 
+	 * @param initialDelay
+	 *            the delay before the first attempt
+	 * @param maxDelay
+	 *            the maximum delay
+	 * @param unit
+	 *            the unit of the delays
+	 * @param maxAttempts
+	 *            the number of attempts before giving up or
+	 *            {@link #UNLIMITED}
+	 * @throws NullPointerException
+	 *             if the unit is {@code null}
+	 * @throws IllegalArgumentException
+	 *             if the initial delay is not positive, the maximum delay is
+	 *             below the initial delay or the number of attempts is
+	 *             negative
+	 */
+	public ReconnectPolicy(final long initialDelay, final long maxDelay,
+			final TimeUnit unit, final int maxAttempts) {
+		if (unit == null)
+			throw new NullPointerException("Unit may not be null!");
+		if (initialDelay <= 0)
+			throw new IllegalArgumentException(
+					"Initial delay must be positive!");
+		if (maxDelay < initialDelay)
+			throw new IllegalArgumentException(
+					"Maximum delay must not be below the initial delay!");
+		if (maxAttempts < 0)
+			throw new IllegalArgumentException(
+					"Number of attempts must not be negative!");
+
+		this.initialDelay = unit.toNanos(initialDelay);
+		this.maxDelay = unit.toNanos(maxDelay);
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * Get the jittered delay before an attempt.
+	 * 
+	 * @param attempt
+	 *            the number of failed attempts so far
+	 * @param random
+	 *            the source of the jitter
+	 * @return the delay in nanoseconds
+	 */
+	public long getDelay(final int attempt, final Random random) {
+		long delay = initialDelay;
+		// clamp before shifting, the delay must not overflow
+		for (int i = 0; i < attempt && delay < maxDelay; i++)
+			delay = delay > maxDelay >> 1 ? maxDelay : delay << 1;
+		delay = Math.min(delay, maxDelay);
+
+		final long half = delay / 2;
+		return half + (long) (random.nextDouble() * (delay - half));
+	}
+
+	/**
+	 * Check whether another attempt is allowed.
+	 * 
+	 * @param attempt
+	 *            the number of failed attempts so far
+	 * @return {@code true} if the transport may try again
+	 */
+	public boolean isAttemptAllowed(final int attempt) {
+		return maxAttempts == UNLIMITED || attempt < maxAttempts;
+	}
+
+	/**
+	 * Get the delay before the first attempt.
+	 * 
+	 * @param unit
+	 *            the unit of the result
+	 * @return the initial delay
+	 */
+	public long getInitialDelay(final TimeUnit unit) {
+		return unit.convert(initialDelay, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Get the maximum delay.
+	 * 
+	 * @param unit
+	 *            the unit of the result
+	 * @return the maximum delay
+	 */
+	public long getMaxDelay(final TimeUnit unit) {
+		return unit.convert(maxDelay, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Get the maximum number of attempts.
+	 * 
+	 * @return the number of attempts or {@link #UNLIMITED}
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+}
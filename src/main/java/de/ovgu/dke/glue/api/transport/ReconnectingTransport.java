@@ -0,0 +1,706 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport;
+
+import java.net.URI;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.transport.flow.BoundedSendQueue;
+import de.ovgu.dke.glue.api.transport.flow.OverflowPolicy;
+import de.ovgu.dke.glue.api.util.HashedWheelTimer;
+
+/**
+ * <p>
+ * A transport to a peer which survives failures of the underlying transport.
+ * Connections and packet threads created on this transport are bound to the
+ * current transport of the factory; when it fails or is closed, the
+ * transport is re-created with jittered exponential backoff according to the
+ * {@link ReconnectPolicy}, and all connections and packet threads are bound
+ * to the new one.
+ * </p>
+ * 
+ * <p>
+ * During the outage, packets are kept in a bounded outbox per packet thread,
+ * see {@link BoundedSendQueue}, which also decides what happens when it is
+ * full. After reconnecting, the outbox is sent in priority order on a
+ * separate thread; new packets are added to the outbox until it is empty.
+ * </p>
+ * 
+ * <p>
+ * State changes are announced to the {@link TransportLifecycleListener}s
+ * registered at this transport, with this transport as source:
+ * </p>
+ * <ul>
+ * <li>{@code CONNECTED}, when a transport has been (re-)created,</li>
+ * <li>{@code CHECKED}, when the underlying transport has been checked,</li>
+ * <li>{@code FAILED}, when the underlying transport failed and reconnection
+ * is in progress,</li>
+ * <li>{@code CLOSED}, when the transport has been disposed or the reconnect
+ * policy gave up. Queued packets are discarded.</li>
+ * </ul>
+ * 
+ * <p>
+ * Creating a transport does not prove that the peer is reachable, as the
+ * factory may return a cached transport. Hence the backoff is only reset
+ * after a packet has been sent or the underlying transport has been checked.
+ * </p>
+ * 
+ * <p>
+ * Connections can be created once the first transport has been created.
+ * Reconnection attempts run on the timer thread, use a dedicated timer if
+ * creating a transport blocks. The outboxes are drained on a thread started
+ * per reconnect. Incoming packets are passed to the packet handlers with the
+ * packet thread of this transport, unless the default handler is used.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class ReconnectingTransport implements Transport,
+		TransportLifecycleListener {
+	/**
+	 * Default outbox capacity per packet thread.
+	 */
+	public static final int DEFAULT_OUTBOX_CAPACITY = 1024;
+
+	private final TransportFactory factory;
+	private final URI peer;
+	private final ReconnectPolicy policy;
+	private final int outboxCapacity;
+	private final OverflowPolicy overflow;
+	private final HashedWheelTimer timer;
+
+	private final Runnable attempt;
+	private final CopyOnWriteArrayList<TransportLifecycleListener> listeners;
+	private final ConcurrentMap<String, ReconnectingConnection> connections;
+
+	// lock order: bindLock, lock
+	private final Object bindLock = new Object();
+	private final Object lock = new Object();
+	// guarded by lock
+	private final Random random = new Random();
+	private Transport delegate = null;
+	private HashedWheelTimer.Timeout timeout = null;
+	// written under lock
+	private volatile int attempts = 0;
+	private volatile Transport.Status status = Transport.Status.CREATED;
+
+	private final AtomicLong reconnects;
+
+	/**
+	 * Create a reconnecting transport with the default policy, outbox
+	 * capacity and the shared timer. Full outboxes drop the oldest packets of
+	 * the lowest priority.
+	 * 
+	 * @param factory
+	 *            The factory of the underlying transports.
+	 * @param peer
+	 *            The peer.
+	 */
+	public ReconnectingTransport(final TransportFactory factory,
+			final URI peer) {
+		this(factory, peer, ReconnectPolicy.DEFAULT, DEFAULT_OUTBOX_CAPACITY,
+				OverflowPolicy.DROP_OLDEST, HashedWheelTimer.getShared());
+	}
+
+	/**
+	 * Create a reconnecting transport. The underlying transport is created
+	 * immediately; if this fails, the reconnection is scheduled.
+	 * 
+	 * @param factory
+	 *            The factory of the underlying transports.
+	 * @param peer
+	 *            The peer.
+	 * @param policy
+	 *            The reconnect policy.
+	 * @param outboxCapacity
+	 *            The outbox capacity per packet thread.
+	 * @param overflow
+	 *            The policy for full outboxes.
+	 * @param timer
+	 *            The timer for reconnection attempts.
+	 * @throws NullPointerException
+	 *             if any parameter is {@code null}
+	 * @throws IllegalArgumentException
+	 *             if the outbox capacity is not positive
+	 */
+	public ReconnectingTransport(final TransportFactory factory,
+			final URI peer, final ReconnectPolicy policy,
+			final int outboxCapacity, final OverflowPolicy overflow,
+			final HashedWheelTimer timer) {
+		if (factory == null)
+			throw new NullPointerException("Factory may not be null!");
+		if (peer == null)
+			throw new NullPointerException("Peer may not be null!");
+		if (policy == null)
+			throw new NullPointerException("Policy may not be null!");
+		if (overflow == null)
+			throw new NullPointerException("Overflow policy may not be null!");
+		if (timer == null)
+			throw new NullPointerException("Timer may not be null!");
+		if (outboxCapacity <= 0)
+			throw new IllegalArgumentException(
+					"Outbox capacity must be positive!");
+
+		this.factory = factory;
+		this.peer = peer;
+		this.policy = policy;
+		this.outboxCapacity = outboxCapacity;
+		this.overflow = overflow;
+		this.timer = timer;
+		this.listeners = new CopyOnWriteArrayList<TransportLifecycleListener>();
+		this.connections = new ConcurrentHashMap<String, ReconnectingConnection>();
+		this.reconnects = new AtomicLong();
+		this.attempt = new Runnable() {
+			@Override
+			public void run() {
+				attempt();
+			}
+		};
+
+		factory.addTransportLifecycleListener(this);
+		attempt();
+	}
+
+	@Override
+	public Connection getConnection(final String schema)
+			throws TransportException {
+		if (schema == null)
+			throw new NullPointerException("Schema may not be null!");
+
+		synchronized (bindLock) {
+			ReconnectingConnection connection = connections.get(schema);
+			if (connection == null) {
+				final Transport t = getDelegate();
+				if (t == null)
+					throw new TransportException("Transport to " + peer
+							+ " has not been connected yet!");
+				connection = new ReconnectingConnection(schema);
+				connection.bind(t);
+				connections.put(schema, connection);
+			}
+			return connection;
+		}
+	}
+
+	/**
+	 * Try to reconnect immediately, if the transport is not connected.
+	 */
+	public void reconnect() {
+		synchronized (lock) {
+			if (timeout != null)
+				timeout.cancel();
+			timeout = null;
+		}
+		attempt();
+	}
+
+	/**
+	 * Dispose the transport: stop reconnecting, dispose the packet threads
+	 * and discard the queued packets.
+	 */
+	public void dispose() {
+		close();
+	}
+
+	private void attempt() {
+		final Transport.Status old;
+		final Transport.Status next;
+		synchronized (bindLock) {
+			synchronized (lock) {
+				timeout = null;
+				if (status == Transport.Status.CLOSED || isConnected())
+					return;
+			}
+
+			Transport t;
+			try {
+				t = factory.createTransport(peer);
+				for (final ReconnectingConnection c : connections.values())
+					c.bind(t);
+			} catch (TransportException e) {
+				t = null;
+			} catch (IllegalStateException e) {
+				t = null;
+			}
+
+			synchronized (lock) {
+				if (status == Transport.Status.CLOSED)
+					return;
+				old = status;
+				if (t != null) {
+					// attempts are reset when the transport proves to work
+					delegate = t;
+					next = Transport.Status.CONNECTED;
+				} else if (policy.isAttemptAllowed(++attempts)) {
+					timeout = timer.newTimeout(attempt,
+							policy.getDelay(attempts - 1, random),
+							TimeUnit.NANOSECONDS);
+					next = Transport.Status.FAILED;
+				} else
+					// the policy gave up
+					next = Transport.Status.CLOSED;
+				if (next != Transport.Status.CLOSED)
+					status = next;
+			}
+		}
+
+		if (next == Transport.Status.CLOSED)
+			close();
+		else if (next == Transport.Status.FAILED) {
+			if (old != Transport.Status.FAILED)
+				fireStatusChange(old, next);
+		} else {
+			if (old == Transport.Status.FAILED)
+				reconnects.incrementAndGet();
+			fireStatusChange(old, next);
+			// sending may block, which must not stall the timer thread
+			if (getQueuedCount() > 0) {
+				final Thread drainer = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						drainAll();
+					}
+				}, "GLUE reconnect drain " + peer);
+				drainer.setDaemon(true);
+				drainer.start();
+			}
+		}
+	}
+
+	private void drainAll() {
+		for (final ReconnectingConnection c : connections.values())
+			for (final ReconnectingPacketThread pt : c.threads)
+				pt.drain();
+	}
+
+	/**
+	 * Reset the backoff, as the current transport has been working.
+	 */
+	private void resetAttempts() {
+		if (attempts != 0)
+			synchronized (lock) {
+				attempts = 0;
+			}
+	}
+
+	/**
+	 * Mark the transport as failed if the failed transport is the current
+	 * one, and schedule the reconnection. The failure counts as an attempt,
+	 * so a transport which fails right after connecting backs off further.
+	 */
+	private void failed(final Transport failed) {
+		final Transport.Status old;
+		final boolean retry;
+		synchronized (lock) {
+			if (failed != delegate || !isConnected())
+				return;
+			old = status;
+			retry = policy.isAttemptAllowed(++attempts);
+			if (retry) {
+				status = Transport.Status.FAILED;
+				timeout = timer.newTimeout(attempt,
+						policy.getDelay(attempts - 1, random),
+						TimeUnit.NANOSECONDS);
+			}
+		}
+		if (retry)
+			fireStatusChange(old, Transport.Status.FAILED);
+		else
+			// the policy gave up
+			close();
+	}
+
+	private void close() {
+		final Transport.Status old;
+		synchronized (bindLock) {
+			synchronized (lock) {
+				if (status == Transport.Status.CLOSED)
+					return;
+				old = status;
+				status = Transport.Status.CLOSED;
+				if (timeout != null)
+					timeout.cancel();
+				timeout = null;
+			}
+			factory.removeTransportLifecycleListener(this);
+			for (final ReconnectingConnection c : connections.values())
+				for (final ReconnectingPacketThread pt : c.threads)
+					pt.dispose();
+		}
+		fireStatusChange(old, Transport.Status.CLOSED);
+	}
+
+	private Transport getDelegate() {
+		synchronized (lock) {
+			return delegate;
+		}
+	}
+
+	private boolean isConnected() {
+		final Transport.Status s = status;
+		return s == Transport.Status.CONNECTED
+				|| s == Transport.Status.CHECKED;
+	}
+
+	/**
+	 * Get the transport status.
+	 * 
+	 * @return the current status
+	 */
+	public Transport.Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Get the peer.
+	 * 
+	 * @return the peer URI
+	 */
+	public URI getPeer() {
+		return peer;
+	}
+
+	/**
+	 * Get the number of failed attempts since the last successful send or
+	 * check.
+	 * 
+	 * @return the number of failed attempts
+	 */
+	public int getAttemptCount() {
+		return attempts;
+	}
+
+	/**
+	 * Get the number of successful reconnects after a failure.
+	 * 
+	 * @return the number of reconnects
+	 */
+	public long getReconnectCount() {
+		return reconnects.get();
+	}
+
+	/**
+	 * Get the number of packets in the outboxes of all packet threads.
+	 * 
+	 * @return the number of queued packets
+	 */
+	public int getQueuedCount() {
+		int queued = 0;
+		for (final ReconnectingConnection c : connections.values())
+			for (final ReconnectingPacketThread pt : c.threads)
+				queued += pt.outbox.size();
+		return queued;
+	}
+
+	/**
+	 * Get the number of packets dropped by full outboxes.
+	 * 
+	 * @return the number of dropped packets
+	 */
+	public long getDroppedCount() {
+		long dropped = 0;
+		for (final ReconnectingConnection c : connections.values())
+			for (final ReconnectingPacketThread pt : c.threads)
+				dropped += pt.outbox.getDroppedCount();
+		return dropped;
+	}
+
+	/**
+	 * Add a listener for the status changes of this transport.
+	 * 
+	 * @param listener
+	 *            the listener
+	 * @throws NullPointerException
+	 *             if the listener is {@code null}
+	 */
+	public void addTransportLifecycleListener(
+			final TransportLifecycleListener listener) {
+		if (listener == null)
+			throw new NullPointerException("Listener may not be null!");
+
+		listeners.addIfAbsent(listener);
+	}
+
+	/**
+	 * Remove a status change listener.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void removeTransportLifecycleListener(
+			final TransportLifecycleListener listener) {
+		if (listener != null)
+			listeners.remove(listener);
+	}
+
+	private void fireStatusChange(final Transport.Status oldStatus,
+			final Transport.Status newStatus) {
+		for (final TransportLifecycleListener listener : listeners)
+			try {
+				listener.onStatusChange(this, oldStatus, newStatus);
+			} catch (RuntimeException e) {
+				// must not affect the reconnection or other listeners
+			}
+	}
+
+	@Override
+	public void onStatusChange(Transport transport, Transport.Status oldStatus,
+			Transport.Status newStatus) {
+		if (transport != getDelegate())
+			return;
+
+		switch (newStatus) {
+		case CLOSED:
+		case FAILED:
+			failed(transport);
+			break;
+		case CHECKED:
+			synchronized (lock) {
+				if (status != Transport.Status.CONNECTED)
+					return;
+				status = Transport.Status.CHECKED;
+				attempts = 0;
+			}
+			fireStatusChange(Transport.Status.CONNECTED,
+					Transport.Status.CHECKED);
+			break;
+		default:
+			break;
+		}
+	}
+
+	@Override
+	public void onThreadCreation(PacketThread pt) {
+		// only the transport status is relevant
+	}
+
+	@Override
+	public void onThreadDisposal(PacketThread pt) {
+		// only the transport status is relevant
+	}
+
+	@Override
+	public String toString() {
+		return "ReconnectingTransport[" + peer + ", " + status + "]";
+	}
+
+	/**
+	 * A connection bound to the connection of the current transport.
+	 */
+	private final class ReconnectingConnection implements Connection {
+		private final String schema;
+		private final CopyOnWriteArrayList<ReconnectingPacketThread> threads;
+		private volatile Connection delegate = null;
+
+		ReconnectingConnection(final String schema) {
+			this.schema = schema;
+			this.threads = new CopyOnWriteArrayList<ReconnectingPacketThread>();
+		}
+
+		// guarded by bindLock
+		void bind(final Transport transport) throws TransportException {
+			final Connection c = transport.getConnection(schema);
+			for (final ReconnectingPacketThread pt : threads)
+				pt.bind(c, transport);
+			delegate = c;
+		}
+
+		@Override
+		public String getConnectionSchema() {
+			return schema;
+		}
+
+		@Override
+		public String getSerializationFormat() {
+			return delegate.getSerializationFormat();
+		}
+
+		@Override
+		public PacketThread createThread(final PacketHandler handler)
+				throws TransportException {
+			synchronized (bindLock) {
+				if (status == Transport.Status.CLOSED)
+					throw new IllegalStateException(
+							"Transport has been closed!");
+
+				// bound on reconnect if the transport is not connected
+				final ReconnectingPacketThread pt = new ReconnectingPacketThread(
+						this, handler);
+				if (isConnected())
+					pt.bind(delegate, getDelegate());
+				threads.add(pt);
+				return pt;
+			}
+		}
+
+		@Override
+		public Transport getTransport() {
+			return ReconnectingTransport.this;
+		}
+
+		@Override
+		public URI getPeer() {
+			return peer;
+		}
+
+		@Override
+		public boolean checkCapabilities() throws TransportException {
+			if (!isConnected())
+				throw new TransportException("Transport to " + peer
+						+ " is not connected!");
+			return delegate.checkCapabilities();
+		}
+	}
+
+	/**
+	 * A packet thread bound to a packet thread of the current transport.
+	 */
+	private final class ReconnectingPacketThread extends PacketThread {
+		private final PacketHandler handler;
+		private final BoundedSendQueue<Outgoing> outbox;
+		private volatile PacketThread delegate = null;
+		private volatile Transport transport = null;
+		private volatile boolean disposed = false;
+
+		ReconnectingPacketThread(final ReconnectingConnection connection,
+				final PacketHandler handler) {
+			super(connection);
+			this.handler = handler == PacketThread.DEFAULT_HANDLER ? null
+					: new PacketHandler() {
+						@Override
+						public void handle(PacketThread packetThread,
+								Packet packet) {
+							handler.handle(ReconnectingPacketThread.this,
+									packet);
+						}
+					};
+			this.outbox = new BoundedSendQueue<Outgoing>(outboxCapacity,
+					overflow);
+		}
+
+		// guarded by bindLock
+		void bind(final Connection connection, final Transport transport)
+				throws TransportException {
+			final PacketThread old = delegate;
+			delegate = connection.createThread(handler);
+			this.transport = transport;
+			if (old != null)
+				disposeQuietly(old);
+		}
+
+		@Override
+		protected void sendSerializedPayload(final Object payload,
+				final Packet.Priority priority) throws TransportException {
+			if (disposed || status == Transport.Status.CLOSED)
+				throw new IllegalStateException(
+						"Packet thread has been disposed!");
+
+			synchronized (this) {
+				final PacketThread d = delegate;
+				if (d != null && isConnected() && outbox.isEmpty()) {
+					final Transport t = transport;
+					try {
+						d.sendSerializedPayload(payload, priority);
+						resetAttempts();
+						return;
+					} catch (TransportException e) {
+						failed(t);
+					} catch (IllegalStateException e) {
+						failed(t);
+					}
+				}
+			}
+
+			// outside the lock, the overflow policy may block
+			outbox.offer(new Outgoing(payload, priority), priority);
+			if (isConnected())
+				drain();
+		}
+
+		/**
+		 * Send the outbox in priority order, until it is empty or sending
+		 * fails. Senders offer to the outbox without holding this lock, so the
+		 * sent packet is removed by identity rather than polled, as a packet
+		 * of higher priority may have become the head in the meantime.
+		 */
+		synchronized void drain() {
+			Outgoing next;
+			while (!disposed && isConnected() && (next = outbox.peek()) != null) {
+				final PacketThread d = delegate;
+				final Transport t = transport;
+				if (d == null)
+					return;
+				try {
+					d.sendSerializedPayload(next.payload, next.priority);
+					outbox.remove(next);
+					resetAttempts();
+				} catch (TransportException e) {
+					failed(t);
+					return;
+				} catch (IllegalStateException e) {
+					failed(t);
+					return;
+				}
+			}
+		}
+
+		@Override
+		public void dispose() {
+			disposed = true;
+			((ReconnectingConnection) getConnection()).threads.remove(this);
+			final PacketThread d = delegate;
+			if (d != null)
+				disposeQuietly(d);
+			outbox.clear();
+		}
+
+		private void disposeQuietly(final PacketThread pt) {
+			try {
+				pt.dispose();
+			} catch (RuntimeException e) {
+				// the transport is gone anyway
+			}
+		}
+	}
+
+	/**
+	 * A packet in an outbox.
+	 */
+	private static final class Outgoing {
+		final Object payload;
+		final Packet.Priority priority;
+
+		Outgoing(final Object payload, final Packet.Priority priority) {
+			this.payload = payload;
+			this.priority = priority;
+		}
+	}
+}
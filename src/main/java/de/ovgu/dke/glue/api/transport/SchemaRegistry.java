@@ -22,10 +22,13 @@
 package de.ovgu.dke.glue.api.transport;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import net.jcip.annotations.Immutable;
 import net.jcip.annotations.ThreadSafe;
 import de.ovgu.dke.glue.api.serialization.SerializationProvider;
 
@@ -42,6 +45,21 @@ import de.ovgu.dke.glue.api.serialization.SerializationProvider;
  * </p>
  * 
  * <p>
+ * Each schema is interned to a compact integer id, which stays the same for
+ * the lifetime of the registry, even if the schema is unregistered and
+ * registered again. Look-ups by id are plain array accesses, so transports and
+ * packet threads should resolve the id once and use it on every packet. The
+ * ids are local to the registry instance; transports that use them on the wire
+ * have to announce the schema name to the peer before the first use of an id.
+ * </p>
+ * 
+ * <p>
+ * The records are published as immutable, versioned {@link Snapshot}s. Readers
+ * never lock and see a consistent state, writers copy the current snapshot and
+ * replace it. The version allows caches to detect changes cheaply.
+ * </p>
+ * 
+ * <p>
  * This class is thread safe.
  * </p>
  * 
@@ -64,13 +82,23 @@ public enum SchemaRegistry {
 		return INSTANCE;
 	}
 
-	private final Map<String, SchemaRecord> registry;
+	private static final int INITIAL_IDS = 16;
+
+	private final Map<String, Integer> ids;
+
+	// schemas by id, replaced on growth, guarded by ids for writes
+	private volatile AtomicReferenceArray<String> schemas;
+
+	// the current records, replaced on every change, guarded by ids for writes
+	private volatile Snapshot snapshot;
 
 	private SchemaRegistry() {
 		// do not allow public instantiation
 
-		// registry allows concurrent access
-		registry = new ConcurrentHashMap<String, SchemaRecord>();
+		ids = new ConcurrentHashMap<String, Integer>();
+		schemas = new AtomicReferenceArray<String>(INITIAL_IDS);
+		snapshot = new Snapshot(0, new HashMap<String, SchemaRecord>(),
+				new SchemaRecord[INITIAL_IDS]);
 	}
 
 	/**
@@ -80,11 +108,124 @@ public enum SchemaRegistry {
 	 *            The schema record to register, which may not be {@code null}
 	 * @throws NullPointerException
 	 *             if the record is {@code null}
+	 * @see #registerSchemaRecordIfAbsent(SchemaRecord)
 	 */
-	// TODO Exception werfen, wenn das Schema schon existiert? -> verhindert
-	// doppelte Registrierung
 	public void registerSchemaRecord(final SchemaRecord record) {
-		registry.put(record.getSchema(), record);
+		final String schema = record.getSchema();
+		synchronized (ids) {
+			publish(schema, getSchemaId(schema), record);
+		}
+	}
+
+	/**
+	 * Register a schema if it is not yet registered.
+	 * 
+	 * @param record
+	 *            The schema record to register, which may not be {@code null}
+	 * @return the record which is already registered for the schema or
+	 *         {@code null} if the record has been registered
+	 * @throws NullPointerException
+	 *             if the record is {@code null}
+	 */
+	public SchemaRecord registerSchemaRecordIfAbsent(final SchemaRecord record) {
+		final String schema = record.getSchema();
+		synchronized (ids) {
+			final SchemaRecord existing = snapshot.getRecord(schema);
+			if (existing == null)
+				publish(schema, getSchemaId(schema), record);
+			return existing;
+		}
+	}
+
+	/**
+	 * Remove the record for a schema.
+	 * 
+	 * @param schema
+	 *            The schema to remove.
+	 * @return the removed record or {@code null} if the schema was not
+	 *         registered
+	 * @throws NullPointerException
+	 *             if the schema parameter is {@code null}
+	 */
+	public SchemaRecord unregisterSchemaRecord(final String schema) {
+		synchronized (ids) {
+			final SchemaRecord record = snapshot.getRecord(schema);
+			if (record != null)
+				publish(schema, ids.get(schema).intValue(), null);
+			return record;
+		}
+	}
+
+	/**
+	 * Get a consistent view of the registered records.
+	 * 
+	 * @return the current snapshot
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Get the registry version, which is incremented on every change of the
+	 * registered records. Caches can compare the version to detect changes.
+	 * 
+	 * @return the current version
+	 */
+	public long getVersion() {
+		return snapshot.getVersion();
+	}
+
+	/**
+	 * Get the id of a schema, assign a new id if the schema has not been seen
+	 * before. Schemas need not be registered to get an id.
+	 * 
+	 * @param schema
+	 *            The schema.
+	 * @return the schema id, starting at 0
+	 * @throws NullPointerException
+	 *             if the schema parameter is {@code null}
+	 */
+	public int getSchemaId(final String schema) {
+		final Integer id = ids.get(schema);
+		if (id != null)
+			return id.intValue();
+
+		synchronized (ids) {
+			Integer assigned = ids.get(schema);
+			if (assigned == null) {
+				assigned = Integer.valueOf(ids.size());
+				final int index = assigned.intValue();
+				if (index == schemas.length())
+					schemas = grow(schemas, 2 * index);
+				schemas.set(index, schema);
+				ids.put(schema, assigned);
+			}
+			return assigned.intValue();
+		}
+	}
+
+	/**
+	 * Get the schema for an id.
+	 * 
+	 * @param id
+	 *            The schema id.
+	 * @return the schema or {@code null} if no schema has this id
+	 */
+	public String getSchema(final int id) {
+		final AtomicReferenceArray<String> schemas = this.schemas;
+		return (id < 0 || id >= schemas.length()) ? null : schemas.get(id);
+	}
+
+	/**
+	 * Get the record for a schema id.
+	 * 
+	 * @param id
+	 *            The schema id, see {@link #getSchemaId(String)}.
+	 * @return The schema record or {@code null} if the schema is not
+	 *         registered.
+	 */
+	public SchemaRecord getRecord(final int id) {
+		return snapshot.getRecord(id);
 	}
 
 	/**
@@ -93,7 +234,7 @@ public enum SchemaRegistry {
 	 * @return a unmodifiable Set of registered schemas.
 	 */
 	public Set<String> getAvailableSchemas() {
-		return Collections.unmodifiableSet(registry.keySet());
+		return snapshot.getAvailableSchemas();
 	}
 
 	/**
@@ -106,7 +247,7 @@ public enum SchemaRegistry {
 	 *             if the schema parameter is {@code null}
 	 */
 	public SchemaRecord getRecord(final String schema) {
-		return registry.get(schema);
+		return snapshot.getRecord(schema);
 	}
 
 	/**
@@ -140,4 +281,105 @@ public enum SchemaRegistry {
 		final SchemaRecord record = getRecord(schema);
 		return (record == null) ? null : record.getSerializationProvider();
 	}
+
+	private static <T> AtomicReferenceArray<T> grow(
+			final AtomicReferenceArray<T> array, final int length) {
+		final AtomicReferenceArray<T> grown = new AtomicReferenceArray<T>(
+				length);
+		for (int i = 0; i < array.length(); i++)
+			grown.set(i, array.get(i));
+		return grown;
+	}
+
+	/**
+	 * Copy the current snapshot with one record changed and publish the copy.
+	 * Must be called with the lock on ids.
+	 */
+	private void publish(final String schema, final int id,
+			final SchemaRecord record) {
+		final Snapshot current = snapshot;
+
+		final Map<String, SchemaRecord> records = new HashMap<String, SchemaRecord>(
+				current.records);
+		if (record == null)
+			records.remove(schema);
+		else
+			records.put(schema, record);
+
+		final SchemaRecord[] byId = new SchemaRecord[Math.max(
+				current.byId.length, schemas.length())];
+		System.arraycopy(current.byId, 0, byId, 0, current.byId.length);
+		byId[id] = record;
+
+		snapshot = new Snapshot(current.version + 1, records, byId);
+	}
+
+	/**
+	 * <p>
+	 * An immutable view of the registered schema records.
+	 * </p>
+	 * 
+	 * <p>
+	 * This class is immutable and thread safe.
+	 * </p>
+	 */
+	@Immutable
+	public static final class Snapshot {
+		private final long version;
+		private final Map<String, SchemaRecord> records;
+		private final SchemaRecord[] byId;
+
+		Snapshot(final long version, final Map<String, SchemaRecord> records,
+				final SchemaRecord[] byId) {
+			this.version = version;
+			this.records = records;
+			this.byId = byId;
+		}
+
+		/**
+		 * Get the registry version of this snapshot.
+		 * 
+		 * @return the version
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * Get the record for a specific schema.
+		 * 
+		 * @param schema
+		 *            The record's schema.
+		 * @return The schema record or {@code null} if the schema is not
+		 *         available.
+		 * @throws NullPointerException
+		 *             if the schema parameter is {@code null}
+		 */
+		public SchemaRecord getRecord(final String schema) {
+			if (schema == null)
+				throw new NullPointerException("Schema may not be null!");
+			return records.get(schema);
+		}
+
+		/**
+		 * Get the record for a schema id.
+		 * 
+		 * @param id
+		 *            The schema id.
+		 * @return The schema record or {@code null} if the schema is not
+		 *         registered.
+		 */
+		public SchemaRecord getRecord(final int id) {
+			return (id < 0 || id >= byId.length) ? null : byId[id];
+		}
+
+		/**
+		 * Get all available schemas.
+		 * 
+		 * @return a unmodifiable Set of registered schemas.
+		 */
+		public Set<String> getAvailableSchemas() {
+			return Collections.unmodifiableSet(records.keySet());
+		}
+	}
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport;
+
+import java.util.Collections;
+import java.util.Map;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * <p>
+ * Result of a graceful shutdown via
+ * {@link TransportRegistry#disposeAll(long, java.util.concurrent.TimeUnit)},
+ * with drain and close timings per transport factory.
+ * </p>
+ * 
+ * <p>
+ * This class is immutable and thread safe.
+ * </p>
+ */
+@Immutable
+public final class ShutdownReport {
+	private final Map<String, FactoryReport> factories;
+	private final long totalNanos;
+
+	ShutdownReport(final Map<String, FactoryReport> factories,
+			final long totalNanos) {
+		this.factories = Collections.unmodifiableMap(factories);
+		this.totalNanos = totalNanos;
+	}
+
+	/**
+	 * Get the reports of the disposed factories.
+	 * 
+	 * @return unmodifiable map of factory reports by registry key
+	 */
+	public Map<String, FactoryReport> getFactoryReports() {
+		return factories;
+	}
+
+	/**
+	 * Get the duration of the whole shutdown.
+	 * 
+	 * @return the time in nanoseconds
+	 */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * Check whether all factories have been drained and disposed without
+	 * failure.
+	 * 
+	 * @return {@code true} if no packets have been dropped
+	 */
+	public boolean isClean() {
+		for (final FactoryReport report : factories.values())
+			if (!report.isDrained() || report.getFailure() != null)
+				return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("Shutdown in ");
+		sb.append(totalNanos / 1000000).append(" ms");
+		for (final Map.Entry<String, FactoryReport> e : factories.entrySet())
+			sb.append(", ").append(e.getKey()).append(": ")
+					.append(e.getValue());
+		return sb.toString();
+	}
+
+	/**
+	 * <p>
+	 * Shutdown result of a single transport factory.
+	 * </p>
+	 * 
+	 * <p>
+	 * This class is immutable and thread safe.
+	 * </p>
+	 */
+	@Immutable
+	public static final class FactoryReport {
+		private final boolean drained;
+		private final long drainNanos;
+		private final long closeNanos;
+		private final Throwable failure;
+
+		FactoryReport(final boolean drained, final long drainNanos,
+				final long closeNanos, final Throwable failure) {
+			this.drained = drained;
+			this.drainNanos = drainNanos;
+			this.closeNanos = closeNanos;
+			this.failure = failure;
+		}
+
+		/**
+		 * Check whether the queues of the factory have been drained before
+		 * the deadline. Factories which do not support draining are
+		 * considered drained.
+		 * 
+		 * @return {@code true} if the factory has been drained
+		 */
+		public boolean isDrained() {
+			return drained;
+		}
+
+		/**
+		 * Get the time spent waiting for the factory to drain.
+		 * 
+		 * @return the time in nanoseconds
+		 */
+		public long getDrainNanos() {
+			return drainNanos;
+		}
+
+		/**
+		 * Get the time the factory took to dispose.
+		 * 
+		 * @return the time in nanoseconds or -1 if dispose has not been
+		 *         called
+		 */
+		public long getCloseNanos() {
+			return closeNanos;
+		}
+
+		/**
+		 * Get the failure during drain or dispose.
+		 * 
+		 * @return the failure or {@code null}
+		 */
+		public Throwable getFailure() {
+			return failure;
+		}
+
+		@Override
+		public String toString() {
+			return (drained ? "drained in " : "not drained after ")
+					+ drainNanos / 1000000 + " ms, "
+					+ (closeNanos < 0 ? "not closed" : "closed in "
+							+ closeNanos / 1000000 + " ms")
+					+ (failure == null ? "" : ", failed: " + failure);
+		}
+	}
+}
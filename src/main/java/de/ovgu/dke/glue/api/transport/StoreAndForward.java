@@ -0,0 +1,347 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.transport.journal.Journal;
+
+/**
+ * <p>
+ * Store-and-forward delivery on a packet thread. Every packet is serialized
+ * with the connection's serializer, appended to a {@link Journal} and then
+ * forwarded from the journal, so packets are not lost while the peer is not
+ * reachable and survive a restart of the process.
+ * </p>
+ * 
+ * <p>
+ * Register the instance as life-cycle listener at the transport factory:
+ * when the packet thread's transport changes to
+ * {@link Transport.Status#CONNECTED} or {@link Transport.Status#CHECKED}, the
+ * journal is replayed in order. When forwarding fails while the transport is
+ * connected according to its last status change, e.g. due to a full send
+ * queue, the failed packet stays in the journal and is forwarded again with
+ * the next packet. Otherwise the packet thread is considered offline and
+ * packets are only journaled until the transport is connected.
+ * {@link #replay()} may also be called directly, e.g. after opening a journal
+ * with records of a previous run. Delivery is at-least-once.
+ * </p>
+ * 
+ * <p>
+ * Serialized pay-loads of type {@link ByteBuffer}, {@code byte[]} and
+ * {@link String} are journaled as they are, other pay-loads must be
+ * {@link Serializable}. Replayed buffers are heap buffers.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class StoreAndForward implements TransportLifecycleListener {
+	private static final byte BUFFER = 0;
+	private static final byte ARRAY = 1;
+	private static final byte STRING = 2;
+	private static final byte OBJECT = 3;
+
+	private static final Packet.Priority[] PRIORITIES = Packet.Priority
+			.values();
+
+	private final PacketThread pt;
+	private final Journal journal;
+	private final boolean sync;
+
+	private final Journal.RecordHandler forwarder;
+
+	private volatile boolean online = true;
+
+	// last status of the packet thread's transport, null if unknown
+	private volatile Transport.Status status = null;
+
+	private final AtomicLong forwarded;
+	private final AtomicLong failures;
+
+	/**
+	 * Create a store-and-forward sender.
+	 * 
+	 * @param pt
+	 *            The packet thread to forward the packets.
+	 * @param journal
+	 *            The journal for this packet thread.
+	 * @param sync
+	 *            {@code true} to force every packet to disk before it is
+	 *            forwarded, concurrent senders share a force.
+	 * @throws NullPointerException
+	 *             if the packet thread or journal is {@code null}
+	 */
+	public StoreAndForward(final PacketThread pt, final Journal journal,
+			final boolean sync) {
+		if (pt == null)
+			throw new NullPointerException("Packet thread may not be null!");
+		if (journal == null)
+			throw new NullPointerException("Journal may not be null!");
+
+		this.pt = pt;
+		this.journal = journal;
+		this.sync = sync;
+		this.forwarded = new AtomicLong();
+		this.failures = new AtomicLong();
+
+		this.forwarder = new Journal.RecordHandler() {
+			@Override
+			public boolean handle(byte[] record) {
+				return forward(record);
+			}
+		};
+	}
+
+	/**
+	 * Journal a packet and forward it, if the packet thread is online.
+	 * 
+	 * @param payload
+	 *            the payload to send
+	 * @param priority
+	 *            the packet priority, which is journaled with the packet
+	 * @throws TransportException
+	 *             if the payload cannot be serialized or journaled
+	 * @throws IllegalStateException
+	 *             if the journal has been closed
+	 */
+	public void send(final Object payload, final Packet.Priority priority)
+			throws TransportException {
+		final long position = journal.append(encode(pt.serialize(payload),
+				priority));
+		if (sync)
+			journal.sync(position);
+		if (online)
+			replay();
+	}
+
+	/**
+	 * Forward the journaled packets in order, until the journal is empty or
+	 * forwarding fails.
+	 * 
+	 * @return the number of forwarded packets
+	 * @throws IllegalStateException
+	 *             if the journal has been closed
+	 */
+	public int replay() {
+		online = true;
+		return journal.replay(forwarder);
+	}
+
+	private boolean forward(final byte[] record) {
+		final Object payload;
+		try {
+			payload = decode(record);
+		} catch (TransportException e) {
+			// cannot be forwarded ever, skip
+			failures.incrementAndGet();
+			return true;
+		}
+
+		try {
+			pt.sendSerializedPayload(payload, PRIORITIES[record[1]]);
+			forwarded.incrementAndGet();
+			return true;
+		} catch (TransportException e) {
+			online = isConnected();
+		} catch (IllegalStateException e) {
+			online = isConnected();
+		}
+		failures.incrementAndGet();
+		return false;
+	}
+
+	private boolean isConnected() {
+		final Transport.Status current = status;
+		return current == Transport.Status.CONNECTED
+				|| current == Transport.Status.CHECKED;
+	}
+
+	/**
+	 * Check whether packets are forwarded on send.
+	 * 
+	 * @return {@code false} if forwarding has failed while the transport was
+	 *         not connected and it has not been connected since
+	 */
+	public boolean isOnline() {
+		return online;
+	}
+
+	/**
+	 * Get the packet thread.
+	 * 
+	 * @return the packet thread
+	 */
+	public PacketThread getPacketThread() {
+		return pt;
+	}
+
+	/**
+	 * Get the journal.
+	 * 
+	 * @return the journal
+	 */
+	public Journal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Get the number of forwarded packets.
+	 * 
+	 * @return the number of forwarded packets
+	 */
+	public long getForwardedCount() {
+		return forwarded.get();
+	}
+
+	/**
+	 * Get the number of failed forwarding attempts, including records which
+	 * could not be decoded and have been skipped.
+	 * 
+	 * @return the number of failures
+	 */
+	public long getFailureCount() {
+		return failures.get();
+	}
+
+	@Override
+	public void onStatusChange(Transport transport, Transport.Status oldStatus,
+			Transport.Status newStatus) {
+		if (transport != pt.getConnection().getTransport())
+			return;
+
+		status = newStatus;
+		switch (newStatus) {
+		case CONNECTED:
+		case CHECKED:
+			replay();
+			break;
+		case CLOSED:
+		case FAILED:
+			online = false;
+			break;
+		default:
+			break;
+		}
+	}
+
+	@Override
+	public void onThreadCreation(PacketThread pt) {
+		// not relevant for forwarding
+	}
+
+	@Override
+	public void onThreadDisposal(PacketThread pt) {
+		// not relevant for forwarding
+	}
+
+	private static byte[] encode(final Object payload,
+			final Packet.Priority priority) throws TransportException {
+		final byte kind;
+		final byte[] data;
+		if (payload instanceof ByteBuffer) {
+			final ByteBuffer buf = ((ByteBuffer) payload).duplicate();
+			data = new byte[buf.remaining()];
+			buf.get(data);
+			kind = BUFFER;
+		} else if (payload instanceof byte[]) {
+			data = (byte[]) payload;
+			kind = ARRAY;
+		} else if (payload instanceof String) {
+			try {
+				data = ((String) payload).getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new TransportException("UTF-8 is not supported!", e);
+			}
+			kind = STRING;
+		} else if (payload instanceof Serializable) {
+			try {
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				final ObjectOutputStream out = new ObjectOutputStream(bytes);
+				out.writeObject(payload);
+				out.close();
+				data = bytes.toByteArray();
+			} catch (IOException e) {
+				throw new TransportException("Payload cannot be journaled: "
+						+ e.getMessage(), e);
+			}
+			kind = OBJECT;
+		} else
+			throw new TransportException("Payload of type "
+					+ (payload == null ? "null" : payload.getClass().getName())
+					+ " cannot be journaled!");
+
+		final byte[] record = new byte[data.length + 2];
+		record[0] = kind;
+		record[1] = (byte) (priority == null ? Packet.Priority.DEFAULT
+				: priority).ordinal();
+		System.arraycopy(data, 0, record, 2, data.length);
+		return record;
+	}
+
+	private static Object decode(final byte[] record)
+			throws TransportException {
+		if (record.length < 2 || record[1] < 0
+				|| record[1] >= PRIORITIES.length)
+			throw new TransportException("Invalid journal record!");
+
+		switch (record[0]) {
+		case BUFFER:
+			return ByteBuffer.wrap(record, 2, record.length - 2).slice();
+		case ARRAY: {
+			final byte[] data = new byte[record.length - 2];
+			System.arraycopy(record, 2, data, 0, data.length);
+			return data;
+		}
+		case STRING:
+			try {
+				return new String(record, 2, record.length - 2, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new TransportException("UTF-8 is not supported!", e);
+			}
+		case OBJECT:
+			try {
+				return new ObjectInputStream(new ByteArrayInputStream(record,
+						2, record.length - 2)).readObject();
+			} catch (IOException e) {
+				throw new TransportException("Invalid journal record: "
+						+ e.getMessage(), e);
+			} catch (ClassNotFoundException e) {
+				throw new TransportException("Invalid journal record: "
+						+ e.getMessage(), e);
+			}
+		default:
+			throw new TransportException("Invalid journal record!");
+		}
+	}
+}
@@ -32,11 +32,15 @@ package de.ovgu.dke.glue.api.transport;
  * themselves!
  * </p>
  * 
+ * <p>
+ * Transport factories based on {@link AbstractTransportFactory} may be
+ * configured to deliver the events asynchronously.
+ * </p>
+ * 
  * @author Stefan Haun (stefan.haun@ovgu.de), Sebastian Stober
  *         (sebastian.stober@ovgu.de), Thomas Low (thomas.low@ovgu.de)
  * 
  */
-// TODO AbstractTransportFactory, die die listener korrekt aufruft
 public interface TransportLifecycleListener {
 	/**
 	 * Called when the connection status of a transport changes. See the
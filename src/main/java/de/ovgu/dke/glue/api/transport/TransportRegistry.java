@@ -22,11 +22,28 @@
 package de.ovgu.dke.glue.api.transport;
 
 import java.util.Collections;
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Properties;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import net.jcip.annotations.Immutable;
 import net.jcip.annotations.ThreadSafe;
 
 /**
@@ -41,6 +58,13 @@ import net.jcip.annotations.ThreadSafe;
  * </p>
  * 
  * <p>
+ * The factories are published as immutable, versioned {@link Snapshot}s.
+ * Readers never lock and see a consistent state, also while
+ * {@link #disposeAll()} is running; writers copy the current snapshot and
+ * replace it. The version allows caches to detect changes cheaply.
+ * </p>
+ * 
+ * <p>
  * This class is thread safe.
  * </p>
  * 
@@ -67,14 +91,21 @@ public enum TransportRegistry {
 		return INSTANCE;
 	}
 
-	private final Map<String, TransportFactory> registry;
-	private String defaultKey;
+	// upper bound for the threads disposing factories in parallel
+	private static final int MAX_SHUTDOWN_THREADS = 16;
+
+	private final Object lock = new Object();
+
+	// the current factories, replaced on every change, guarded by lock for
+	// writes
+	private volatile Snapshot snapshot;
+
+	private volatile long discoveryNanos = -1;
 
 	private TransportRegistry() {
 		// do not allow public instantiation
-
-		// registry allows concurrent access
-		this.registry = new ConcurrentHashMap<String, TransportFactory>();
+		this.snapshot = new Snapshot(0,
+				new HashMap<String, TransportFactory>(), null);
 	}
 
 	/**
@@ -102,11 +133,17 @@ public enum TransportRegistry {
 
 		final String k = (key == DEFAULT_KEY) ? factory.getDefaultRegistryKey()
 				: key;
+		if (k == null)
+			throw new NullPointerException("Key may not be null!");
 
-		registry.put(k, factory);
-
-		if (asDefault)
-			setDefaultTransportFactory(k);
+		synchronized (lock) {
+			final Snapshot current = snapshot;
+			final Map<String, TransportFactory> factories = new HashMap<String, TransportFactory>(
+					current.factories);
+			factories.put(k, factory);
+			snapshot = new Snapshot(current.version + 1, factories,
+					asDefault ? k : current.defaultKey);
+		}
 	}
 
 	/**
@@ -115,7 +152,26 @@ public enum TransportRegistry {
 	 * @return Unmodifiable set of keys in the registry.
 	 */
 	public Set<String> getTransportFactoryKeys() {
-		return Collections.unmodifiableSet(registry.keySet());
+		return snapshot.getTransportFactoryKeys();
+	}
+
+	/**
+	 * Get a consistent view of the registered factories.
+	 * 
+	 * @return the current snapshot
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Get the registry version, which is incremented on every change of the
+	 * registered factories or the default key.
+	 * 
+	 * @return the current version
+	 */
+	public long getVersion() {
+		return snapshot.getVersion();
 	}
 
 	/**
@@ -132,11 +188,15 @@ public enum TransportRegistry {
 	 *             if a factory with the provided key is not registered.
 	 */
 	public void setDefaultTransportFactory(final String key) {
-		if (key != null && !registry.containsKey(key))
-			throw new IllegalArgumentException(
-					"Will not set default key which is not in the registry!");
+		synchronized (lock) {
+			final Snapshot current = snapshot;
+			if (key != null && !current.factories.containsKey(key))
+				throw new IllegalArgumentException(
+						"Will not set default key which is not in the registry!");
 
-		this.defaultKey = key;
+			snapshot = new Snapshot(current.version + 1, current.factories,
+					key);
+		}
 	}
 
 	/**
@@ -150,7 +210,7 @@ public enum TransportRegistry {
 	 *             if the key parameter is {@code null}
 	 */
 	public TransportFactory getTransportFactory(final String key) {
-		return registry.get(key);
+		return snapshot.getTransportFactory(key);
 	}
 
 	/**
@@ -160,10 +220,8 @@ public enum TransportRegistry {
 	 *         no default is set or there is no transport factory for the
 	 *         default key in the registry.
 	 */
-	public static synchronized TransportFactory getDefaultTransportFactory() {
-		final TransportRegistry reg = getInstance();
-		return reg.defaultKey == null ? null : reg
-				.getTransportFactory(reg.defaultKey);
+	public static TransportFactory getDefaultTransportFactory() {
+		return INSTANCE.snapshot.getDefaultTransportFactory();
 	}
 
 	/**
@@ -199,23 +257,149 @@ public enum TransportRegistry {
 	public TransportFactory loadTransportFactory(String factoryClass,
 			Properties config, boolean asDefault, String key)
 			throws ClassNotFoundException, TransportException {
+		final TransportFactory factory = instantiate(factoryClass);
+
+		// some setup
+		factory.init(config);
+
+		// register the factory
+		registerTransportFactory(key, factory, asDefault);
+
+		return factory;
+	}
+
+	/**
+	 * <p>
+	 * Load a transport factory like
+	 * {@link #loadTransportFactory(String, Properties, boolean, String)}, but
+	 * register it immediately and defer <code>init()</code> to its first use.
+	 * Use {@link #initializeAll(int)} to initialize the factories in parallel
+	 * ahead of use.
+	 * </p>
+	 * 
+	 * @param factoryClass
+	 *            The canonical class name of the transport factory.
+	 * @param config
+	 *            A properties instance which will be handed to the transport
+	 *            implementation on initialization.
+	 * @param asDefault
+	 *            Set to <code>AS_DEFAULT</code> if this is the default factory,
+	 *            <code>NO_DEFAULT</code> otherwise.
+	 * @param key
+	 *            The key to use for this transport factory,
+	 *            <code>DEFAULT_KEY</code> if you do not want to specify.
+	 * @return the registered, not yet initialized factory
+	 * @throws ClassNotFoundException
+	 *             if the factoryClass cannot be loaded
+	 * @throws TransportException
+	 *             if anything goes wrong during instantiation
+	 */
+	public LazyTransportFactory loadTransportFactoryLazily(
+			String factoryClass, Properties config, boolean asDefault,
+			String key) throws ClassNotFoundException, TransportException {
+		final long start = System.nanoTime();
+		final LazyTransportFactory factory = new LazyTransportFactory(
+				instantiate(factoryClass), config, System.nanoTime() - start);
+
+		registerTransportFactory(key, factory, asDefault);
+
+		return factory;
+	}
+
+	/**
+	 * Start the initialization of all registered lazy factories via an
+	 * executor.
+	 * 
+	 * @param executor
+	 *            the executor to run the initializations
+	 * @return the readiness futures by registry key; factories which are not
+	 *         lazy are reported as ready
+	 * @throws NullPointerException
+	 *             if the executor is {@code null}
+	 */
+	public Map<String, Future<TransportFactory>> initializeAll(
+			final Executor executor) {
+		if (executor == null)
+			throw new NullPointerException("Executor may not be null!");
+
+		final Map<String, Future<TransportFactory>> ready = new LinkedHashMap<String, Future<TransportFactory>>();
+		for (final Map.Entry<String, TransportFactory> e : snapshot.factories
+				.entrySet()) {
+			final TransportFactory factory = e.getValue();
+			if (factory instanceof LazyTransportFactory)
+				ready.put(e.getKey(),
+						((LazyTransportFactory) factory).initialize(executor));
+			else {
+				final FutureTask<TransportFactory> done = new FutureTask<TransportFactory>(
+						new Callable<TransportFactory>() {
+							@Override
+							public TransportFactory call() {
+								return factory;
+							}
+						});
+				done.run();
+				ready.put(e.getKey(), done);
+			}
+		}
+		return ready;
+	}
+
+	/**
+	 * Initialize all registered lazy factories in parallel, on a temporary
+	 * pool of at most {@code parallelism} daemon threads. The method returns
+	 * immediately, the pool terminates after the last initialization.
+	 * 
+	 * @param parallelism
+	 *            the maximum number of concurrent initializations
+	 * @return the readiness futures by registry key
+	 * @throws IllegalArgumentException
+	 *             if parallelism is not positive
+	 */
+	public Map<String, Future<TransportFactory>> initializeAll(
+			final int parallelism) {
+		if (parallelism <= 0)
+			throw new IllegalArgumentException(
+					"Parallelism must be positive!");
+
+		final ExecutorService pool = newPool(parallelism, "GLUE factory init");
+		try {
+			return initializeAll(pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Get the initialization times of the registered lazy factories.
+	 * 
+	 * @return the time in nanoseconds by registry key, for each factory whose
+	 *         initialization has finished
+	 */
+	public Map<String, Long> getInitTimings() {
+		final Map<String, Long> timings = new LinkedHashMap<String, Long>();
+		for (final Map.Entry<String, TransportFactory> e : snapshot.factories
+				.entrySet())
+			if (e.getValue() instanceof LazyTransportFactory) {
+				final long nanos = ((LazyTransportFactory) e.getValue())
+						.getInitNanos();
+				if (nanos >= 0)
+					timings.put(e.getKey(), Long.valueOf(nanos));
+			}
+		return timings;
+	}
+
+	/**
+	 * Create a transport factory via its public default constructor.
+	 */
+	private static TransportFactory instantiate(final String factoryClass)
+			throws ClassNotFoundException, TransportException {
 		try {
 			// get the class
 			final Class<?> clazz = Class.forName(factoryClass);
 
 			// create instance
-			final TransportFactory factory = (TransportFactory) clazz
+			return clazz.asSubclass(TransportFactory.class).getConstructor()
 					.newInstance();
-
-			// some setup
-			if (factory != null) {
-				factory.init(config);
-
-				// register the factory
-				registerTransportFactory(key, factory, asDefault);
-			}
-
-			return factory;
 		} catch (SecurityException e) {
 			throw new TransportException(
 					"Security exception on accessing constructor for "
@@ -229,19 +413,302 @@ public enum TransportRegistry {
 					+ factoryClass + ": " + e.getMessage(), e);
 		} catch (IllegalAccessException e) {
 			throw new TransportException("Illegal access: " + e.getMessage(), e);
+		} catch (NoSuchMethodException e) {
+			throw new TransportException("No public default constructor for "
+					+ factoryClass, e);
+		} catch (InvocationTargetException e) {
+			throw new TransportException("Constructor of " + factoryClass
+					+ " failed: " + e.getCause(), e.getCause());
+		} catch (ClassCastException e) {
+			throw new TransportException(factoryClass
+					+ " is not a transport factory!", e);
+		}
+
+	}
+
+	/**
+	 * <p>
+	 * Discover the transport factories on the class path via the
+	 * {@link ServiceLoader} mechanism, i.e. the factory classes listed in the
+	 * {@code META-INF/services/de.ovgu.dke.glue.api.transport.TransportFactory}
+	 * resources of the context class loader.
+	 * </p>
+	 * 
+	 * <p>
+	 * Each factory is registered under its default registry key, wrapped into a
+	 * {@link LazyTransportFactory}, so that <code>init()</code> is only called
+	 * on first use or by {@link #initializeAll(int)}. Keys which are already
+	 * registered are not overwritten.
+	 * </p>
+	 * 
+	 * @param config
+	 *            A properties instance which will be handed to the transport
+	 *            implementations on initialization.
+	 * @return the keys of the registered factories
+	 * @throws TransportException
+	 *             if a factory cannot be loaded or instantiated
+	 */
+	public Set<String> discoverTransportFactories(final Properties config)
+			throws TransportException {
+		final long start = System.nanoTime();
+		final Set<String> keys = new LinkedHashSet<String>();
+
+		final Iterator<TransportFactory> it = ServiceLoader.load(
+				TransportFactory.class).iterator();
+		while (true) {
+			final long created = System.nanoTime();
+			final TransportFactory factory;
+			try {
+				if (!it.hasNext())
+					break;
+				factory = it.next();
+			} catch (ServiceConfigurationError e) {
+				throw new TransportException(
+						"Could not load transport factory: " + e.getMessage(),
+						e);
+			}
+
+			final String key = factory.getDefaultRegistryKey();
+			if (key == null)
+				throw new TransportException("Transport factory "
+						+ factory.getClass().getName()
+						+ " has no default registry key!");
+
+			synchronized (lock) {
+				if (snapshot.factories.containsKey(key))
+					continue;
+				registerTransportFactory(key, new LazyTransportFactory(
+						factory, config, System.nanoTime() - created), NO_DEFAULT);
+			}
+			keys.add(key);
 		}
 
+		discoveryNanos = System.nanoTime() - start;
+		return keys;
+	}
+
+	/**
+	 * Get the duration of the last factory discovery.
+	 * 
+	 * @return the time in nanoseconds the last call to
+	 *         {@link #discoverTransportFactories(Properties)} took, -1 if
+	 *         there was no discovery
+	 */
+	public long getDiscoveryNanos() {
+		return discoveryNanos;
 	}
 
 	/**
 	 * Dispose all transport factory. Call to clean-up before exiting the
 	 * application or if the GLUE library is not needed anymore.
+	 * 
+	 * The factories are removed from the registry before they are disposed,
+	 * in parallel and without draining their queues.
 	 */
 	public void disposeAll() {
-		for (final TransportFactory factory : this.registry.values())
+		disposeAll(0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * <p>
+	 * Shut down all transport factories gracefully. The factories are removed
+	 * from the registry, then all {@link DrainableTransportFactory}s are
+	 * quiesced, so that sending fails while queued packets are still
+	 * delivered. Each factory is disposed as soon as it is drained or the
+	 * deadline has passed, the factories are drained and disposed in
+	 * parallel.
+	 * </p>
+	 * 
+	 * @param timeout
+	 *            the time to wait for the factories to drain
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return the shutdown report with per-factory timings
+	 * @throws NullPointerException
+	 *             if the unit is {@code null}
+	 */
+	public ShutdownReport disposeAll(final long timeout, final TimeUnit unit) {
+		final long start = System.nanoTime();
+		final long deadline = start + unit.toNanos(timeout);
+
+		final Snapshot disposed;
+		synchronized (lock) {
+			disposed = snapshot;
+			snapshot = new Snapshot(disposed.version + 1,
+					new HashMap<String, TransportFactory>(), null);
+		}
+
+		final Map<String, ShutdownReport.FactoryReport> reports = new LinkedHashMap<String, ShutdownReport.FactoryReport>();
+		if (disposed.factories.isEmpty())
+			return new ShutdownReport(reports, System.nanoTime() - start);
+
+		// stop accepting packets everywhere before draining
+		for (final TransportFactory factory : disposed.factories.values())
+			if (factory instanceof DrainableTransportFactory)
+				try {
+					((DrainableTransportFactory) factory).quiesce();
+				} catch (RuntimeException e) {
+					// drained and disposed anyway
+				}
+
+		final ExecutorService pool = newPool(
+				Math.min(disposed.factories.size(), MAX_SHUTDOWN_THREADS),
+				"GLUE factory shutdown");
+		final Map<String, Future<ShutdownReport.FactoryReport>> pending = new LinkedHashMap<String, Future<ShutdownReport.FactoryReport>>();
+		try {
+			for (final Map.Entry<String, TransportFactory> e : disposed.factories
+					.entrySet()) {
+				final TransportFactory factory = e.getValue();
+				pending.put(e.getKey(),
+						pool.submit(new Callable<ShutdownReport.FactoryReport>() {
+							@Override
+							public ShutdownReport.FactoryReport call() {
+								return shutdown(factory, deadline);
+							}
+						}));
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		boolean interrupted = false;
+		for (final Map.Entry<String, Future<ShutdownReport.FactoryReport>> e : pending
+				.entrySet())
+			while (true)
+				try {
+					reports.put(e.getKey(), e.getValue().get());
+					break;
+				} catch (InterruptedException ex) {
+					// finish the shutdown, restore the flag afterwards
+					interrupted = true;
+				} catch (ExecutionException ex) {
+					reports.put(e.getKey(), new ShutdownReport.FactoryReport(
+							false, 0, -1, ex.getCause()));
+					break;
+				}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		return new ShutdownReport(reports, System.nanoTime() - start);
+	}
+
+	/**
+	 * Drain a factory until the deadline and dispose it.
+	 */
+	private static ShutdownReport.FactoryReport shutdown(
+			final TransportFactory factory, final long deadline) {
+		final long drainStart = System.nanoTime();
+		boolean drained = true;
+		Throwable failure = null;
+		if (factory instanceof DrainableTransportFactory)
+			try {
+				drained = ((DrainableTransportFactory) factory).awaitDrained(
+						Math.max(0, deadline - drainStart),
+						TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				drained = false;
+				failure = e;
+			} catch (RuntimeException e) {
+				drained = false;
+				failure = e;
+			}
+		final long closeStart = System.nanoTime();
+
+		try {
 			factory.dispose();
-		defaultKey = null;
-		registry.clear();
+		} catch (RuntimeException e) {
+			if (failure == null)
+				failure = e;
+		}
+
+		return new ShutdownReport.FactoryReport(drained, closeStart
+				- drainStart, System.nanoTime() - closeStart, failure);
+	}
+
+	/**
+	 * Create a pool of daemon threads.
+	 */
+	private static ExecutorService newPool(final int threads,
+			final String name) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread t = new Thread(r, name + " "
+						+ count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * <p>
+	 * An immutable view of the registered transport factories.
+	 * </p>
+	 * 
+	 * <p>
+	 * This class is immutable and thread safe.
+	 * </p>
+	 */
+	@Immutable
+	public static final class Snapshot {
+		private final long version;
+		private final Map<String, TransportFactory> factories;
+		private final String defaultKey;
+
+		Snapshot(final long version,
+				final Map<String, TransportFactory> factories,
+				final String defaultKey) {
+			this.version = version;
+			this.factories = factories;
+			this.defaultKey = defaultKey;
+		}
+
+		/**
+		 * Get the registry version of this snapshot.
+		 * 
+		 * @return the version
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * Get the transport factory for a key.
+		 * 
+		 * @param key
+		 *            The key used when registering the transport factory.
+		 * @return A transport factory instance or {@code null} if there is no
+		 *         factory for the key.
+		 * @throws NullPointerException
+		 *             if the key parameter is {@code null}
+		 */
+		public TransportFactory getTransportFactory(final String key) {
+			if (key == null)
+				throw new NullPointerException("Key may not be null!");
+			return factories.get(key);
+		}
+
+		/**
+		 * Get the default transport factory.
+		 * 
+		 * @return The default transport factory or {@code null} if no default
+		 *         is set.
+		 */
+		public TransportFactory getDefaultTransportFactory() {
+			return defaultKey == null ? null : factories.get(defaultKey);
+		}
+
+		/**
+		 * Get the set of all registered transport factory keys.
+		 * 
+		 * @return Unmodifiable set of keys in the registry.
+		 */
+		public Set<String> getTransportFactoryKeys() {
+			return Collections.unmodifiableSet(factories.keySet());
+		}
 	}
 
 }
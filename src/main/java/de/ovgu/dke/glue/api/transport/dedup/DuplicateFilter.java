@@ -0,0 +1,294 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.dedup;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.transport.AttributeKey;
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.PacketHandler;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.Transport;
+import de.ovgu.dke.glue.api.transport.TransportLifecycleListener;
+import de.ovgu.dke.glue.api.util.RotatingBloomFilter;
+
+/**
+ * <p>
+ * A packet handler which passes each packet only once to the application
+ * handler. Packets are identified by a non-negative sequence id in a packet
+ * attribute, e.g. {@link de.ovgu.dke.glue.api.transport.rpc.RpcChannel#CORRELATION_ID}
+ * or an id set by the transport; packets without id are passed through.
+ * </p>
+ * 
+ * <p>
+ * Every packet thread has a sliding window of the last {@code window} ids,
+ * which decides exactly for ids within the window. Ids below the window,
+ * e.g. late retransmissions, are looked up in the optional
+ * {@link RotatingBloomFilter}, which remembers all delivered ids for its
+ * time to live; a false positive drops a packet which has not been delivered.
+ * Without filter, ids below the window are dropped.
+ * </p>
+ * 
+ * <p>
+ * Use the same instance as handler of all packet threads of a schema, and
+ * register it as life-cycle listener at the transport factory, so that the
+ * window of a disposed packet thread is released.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class DuplicateFilter implements PacketHandler,
+		TransportLifecycleListener {
+	/**
+	 * Default number of ids in the window of a packet thread.
+	 */
+	public static final int DEFAULT_WINDOW = 1024;
+
+	private final PacketHandler handler;
+	private final AttributeKey<Long> key;
+	private final int window;
+	private final RotatingBloomFilter filter;
+
+	private final ConcurrentMap<PacketThread, SequenceWindow> windows;
+
+	private final AtomicLong delivered;
+	private final AtomicLong passed;
+	private final AtomicLong windowDrops;
+	private final AtomicLong filterDrops;
+	private final AtomicLong oldDrops;
+
+	/**
+	 * Create a duplicate filter with the default window and without Bloom
+	 * filter.
+	 * 
+	 * @param handler
+	 *            The application handler.
+	 * @param key
+	 *            The attribute key of the sequence id.
+	 */
+	public DuplicateFilter(final PacketHandler handler,
+			final AttributeKey<Long> key) {
+		this(handler, key, DEFAULT_WINDOW, null);
+	}
+
+	/**
+	 * Create a duplicate filter.
+	 * 
+	 * @param handler
+	 *            The application handler.
+	 * @param key
+	 *            The attribute key of the sequence id.
+	 * @param window
+	 *            The number of ids in the window of a packet thread, rounded
+	 *            up to a power of two.
+	 * @param filter
+	 *            The filter for ids below the window, may be {@code null}.
+	 *            The filter may be shared with other duplicate filters if the
+	 *            ids are unique among them.
+	 * @throws NullPointerException
+	 *             if the handler or key is {@code null}
+	 * @throws IllegalArgumentException
+	 *             if the window is not positive
+	 */
+	public DuplicateFilter(final PacketHandler handler,
+			final AttributeKey<Long> key, final int window,
+			final RotatingBloomFilter filter) {
+		if (handler == null)
+			throw new NullPointerException("Handler may not be null!");
+		if (key == null)
+			throw new NullPointerException("Key may not be null!");
+		if (window <= 0 || window > 1 << 24)
+			throw new IllegalArgumentException(
+					"Window must be between 1 and 2^24!");
+
+		this.handler = handler;
+		this.key = key;
+		this.window = window;
+		this.filter = filter;
+		this.windows = new ConcurrentHashMap<PacketThread, SequenceWindow>();
+
+		this.delivered = new AtomicLong();
+		this.passed = new AtomicLong();
+		this.windowDrops = new AtomicLong();
+		this.filterDrops = new AtomicLong();
+		this.oldDrops = new AtomicLong();
+	}
+
+	@Override
+	public void handle(final PacketThread packetThread, final Packet packet) {
+		final Long id = key.get(packet);
+		if (id == null || id.longValue() < 0) {
+			passed.incrementAndGet();
+			handler.handle(packetThread, packet);
+			return;
+		}
+
+		SequenceWindow w = windows.get(packetThread);
+		if (w == null) {
+			final SequenceWindow created = new SequenceWindow(window);
+			w = windows.putIfAbsent(packetThread, created);
+			if (w == null)
+				w = created;
+		}
+
+		final SequenceWindow.Result result;
+		synchronized (w) {
+			result = w.check(id.longValue());
+		}
+
+		switch (result) {
+		case NEW:
+			if (filter != null)
+				filter.add(id.longValue());
+			break;
+		case DUPLICATE:
+			windowDrops.incrementAndGet();
+			return;
+		case TOO_OLD:
+			if (filter == null) {
+				oldDrops.incrementAndGet();
+				return;
+			}
+			if (!filter.addIfAbsent(id.longValue())) {
+				filterDrops.incrementAndGet();
+				return;
+			}
+			break;
+		}
+
+		delivered.incrementAndGet();
+		handler.handle(packetThread, packet);
+	}
+
+	/**
+	 * Release the window of a packet thread.
+	 * 
+	 * @param pt
+	 *            the packet thread
+	 */
+	public void release(final PacketThread pt) {
+		if (pt != null)
+			windows.remove(pt);
+	}
+
+	/**
+	 * Get the number of packets passed to the application handler, including
+	 * packets without id.
+	 * 
+	 * @return the number of delivered packets
+	 */
+	public long getDeliveredCount() {
+		return delivered.get() + passed.get();
+	}
+
+	/**
+	 * Get the number of packets without id.
+	 * 
+	 * @return the number of packets passed through
+	 */
+	public long getPassedCount() {
+		return passed.get();
+	}
+
+	/**
+	 * Get the number of dropped packets.
+	 * 
+	 * @return the number of duplicates
+	 */
+	public long getDuplicateCount() {
+		return windowDrops.get() + filterDrops.get() + oldDrops.get();
+	}
+
+	/**
+	 * Get the number of packets dropped by the Bloom filter. This is an upper
+	 * bound of the false positives, which cannot be told apart from true
+	 * duplicates.
+	 * 
+	 * @return the number of packets dropped by the filter
+	 */
+	public long getFilterDropCount() {
+		return filterDrops.get();
+	}
+
+	/**
+	 * Get the number of packets below the window which have been dropped
+	 * because there is no Bloom filter.
+	 * 
+	 * @return the number of dropped old packets
+	 */
+	public long getTooOldCount() {
+		return oldDrops.get();
+	}
+
+	/**
+	 * Estimate the probability that a packet below the window is dropped
+	 * although it has not been delivered.
+	 * 
+	 * @return the false positive probability of the filter or 0 without filter
+	 */
+	public double getFalsePositiveProbability() {
+		return filter == null ? 0 : filter.getFalsePositiveProbability();
+	}
+
+	/**
+	 * Get the number of packet threads with a window.
+	 * 
+	 * @return the number of windows
+	 */
+	public int getWindowCount() {
+		return windows.size();
+	}
+
+	/**
+	 * Get the memory used by the windows and the filter.
+	 * 
+	 * @return the memory in bytes, without object overhead
+	 */
+	public long getMemoryBytes() {
+		long bytes = filter == null ? 0 : filter.getMemoryBytes();
+		for (final SequenceWindow w : windows.values())
+			bytes += w.size() / 8;
+		return bytes;
+	}
+
+	@Override
+	public void onStatusChange(Transport transport, Transport.Status oldStatus,
+			Transport.Status newStatus) {
+		// windows are released per packet thread
+	}
+
+	@Override
+	public void onThreadCreation(PacketThread pt) {
+		// windows are created on the first packet
+	}
+
+	@Override
+	public void onThreadDisposal(PacketThread pt) {
+		release(pt);
+	}
+}
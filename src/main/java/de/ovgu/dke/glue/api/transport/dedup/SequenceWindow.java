@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.dedup;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * <p>
+ * Sliding window of the sequence ids seen on a packet thread: a bit per id
+ * from the highest id down to {@code highest - size + 1}. Ids above the
+ * window move it forward, ids below it cannot be decided.
+ * </p>
+ * 
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ */
+@NotThreadSafe
+final class SequenceWindow {
+	/**
+	 * Result of a window check.
+	 */
+	static enum Result {
+		/**
+		 * The id has not been seen and is now marked.
+		 */
+		NEW,
+		/**
+		 * The id has been seen before.
+		 */
+		DUPLICATE,
+		/**
+		 * The id is below the window.
+		 */
+		TOO_OLD
+	}
+
+	private final long[] bits;
+	private final int mask;
+	private long highest = -1;
+
+	/**
+	 * Create a window.
+	 * 
+	 * @param size
+	 *            the number of ids, rounded up to a power of two and at least
+	 *            64
+	 */
+	SequenceWindow(final int size) {
+		int n = 64;
+		while (n < size)
+			n <<= 1;
+		this.bits = new long[n / 64];
+		this.mask = n - 1;
+	}
+
+	/**
+	 * Check and mark an id.
+	 * 
+	 * @param id
+	 *            the non-negative sequence id
+	 * @return the check result
+	 */
+	Result check(final long id) {
+		if (id > highest) {
+			if (highest < 0 || id - highest > mask)
+				for (int i = 0; i < bits.length; i++)
+					bits[i] = 0;
+			else
+				for (long s = highest + 1; s < id; s++)
+					clear(s);
+			highest = id;
+			set(id);
+			return Result.NEW;
+		}
+
+		if (highest - id > mask)
+			return Result.TOO_OLD;
+
+		final int bit = (int) (id & mask);
+		if ((bits[bit >>> 6] & (1L << bit)) != 0)
+			return Result.DUPLICATE;
+		set(id);
+		return Result.NEW;
+	}
+
+	private void set(final long id) {
+		final int bit = (int) (id & mask);
+		bits[bit >>> 6] |= 1L << bit;
+	}
+
+	private void clear(final long id) {
+		final int bit = (int) (id & mask);
+		bits[bit >>> 6] &= ~(1L << bit);
+	}
+
+	/**
+	 * Get the number of ids in the window.
+	 * 
+	 * @return the window size
+	 */
+	int size() {
+		return mask + 1;
+	}
+}
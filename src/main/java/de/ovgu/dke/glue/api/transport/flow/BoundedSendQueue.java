@@ -0,0 +1,647 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.flow;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.TransportException;
+
+/**
+ * <p>
+ * Bounded outbound queue for a packet thread or connection. Elements are
+ * queued per priority and taken in the order {@code HIGH}, {@code NORMAL},
+ * {@code DEFERRABLE}; {@code DEFAULT} is mapped to the default priority given
+ * on construction. If the queue is full, the {@link OverflowPolicy} decides
+ * which packet is dropped or whether the sender blocks or fails.
+ * </p>
+ * 
+ * <p>
+ * When the queue size reaches the high watermark, {@link #onHighWatermark(int)}
+ * is called; when it drops to the low watermark afterwards,
+ * {@link #onLowWatermark(int)} is called. Both hooks do nothing by default and
+ * are invoked without holding the queue lock, but in the order of the
+ * crossings, i.e. high and low alternate: the crossings are recorded under the
+ * lock and delivered by one thread at a time, which may be another thread
+ * than the one which caused the crossing. Transports usually forward them to
+ * a {@link QueueWatermarkListener}.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ * 
+ * @param <E>
+ *            the element type, e.g. serialized payloads or encoded frames
+ */
+@ThreadSafe
+public class BoundedSendQueue<E> {
+	/**
+	 * Default time in milliseconds a {@code BLOCK}ing sender waits for space.
+	 */
+	public static final long DEFAULT_BLOCK_TIMEOUT = 30 * 1000;
+
+	private static final int HIGH = 0;
+	private static final int NORMAL = 1;
+	private static final int DEFERRABLE = 2;
+
+	private final int capacity;
+	private final int highWatermark;
+	private final int lowWatermark;
+	private final OverflowPolicy policy;
+	private final int defaultLevel;
+
+	private final ArrayDeque<E>[] queues;
+	private final ReentrantLock lock;
+	private final Condition notFull;
+
+	private int size = 0;
+	private boolean aboveHigh = false;
+	// watermark crossings not delivered yet, in order
+	private final ArrayDeque<WatermarkEvent> events;
+	private boolean dispatching = false;
+	private long dropped = 0;
+	private volatile long blockTimeout = DEFAULT_BLOCK_TIMEOUT;
+
+	/**
+	 * Create a queue with watermarks at 75% and 25% of the capacity and
+	 * {@code NORMAL} as default priority.
+	 * 
+	 * @param capacity
+	 *            the maximum number of queued elements
+	 * @param policy
+	 *            the overflow policy
+	 * @throws NullPointerException
+	 *             if the policy is {@code null}
+	 * @throws IllegalArgumentException
+	 *             if the capacity is not positive
+	 */
+	public BoundedSendQueue(final int capacity, final OverflowPolicy policy) {
+		this(capacity, Math.max(1, capacity * 3 / 4), capacity / 4, policy,
+				Packet.Priority.NORMAL);
+	}
+
+	/**
+	 * Create a queue.
+	 * 
+	 * @param capacity
+	 *            the maximum number of queued elements
+	 * @param highWatermark
+	 *            the size at which the high watermark hook is called
+	 * @param lowWatermark
+	 *            the size at which the low watermark hook is called
+	 * @param policy
+	 *            the overflow policy
+	 * @param defaultPriority
+	 *            the priority for {@code DEFAULT} packets
+	 * @throws NullPointerException
+	 *             if the policy or default priority are {@code null}
+	 * @throws IllegalArgumentException
+	 *             if the capacity is not positive, the watermarks are not
+	 *             within the capacity or the low watermark is not below the
+	 *             high watermark, or the default priority is {@code DEFAULT}
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BoundedSendQueue(final int capacity, final int highWatermark,
+			final int lowWatermark, final OverflowPolicy policy,
+			final Packet.Priority defaultPriority) {
+		if (policy == null)
+			throw new NullPointerException("Policy may not be null!");
+		if (defaultPriority == null)
+			throw new NullPointerException("Default priority may not be null!");
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive!");
+		if (highWatermark > capacity || lowWatermark < 0
+				|| lowWatermark >= highWatermark)
+			throw new IllegalArgumentException("Invalid watermarks!");
+		if (defaultPriority == Packet.Priority.DEFAULT)
+			throw new IllegalArgumentException(
+					"Default priority must be a concrete priority!");
+
+		this.capacity = capacity;
+		this.highWatermark = highWatermark;
+		this.lowWatermark = lowWatermark;
+		this.policy = policy;
+		this.defaultLevel = level(defaultPriority, NORMAL);
+
+		this.queues = new ArrayDeque[3];
+		for (int i = 0; i < queues.length; i++)
+			queues[i] = new ArrayDeque<E>();
+		this.events = new ArrayDeque<WatermarkEvent>();
+		this.lock = new ReentrantLock();
+		this.notFull = lock.newCondition();
+	}
+
+	/**
+	 * Set the time a {@code BLOCK}ing sender waits for space.
+	 * 
+	 * @param timeout
+	 *            the timeout
+	 * @param unit
+	 *            the time unit of the timeout
+	 */
+	public void setBlockTimeout(final long timeout, final TimeUnit unit) {
+		this.blockTimeout = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Add an element to the queue.
+	 * 
+	 * @param element
+	 *            the element to add
+	 * @param priority
+	 *            the packet priority, {@code null} is treated as
+	 *            {@code DEFAULT}
+	 * @return {@code true} if the element has been queued, {@code false} if
+	 *         it has been dropped by the overflow policy
+	 * @throws TransportException
+	 *             if the policy rejects the element or a blocking sender
+	 *             timed out or has been interrupted
+	 * @throws NullPointerException
+	 *             if the element is {@code null}
+	 */
+	public boolean offer(final E element, final Packet.Priority priority)
+			throws TransportException {
+		if (element == null)
+			throw new NullPointerException("Element may not be null!");
+
+		final int level = level(priority, defaultLevel);
+		boolean dispatch = false;
+
+		lock.lock();
+		try {
+			if (size >= capacity && !makeRoom(level))
+				return false;
+
+			queues[level].addLast(element);
+			size++;
+			if (!aboveHigh && size >= highWatermark) {
+				aboveHigh = true;
+				dispatch = crossed(true);
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		if (dispatch)
+			dispatchEvents();
+		return true;
+	}
+
+	/**
+	 * Get, but do not remove the next element.
+	 * 
+	 * @return the next element or {@code null} if the queue is empty
+	 */
+	public E peek() {
+		lock.lock();
+		try {
+			for (final ArrayDeque<E> q : queues)
+				if (!q.isEmpty())
+					return q.peekFirst();
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Remove and return the next element.
+	 * 
+	 * @return the next element or {@code null} if the queue is empty
+	 */
+	public E poll() {
+		final E element;
+		final boolean dispatch;
+
+		lock.lock();
+		try {
+			final ArrayDeque<E> q = head();
+			if (q == null)
+				return null;
+
+			element = q.pollFirst();
+			dispatch = removed();
+		} finally {
+			lock.unlock();
+		}
+
+		if (dispatch)
+			dispatchEvents();
+		return element;
+	}
+
+	/**
+	 * Remove the next element if it is the expected one. Use this instead of
+	 * {@link #poll()} after {@link #peek()}, as a concurrent offer of a higher
+	 * priority or an eviction by the overflow policy may change the next
+	 * element in between.
+	 * 
+	 * @param expected
+	 *            the element returned by {@link #peek()}, compared by identity
+	 * @return {@code true} if the element has been removed, {@code false} if
+	 *         it is no longer the next element
+	 */
+	public boolean pollIfHead(final E expected) {
+		final boolean dispatch;
+
+		lock.lock();
+		try {
+			final ArrayDeque<E> q = head();
+			if (q == null || q.peekFirst() != expected)
+				return false;
+
+			q.pollFirst();
+			dispatch = removed();
+		} finally {
+			lock.unlock();
+		}
+
+		if (dispatch)
+			dispatchEvents();
+		return true;
+	}
+
+	/**
+	 * Remove an element, wherever it is queued. Use this after sending a
+	 * peeked element which may no longer be the next element.
+	 * 
+	 * @param element
+	 *            the element, compared by identity
+	 * @return {@code true} if the element has been removed, {@code false} if
+	 *         it is not queued, e.g. because it has been dropped by the
+	 *         overflow policy
+	 */
+	public boolean remove(final E element) {
+		final boolean dispatch;
+
+		lock.lock();
+		try {
+			boolean found = false;
+			for (final ArrayDeque<E> q : queues) {
+				final Iterator<E> it = q.iterator();
+				while (!found && it.hasNext())
+					if (it.next() == element) {
+						it.remove();
+						found = true;
+					}
+			}
+			if (!found)
+				return false;
+
+			dispatch = removed();
+		} finally {
+			lock.unlock();
+		}
+
+		if (dispatch)
+			dispatchEvents();
+		return true;
+	}
+
+	/**
+	 * Remove and return the next element if the credit window allows to send
+	 * it. The element's cost, see {@link #getCost(Object)}, is consumed from
+	 * the window while holding the queue lock, so that the credit is always
+	 * charged for the removed element.
+	 * 
+	 * @param window
+	 *            the credit window, {@code null} for no flow control
+	 * @return the next element or {@code null} if the queue is empty or the
+	 *         window is exhausted
+	 */
+	public E pollIfFits(final CreditWindow window) {
+		final E element;
+		final boolean dispatch;
+
+		lock.lock();
+		try {
+			final ArrayDeque<E> q = head();
+			if (q == null)
+				return null;
+			if (window != null && !window.tryConsume(getCost(q.peekFirst())))
+				return null;
+
+			element = q.pollFirst();
+			dispatch = removed();
+		} finally {
+			lock.unlock();
+		}
+
+		if (dispatch)
+			dispatchEvents();
+		return element;
+	}
+
+	/**
+	 * Remove all elements.
+	 */
+	public void clear() {
+		boolean dispatch = false;
+
+		lock.lock();
+		try {
+			for (final ArrayDeque<E> q : queues)
+				q.clear();
+			size = 0;
+			notFull.signalAll();
+			if (aboveHigh) {
+				aboveHigh = false;
+				dispatch = crossed(false);
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		if (dispatch)
+			dispatchEvents();
+	}
+
+	/**
+	 * Get the number of queued elements.
+	 * 
+	 * @return the queue size
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Check whether the queue is empty.
+	 * 
+	 * @return {@code true} if there are no queued elements
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Get the capacity.
+	 * 
+	 * @return the maximum number of queued elements
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Get the overflow policy.
+	 * 
+	 * @return the overflow policy
+	 */
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Get the number of elements dropped by the overflow policy.
+	 * 
+	 * @return the drop count
+	 */
+	public long getDroppedCount() {
+		lock.lock();
+		try {
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Called when the queue size reaches the high watermark. Does nothing by
+	 * default.
+	 * 
+	 * @param queued
+	 *            the queue size
+	 */
+	protected void onHighWatermark(final int queued) {
+		// hook
+	}
+
+	/**
+	 * Called when the queue size drops to the low watermark. Does nothing by
+	 * default.
+	 * 
+	 * @param queued
+	 *            the queue size
+	 */
+	protected void onLowWatermark(final int queued) {
+		// hook
+	}
+
+	/**
+	 * Get the credit consumed by sending an element, see
+	 * {@link #pollIfFits(CreditWindow)}. Returns 1 by default, called while
+	 * holding the queue lock.
+	 * 
+	 * @param element
+	 *            the element
+	 * @return the credit cost, e.g. the number of bytes
+	 */
+	protected int getCost(final E element) {
+		return 1;
+	}
+
+	/**
+	 * Called when an element is dropped by the overflow policy. Does nothing
+	 * by default, called while holding the queue lock.
+	 * 
+	 * @param element
+	 *            the dropped element
+	 */
+	protected void onDrop(final E element) {
+		// hook
+	}
+
+	/**
+	 * Get the queue of the next element, must be called with the lock held.
+	 * 
+	 * @return the queue or {@code null} if all queues are empty
+	 */
+	private ArrayDeque<E> head() {
+		for (final ArrayDeque<E> q : queues)
+			if (!q.isEmpty())
+				return q;
+		return null;
+	}
+
+	/**
+	 * Account for a removed element, must be called with the lock held.
+	 * 
+	 * @return {@code true} if the caller must deliver the watermark events
+	 */
+	private boolean removed() {
+		size--;
+		notFull.signal();
+		if (aboveHigh && size <= lowWatermark) {
+			aboveHigh = false;
+			return crossed(false);
+		}
+		return false;
+	}
+
+	/**
+	 * Record a watermark crossing, must be called with the lock held.
+	 * 
+	 * @return {@code true} if the caller must deliver the watermark events,
+	 *         {@code false} if another thread is delivering them
+	 */
+	private boolean crossed(final boolean high) {
+		events.addLast(new WatermarkEvent(high, size));
+		if (dispatching)
+			return false;
+		dispatching = true;
+		return true;
+	}
+
+	/**
+	 * Deliver the recorded watermark events in order, must be called without
+	 * holding the lock.
+	 */
+	private void dispatchEvents() {
+		boolean done = false;
+		try {
+			while (true) {
+				final WatermarkEvent event;
+				lock.lock();
+				try {
+					event = events.pollFirst();
+					if (event == null) {
+						dispatching = false;
+						done = true;
+						return;
+					}
+				} finally {
+					lock.unlock();
+				}
+
+				if (event.high)
+					onHighWatermark(event.queued);
+				else
+					onLowWatermark(event.queued);
+			}
+		} finally {
+			if (!done) {
+				// a hook failed, the next crossing delivers the rest
+				lock.lock();
+				try {
+					dispatching = false;
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Apply the overflow policy, must be called with the lock held.
+	 * 
+	 * @return {@code true} if there is room for the element
+	 */
+	private boolean makeRoom(final int level) throws TransportException {
+		switch (policy) {
+		case BLOCK:
+			try {
+				long nanos = TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+				while (size >= capacity) {
+					if (nanos <= 0)
+						throw new TransportException(
+								"Timeout waiting for space in send queue!");
+					nanos = notFull.awaitNanos(nanos);
+				}
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new TransportException(
+						"Interrupted while waiting for space in send queue.",
+						e);
+			}
+		case DROP_DEFERRABLE:
+			if (dropOldest(DEFERRABLE))
+				return true;
+			if (level == DEFERRABLE) {
+				dropped++;
+				return false;
+			}
+			throw new TransportException(
+					"Send queue is full and contains no deferrable packets!");
+		case DROP_OLDEST:
+			for (int victim = DEFERRABLE; victim >= level; victim--)
+				if (dropOldest(victim))
+					return true;
+			dropped++;
+			return false;
+		default:
+			throw new TransportException("Send queue is full!");
+		}
+	}
+
+	private boolean dropOldest(final int level) {
+		final E victim = queues[level].pollFirst();
+		if (victim == null)
+			return false;
+
+		size--;
+		dropped++;
+		onDrop(victim);
+		return true;
+	}
+
+	private static int level(final Packet.Priority priority,
+			final int defaultLevel) {
+		if (priority == null)
+			return defaultLevel;
+		switch (priority) {
+		case HIGH:
+			return HIGH;
+		case NORMAL:
+			return NORMAL;
+		case DEFERRABLE:
+			return DEFERRABLE;
+		default:
+			return defaultLevel;
+		}
+	}
+
+	/**
+	 * A watermark crossing.
+	 */
+	private static final class WatermarkEvent {
+		final boolean high;
+		final int queued;
+
+		WatermarkEvent(final boolean high, final int queued) {
+			this.high = high;
+			this.queued = queued;
+		}
+	}
+}
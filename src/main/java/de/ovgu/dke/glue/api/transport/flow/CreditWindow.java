@@ -0,0 +1,203 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.flow;
+
+import java.util.concurrent.TimeUnit;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * <p>
+ * The sender side of credit based flow control. The window holds the credits
+ * granted by the receiver, usually counted in bytes. Sending is allowed as
+ * long as the window is positive, the amount sent is deducted afterwards, i.e.
+ * a single large packet may drive the window negative instead of blocking
+ * forever.
+ * </p>
+ * 
+ * <p>
+ * A stall begins when the sender finds the window exhausted and ends with the
+ * grant which makes the window positive again. The number and total duration
+ * of stalls are recorded.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class CreditWindow {
+	private long available;
+	private long consumed = 0;
+
+	private long stallStart = -1;
+	private long stalls = 0;
+	private long stallNanos = 0;
+
+	/**
+	 * Create a credit window.
+	 * 
+	 * @param initial
+	 *            the initial credit
+	 */
+	public CreditWindow(final long initial) {
+		this.available = initial;
+	}
+
+	/**
+	 * Consume credit if the window is positive.
+	 * 
+	 * @param amount
+	 *            the amount to consume
+	 * @return {@code true} if the credit has been consumed, {@code false} if
+	 *         the window is exhausted
+	 */
+	public synchronized boolean tryConsume(final int amount) {
+		if (available <= 0) {
+			stall();
+			return false;
+		}
+
+		available -= amount;
+		consumed += amount;
+		return true;
+	}
+
+	/**
+	 * Wait until the window is positive.
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the time unit of the timeout
+	 * @return {@code true} if credit is available, {@code false} if the
+	 *         timeout elapsed
+	 * @throws InterruptedException
+	 *             if the thread has been interrupted while waiting
+	 */
+	public synchronized boolean awaitCredit(final long timeout,
+			final TimeUnit unit) throws InterruptedException {
+		if (available > 0)
+			return true;
+
+		stall();
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		long remaining;
+		while (available <= 0) {
+			remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				return false;
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * Record a stall if the window is exhausted, e.g. when a sender gives up
+	 * without waiting for credit. The stall ends with the next grant which
+	 * makes the window positive.
+	 * 
+	 * @return {@code true} if the window is exhausted
+	 */
+	public synchronized boolean recordStall() {
+		if (available > 0)
+			return false;
+
+		stall();
+		return true;
+	}
+
+	/**
+	 * Add credit granted by the receiver.
+	 * 
+	 * @param credit
+	 *            the granted credit
+	 */
+	public synchronized void grant(final long credit) {
+		available += credit;
+		if (available > 0) {
+			if (stallStart >= 0) {
+				stallNanos += System.nanoTime() - stallStart;
+				stallStart = -1;
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Get the available credit.
+	 * 
+	 * @return the current window, may be negative
+	 */
+	public synchronized long getAvailable() {
+		return available;
+	}
+
+	/**
+	 * Get the total amount of consumed credit.
+	 * 
+	 * @return the consumed credit
+	 */
+	public synchronized long getConsumed() {
+		return consumed;
+	}
+
+	/**
+	 * Get the number of stalls.
+	 * 
+	 * @return the number of times the sender found the window exhausted
+	 */
+	public synchronized long getStallCount() {
+		return stalls;
+	}
+
+	/**
+	 * Get the total time spent in stalls, including a current stall.
+	 * 
+	 * @param unit
+	 *            the time unit of the result
+	 * @return the stall time
+	 */
+	public synchronized long getStallTime(final TimeUnit unit) {
+		long nanos = stallNanos;
+		if (stallStart >= 0)
+			nanos += System.nanoTime() - stallStart;
+		return unit.convert(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Check whether the sender is currently stalled.
+	 * 
+	 * @return {@code true} if the window is exhausted and the sender waits for
+	 *         credit
+	 */
+	public synchronized boolean isStalled() {
+		return stallStart >= 0;
+	}
+
+	private void stall() {
+		if (stallStart < 0) {
+			stallStart = System.nanoTime();
+			stalls++;
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.flow;
+
+/**
+ * The behaviour of a sender which has no credit left.
+ */
+public enum FlowControlPolicy {
+	/**
+	 * Block the sending thread until the receiver grants credit or a timeout
+	 * occurs.
+	 */
+	BLOCK,
+	/**
+	 * Reject the packet immediately with a {@code TransportException}.
+	 */
+	FAIL_FAST,
+	/**
+	 * Queue the packet and send it as soon as credit is available. The queue
+	 * is bounded by the transport implementation.
+	 */
+	QUEUE
+}
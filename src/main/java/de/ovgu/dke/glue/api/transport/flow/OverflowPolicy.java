@@ -0,0 +1,48 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.flow;
+
+/**
+ * The behaviour of a {@link BoundedSendQueue} which is full.
+ */
+public enum OverflowPolicy {
+	/**
+	 * Block the sending thread until space is available or a timeout occurs.
+	 */
+	BLOCK,
+	/**
+	 * Drop the oldest {@code DEFERRABLE} packet; if there is none, a
+	 * {@code DEFERRABLE} packet is dropped itself and other packets are
+	 * rejected.
+	 */
+	DROP_DEFERRABLE,
+	/**
+	 * Drop the oldest packet of the lowest priority, as long as it does not
+	 * have a higher priority than the new packet. Otherwise the new packet is
+	 * dropped.
+	 */
+	DROP_OLDEST,
+	/**
+	 * Reject the packet with a {@code TransportException}.
+	 */
+	FAIL
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.flow;
+
+import de.ovgu.dke.glue.api.transport.Connection;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.TransportLifecycleListener;
+
+/**
+ * <p>
+ * Life-cycle listener which is also notified when an outbound queue crosses
+ * its watermarks. Register it as {@link TransportLifecycleListener} at a
+ * transport factory; factories based on the {@code AbstractTransportFactory}
+ * deliver watermark events to all listeners implementing this interface.
+ * </p>
+ * 
+ * <p>
+ * A high watermark event is always followed by a low watermark event before
+ * the next high watermark event of the same queue.
+ * </p>
+ */
+public interface QueueWatermarkListener extends TransportLifecycleListener {
+	/**
+	 * Called when an outbound queue reaches its high watermark.
+	 * 
+	 * @param connection
+	 *            The connection of the queue.
+	 * @param pt
+	 *            The packet thread of the queue or {@code null} if the queue
+	 *            belongs to the connection.
+	 * @param queued
+	 *            The number of queued packets.
+	 */
+	public void onHighWatermark(Connection connection, PacketThread pt,
+			int queued);
+
+	/**
+	 * Called when an outbound queue drops to its low watermark after it has
+	 * reached the high watermark.
+	 * 
+	 * @param connection
+	 *            The connection of the queue.
+	 * @param pt
+	 *            The packet thread of the queue or {@code null} if the queue
+	 *            belongs to the connection.
+	 * @param queued
+	 *            The number of queued packets.
+	 */
+	public void onLowWatermark(Connection connection, PacketThread pt,
+			int queued);
+}
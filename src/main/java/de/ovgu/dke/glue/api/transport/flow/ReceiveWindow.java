@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.flow;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * <p>
+ * The receiver side of credit based flow control. The receiver reports the
+ * amount of data it has processed and gets the credit to grant to the sender.
+ * Credit is granted in batches of at least half the window to keep the number
+ * of grant messages low.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class ReceiveWindow {
+	private final long size;
+	private final long threshold;
+
+	private long pending = 0;
+	private long granted = 0;
+	private long grants = 0;
+
+	/**
+	 * Create a receive window.
+	 * 
+	 * @param size
+	 *            the window size, i.e. the initial credit of the sender
+	 * @throws IllegalArgumentException
+	 *             if the size is not positive
+	 */
+	public ReceiveWindow(final long size) {
+		if (size <= 0)
+			throw new IllegalArgumentException(
+					"Window size must be positive!");
+
+		this.size = size;
+		this.threshold = Math.max(1, size / 2);
+	}
+
+	/**
+	 * Report processed data.
+	 * 
+	 * @param amount
+	 *            the amount of processed data
+	 * @return the credit to grant to the sender now, 0 if no grant is due
+	 */
+	public synchronized long consume(final int amount) {
+		pending += amount;
+		if (pending < threshold)
+			return 0;
+
+		final long grant = pending;
+		pending = 0;
+		granted += grant;
+		grants++;
+		return grant;
+	}
+
+	/**
+	 * Get the window size.
+	 * 
+	 * @return the window size
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Get the amount of processed data not yet granted.
+	 * 
+	 * @return the pending credit
+	 */
+	public synchronized long getPending() {
+		return pending;
+	}
+
+	/**
+	 * Get the total amount of granted credit.
+	 * 
+	 * @return the granted credit
+	 */
+	public synchronized long getGranted() {
+		return granted;
+	}
+
+	/**
+	 * Get the number of grants.
+	 * 
+	 * @return the number of grants
+	 */
+	public synchronized long getGrantCount() {
+		return grants;
+	}
+}
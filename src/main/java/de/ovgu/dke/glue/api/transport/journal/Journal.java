@@ -0,0 +1,511 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.journal;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.transport.TransportException;
+
+/**
+ * <p>
+ * Append-only journal of records in memory-mapped segment files. Records are
+ * appended by copying them into the mapping, which does not involve a system
+ * call; {@link #sync(long)} forces them to disk. Concurrent calls share a
+ * single force (group commit): while one thread forces the segment, the
+ * others wait and are covered by the next force.
+ * </p>
+ * 
+ * <p>
+ * Records are read in append order by {@link #replay(RecordHandler)}, which
+ * starts at the replay checkpoint and advances it for every record accepted
+ * by the handler. Segments before the checkpoint are deleted. The checkpoint
+ * is stored in the journal directory, but forced to disk only on
+ * {@link #close()}, i.e. after a crash records may be replayed again
+ * (at-least-once delivery).
+ * </p>
+ * 
+ * <p>
+ * The retention limits the size of the journal: when a new segment would
+ * exceed it, the oldest segments are deleted, even if they have not been
+ * replayed. A journal directory must only be used by one journal instance.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class Journal {
+	/**
+	 * Default segment size in bytes.
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * Retention without size limit.
+	 */
+	public static final long UNLIMITED = Long.MAX_VALUE;
+
+	private static final String CHECKPOINT_FILE = "checkpoint";
+
+	private static final FilenameFilter SEGMENT_FILES = new FilenameFilter() {
+		@Override
+		public boolean accept(File dir, String name) {
+			return name.matches("[0-9a-f]{16}\\.journal");
+		}
+	};
+
+	/**
+	 * Handler for replayed records.
+	 */
+	public static interface RecordHandler {
+		/**
+		 * Handle a replayed record.
+		 * 
+		 * @param record
+		 *            the record data
+		 * @return {@code true} if the record has been processed, {@code false}
+		 *         to stop the replay, the record will be replayed again.
+		 */
+		public boolean handle(byte[] record);
+	}
+
+	private final File directory;
+	private final int segmentSize;
+	private final long retention;
+
+	// lock order: replayLock, appendLock
+	private final Object appendLock = new Object();
+	// guarded by appendLock
+	private final TreeMap<Long, JournalSegment> segments;
+	private JournalSegment current;
+	private boolean closed = false;
+	// written under appendLock
+	private volatile long writePosition;
+
+	private final Object syncLock = new Object();
+	// guarded by syncLock
+	private long synced;
+	private boolean syncing = false;
+
+	private final Object replayLock = new Object();
+	private final RandomAccessFile checkpointFile;
+	private final MappedByteBuffer checkpointMap;
+	// written under replayLock
+	private volatile long checkpoint;
+
+	private final AtomicLong appended;
+	private final AtomicLong forced;
+	private final AtomicLong replayed;
+	private final AtomicLong droppedSegments;
+
+	/**
+	 * Open a journal with the default segment size and unlimited retention.
+	 * 
+	 * @param directory
+	 *            The journal directory, which is created if necessary.
+	 * @throws TransportException
+	 *             if the journal cannot be opened
+	 */
+	public Journal(final File directory) throws TransportException {
+		this(directory, DEFAULT_SEGMENT_SIZE, UNLIMITED);
+	}
+
+	/**
+	 * Open a journal. Existing segments are recovered, the segment size of a
+	 * new segment is used for new segments only.
+	 * 
+	 * @param directory
+	 *            The journal directory, which is created if necessary.
+	 * @param segmentSize
+	 *            The size of new segment files in bytes.
+	 * @param retention
+	 *            The maximum size of all segments in bytes, at least two
+	 *            segments are kept.
+	 * @throws TransportException
+	 *             if the journal cannot be opened
+	 * @throws NullPointerException
+	 *             if the directory is {@code null}
+	 * @throws IllegalArgumentException
+	 *             if the segment size is less than 1 KiB or the retention is
+	 *             not positive
+	 */
+	public Journal(final File directory, final int segmentSize,
+			final long retention) throws TransportException {
+		if (directory == null)
+			throw new NullPointerException("Directory may not be null!");
+		if (segmentSize < 1024)
+			throw new IllegalArgumentException(
+					"Segment size must be at least 1 KiB!");
+		if (retention <= 0)
+			throw new IllegalArgumentException("Retention must be positive!");
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new TransportException("Cannot create journal directory "
+					+ directory);
+
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.retention = retention;
+		this.segments = new TreeMap<Long, JournalSegment>();
+
+		this.appended = new AtomicLong();
+		this.forced = new AtomicLong();
+		this.replayed = new AtomicLong();
+		this.droppedSegments = new AtomicLong();
+
+		try {
+			final String[] names = directory.list(SEGMENT_FILES);
+			for (final String name : names) {
+				final long id = Long.parseLong(name.substring(0, 16), 16);
+				segments.put(Long.valueOf(id),
+						JournalSegment.open(new File(directory, name), id));
+			}
+			if (segments.isEmpty())
+				segments.put(Long.valueOf(0),
+						JournalSegment.create(directory, 0, segmentSize));
+
+			current = segments.lastEntry().getValue();
+			writePosition = position(current.getId(), current.recover());
+			synced = writePosition;
+
+			final File file = new File(directory, CHECKPOINT_FILE);
+			checkpointFile = new RandomAccessFile(file, "rw");
+			checkpointMap = checkpointFile.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0, 8);
+		} catch (IOException e) {
+			closeSegments();
+			throw new TransportException("Cannot open journal " + directory
+					+ ": " + e.getMessage(), e);
+		} catch (TransportException e) {
+			closeSegments();
+			throw e;
+		}
+
+		final long first = position(segments.firstKey().longValue(),
+				JournalSegment.HEADER_SIZE);
+		final long stored = checkpointMap.getLong(0);
+		checkpoint = (stored < first || stored > writePosition) ? first
+				: stored;
+	}
+
+	private static long position(final long segment, final int offset) {
+		return (segment << 32) | offset;
+	}
+
+	private static long segmentOf(final long position) {
+		return position >>> 32;
+	}
+
+	private static int offsetOf(final long position) {
+		return (int) position;
+	}
+
+	/**
+	 * Append a record. The record is durable after {@link #sync(long)} with
+	 * the returned position.
+	 * 
+	 * @param record
+	 *            the record data
+	 * @return the journal position after the record
+	 * @throws TransportException
+	 *             if a new segment cannot be created
+	 * @throws IllegalStateException
+	 *             if the journal has been closed
+	 * @throws IllegalArgumentException
+	 *             if the record is empty or does not fit into a segment
+	 * @throws NullPointerException
+	 *             if the record is {@code null}
+	 */
+	public long append(final byte[] record) throws TransportException {
+		if (record == null)
+			throw new NullPointerException("Record may not be null!");
+		if (record.length == 0)
+			throw new IllegalArgumentException("Record may not be empty!");
+		if (record.length > segmentSize - JournalSegment.HEADER_SIZE
+				- JournalSegment.RECORD_HEADER_SIZE)
+			throw new IllegalArgumentException(
+					"Record exceeds the segment size!");
+
+		final int checksum = JournalSegment.checksum(record);
+		synchronized (appendLock) {
+			if (closed)
+				throw new IllegalStateException("Journal has been closed!");
+
+			int offset = offsetOf(writePosition);
+			if (offset + JournalSegment.RECORD_HEADER_SIZE + record.length > current
+					.size()) {
+				roll();
+				offset = JournalSegment.HEADER_SIZE;
+			}
+
+			current.write(offset, record, checksum);
+			writePosition = position(current.getId(), offset
+					+ JournalSegment.RECORD_HEADER_SIZE + record.length);
+			appended.incrementAndGet();
+			return writePosition;
+		}
+	}
+
+	// guarded by appendLock
+	private void roll() throws TransportException {
+		current.force();
+		final long id = current.getId() + 1;
+		current = JournalSegment.create(directory, id, segmentSize);
+		segments.put(Long.valueOf(id), current);
+
+		// the replay skips deleted segments
+		long size = 0;
+		for (final JournalSegment segment : segments.values())
+			size += segment.size();
+		while (size > retention && segments.size() > 2) {
+			final JournalSegment oldest = segments.pollFirstEntry().getValue();
+			size -= oldest.size();
+			oldest.delete();
+			droppedSegments.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Force the records up to a position to disk. If another thread is
+	 * forcing, the caller waits for it and forces the records appended in the
+	 * meantime, including those of other waiting threads, with one call.
+	 * 
+	 * @param position
+	 *            a position returned by {@link #append(byte[])}
+	 * @throws TransportException
+	 *             if the thread has been interrupted while waiting
+	 * @throws IllegalStateException
+	 *             if the journal has been closed
+	 */
+	public void sync(final long position) throws TransportException {
+		synchronized (syncLock) {
+			while (synced < position && syncing)
+				try {
+					syncLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new TransportException(
+							"Interrupted while waiting for journal sync.", e);
+				}
+			if (synced >= position)
+				return;
+			syncing = true;
+		}
+
+		long target = -1;
+		try {
+			final JournalSegment segment;
+			synchronized (appendLock) {
+				if (closed)
+					throw new IllegalStateException("Journal has been closed!");
+				// previous segments have been forced on roll
+				target = writePosition;
+				segment = current;
+			}
+			segment.force();
+			forced.incrementAndGet();
+		} finally {
+			synchronized (syncLock) {
+				syncing = false;
+				if (target > synced)
+					synced = target;
+				syncLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Replay the records after the checkpoint in append order, including the
+	 * records appended during the replay. The checkpoint is advanced for
+	 * every record the handler accepts. Replays are serialized.
+	 * 
+	 * @param handler
+	 *            the record handler
+	 * @return the number of accepted records
+	 * @throws IllegalStateException
+	 *             if the journal has been closed
+	 * @throws NullPointerException
+	 *             if the handler is {@code null}
+	 */
+	public int replay(final RecordHandler handler) {
+		if (handler == null)
+			throw new NullPointerException("Handler may not be null!");
+
+		synchronized (replayLock) {
+			int count = 0;
+			long pos = checkpoint;
+			try {
+				while (pos < writePosition) {
+					final JournalSegment segment;
+					synchronized (appendLock) {
+						if (closed)
+							throw new IllegalStateException(
+									"Journal has been closed!");
+						final Map.Entry<Long, JournalSegment> e = segments
+								.ceilingEntry(Long.valueOf(segmentOf(pos)));
+						segment = e.getValue();
+						if (segment.getId() != segmentOf(pos))
+							// dropped by retention
+							pos = position(segment.getId(),
+									JournalSegment.HEADER_SIZE);
+					}
+
+					final byte[] record = segment.read(offsetOf(pos));
+					if (record == null) {
+						// end of a previous segment
+						pos = position(segment.getId() + 1,
+								JournalSegment.HEADER_SIZE);
+						continue;
+					}
+
+					if (!handler.handle(record))
+						break;
+
+					pos = position(segment.getId(), offsetOf(pos)
+							+ JournalSegment.RECORD_HEADER_SIZE + record.length);
+					checkpoint = pos;
+					count++;
+				}
+			} finally {
+				replayed.addAndGet(count);
+				checkpointMap.putLong(0, checkpoint);
+				release(segmentOf(checkpoint));
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Delete the segments before the checkpoint segment.
+	 */
+	private void release(final long checkpointSegment) {
+		synchronized (appendLock) {
+			while (!segments.isEmpty()
+					&& segments.firstKey().longValue() < checkpointSegment)
+				segments.pollFirstEntry().getValue().delete();
+		}
+	}
+
+	/**
+	 * Check whether there are records after the checkpoint.
+	 * 
+	 * @return {@code true} if a replay may process records
+	 */
+	public boolean hasPending() {
+		return checkpoint < writePosition;
+	}
+
+	/**
+	 * Close the journal, force the records and the checkpoint to disk.
+	 */
+	public void close() {
+		synchronized (replayLock) {
+			synchronized (appendLock) {
+				if (closed)
+					return;
+				closed = true;
+
+				current.force();
+				closeSegments();
+				checkpointMap.force();
+				try {
+					checkpointFile.close();
+				} catch (IOException e) {
+					// nothing left to do
+				}
+			}
+		}
+	}
+
+	private void closeSegments() {
+		for (final JournalSegment segment : segments.values())
+			segment.close();
+	}
+
+	/**
+	 * Get the journal directory.
+	 * 
+	 * @return the directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Get the number of segment files.
+	 * 
+	 * @return the number of segments
+	 */
+	public int getSegmentCount() {
+		synchronized (appendLock) {
+			return segments.size();
+		}
+	}
+
+	/**
+	 * Get the number of records appended since the journal has been opened.
+	 * 
+	 * @return the number of appended records
+	 */
+	public long getAppendCount() {
+		return appended.get();
+	}
+
+	/**
+	 * Get the number of forces by {@link #sync(long)}, which is lower than
+	 * the number of calls if syncs have been grouped.
+	 * 
+	 * @return the number of forces
+	 */
+	public long getSyncCount() {
+		return forced.get();
+	}
+
+	/**
+	 * Get the number of records accepted by replay handlers since the journal
+	 * has been opened.
+	 * 
+	 * @return the number of replayed records
+	 */
+	public long getReplayCount() {
+		return replayed.get();
+	}
+
+	/**
+	 * Get the number of segments deleted by the retention before they have
+	 * been replayed.
+	 * 
+	 * @return the number of dropped segments
+	 */
+	public long getDroppedSegmentCount() {
+		return droppedSegments.get();
+	}
+}
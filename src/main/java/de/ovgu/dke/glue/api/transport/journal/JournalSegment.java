@@ -0,0 +1,300 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import net.jcip.annotations.NotThreadSafe;
+import de.ovgu.dke.glue.api.transport.TransportException;
+
+/**
+ * <p>
+ * A pre-allocated, memory-mapped segment file of a {@link Journal}. The file
+ * starts with a header, followed by records of the form
+ * {@code length, CRC32, data}. The unused rest of the file is zero, a record
+ * with length zero or a wrong checksum marks the end of the segment.
+ * </p>
+ * 
+ * <p>
+ * The header is forced to the storage device on creation. A segment with a
+ * zero header has been pre-allocated by a process which crashed before the
+ * header reached the device, so it cannot contain records and is
+ * re-initialized as an empty segment when it is opened.
+ * </p>
+ * 
+ * <p>
+ * This class is not thread safe, writes are serialized by the journal.
+ * Reading records below the published write position is safe concurrently
+ * with writes.
+ * </p>
+ */
+@NotThreadSafe
+final class JournalSegment {
+	private static final int MAGIC = 0x474c554a; // "GLUJ"
+	private static final int VERSION = 1;
+
+	/**
+	 * Size of the segment header, i.e. the offset of the first record.
+	 */
+	static final int HEADER_SIZE = 16;
+
+	/**
+	 * Size of the record header.
+	 */
+	static final int RECORD_HEADER_SIZE = 8;
+
+	private final long id;
+	private final File file;
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer map;
+
+	private JournalSegment(final long id, final File file,
+			final RandomAccessFile raf, final MappedByteBuffer map) {
+		this.id = id;
+		this.file = file;
+		this.raf = raf;
+		this.map = map;
+	}
+
+	/**
+	 * Get the file name of a segment.
+	 * 
+	 * @param id
+	 *            the segment id
+	 * @return the file name
+	 */
+	static String fileName(final long id) {
+		return String.format("%016x.journal", Long.valueOf(id));
+	}
+
+	/**
+	 * Create a new segment file.
+	 * 
+	 * @param directory
+	 *            the journal directory
+	 * @param id
+	 *            the segment id
+	 * @param size
+	 *            the file size
+	 * @return the segment
+	 * @throws TransportException
+	 *             if the file cannot be created or mapped
+	 */
+	static JournalSegment create(final File directory, final long id,
+			final int size) throws TransportException {
+		final File file = new File(directory, fileName(id));
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			raf.setLength(0);
+			raf.setLength(size);
+			final MappedByteBuffer map = raf.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0, size);
+			initialize(map, id);
+			return new JournalSegment(id, file, raf, map);
+		} catch (IOException e) {
+			close(raf);
+			throw new TransportException("Cannot create journal segment "
+					+ file + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Map an existing segment file.
+	 * 
+	 * @param file
+	 *            the segment file
+	 * @param id
+	 *            the segment id
+	 * @return the segment
+	 * @throws TransportException
+	 *             if the file cannot be mapped or has an unknown format
+	 */
+	static JournalSegment open(final File file, final long id)
+			throws TransportException {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			final long length = raf.length();
+			if (length < HEADER_SIZE || length > Integer.MAX_VALUE)
+				throw new TransportException("Invalid journal segment size: "
+						+ file);
+			final MappedByteBuffer map = raf.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0, length);
+			if (map.getInt(0) == 0 && map.getInt(4) == 0
+					&& map.getLong(8) == 0)
+				initialize(map, id);
+			else if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION
+					|| map.getLong(8) != id)
+				throw new TransportException("Unsupported journal segment: "
+						+ file);
+			return new JournalSegment(id, file, raf, map);
+		} catch (IOException e) {
+			close(raf);
+			throw new TransportException("Cannot open journal segment " + file
+					+ ": " + e.getMessage(), e);
+		} catch (TransportException e) {
+			close(raf);
+			throw e;
+		}
+	}
+
+	/**
+	 * Write the header of an empty segment and force it to the storage device.
+	 */
+	private static void initialize(final MappedByteBuffer map, final long id) {
+		map.putInt(0, MAGIC);
+		map.putInt(4, VERSION);
+		map.putLong(8, id);
+		map.force();
+	}
+
+	/**
+	 * Get the segment id.
+	 * 
+	 * @return the id
+	 */
+	long getId() {
+		return id;
+	}
+
+	/**
+	 * Get the segment size.
+	 * 
+	 * @return the file size in bytes
+	 */
+	int size() {
+		return map.capacity();
+	}
+
+	/**
+	 * Compute the checksum of a record.
+	 * 
+	 * @param record
+	 *            the record data
+	 * @return the CRC32 of the data
+	 */
+	static int checksum(final byte[] record) {
+		final CRC32 crc = new CRC32();
+		crc.update(record, 0, record.length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Write a record. The caller makes sure that the record fits.
+	 * 
+	 * @param offset
+	 *            the record offset
+	 * @param record
+	 *            the record data
+	 * @param checksum
+	 *            the checksum of the data
+	 */
+	void write(final int offset, final byte[] record, final int checksum) {
+		final ByteBuffer buf = map.duplicate();
+		buf.position(offset + RECORD_HEADER_SIZE);
+		buf.put(record);
+		map.putInt(offset + 4, checksum);
+		map.putInt(offset, record.length);
+	}
+
+	/**
+	 * Read a record.
+	 * 
+	 * @param offset
+	 *            the record offset
+	 * @return the record data or {@code null} if there is no valid record at
+	 *         the offset
+	 */
+	byte[] read(final int offset) {
+		if (offset + RECORD_HEADER_SIZE > map.capacity())
+			return null;
+		final int length = map.getInt(offset);
+		if (length <= 0
+				|| length > map.capacity() - offset - RECORD_HEADER_SIZE)
+			return null;
+
+		final byte[] record = new byte[length];
+		final ByteBuffer buf = map.duplicate();
+		buf.position(offset + RECORD_HEADER_SIZE);
+		buf.get(record);
+		return checksum(record) == map.getInt(offset + 4) ? record : null;
+	}
+
+	/**
+	 * Find the end of the valid records and clear the rest of the segment,
+	 * which may contain a torn write.
+	 * 
+	 * @return the offset after the last valid record
+	 */
+	int recover() {
+		int offset = HEADER_SIZE;
+		byte[] record;
+		while ((record = read(offset)) != null)
+			offset += RECORD_HEADER_SIZE + record.length;
+
+		for (int i = offset; i < map.capacity(); i++)
+			if (map.get(i) != 0)
+				map.put(i, (byte) 0);
+		return offset;
+	}
+
+	/**
+	 * Force the segment to the storage device.
+	 */
+	void force() {
+		map.force();
+	}
+
+	/**
+	 * Close the segment file. The mapping is released by the garbage
+	 * collector, so concurrent readers are not affected.
+	 */
+	void close() {
+		close(raf);
+	}
+
+	/**
+	 * Close and delete the segment file.
+	 * 
+	 * @return {@code true} if the file has been deleted
+	 */
+	boolean delete() {
+		close();
+		return file.delete();
+	}
+
+	private static void close(final RandomAccessFile raf) {
+		if (raf != null)
+			try {
+				raf.close();
+			} catch (IOException e) {
+				// nothing left to do
+			}
+	}
+}
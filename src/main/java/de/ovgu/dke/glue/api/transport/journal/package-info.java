@@ -0,0 +1,32 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * <p>
+ * Durable outbound journal for store-and-forward delivery. The
+ * {@link de.ovgu.dke.glue.api.transport.journal.Journal} appends records to
+ * memory-mapped segment files and forces them to disk with group commits; the
+ * records after the replay checkpoint are replayed until they have been
+ * forwarded, see {@link de.ovgu.dke.glue.api.transport.StoreAndForward}.
+ * </p>
+ */
+package de.ovgu.dke.glue.api.transport.journal;
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.local;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.transport.Connection;
+import de.ovgu.dke.glue.api.transport.PacketHandler;
+import de.ovgu.dke.glue.api.transport.PacketHandlerFactory;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.SchemaRegistry;
+import de.ovgu.dke.glue.api.transport.Transport;
+import de.ovgu.dke.glue.api.transport.TransportException;
+
+/**
+ * <p>
+ * A connection of a local transport. Payloads are passed by reference, i.e.
+ * the connection uses the {@code JAVA} serialization format unless the
+ * factory negotiates another format, see {@link LocalTransportFactory}.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class LocalConnection implements Connection {
+	private final LocalTransport transport;
+	private final String schema;
+	private final int schemaId;
+	private final String format;
+
+	private final ConcurrentMap<LocalPacketThread, Boolean> threads;
+
+	LocalConnection(final LocalTransport transport, final String schema)
+			throws TransportException {
+		this.transport = transport;
+		this.schema = schema;
+		this.schemaId = SchemaRegistry.getInstance().getSchemaId(schema);
+		this.format = transport.getFactory().negotiateFormat(transport, schema);
+		this.threads = new ConcurrentHashMap<LocalPacketThread, Boolean>();
+	}
+
+	@Override
+	public String getConnectionSchema() {
+		return schema;
+	}
+
+	@Override
+	public String getSerializationFormat() {
+		return format;
+	}
+
+	@Override
+	public PacketThread createThread(final PacketHandler handler)
+			throws TransportException {
+		return addThread(new LocalPacketThread(this,
+				handler == PacketThread.DEFAULT_HANDLER ? createDefaultHandler()
+						: handler, null));
+	}
+
+	@Override
+	public Transport getTransport() {
+		return transport;
+	}
+
+	@Override
+	public URI getPeer() {
+		return transport.getPeer();
+	}
+
+	/**
+	 * Both endpoints share the schema registry, so the check succeeds if the
+	 * schema is registered.
+	 */
+	@Override
+	public boolean checkCapabilities() throws TransportException {
+		return SchemaRegistry.getInstance().getRecord(schemaId) != null;
+	}
+
+	/**
+	 * Get the number of open packet threads.
+	 * 
+	 * @return the number of packet threads
+	 */
+	public int getThreadCount() {
+		return threads.size();
+	}
+
+	/**
+	 * Get the connection on the peer's transport back to this endpoint.
+	 */
+	LocalConnection getRemote() throws TransportException {
+		return (LocalConnection) transport.getReverse().getConnection(schema);
+	}
+
+	/**
+	 * Open the counterpart for a packet thread of the peer.
+	 */
+	LocalPacketThread openThread(final LocalPacketThread peer)
+			throws TransportException {
+		return addThread(new LocalPacketThread(this, createDefaultHandler(),
+				peer));
+	}
+
+	LocalTransportFactory getFactory() {
+		return transport.getFactory();
+	}
+
+	LocalDispatcher getDispatcher() {
+		return transport.getFactory().getDispatcher();
+	}
+
+	void removeThread(final LocalPacketThread pt) {
+		if (threads.remove(pt) != null)
+			transport.getFactory().threadClosed(pt);
+	}
+
+	/**
+	 * Dispose all packet threads.
+	 */
+	void close() {
+		for (final LocalPacketThread pt : threads.keySet())
+			pt.dispose();
+	}
+
+	/**
+	 * Get the id of the connection schema in the schema registry.
+	 */
+	int getSchemaId() {
+		return schemaId;
+	}
+
+	private LocalPacketThread addThread(final LocalPacketThread pt)
+			throws TransportException {
+		transport.checkOpen();
+		threads.put(pt, Boolean.TRUE);
+		transport.getFactory().threadOpened(pt);
+		return pt;
+	}
+
+	private PacketHandler createDefaultHandler() throws TransportException {
+		final PacketHandlerFactory factory = SchemaRegistry.getInstance()
+				.getPacketHandlerFactory(schema);
+		if (factory == null)
+			throw new TransportException(
+					"No packet handler factory for schema " + schema);
+
+		try {
+			return factory.createPacketHandler();
+		} catch (InstantiationException e) {
+			throw new TransportException("Could not create packet handler: "
+					+ e.getMessage(), e);
+		}
+	}
+}
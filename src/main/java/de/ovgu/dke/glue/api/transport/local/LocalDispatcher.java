@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.local;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.reporting.Reporter;
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.PacketPool;
+import de.ovgu.dke.glue.api.transport.PooledPacket;
+import de.ovgu.dke.glue.api.transport.TransportException;
+import de.ovgu.dke.glue.api.util.MpscRingBuffer;
+import de.ovgu.dke.glue.api.util.WaitStrategy;
+
+/**
+ * <p>
+ * Delivers the packets for one local endpoint. Sending threads put packets
+ * into a multi-producer ring buffer, a single daemon thread takes them out
+ * and calls the packet handlers, so handlers of an endpoint are never called
+ * concurrently. Both sides wait according to the configured
+ * {@link WaitStrategy} if the buffer is full or empty. Packets come from a
+ * pool of the dispatcher and are released after the handler has returned.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+class LocalDispatcher implements Runnable {
+	private final LocalTransportFactory factory;
+	private final MpscRingBuffer<LocalPacket> ring;
+	private final PacketPool packets;
+	private final WaitStrategy strategy;
+	private final Thread thread;
+
+	private volatile boolean running = true;
+	private volatile boolean handling = false;
+
+	LocalDispatcher(final LocalTransportFactory factory, final int capacity,
+			final WaitStrategy strategy) {
+		this.factory = factory;
+		this.ring = new MpscRingBuffer<LocalPacket>(capacity);
+		this.packets = new PacketPool() {
+			@Override
+			protected PooledPacket newPacket() {
+				return new LocalPacket(this);
+			}
+		};
+		this.strategy = strategy;
+		this.thread = new Thread(this, "GLUE local dispatcher "
+				+ factory.getLocalURI());
+		this.thread.setDaemon(true);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	/**
+	 * Stop the dispatcher after the pending packets have been delivered.
+	 */
+	void shutdown() {
+		running = false;
+	}
+
+	/**
+	 * Check whether all queued packets have been handled.
+	 */
+	boolean isIdle() {
+		// check the ring first, handling is set before a packet is polled
+		return ring.isEmpty() && !handling;
+	}
+
+	/**
+	 * Queue a packet for delivery, wait if the buffer is full.
+	 * 
+	 * @param payload
+	 *            the deserialized payload
+	 * @param priority
+	 *            the packet priority
+	 * @param target
+	 *            the receiving packet thread
+	 * @throws TransportException
+	 *             if the dispatcher has been shut down or the thread has been
+	 *             interrupted
+	 */
+	void dispatch(final Object payload, final Packet.Priority priority,
+			final LocalPacketThread target) throws TransportException {
+		if (!running)
+			throw new TransportException("Local endpoint "
+					+ factory.getLocalURI() + " has been disposed!");
+
+		final LocalPacket packet = (LocalPacket) packets.acquire(payload,
+				priority);
+		packet.setThread(target);
+		try {
+			ring.put(packet, strategy);
+		} catch (InterruptedException e) {
+			packet.release();
+			Thread.currentThread().interrupt();
+			throw new TransportException(
+					"Interrupted while waiting for local delivery.", e);
+		}
+	}
+
+	@Override
+	public void run() {
+		int counter = 0;
+		while (running || !ring.isEmpty()) {
+			handling = true;
+			final LocalPacket packet = ring.poll();
+			if (packet == null) {
+				handling = false;
+				counter = strategy.idle(counter);
+				continue;
+			}
+			counter = 0;
+
+			final LocalPacketThread pt = packet.getThread();
+			try {
+				pt.getHandler().handle(pt, packet);
+			} catch (RuntimeException e) {
+				factory.report("Packet handler failed: " + e.getMessage(), e,
+						Reporter.Level.ERROR);
+			} finally {
+				packet.release();
+				handling = false;
+			}
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.local;
+
+import de.ovgu.dke.glue.api.transport.PacketPool;
+import de.ovgu.dke.glue.api.transport.PooledPacket;
+
+/**
+ * <p>
+ * A pooled packet on its way to a local packet thread. Local packets are
+ * acquired by the sender from the receiving endpoint's pool and released by
+ * its dispatcher after the packet handler has returned.
+ * </p>
+ */
+class LocalPacket extends PooledPacket {
+	private LocalPacketThread thread = null;
+
+	LocalPacket(final PacketPool pool) {
+		super(pool);
+	}
+
+	/**
+	 * Get the packet thread which receives this packet.
+	 * 
+	 * @return the receiving packet thread
+	 */
+	LocalPacketThread getThread() {
+		return thread;
+	}
+
+	void setThread(final LocalPacketThread thread) {
+		this.thread = thread;
+	}
+
+	@Override
+	protected void clear() {
+		thread = null;
+		super.clear();
+	}
+}
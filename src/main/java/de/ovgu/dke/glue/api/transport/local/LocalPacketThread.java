@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.local;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.serialization.SerializationException;
+import de.ovgu.dke.glue.api.serialization.SerializationProvider;
+import de.ovgu.dke.glue.api.serialization.Serializer;
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.PacketHandler;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.SchemaRecord;
+import de.ovgu.dke.glue.api.transport.SchemaRegistry;
+import de.ovgu.dke.glue.api.transport.TransportException;
+
+/**
+ * <p>
+ * A packet thread of a local connection. Each thread is paired with a
+ * counterpart on the peer's connection, which is created with the default
+ * packet handler when the first packet is sent. Disposing one of the threads
+ * also disposes its counterpart.
+ * </p>
+ */
+@ThreadSafe
+public class LocalPacketThread extends PacketThread {
+	private final LocalConnection connection;
+	private final PacketHandler handler;
+
+	private LocalPacketThread peer;
+
+	private volatile boolean disposed = false;
+
+	LocalPacketThread(final LocalConnection connection,
+			final PacketHandler handler, final LocalPacketThread peer) {
+		super(connection);
+		this.connection = connection;
+		this.handler = handler;
+		this.peer = peer;
+	}
+
+	/**
+	 * Get the packet handler for incoming packets.
+	 * 
+	 * @return the packet handler
+	 */
+	public PacketHandler getHandler() {
+		return handler;
+	}
+
+	/**
+	 * Check whether the thread has been disposed.
+	 * 
+	 * @return {@code true} if the thread has been disposed
+	 */
+	public boolean isDisposed() {
+		return disposed;
+	}
+
+	@Override
+	protected void sendSerializedPayload(final Object payload,
+			final Packet.Priority priority) throws TransportException {
+		if (disposed)
+			throw new IllegalStateException("Packet thread has been disposed!");
+		if (connection.getFactory().isQuiesced())
+			throw new TransportException("Local endpoint is shutting down!");
+
+		final LocalPacketThread target = getPeer();
+		target.connection.getDispatcher().dispatch(deserialize(payload),
+				priority, target);
+	}
+
+	@Override
+	public void dispose() {
+		final LocalPacketThread target;
+		synchronized (this) {
+			if (disposed)
+				return;
+			disposed = true;
+			target = peer;
+		}
+
+		connection.removeThread(this);
+		if (target != null)
+			target.dispose();
+	}
+
+	/**
+	 * Get the counterpart, create it if necessary.
+	 */
+	private synchronized LocalPacketThread getPeer() throws TransportException {
+		if (peer == null)
+			peer = connection.getRemote().openThread(this);
+		return peer;
+	}
+
+	private Object deserialize(final Object payload) throws TransportException {
+		final SchemaRecord record = SchemaRegistry.getInstance().getRecord(
+				connection.getSchemaId());
+		if (record == null)
+			throw new TransportException(
+					"The connection uses an unknown schema!");
+
+		try {
+			final SerializationProvider prov = record
+					.getSerializationProvider();
+			final Serializer serializer = prov == null ? null : prov
+					.getSerializer(connection.getSerializationFormat());
+			return serializer == null ? payload : serializer
+					.deserialize(payload);
+		} catch (SerializationException e) {
+			throw new TransportException("Error on payload deserialization: "
+					+ e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.local;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.transport.Connection;
+import de.ovgu.dke.glue.api.transport.Transport;
+import de.ovgu.dke.glue.api.transport.TransportException;
+
+/**
+ * <p>
+ * Transport from one local endpoint to another. A local transport is
+ * {@code CONNECTED} on creation and {@code CLOSED} when either endpoint is
+ * disposed or {@link #close()} is called.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class LocalTransport implements Transport {
+	private final LocalTransportFactory factory;
+	private final LocalTransportFactory target;
+	private final URI peer;
+
+	private final ConcurrentMap<String, LocalConnection> connections;
+
+	private volatile Transport.Status status = Transport.Status.CONNECTED;
+
+	LocalTransport(final LocalTransportFactory factory,
+			final LocalTransportFactory target, final URI peer) {
+		this.factory = factory;
+		this.target = target;
+		this.peer = peer;
+		this.connections = new ConcurrentHashMap<String, LocalConnection>();
+	}
+
+	@Override
+	public Connection getConnection(final String schema)
+			throws TransportException {
+		if (schema == null)
+			throw new NullPointerException("Schema may not be null!");
+		checkOpen();
+
+		LocalConnection connection = connections.get(schema);
+		if (connection == null) {
+			final LocalConnection created = new LocalConnection(this, schema);
+			connection = connections.putIfAbsent(schema, created);
+			if (connection == null)
+				connection = created;
+		}
+		return connection;
+	}
+
+	/**
+	 * Get the peer URI.
+	 * 
+	 * @return the peer URI
+	 */
+	public URI getPeer() {
+		return peer;
+	}
+
+	/**
+	 * Get the transport status.
+	 * 
+	 * @return the current status
+	 */
+	public Transport.Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Close the transport and dispose all packet threads, including their
+	 * counterparts on the peer.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (status == Transport.Status.CLOSED)
+				return;
+			status = Transport.Status.CLOSED;
+		}
+
+		for (final LocalConnection connection : connections.values())
+			connection.close();
+		factory.removeTransport(this);
+		factory.statusChanged(this, Transport.Status.CONNECTED,
+				Transport.Status.CLOSED);
+	}
+
+	LocalTransportFactory getFactory() {
+		return factory;
+	}
+
+	LocalTransportFactory getTarget() {
+		return target;
+	}
+
+	/**
+	 * Get the transport from the peer back to this endpoint.
+	 */
+	LocalTransport getReverse() throws TransportException {
+		return target.getTransportTo(factory);
+	}
+
+	void checkOpen() throws TransportException {
+		if (status == Transport.Status.CLOSED)
+			throw new TransportException("Transport to " + peer
+					+ " has been closed!");
+	}
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.local;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.reporting.Reporter;
+import de.ovgu.dke.glue.api.serialization.SerializationProvider;
+import de.ovgu.dke.glue.api.transport.AbstractTransportFactory;
+import de.ovgu.dke.glue.api.transport.DrainableTransportFactory;
+import de.ovgu.dke.glue.api.transport.FormatNegotiator;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.SchemaRegistry;
+import de.ovgu.dke.glue.api.transport.Transport;
+import de.ovgu.dke.glue.api.transport.TransportException;
+import de.ovgu.dke.glue.api.util.WaitStrategy;
+
+/**
+ * <p>
+ * Factory for in-process transports. Each initialized factory is a local
+ * endpoint with a name, which is unique within the JVM; other factories reach
+ * it with the peer URI {@code local:name}, see {@link #getLocalURI()}.
+ * </p>
+ * 
+ * <p>
+ * Configuration properties:
+ * <ul>
+ * <li>{@value #NAME_PROPERTY}: the endpoint name, a unique name is generated
+ * if missing</li>
+ * <li>{@value #CAPACITY_PROPERTY}: capacity of the delivery ring buffer,
+ * default {@value #DEFAULT_CAPACITY}</li>
+ * <li>{@value #WAIT_PROPERTY}: the {@link WaitStrategy} of the dispatcher
+ * and of senders finding the ring buffer full, default {@code PARK}</li>
+ * <li>{@value #NEGOTIATE_PROPERTY}: whether connections negotiate their
+ * serialization format, default {@code false}</li>
+ * <li>{@value #FORMATS_PROPERTY}: comma separated serialization formats in
+ * order of preference, enables the negotiation, default
+ * {@link FormatNegotiator#DEFAULT_RANKING}</li>
+ * </ul>
+ * </p>
+ * 
+ * <p>
+ * Payloads are passed by reference, so without negotiation connections use
+ * the {@code JAVA} format. With negotiation, a connection chooses the
+ * preferred format which is supported by the schema's serialization provider
+ * on both endpoints; an endpoint without negotiation only supports
+ * {@code JAVA}. If the peer has already agreed on a format with this
+ * endpoint, its choice is adopted.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class LocalTransportFactory extends AbstractTransportFactory implements
+		DrainableTransportFactory {
+	/**
+	 * URI scheme of local peers.
+	 */
+	public static final String SCHEME = "local";
+
+	/**
+	 * Default key in the transport registry.
+	 */
+	public static final String DEFAULT_REGISTRY_KEY = "local";
+
+	/**
+	 * Configuration key for the endpoint name.
+	 */
+	public static final String NAME_PROPERTY = "local.name";
+
+	/**
+	 * Configuration key for the ring buffer capacity.
+	 */
+	public static final String CAPACITY_PROPERTY = "local.capacity";
+
+	/**
+	 * Configuration key for the wait strategy.
+	 */
+	public static final String WAIT_PROPERTY = "local.wait";
+
+	/**
+	 * Configuration key to enable the format negotiation.
+	 */
+	public static final String NEGOTIATE_PROPERTY = "local.negotiate";
+
+	/**
+	 * Configuration key for the format preference order.
+	 */
+	public static final String FORMATS_PROPERTY = "local.formats";
+
+	/**
+	 * Default ring buffer capacity.
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * The initialized endpoints of this JVM.
+	 */
+	private static final ConcurrentMap<String, LocalTransportFactory> ENDPOINTS = new ConcurrentHashMap<String, LocalTransportFactory>();
+
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	private final ConcurrentMap<LocalTransportFactory, LocalTransport> transports;
+
+	private volatile String name = null;
+	private volatile LocalDispatcher dispatcher = null;
+	private volatile FormatNegotiator negotiator = null;
+	private volatile boolean disposed = false;
+	private volatile boolean quiesced = false;
+
+	/**
+	 * Create a local transport factory, call {@link #init(Properties)} to
+	 * register the endpoint.
+	 */
+	public LocalTransportFactory() {
+		this.transports = new ConcurrentHashMap<LocalTransportFactory, LocalTransport>();
+	}
+
+	@Override
+	public synchronized void init(final Properties config)
+			throws TransportException {
+		if (dispatcher != null)
+			throw new TransportException("Factory has already been initialized!");
+
+		final Properties cfg = config == null ? new Properties() : config;
+		final String endpoint = cfg.getProperty(NAME_PROPERTY, "glue-"
+				+ COUNTER.incrementAndGet());
+		final int capacity;
+		final WaitStrategy strategy;
+		try {
+			final String cap = cfg.getProperty(CAPACITY_PROPERTY);
+			capacity = cap == null ? DEFAULT_CAPACITY : Integer.parseInt(cap
+					.trim());
+			strategy = WaitStrategy.valueOf(cfg.getProperty(WAIT_PROPERTY,
+					WaitStrategy.PARK.name()).trim().toUpperCase(Locale.ENGLISH));
+		} catch (IllegalArgumentException e) {
+			throw new TransportException("Invalid local transport configuration: "
+					+ e.getMessage(), e);
+		}
+
+		if (ENDPOINTS.putIfAbsent(endpoint, this) != null)
+			throw new TransportException("Local endpoint " + endpoint
+					+ " already exists!");
+
+		final String formats = cfg.getProperty(FORMATS_PROPERTY);
+		if (formats != null) {
+			final List<String> preference = new ArrayList<String>();
+			for (final String format : formats.split(","))
+				if (format.trim().length() > 0)
+					preference.add(format.trim());
+			setFormatNegotiator(new FormatNegotiator(preference));
+		} else if (Boolean.parseBoolean(cfg.getProperty(NEGOTIATE_PROPERTY)))
+			setFormatNegotiator(new FormatNegotiator());
+
+		this.name = endpoint;
+		this.dispatcher = new LocalDispatcher(this, capacity, strategy);
+		this.dispatcher.start();
+	}
+
+	/**
+	 * Get the URI under which other local endpoints reach this factory.
+	 * 
+	 * @return the local URI or {@code null} if the factory has not been
+	 *         initialized
+	 */
+	public URI getLocalURI() {
+		final String n = name;
+		return n == null ? null : URI.create(SCHEME + ":" + n);
+	}
+
+	/**
+	 * Set the negotiator for the serialization format of new connections. The
+	 * negotiator is registered as life-cycle listener.
+	 * 
+	 * @param negotiator
+	 *            The negotiator or {@code null} to use the {@code JAVA} format
+	 *            without negotiation.
+	 */
+	public synchronized void setFormatNegotiator(
+			final FormatNegotiator negotiator) {
+		if (this.negotiator != null)
+			removeTransportLifecycleListener(this.negotiator);
+		this.negotiator = negotiator;
+		if (negotiator != null)
+			addTransportLifecycleListener(negotiator);
+	}
+
+	/**
+	 * Get the negotiator for the serialization format of new connections.
+	 * 
+	 * @return the negotiator or {@code null} if connections use the
+	 *         {@code JAVA} format without negotiation
+	 */
+	public FormatNegotiator getFormatNegotiator() {
+		return negotiator;
+	}
+
+	@Override
+	public Transport createTransport(final URI peer) throws TransportException {
+		if (peer == null)
+			throw new TransportException("Peer may not be null!");
+		if (!SCHEME.equals(peer.getScheme()))
+			throw new TransportException("Not a local peer: " + peer);
+
+		final LocalTransportFactory target = ENDPOINTS.get(peer
+				.getSchemeSpecificPart());
+		if (target == null)
+			throw new TransportException("Unknown local endpoint: " + peer);
+
+		return getTransportTo(target);
+	}
+
+	@Override
+	public String getDefaultRegistryKey() {
+		return DEFAULT_REGISTRY_KEY;
+	}
+
+	/**
+	 * Unregister the endpoint and close all transports. Packets already
+	 * queued for delivery are still passed to their handlers.
+	 */
+	@Override
+	public void dispose() {
+		final LocalDispatcher d;
+		synchronized (this) {
+			d = dispatcher;
+			if (d == null || disposed)
+				return;
+			disposed = true;
+			ENDPOINTS.remove(name, this);
+		}
+
+		for (final LocalTransport transport : transports.values())
+			transport.close();
+		// the other endpoints can no longer reach us
+		for (final LocalTransportFactory other : ENDPOINTS.values()) {
+			final LocalTransport reverse = other.transports.get(this);
+			if (reverse != null)
+				reverse.close();
+		}
+		d.shutdown();
+	}
+
+	/**
+	 * Stop accepting packets from this endpoint's packet threads. Packets
+	 * queued for delivery to this endpoint are still passed to their handlers.
+	 */
+	@Override
+	public void quiesce() {
+		quiesced = true;
+	}
+
+	/**
+	 * Wait until the packets queued for delivery to this endpoint have been
+	 * handled. Packets sent by this endpoint are drained by the receiving
+	 * endpoints.
+	 */
+	@Override
+	public boolean awaitDrained(final long timeout, final TimeUnit unit)
+			throws InterruptedException {
+		final LocalDispatcher d = dispatcher;
+		if (d == null)
+			return true;
+
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!d.isIdle()) {
+			if (System.nanoTime() - deadline >= 0)
+				return false;
+			Thread.sleep(1);
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether the endpoint has been quiesced.
+	 */
+	boolean isQuiesced() {
+		return quiesced;
+	}
+
+	/**
+	 * Get or create the transport to another endpoint.
+	 */
+	LocalTransport getTransportTo(final LocalTransportFactory target)
+			throws TransportException {
+		if (dispatcher == null || disposed)
+			throw new TransportException(
+					"Factory has not been initialized or has been disposed!");
+
+		LocalTransport transport = transports.get(target);
+		if (transport == null) {
+			final LocalTransport created = new LocalTransport(this, target,
+					target.getLocalURI());
+			transport = transports.putIfAbsent(target, created);
+			if (transport == null) {
+				transport = created;
+				fireStatusChange(transport, Transport.Status.CREATED,
+						Transport.Status.CONNECTED);
+			}
+		}
+		return transport;
+	}
+
+	/**
+	 * Get the serialization formats this endpoint supports for a schema.
+	 */
+	List<String> getAvailableFormats(final String schema) {
+		final SerializationProvider prov = SchemaRegistry.getInstance()
+				.getSerializationProvider(schema);
+		if (negotiator == null || prov == null)
+			return Collections.singletonList(SerializationProvider.JAVA);
+		return prov.availableFormats();
+	}
+
+	/**
+	 * Negotiate the serialization format of a new connection.
+	 */
+	String negotiateFormat(final LocalTransport transport, final String schema)
+			throws TransportException {
+		final FormatNegotiator n = negotiator;
+		if (n == null
+				|| SchemaRegistry.getInstance().getSerializationProvider(schema) == null)
+			return SerializationProvider.JAVA;
+
+		// adopt the peer's choice, so that both sides use the same format
+		final FormatNegotiator remote = transport.getTarget().negotiator;
+		final String agreed = remote == null ? null : remote.getCachedFormat(
+				getLocalURI(), schema);
+		if (agreed != null)
+			return agreed;
+
+		return n.negotiate(transport, transport.getPeer(), schema,
+				getAvailableFormats(schema), transport.getTarget()
+						.getAvailableFormats(schema));
+	}
+
+	LocalDispatcher getDispatcher() {
+		return dispatcher;
+	}
+
+	void removeTransport(final LocalTransport transport) {
+		transports.remove(transport.getTarget(), transport);
+	}
+
+	void report(final String msg, final Throwable cause,
+			final Reporter.Level level) {
+		fireReport(msg, cause, level);
+	}
+
+	void statusChanged(final Transport transport,
+			final Transport.Status oldStatus, final Transport.Status newStatus) {
+		fireStatusChange(transport, oldStatus, newStatus);
+	}
+
+	void threadOpened(final PacketThread pt) {
+		fireThreadCreation(pt);
+	}
+
+	void threadClosed(final PacketThread pt) {
+		fireThreadDisposal(pt);
+	}
+}
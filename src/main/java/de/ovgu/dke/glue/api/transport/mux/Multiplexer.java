@@ -0,0 +1,704 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.mux;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.serialization.SerializationException;
+import de.ovgu.dke.glue.api.serialization.SerializationProvider;
+import de.ovgu.dke.glue.api.serialization.Serializer;
+import de.ovgu.dke.glue.api.transport.Connection;
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.PacketPool;
+import de.ovgu.dke.glue.api.transport.PacketHandler;
+import de.ovgu.dke.glue.api.transport.PacketHandlerFactory;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.PooledPacket;
+import de.ovgu.dke.glue.api.transport.SchemaRecord;
+import de.ovgu.dke.glue.api.transport.SchemaRegistry;
+import de.ovgu.dke.glue.api.transport.TransportException;
+import de.ovgu.dke.glue.api.transport.flow.CreditWindow;
+import de.ovgu.dke.glue.api.transport.flow.FlowControlPolicy;
+import de.ovgu.dke.glue.api.transport.flow.OverflowPolicy;
+
+/**
+ * <p>
+ * Carries many packet threads of a connection over a single physical link.
+ * Each thread gets a compact id, which is sent in the header of each frame,
+ * see {@link MuxFrame}. The side which initiated the link uses odd ids, the
+ * accepting side even ids, so both sides can open threads without
+ * coordination.
+ * </p>
+ * 
+ * <p>
+ * Outgoing frames are queued per thread. The thread which enqueues a frame
+ * drains the queues as long as no other thread is writing, taking one frame
+ * per packet thread in round-robin order, so a busy thread cannot starve the
+ * others. A thread may only have a limited number of frames queued, the
+ * {@link OverflowPolicy} determines what happens to further sends; by default
+ * they fail with a {@link TransportException}. Queued frames are written in
+ * priority order. Subclasses may override
+ * {@link #onHighWatermark(MuxPacketThread, int)} and
+ * {@link #onLowWatermark(MuxPacketThread, int)} to forward queue watermark
+ * events, e.g. to a transport factory.
+ * </p>
+ * 
+ * <p>
+ * Flow control is credit based and counted in frame bytes: each thread starts
+ * with a send window of the configured size, the receiver grants credit with
+ * {@code CREDIT} frames after its packet handler has processed the data. A
+ * thread without credit is skipped when writing; the {@link FlowControlPolicy}
+ * determines whether further sends are queued, block or fail. Both sides must
+ * use the same window size, a size of {@link #FLOW_CONTROL_DISABLED} turns
+ * flow control off.
+ * </p>
+ * 
+ * <p>
+ * Incoming data is passed to {@link #receive(ByteBuffer)}. Data frames for
+ * unknown thread ids of the peer's parity open a new thread with the default
+ * packet handler of the connection schema. Incoming packets are
+ * {@link PooledPacket}s, which are released when the packet handler returns.
+ * </p>
+ * 
+ * <p>
+ * Data frames for closed threads are dropped, so that frames in flight do
+ * not re-open a thread which has been disposed: unknown ids of the local
+ * parity have always been closed, and peer ids closed locally are kept as
+ * tombstones until the peer acknowledges the close with a close frame of its
+ * own. A side answers a close frame for an open thread it owns with such an
+ * acknowledgement.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class Multiplexer {
+	/**
+	 * Default limit for queued frames per packet thread.
+	 */
+	public static final int DEFAULT_MAX_QUEUED = 64;
+
+	/**
+	 * Default send window per packet thread in bytes.
+	 */
+	public static final int DEFAULT_WINDOW = 256 * 1024;
+
+	/**
+	 * Window size to disable flow control.
+	 */
+	public static final int FLOW_CONTROL_DISABLED = 0;
+
+	/**
+	 * Default time in milliseconds a {@code BLOCK}ing sender waits for credit.
+	 */
+	public static final long DEFAULT_BLOCK_TIMEOUT = 30 * 1000;
+
+	private final Connection connection;
+	private final MuxLink link;
+	private final int maxQueued;
+	private final int window;
+	private final FlowControlPolicy policy;
+	private volatile long blockTimeout = DEFAULT_BLOCK_TIMEOUT;
+	private volatile OverflowPolicy overflowPolicy = OverflowPolicy.FAIL;
+	private volatile int maxFrameSize = Integer.MAX_VALUE;
+	private volatile boolean quiesced = false;
+
+	private final AtomicInteger nextId;
+	private final int localParity;
+	private final ConcurrentMap<Integer, MuxPacketThread> threads;
+	private final Set<Integer> tombstones;
+	private final AtomicLong staleFrames;
+	private final Queue<MuxPacketThread> ready;
+	private final ReentrantLock writeLock;
+	private final PacketPool packets;
+
+	// resolved on first receive, racy single-check is fine as the id is stable
+	private int schemaId = -1;
+
+	/**
+	 * Create a multiplexer with the default queue limit and window, packets
+	 * sent without credit are queued.
+	 * 
+	 * @param connection
+	 *            the connection the packet threads belong to
+	 * @param link
+	 *            the physical link
+	 * @param initiator
+	 *            {@code true} on the side which initiated the link
+	 * @throws NullPointerException
+	 *             if connection or link are {@code null}
+	 */
+	public Multiplexer(final Connection connection, final MuxLink link,
+			final boolean initiator) {
+		this(connection, link, initiator, DEFAULT_MAX_QUEUED, DEFAULT_WINDOW,
+				FlowControlPolicy.QUEUE);
+	}
+
+	/**
+	 * Create a multiplexer.
+	 * 
+	 * @param connection
+	 *            the connection the packet threads belong to
+	 * @param link
+	 *            the physical link
+	 * @param initiator
+	 *            {@code true} on the side which initiated the link
+	 * @param maxQueued
+	 *            the maximum number of queued frames per packet thread
+	 * @param window
+	 *            the send window per packet thread in bytes or
+	 *            {@code FLOW_CONTROL_DISABLED}
+	 * @param policy
+	 *            the behaviour of senders without credit
+	 * @throws NullPointerException
+	 *             if connection, link or policy are {@code null}
+	 * @throws IllegalArgumentException
+	 *             if maxQueued or window are negative
+	 */
+	public Multiplexer(final Connection connection, final MuxLink link,
+			final boolean initiator, final int maxQueued, final int window,
+			final FlowControlPolicy policy) {
+		if (connection == null)
+			throw new NullPointerException("Connection may not be null!");
+		if (link == null)
+			throw new NullPointerException("Link may not be null!");
+		if (policy == null)
+			throw new NullPointerException("Policy may not be null!");
+		if (maxQueued <= 0)
+			throw new IllegalArgumentException(
+					"Queue limit must be positive!");
+		if (window < 0)
+			throw new IllegalArgumentException("Window may not be negative!");
+
+		this.connection = connection;
+		this.link = link;
+		this.maxQueued = maxQueued;
+		this.window = window;
+		this.policy = policy;
+
+		this.nextId = new AtomicInteger(initiator ? 1 : 2);
+		this.localParity = initiator ? 1 : 0;
+		this.threads = new ConcurrentHashMap<Integer, MuxPacketThread>();
+		this.tombstones = Collections
+				.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+		this.staleFrames = new AtomicLong();
+		this.ready = new ConcurrentLinkedQueue<MuxPacketThread>();
+		this.writeLock = new ReentrantLock();
+		this.packets = new PacketPool();
+	}
+
+	/**
+	 * Get the connection the packet threads belong to.
+	 * 
+	 * @return the connection
+	 */
+	public Connection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Set the time a {@code BLOCK}ing sender waits for credit.
+	 * 
+	 * @param timeout
+	 *            the timeout
+	 * @param unit
+	 *            the time unit of the timeout
+	 */
+	public void setBlockTimeout(final long timeout, final TimeUnit unit) {
+		this.blockTimeout = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Set the overflow policy for the send queues of packet threads created
+	 * afterwards. The default is {@code FAIL}.
+	 * 
+	 * @param overflowPolicy
+	 *            the overflow policy
+	 * @throws NullPointerException
+	 *             if the policy is {@code null}
+	 */
+	public void setOverflowPolicy(final OverflowPolicy overflowPolicy) {
+		if (overflowPolicy == null)
+			throw new NullPointerException("Overflow policy may not be null!");
+
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Set the maximum size of a frame the link can carry. Larger frames are
+	 * rejected when they are sent or received.
+	 * 
+	 * @param maxFrameSize
+	 *            the maximum frame size in bytes, including the frame header
+	 * @throws IllegalArgumentException
+	 *             if the size is not positive
+	 */
+	public void setMaxFrameSize(final int maxFrameSize) {
+		if (maxFrameSize <= 0)
+			throw new IllegalArgumentException(
+					"Maximum frame size must be positive!");
+
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	/**
+	 * Get the overflow policy for new packet threads.
+	 * 
+	 * @return the overflow policy
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * Create a new logical packet thread. No frame is sent until the first
+	 * packet.
+	 * 
+	 * @param handler
+	 *            the packet handler for incoming packets or
+	 *            {@code PacketThread.DEFAULT_HANDLER}
+	 * @return the new packet thread
+	 * @throws TransportException
+	 *             if the thread ids are exhausted or the default handler
+	 *             cannot be created
+	 */
+	public MuxPacketThread createThread(final PacketHandler handler)
+			throws TransportException {
+		final int id = nextId.getAndAdd(2);
+		if (id < 0)
+			throw new TransportException("Thread ids exhausted!");
+
+		final MuxPacketThread pt = new MuxPacketThread(this, id,
+				handler == PacketThread.DEFAULT_HANDLER ? createDefaultHandler()
+						: handler, window, maxQueued, overflowPolicy);
+		threads.put(Integer.valueOf(id), pt);
+		onThreadOpened(pt);
+		return pt;
+	}
+
+	/**
+	 * Get a packet thread by its id.
+	 * 
+	 * @param id
+	 *            the thread id
+	 * @return the packet thread or {@code null} if there is no thread with
+	 *         this id
+	 */
+	public MuxPacketThread getThread(final int id) {
+		return threads.get(Integer.valueOf(id));
+	}
+
+	/**
+	 * Get the number of open packet threads.
+	 * 
+	 * @return the number of packet threads
+	 */
+	public int getThreadCount() {
+		return threads.size();
+	}
+
+	/**
+	 * Get the number of data frames dropped because their thread has been
+	 * closed.
+	 * 
+	 * @return the number of stale frames
+	 */
+	public long getStaleFrames() {
+		return staleFrames.get();
+	}
+
+	/**
+	 * Process incoming data. All complete frames in the buffer are dispatched
+	 * to their packet threads, the buffer position is moved behind the last
+	 * complete frame.
+	 * 
+	 * @param buf
+	 *            the incoming data
+	 * @throws TransportException
+	 *             if a frame is malformed, the payload cannot be deserialized
+	 *             or a default handler cannot be created
+	 */
+	public void receive(final ByteBuffer buf) throws TransportException {
+		try {
+			MuxFrame frame;
+			while ((frame = MuxFrame.decode(buf, maxFrameSize)) != null)
+				dispatch(frame);
+		} catch (IllegalArgumentException e) {
+			throw new TransportException("Malformed frame: " + e.getMessage(),
+					e);
+		}
+	}
+
+	/**
+	 * Stop accepting packets, sending fails with a {@link TransportException}
+	 * afterwards. Queued frames are still written.
+	 */
+	public void quiesce() {
+		quiesced = true;
+	}
+
+	/**
+	 * Check whether the multiplexer has been quiesced.
+	 * 
+	 * @return {@code true} if no packets are accepted
+	 */
+	public boolean isQuiesced() {
+		return quiesced;
+	}
+
+	/**
+	 * Get the number of frames queued on all packet threads.
+	 * 
+	 * @return the number of queued frames
+	 */
+	public int getQueuedFrames() {
+		int queued = 0;
+		for (final MuxPacketThread pt : threads.values())
+			queued += pt.getQueuedFrames();
+		return queued;
+	}
+
+	/**
+	 * Dispose all packet threads, queued frames are discarded.
+	 */
+	public void close() {
+		for (final MuxPacketThread pt : threads.values())
+			pt.disposeRemote();
+		ready.clear();
+	}
+
+	/**
+	 * Dispatch a single incoming frame.
+	 * 
+	 * @param frame
+	 *            the frame
+	 * @throws TransportException
+	 *             if the frame cannot be processed
+	 */
+	protected void dispatch(final MuxFrame frame) throws TransportException {
+		final Integer id = Integer.valueOf(frame.getThreadId());
+		MuxPacketThread pt = threads.get(id);
+
+		switch (frame.getType()) {
+		case MuxFrame.DATA:
+			if (pt == null) {
+				if (isLocal(frame.getThreadId()) || tombstones.contains(id)) {
+					// in flight when the thread was closed
+					staleFrames.incrementAndGet();
+					break;
+				}
+				final MuxPacketThread created = new MuxPacketThread(this,
+						frame.getThreadId(), createDefaultHandler(), window,
+						maxQueued, overflowPolicy);
+				pt = threads.putIfAbsent(id, created);
+				if (pt == null) {
+					pt = created;
+					onThreadOpened(pt);
+				}
+			}
+			final PooledPacket packet = packets.acquire(
+					deserialize(frame.getPayload()), frame.getPriority());
+			try {
+				pt.getHandler().handle(pt, packet);
+			} finally {
+				packet.release();
+			}
+
+			if (pt.getReceiveWindow() != null) {
+				final long credit = pt.getReceiveWindow().consume(
+						frame.getLength());
+				if (credit > 0 && !pt.isDisposed())
+					writeControl(MuxFrame.encodeCredit(pt.getId(),
+							(int) Math.min(credit, Integer.MAX_VALUE)));
+			}
+			break;
+		case MuxFrame.CLOSE:
+			if (pt == null)
+				// the peer acknowledged our close
+				tombstones.remove(id);
+			else {
+				pt.disposeRemote();
+				if (isLocal(pt.getId()))
+					try {
+						// no more data frames will follow
+						writeControl(MuxFrame.encode(pt.getId(),
+								MuxFrame.CLOSE, Packet.Priority.HIGH, null));
+					} catch (TransportException e) {
+						// the peer will notice when the link goes down
+					}
+			}
+			break;
+		case MuxFrame.CREDIT:
+			if (pt != null && pt.getSendWindow() != null) {
+				pt.getSendWindow().grant(frame.getCredit());
+				if (!pt.outbound.isEmpty()) {
+					pt.schedule(ready);
+					flush();
+				}
+			}
+			break;
+		default:
+			throw new TransportException("Unknown frame type: "
+					+ frame.getType());
+		}
+	}
+
+	/**
+	 * Queue a frame and write pending frames if no other thread does.
+	 */
+	void enqueue(final MuxPacketThread pt, final ByteBuffer frame,
+			final Packet.Priority priority) throws TransportException {
+		if (quiesced)
+			throw new TransportException("Connection is shutting down!");
+		if (frame.remaining() > maxFrameSize)
+			throw new TransportException("Frame size " + frame.remaining()
+					+ " exceeds the maximum of " + maxFrameSize);
+
+		final CreditWindow credit = pt.getSendWindow();
+		if (credit != null && credit.getAvailable() <= 0)
+			switch (policy) {
+			case FAIL_FAST:
+				credit.recordStall();
+				throw new TransportException("Packet thread " + pt.getId()
+						+ " has no send credit!");
+			case BLOCK:
+				try {
+					if (!credit.awaitCredit(blockTimeout,
+							TimeUnit.MILLISECONDS))
+						throw new TransportException(
+								"Timeout waiting for send credit on packet thread "
+										+ pt.getId());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new TransportException(
+							"Interrupted while waiting for send credit.", e);
+				}
+				break;
+			default:
+				// QUEUE: the frame is written when credit arrives
+			}
+
+		if (!pt.outbound.offer(frame, priority))
+			// dropped by the overflow policy
+			return;
+
+		pt.schedule(ready);
+		flush();
+	}
+
+	/**
+	 * Write pending frames, one frame per packet thread and round. Threads
+	 * without credit are not rescheduled until the peer grants credit.
+	 * 
+	 * @throws TransportException
+	 *             if the link fails
+	 */
+	void flush() throws TransportException {
+		do {
+			if (!writeLock.tryLock())
+				// the current writer will pick up our frames
+				return;
+			try {
+				MuxPacketThread pt;
+				while ((pt = ready.poll()) != null) {
+					pt.scheduled.set(false);
+
+					// consumes the credit for exactly the removed frame
+					final ByteBuffer frame = pt.outbound.pollIfFits(pt
+							.getSendWindow());
+					if (frame == null)
+						// empty or stalled, a credit frame will reschedule
+						continue;
+
+					link.write(frame);
+
+					if (!pt.outbound.isEmpty())
+						pt.schedule(ready);
+				}
+			} finally {
+				writeLock.unlock();
+			}
+			// frames may have been queued after the last poll
+		} while (!ready.isEmpty());
+	}
+
+	/**
+	 * Remove a packet thread.
+	 */
+	void close(final MuxPacketThread pt, final boolean notifyPeer) {
+		final Integer id = Integer.valueOf(pt.getId());
+		if (notifyPeer && !isLocal(pt.getId()))
+			// drop data frames until the peer acknowledges
+			tombstones.add(id);
+		if (threads.remove(id, pt))
+			onThreadClosed(pt);
+		pt.outbound.clear();
+
+		if (notifyPeer)
+			try {
+				writeControl(MuxFrame.encode(pt.getId(), MuxFrame.CLOSE,
+						Packet.Priority.HIGH, null));
+			} catch (TransportException e) {
+				// the peer will notice when the link goes down
+			}
+	}
+
+	/**
+	 * Get the number of peer thread ids closed locally and not yet
+	 * acknowledged.
+	 */
+	int getTombstoneCount() {
+		return tombstones.size();
+	}
+
+	/**
+	 * Check whether a thread id is allocated by this side.
+	 */
+	private boolean isLocal(final int id) {
+		return (id & 1) == localParity;
+	}
+
+	/**
+	 * Called when a packet thread has been opened, either locally or by the
+	 * peer. Does nothing by default.
+	 * 
+	 * @param pt
+	 *            the new packet thread
+	 */
+	protected void onThreadOpened(final MuxPacketThread pt) {
+		// hook
+	}
+
+	/**
+	 * Called when a packet thread has been disposed, either locally or by the
+	 * peer. Does nothing by default.
+	 * 
+	 * @param pt
+	 *            the disposed packet thread
+	 */
+	protected void onThreadClosed(final MuxPacketThread pt) {
+		// hook
+	}
+
+	/**
+	 * Called when the send queue of a packet thread reaches its high
+	 * watermark. Does nothing by default.
+	 * 
+	 * @param pt
+	 *            the packet thread
+	 * @param queued
+	 *            the number of queued frames
+	 */
+	protected void onHighWatermark(final MuxPacketThread pt, final int queued) {
+		// hook
+	}
+
+	/**
+	 * Called when the send queue of a packet thread drops to its low
+	 * watermark. Does nothing by default.
+	 * 
+	 * @param pt
+	 *            the packet thread
+	 * @param queued
+	 *            the number of queued frames
+	 */
+	protected void onLowWatermark(final MuxPacketThread pt, final int queued) {
+		// hook
+	}
+
+	/**
+	 * Write a control frame, bypassing queues and flow control. Control frames
+	 * are also written by the thread receiving data, links which may block
+	 * when they are full should override this method to write without
+	 * blocking, otherwise two peers with full links may deadlock.
+	 * 
+	 * @param frame
+	 *            the control frame
+	 * @throws TransportException
+	 *             if the link fails
+	 */
+	protected void writeControl(final ByteBuffer frame)
+			throws TransportException {
+		writeLock.lock();
+		try {
+			link.write(frame);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private PacketHandler createDefaultHandler() throws TransportException {
+		final PacketHandlerFactory factory = SchemaRegistry.getInstance()
+				.getPacketHandlerFactory(connection.getConnectionSchema());
+		if (factory == null)
+			throw new TransportException(
+					"No packet handler factory for schema "
+							+ connection.getConnectionSchema());
+
+		try {
+			return factory.createPacketHandler();
+		} catch (InstantiationException e) {
+			throw new TransportException("Could not create packet handler: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	private Object deserialize(final ByteBuffer payload)
+			throws TransportException {
+		final byte[] bytes = new byte[payload.remaining()];
+		payload.get(bytes);
+
+		final SchemaRegistry registry = SchemaRegistry.getInstance();
+		int id = schemaId;
+		if (id < 0)
+			schemaId = id = registry.getSchemaId(connection
+					.getConnectionSchema());
+		final SchemaRecord record = registry.getRecord(id);
+		if (record == null)
+			throw new TransportException(
+					"The connection uses an unknown schema!");
+
+		try {
+			final SerializationProvider prov = record
+					.getSerializationProvider();
+			final Serializer serializer = prov == null ? null : prov
+					.getSerializer(connection.getSerializationFormat());
+			return serializer == null ? bytes : serializer.deserialize(bytes);
+		} catch (SerializationException e) {
+			throw new TransportException("Error on payload deserialization: "
+					+ e.getMessage(), e);
+		}
+	}
+}
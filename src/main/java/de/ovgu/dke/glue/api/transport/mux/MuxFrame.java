@@ -0,0 +1,287 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.mux;
+
+import java.nio.ByteBuffer;
+
+import net.jcip.annotations.Immutable;
+import de.ovgu.dke.glue.api.transport.Packet;
+
+/**
+ * <p>
+ * A multiplexed frame. The header consists of the thread id as variable
+ * length integer, one byte with frame type and packet priority and the
+ * payload length as variable length integer. Thread ids below 128 and payloads
+ * shorter than 128 bytes result in a three byte header.
+ * </p>
+ * 
+ * <p>
+ * This class is immutable, however, the payload buffer is shared with the
+ * decoded input.
+ * </p>
+ */
+@Immutable
+public final class MuxFrame {
+	/**
+	 * Frame type for payload data.
+	 */
+	public static final int DATA = 0;
+
+	/**
+	 * Frame type to close a thread, the payload is empty.
+	 */
+	public static final int CLOSE = 1;
+
+	/**
+	 * Frame type to grant send credit, the payload is the credit as variable
+	 * length integer.
+	 */
+	public static final int CREDIT = 2;
+
+	private static final Packet.Priority[] PRIORITIES = Packet.Priority
+			.values();
+
+	private final int threadId;
+	private final int type;
+	private final Packet.Priority priority;
+	private final ByteBuffer payload;
+	private final int length;
+
+	private MuxFrame(int threadId, int type, Packet.Priority priority,
+			ByteBuffer payload, int length) {
+		this.threadId = threadId;
+		this.type = type;
+		this.priority = priority;
+		this.payload = payload;
+		this.length = length;
+	}
+
+	/**
+	 * Get the id of the thread this frame belongs to.
+	 * 
+	 * @return the thread id
+	 */
+	public int getThreadId() {
+		return threadId;
+	}
+
+	/**
+	 * Get the frame type.
+	 * 
+	 * @return the frame type, e.g. {@link #DATA}
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * Get the packet priority.
+	 * 
+	 * @return the priority of the packet carried in this frame
+	 */
+	public Packet.Priority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Get the length of the encoded frame, including the header.
+	 * 
+	 * @return the frame length in bytes
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Get the credit of a {@link #CREDIT} frame.
+	 * 
+	 * @return the granted credit
+	 * @throws IllegalArgumentException
+	 *             if the payload does not contain a valid credit value
+	 */
+	public int getCredit() {
+		final int credit = getVarInt(payload.duplicate());
+		if (credit < 0)
+			throw new IllegalArgumentException("Missing credit value.");
+		return credit;
+	}
+
+	/**
+	 * Get the payload.
+	 * 
+	 * @return read-only view of the payload
+	 */
+	public ByteBuffer getPayload() {
+		return payload.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Encode a frame.
+	 * 
+	 * @param threadId
+	 *            the thread id, must not be negative
+	 * @param type
+	 *            the frame type
+	 * @param priority
+	 *            the packet priority
+	 * @param payload
+	 *            the payload, may be {@code null} for an empty payload
+	 * @return a buffer containing the encoded frame, ready to be read
+	 */
+	public static ByteBuffer encode(final int threadId, final int type,
+			final Packet.Priority priority, final byte[] payload) {
+		final int length = payload == null ? 0 : payload.length;
+		final ByteBuffer buf = ByteBuffer.allocate(varIntSize(threadId) + 1
+				+ varIntSize(length) + length);
+
+		putVarInt(buf, threadId);
+		buf.put((byte) ((type & 0x0f) | (priority.ordinal() << 4)));
+		putVarInt(buf, length);
+		if (payload != null)
+			buf.put(payload);
+
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * Encode a {@link #CREDIT} frame.
+	 * 
+	 * @param threadId
+	 *            the thread id, must not be negative
+	 * @param credit
+	 *            the granted credit, must not be negative
+	 * @return a buffer containing the encoded frame, ready to be read
+	 */
+	public static ByteBuffer encodeCredit(final int threadId, final int credit) {
+		final ByteBuffer value = ByteBuffer.allocate(varIntSize(credit));
+		putVarInt(value, credit);
+		return encode(threadId, CREDIT, Packet.Priority.HIGH, value.array());
+	}
+
+	/**
+	 * Decode the next frame from a buffer. On success, the buffer position is
+	 * moved behind the frame.
+	 * 
+	 * @param buf
+	 *            the buffer to read from
+	 * @return the next frame or {@code null} if the buffer does not contain a
+	 *         complete frame, in which case the position is not changed
+	 * @throws IllegalArgumentException
+	 *             if the frame header is malformed
+	 */
+	public static MuxFrame decode(final ByteBuffer buf) {
+		return decode(buf, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Decode the next frame from a buffer, rejecting frames larger than the
+	 * maximum size. On success, the buffer position is moved behind the
+	 * frame.
+	 * 
+	 * @param buf
+	 *            the buffer to read from
+	 * @param maxFrameSize
+	 *            the maximum frame size in bytes, including the frame header
+	 * @return the next frame or {@code null} if the buffer does not contain a
+	 *         complete frame, in which case the position is not changed
+	 * @throws IllegalArgumentException
+	 *             if the frame header is malformed or the frame is too large
+	 */
+	public static MuxFrame decode(final ByteBuffer buf, final int maxFrameSize) {
+		final int start = buf.position();
+
+		final int threadId = getVarInt(buf);
+		if (threadId < 0 || !buf.hasRemaining()) {
+			buf.position(start);
+			return null;
+		}
+
+		final int flags = buf.get() & 0xff;
+		final int length = getVarInt(buf);
+		if (length < 0) {
+			buf.position(start);
+			return null;
+		}
+		// would never become complete if the link cannot carry it
+		final int header = buf.position() - start;
+		if (length > maxFrameSize - header)
+			throw new IllegalArgumentException("Frame size " + header + " + "
+					+ length + " exceeds the maximum of " + maxFrameSize);
+		if (buf.remaining() < length) {
+			buf.position(start);
+			return null;
+		}
+
+		final int prio = flags >>> 4;
+		if (prio >= PRIORITIES.length)
+			throw new IllegalArgumentException("Invalid priority in frame: "
+					+ prio);
+
+		final ByteBuffer payload = buf.slice();
+		payload.limit(length);
+		buf.position(buf.position() + length);
+
+		return new MuxFrame(threadId, flags & 0x0f, PRIORITIES[prio], payload,
+				buf.position() - start);
+	}
+
+	static int varIntSize(int value) {
+		int size = 1;
+		while ((value >>>= 7) != 0)
+			size++;
+		return size;
+	}
+
+	static void putVarInt(ByteBuffer buf, int value) {
+		while ((value & ~0x7f) != 0) {
+			buf.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		buf.put((byte) value);
+	}
+
+	/**
+	 * Read a variable length integer.
+	 * 
+	 * @return the value or -1 if the buffer ends before the value
+	 * @throws IllegalArgumentException
+	 *             if the value is longer than five bytes or does not fit into
+	 *             a non-negative {@code int}
+	 */
+	static int getVarInt(ByteBuffer buf) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (!buf.hasRemaining())
+				return -1;
+			final int b = buf.get();
+			// the fifth byte may only carry bits 28 to 30
+			if (shift == 28 && (b & 0xf8) != 0)
+				throw new IllegalArgumentException(
+						"Variable length integer out of range.");
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IllegalArgumentException("Malformed variable length integer.");
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.mux;
+
+import java.nio.ByteBuffer;
+
+import de.ovgu.dke.glue.api.transport.TransportException;
+
+/**
+ * <p>
+ * The physical link below a {@link Multiplexer}, e.g. a socket or a shared
+ * memory queue. The multiplexer writes complete frames and never calls
+ * {@code write} concurrently.
+ * </p>
+ */
+public interface MuxLink {
+	/**
+	 * Write a frame to the link. The buffer contents between position and
+	 * limit form exactly one frame. The link may keep the buffer, but must not
+	 * modify its contents.
+	 * 
+	 * @param frame
+	 *            the encoded frame
+	 * @throws TransportException
+	 *             if the frame cannot be written
+	 */
+	public void write(ByteBuffer frame) throws TransportException;
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.mux;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.jcip.annotations.NotThreadSafe;
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.PacketHandler;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.TransportException;
+import de.ovgu.dke.glue.api.transport.flow.BoundedSendQueue;
+import de.ovgu.dke.glue.api.transport.flow.CreditWindow;
+import de.ovgu.dke.glue.api.transport.flow.OverflowPolicy;
+import de.ovgu.dke.glue.api.transport.flow.ReceiveWindow;
+
+/**
+ * <p>
+ * A logical packet thread carried by a {@link Multiplexer}. Serialized
+ * payloads must be {@code byte[]}, i.e. the connection should use the
+ * {@code BINARY} serialization format.
+ * </p>
+ */
+@NotThreadSafe
+public class MuxPacketThread extends PacketThread {
+	private final Multiplexer multiplexer;
+	private final int id;
+	private final PacketHandler handler;
+
+	private final CreditWindow sendWindow;
+	private final ReceiveWindow receiveWindow;
+
+	/**
+	 * Outbound frames, drained by the multiplexer.
+	 */
+	final BoundedSendQueue<ByteBuffer> outbound;
+
+	/**
+	 * Whether this thread is in the multiplexer's ready ring.
+	 */
+	final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	private volatile boolean disposed = false;
+
+	MuxPacketThread(final Multiplexer multiplexer, final int id,
+			final PacketHandler handler, final int window, final int maxQueued,
+			final OverflowPolicy overflowPolicy) {
+		super(multiplexer.getConnection());
+		this.multiplexer = multiplexer;
+		this.id = id;
+		this.handler = handler;
+		this.outbound = new BoundedSendQueue<ByteBuffer>(maxQueued,
+				overflowPolicy) {
+			@Override
+			protected int getCost(ByteBuffer frame) {
+				return frame.remaining();
+			}
+
+			@Override
+			protected void onHighWatermark(int queued) {
+				MuxPacketThread.this.multiplexer.onHighWatermark(
+						MuxPacketThread.this, queued);
+			}
+
+			@Override
+			protected void onLowWatermark(int queued) {
+				MuxPacketThread.this.multiplexer.onLowWatermark(
+						MuxPacketThread.this, queued);
+			}
+		};
+
+		if (window > 0) {
+			this.sendWindow = new CreditWindow(window);
+			this.receiveWindow = new ReceiveWindow(window);
+		} else {
+			this.sendWindow = null;
+			this.receiveWindow = null;
+		}
+	}
+
+	/**
+	 * Get the thread id, which is unique on the physical link.
+	 * 
+	 * @return the thread id
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Get the packet handler for incoming packets.
+	 * 
+	 * @return the packet handler
+	 */
+	public PacketHandler getHandler() {
+		return handler;
+	}
+
+	/**
+	 * Get the number of frames waiting to be written to the link.
+	 * 
+	 * @return the outbound queue length
+	 */
+	public int getQueuedFrames() {
+		return outbound.size();
+	}
+
+	/**
+	 * Get the number of frames dropped by the overflow policy.
+	 * 
+	 * @return the drop count
+	 */
+	public long getDroppedFrames() {
+		return outbound.getDroppedCount();
+	}
+
+	/**
+	 * Get the send window, which holds the credit granted by the peer.
+	 * 
+	 * @return the send window or {@code null} if flow control is disabled
+	 */
+	public CreditWindow getSendWindow() {
+		return sendWindow;
+	}
+
+	/**
+	 * Get the receive window, which determines the credit granted to the
+	 * peer.
+	 * 
+	 * @return the receive window or {@code null} if flow control is disabled
+	 */
+	public ReceiveWindow getReceiveWindow() {
+		return receiveWindow;
+	}
+
+	/**
+	 * Check whether the thread has been disposed.
+	 * 
+	 * @return {@code true} if the thread has been disposed
+	 */
+	public boolean isDisposed() {
+		return disposed;
+	}
+
+	@Override
+	protected void sendSerializedPayload(final Object payload,
+			final Packet.Priority priority) throws TransportException {
+		if (disposed)
+			throw new IllegalStateException("Packet thread has been disposed!");
+		if (!(payload instanceof byte[]))
+			throw new TransportException(
+					"Multiplexed packet threads require binary payloads!");
+
+		multiplexer.enqueue(this,
+				MuxFrame.encode(id, MuxFrame.DATA, priority, (byte[]) payload),
+				priority);
+	}
+
+	@Override
+	public void dispose() {
+		if (disposed)
+			return;
+		disposed = true;
+
+		multiplexer.close(this, true);
+	}
+
+	/**
+	 * Mark the thread as disposed by the peer, no close frame is sent.
+	 */
+	void disposeRemote() {
+		if (disposed)
+			return;
+		disposed = true;
+
+		multiplexer.close(this, false);
+	}
+
+	void schedule(final Queue<MuxPacketThread> ready) {
+		if (scheduled.compareAndSet(false, true))
+			ready.offer(this);
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.reliable;
+
+import java.io.Serializable;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * <p>
+ * The pay-load sent by a {@link ReliableSession}: either a data frame with a
+ * sequence number and the application pay-load or an acknowledgement with the
+ * cumulative sequence number and selective acknowledgement (SACK) blocks. The
+ * frame is serialized together with the application pay-load, i.e. the
+ * connection's serializer must support it.
+ * </p>
+ * 
+ * <p>
+ * This class is immutable and thread safe.
+ * </p>
+ */
+@Immutable
+public final class ReliableFrame implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private static final long[] NO_BLOCKS = new long[0];
+
+	private final boolean ack;
+	private final long sequence;
+	private final Object payload;
+	private final long[] blocks;
+
+	private ReliableFrame(final boolean ack, final long sequence,
+			final Object payload, final long[] blocks) {
+		this.ack = ack;
+		this.sequence = sequence;
+		this.payload = payload;
+		this.blocks = blocks;
+	}
+
+	/**
+	 * Create a data frame.
+	 * 
+	 * @param sequence
+	 *            the sequence number, starting at 1
+	 * @param payload
+	 *            the application pay-load, may be {@code null}
+	 * @return the data frame
+	 */
+	public static ReliableFrame data(final long sequence, final Object payload) {
+		return new ReliableFrame(false, sequence, payload, NO_BLOCKS);
+	}
+
+	/**
+	 * Create an acknowledgement.
+	 * 
+	 * @param cumulative
+	 *            the highest sequence number up to which all frames have been
+	 *            received
+	 * @param blocks
+	 *            the SACK blocks as pairs of first and last sequence number of
+	 *            ranges received above the cumulative sequence number, the
+	 *            array is not copied
+	 * @return the acknowledgement
+	 * @throws IllegalArgumentException
+	 *             if the blocks array has an odd length
+	 */
+	public static ReliableFrame ack(final long cumulative, final long[] blocks) {
+		if (blocks.length % 2 != 0)
+			throw new IllegalArgumentException(
+					"SACK blocks must be pairs of sequence numbers!");
+		return new ReliableFrame(true, cumulative, null, blocks);
+	}
+
+	/**
+	 * Check whether this is an acknowledgement.
+	 * 
+	 * @return {@code true} for an acknowledgement, {@code false} for data
+	 */
+	public boolean isAck() {
+		return ack;
+	}
+
+	/**
+	 * Get the sequence number of a data frame or the cumulative sequence
+	 * number of an acknowledgement.
+	 * 
+	 * @return the sequence number
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Get the application pay-load of a data frame.
+	 * 
+	 * @return the pay-load, may be {@code null}
+	 */
+	public Object getPayload() {
+		return payload;
+	}
+
+	/**
+	 * Get the number of SACK blocks.
+	 * 
+	 * @return the number of blocks
+	 */
+	public int getBlockCount() {
+		return blocks.length / 2;
+	}
+
+	/**
+	 * Get the first sequence number of a SACK block.
+	 * 
+	 * @param block
+	 *            the block index
+	 * @return the first sequence number
+	 */
+	public long getBlockStart(final int block) {
+		return blocks[2 * block];
+	}
+
+	/**
+	 * Get the last sequence number of a SACK block.
+	 * 
+	 * @param block
+	 *            the block index
+	 * @return the last sequence number, inclusive
+	 */
+	public long getBlockEnd(final int block) {
+		return blocks[2 * block + 1];
+	}
+
+	@Override
+	public String toString() {
+		return (ack ? "ACK " : "DATA ") + sequence;
+	}
+}
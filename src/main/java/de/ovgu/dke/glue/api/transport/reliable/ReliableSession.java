@@ -0,0 +1,675 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.reliable;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.transport.AttributeKey;
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.PacketHandler;
+import de.ovgu.dke.glue.api.transport.PacketHandlerFactory;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.TransportException;
+import de.ovgu.dke.glue.api.util.HashedWheelTimer;
+
+/**
+ * <p>
+ * Reliable, ordered delivery on a single packet thread. The session is the
+ * packet handler of its packet thread and passes the application packets to
+ * the application's handler in sequence order, without duplicates. Create the
+ * thread with the session as handler and {@link #bind(PacketThread) bind} it;
+ * on the receiving side use {@link #handlerFactory(PacketHandlerFactory)} for
+ * the schema, the sessions bind to their thread on the first packet.
+ * </p>
+ * 
+ * <p>
+ * Every packet is sent as {@link ReliableFrame} with a sequence number. At
+ * most {@code window} packets are unacknowledged, further packets wait in a
+ * backlog. The receiver acknowledges every data frame with the cumulative
+ * sequence number and up to {@value #MAX_SACK_BLOCKS} SACK blocks for the
+ * frames buffered for reordering. The sender retransmits
+ * </p>
+ * <ul>
+ * <li>a hole as soon as {@value #REORDER_THRESHOLD} later frames have been
+ * selectively acknowledged, and</li>
+ * <li>on expiry of the retransmission timeout (RTO) the holes and the first
+ * unacknowledged frame after them, if older than the RTO. The RTO is doubled
+ * on every expiry.</li>
+ * </ul>
+ * <p>
+ * The RTO is estimated from the round-trip times as in RFC 6298, frames which
+ * have been retransmitted are not sampled. A frame which has been
+ * retransmitted {@value #MAX_RETRANSMISSIONS} times fails the session. A
+ * {@link TransportException} when sending is treated as loss.
+ * </p>
+ * 
+ * <p>
+ * Packets with pay-loads other than {@link ReliableFrame} are passed to the
+ * application handler unchanged.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class ReliableSession implements PacketHandler {
+	/**
+	 * The sequence number of a delivered packet.
+	 */
+	public static final AttributeKey<Long> SEQUENCE = AttributeKey.valueOf(
+			"sequence", Long.class);
+
+	/**
+	 * Default number of unacknowledged packets.
+	 */
+	public static final int DEFAULT_WINDOW = 256;
+
+	/**
+	 * Default lower bound of the retransmission timeout in milliseconds.
+	 */
+	public static final long DEFAULT_MIN_RTO = 200;
+
+	/**
+	 * Retransmission timeout before the first RTT sample in milliseconds.
+	 */
+	public static final long INITIAL_RTO = 1000;
+
+	/**
+	 * Upper bound of the retransmission timeout in milliseconds.
+	 */
+	public static final long MAX_RTO = 60 * 1000;
+
+	/**
+	 * Maximum number of retransmissions of a single packet.
+	 */
+	public static final int MAX_RETRANSMISSIONS = 16;
+
+	/**
+	 * Number of selectively acknowledged frames after a hole before the hole
+	 * is retransmitted, which tolerates some reordering on the link.
+	 */
+	public static final int REORDER_THRESHOLD = 3;
+
+	/**
+	 * Maximum number of SACK blocks per acknowledgement.
+	 */
+	public static final int MAX_SACK_BLOCKS = 16;
+
+	/**
+	 * Create a packet handler factory which creates a session for every
+	 * packet thread, with the default settings.
+	 * 
+	 * @param handlers
+	 *            The factory for the application handlers.
+	 * @return the session factory
+	 * @throws NullPointerException
+	 *             if the handler factory is {@code null}
+	 */
+	public static PacketHandlerFactory handlerFactory(
+			final PacketHandlerFactory handlers) {
+		if (handlers == null)
+			throw new NullPointerException("Handler factory may not be null!");
+
+		return new PacketHandlerFactory() {
+			@Override
+			public PacketHandler createPacketHandler()
+					throws InstantiationException {
+				return new ReliableSession(handlers.createPacketHandler());
+			}
+		};
+	}
+
+	private final PacketHandler handler;
+	private final HashedWheelTimer timer;
+	private final int mask;
+	private final long minRto;
+
+	private final Object threadLock = new Object();
+	// guarded by threadLock for sending
+	private volatile PacketThread thread = null;
+
+	// sender state, lock order: receiveLock, sendLock, threadLock
+	private final Object sendLock = new Object();
+	private final Frame[] outstanding;
+	private final Queue<Frame> backlog;
+	private final Runnable retransmission;
+	// guarded by sendLock
+	private long base = 1;
+	private long next = 1;
+	private long highestSacked = 0;
+	private long srtt = -1;
+	private long rttvar = 0;
+	private long rto;
+	private HashedWheelTimer.Timeout timeout = null;
+	private TransportException failure = null;
+	private boolean closed = false;
+
+	// receiver state
+	private final Object receiveLock = new Object();
+	private final Frame[] received;
+	// guarded by receiveLock
+	private long expected = 1;
+	private long highestReceived = 0;
+
+	private final AtomicLong sent;
+	private final AtomicLong retransmitted;
+	private final AtomicLong delivered;
+	private final AtomicLong duplicates;
+
+	/**
+	 * Create a session with the default settings and the shared timer.
+	 * 
+	 * @param handler
+	 *            The application handler for the delivered packets.
+	 */
+	public ReliableSession(final PacketHandler handler) {
+		this(handler, HashedWheelTimer.getShared(), DEFAULT_WINDOW,
+				DEFAULT_MIN_RTO, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Create a session.
+	 * 
+	 * @param handler
+	 *            The application handler for the delivered packets.
+	 * @param timer
+	 *            The timer for retransmissions.
+	 * @param window
+	 *            The maximum number of unacknowledged packets, rounded up to
+	 *            a power of two. The receiver must use the same window.
+	 * @param minRto
+	 *            The lower bound of the retransmission timeout.
+	 * @param unit
+	 *            The unit of the lower bound.
+	 * @throws NullPointerException
+	 *             if the handler, timer or unit is {@code null}
+	 * @throws IllegalArgumentException
+	 *             if the window or lower bound is not positive
+	 */
+	public ReliableSession(final PacketHandler handler,
+			final HashedWheelTimer timer, final int window, final long minRto,
+			final TimeUnit unit) {
+		if (handler == null)
+			throw new NullPointerException("Handler may not be null!");
+		if (timer == null)
+			throw new NullPointerException("Timer may not be null!");
+		if (unit == null)
+			throw new NullPointerException("Unit may not be null!");
+		if (window <= 0 || window > 1 << 20)
+			throw new IllegalArgumentException(
+					"Window must be between 1 and 2^20!");
+		if (minRto <= 0)
+			throw new IllegalArgumentException("Minimum RTO must be positive!");
+
+		int size = 1;
+		while (size < window)
+			size <<= 1;
+
+		this.handler = handler;
+		this.timer = timer;
+		this.mask = size - 1;
+		this.minRto = unit.toNanos(minRto);
+		this.rto = Math.max(this.minRto,
+				TimeUnit.MILLISECONDS.toNanos(INITIAL_RTO));
+
+		this.outstanding = new Frame[size];
+		this.backlog = new ArrayDeque<Frame>();
+		this.received = new Frame[size];
+		this.retransmission = new Runnable() {
+			@Override
+			public void run() {
+				onTimeout();
+			}
+		};
+
+		this.sent = new AtomicLong();
+		this.retransmitted = new AtomicLong();
+		this.delivered = new AtomicLong();
+		this.duplicates = new AtomicLong();
+	}
+
+	/**
+	 * Bind the session to its packet thread.
+	 * 
+	 * @param pt
+	 *            the packet thread
+	 * @throws IllegalStateException
+	 *             if the session is bound to another packet thread
+	 * @throws NullPointerException
+	 *             if the packet thread is {@code null}
+	 */
+	public void bind(final PacketThread pt) {
+		if (pt == null)
+			throw new NullPointerException("Packet thread may not be null!");
+
+		synchronized (threadLock) {
+			if (thread == null)
+				thread = pt;
+			else if (thread != pt)
+				throw new IllegalStateException(
+						"Session is bound to another packet thread!");
+		}
+	}
+
+	/**
+	 * Send a pay-load reliably. The pay-load is sent immediately if the window
+	 * is open, otherwise it is kept in the backlog.
+	 * 
+	 * @param payload
+	 *            The pay-load.
+	 * @param priority
+	 *            The packet priority, used for the first transmission and
+	 *            retransmissions.
+	 * @throws TransportException
+	 *             if a packet could not be delivered after
+	 *             {@value #MAX_RETRANSMISSIONS} retransmissions
+	 * @throws IllegalStateException
+	 *             if the session is not bound or has been closed
+	 */
+	public void send(final Object payload, final Packet.Priority priority)
+			throws TransportException {
+		if (thread == null)
+			throw new IllegalStateException("Session is not bound!");
+
+		synchronized (sendLock) {
+			if (closed)
+				throw new IllegalStateException("Session has been closed!");
+			if (failure != null)
+				throw failure;
+
+			final Frame frame = new Frame(payload, priority);
+			if (next - base > mask || !backlog.isEmpty())
+				backlog.add(frame);
+			else
+				transmitNew(frame);
+		}
+	}
+
+	@Override
+	public void handle(final PacketThread packetThread, final Packet packet) {
+		bind(packetThread);
+
+		final Object payload = packet.getPayload();
+		if (!(payload instanceof ReliableFrame)) {
+			handler.handle(packetThread, packet);
+			return;
+		}
+
+		final ReliableFrame frame = (ReliableFrame) payload;
+		if (frame.isAck())
+			onAck(frame);
+		else
+			onData(frame, packet.getPriority());
+	}
+
+	/**
+	 * Close the session. Unacknowledged packets and the backlog are
+	 * discarded, incoming packets are still delivered.
+	 */
+	public void close() {
+		synchronized (sendLock) {
+			closed = true;
+			fail(new TransportException("Session has been closed!"));
+		}
+	}
+
+	// sender
+
+	// guarded by sendLock
+	private void transmitNew(final Frame frame) {
+		frame.sequence = next++;
+		outstanding[(int) (frame.sequence & mask)] = frame;
+		transmit(frame);
+		// the acknowledgement may have been processed by a synchronous link
+		if (timeout == null && base != next)
+			arm();
+	}
+
+	// guarded by sendLock
+	private void transmit(final Frame frame) {
+		frame.sent = System.nanoTime();
+		sent.incrementAndGet();
+		try {
+			write(ReliableFrame.data(frame.sequence, frame.payload),
+					frame.priority);
+		} catch (TransportException e) {
+			// treated as loss
+		}
+	}
+
+	// guarded by sendLock
+	private void retransmit(final Frame frame) {
+		if (++frame.retransmissions > MAX_RETRANSMISSIONS) {
+			fail(new TransportException("Packet " + frame.sequence
+					+ " could not be delivered after " + MAX_RETRANSMISSIONS
+					+ " retransmissions!"));
+			return;
+		}
+		retransmitted.incrementAndGet();
+		transmit(frame);
+	}
+
+	// guarded by sendLock
+	private void arm() {
+		if (timeout != null)
+			timeout.cancel();
+		timeout = timer.newTimeout(retransmission, rto, TimeUnit.NANOSECONDS);
+	}
+
+	// guarded by sendLock
+	private void fail(final TransportException cause) {
+		if (failure == null)
+			failure = cause;
+		if (timeout != null)
+			timeout.cancel();
+		timeout = null;
+		for (int i = 0; i < outstanding.length; i++)
+			outstanding[i] = null;
+		backlog.clear();
+		base = next;
+	}
+
+	private void onAck(final ReliableFrame ack) {
+		final long now = System.nanoTime();
+		synchronized (sendLock) {
+			if (failure != null)
+				return;
+
+			// the newest frame acknowledged for the first time gives the RTT
+			// sample, frames which waited for a hole would overestimate it
+			Frame newest = null;
+
+			final long cumulative = Math.min(ack.getSequence(), next - 1);
+			final boolean progress = cumulative >= base;
+			if (progress) {
+				for (long s = base; s <= cumulative; s++) {
+					final Frame frame = outstanding[(int) (s & mask)];
+					if (!frame.sacked)
+						newest = frame;
+					outstanding[(int) (s & mask)] = null;
+				}
+				base = cumulative + 1;
+			}
+
+			for (int b = 0; b < ack.getBlockCount(); b++) {
+				final long end = Math.min(ack.getBlockEnd(b), next - 1);
+				for (long s = Math.max(ack.getBlockStart(b), base); s <= end; s++) {
+					final Frame frame = outstanding[(int) (s & mask)];
+					if (!frame.sacked
+							&& (newest == null || frame.sequence > newest.sequence))
+						newest = frame;
+					frame.sacked = true;
+				}
+				if (end > highestSacked)
+					highestSacked = end;
+			}
+
+			if (newest != null && newest.retransmissions == 0)
+				sample(now - newest.sent);
+
+			// selective retransmission of the holes: once as soon as enough
+			// later frames have arrived, again only after the RTO
+			for (long s = base; s < highestSacked - REORDER_THRESHOLD + 1; s++) {
+				final Frame frame = outstanding[(int) (s & mask)];
+				if (!frame.sacked
+						&& (frame.retransmissions == 0 || now - frame.sent >= rto))
+					retransmit(frame);
+				if (failure != null)
+					return;
+			}
+
+			while (!backlog.isEmpty() && next - base <= mask)
+				transmitNew(backlog.poll());
+
+			if (base == next) {
+				if (timeout != null)
+					timeout.cancel();
+				timeout = null;
+			} else if (progress)
+				arm();
+		}
+	}
+
+	// guarded by sendLock, RFC 6298
+	private void sample(final long rtt) {
+		if (srtt < 0) {
+			srtt = rtt;
+			rttvar = rtt / 2;
+		} else {
+			rttvar = (3 * rttvar + Math.abs(srtt - rtt)) / 4;
+			srtt = (7 * srtt + rtt) / 8;
+		}
+		rto = Math.min(Math.max(srtt + 4 * rttvar, minRto),
+				TimeUnit.MILLISECONDS.toNanos(MAX_RTO));
+	}
+
+	private void onTimeout() {
+		final long now = System.nanoTime();
+		synchronized (sendLock) {
+			timeout = null;
+			if (failure != null || base == next)
+				return;
+
+			// the holes below the highest selectively acknowledged frame are
+			// known to be lost, above it only the first frame is probed
+			boolean expired = false;
+			for (long s = base; s < next; s++) {
+				final Frame frame = outstanding[(int) (s & mask)];
+				if (!frame.sacked && now - frame.sent >= rto) {
+					retransmit(frame);
+					expired = true;
+					if (s > highestSacked)
+						break;
+				}
+				if (failure != null)
+					return;
+			}
+
+			if (expired)
+				rto = Math.min(rto * 2, TimeUnit.MILLISECONDS.toNanos(MAX_RTO));
+			arm();
+		}
+	}
+
+	// receiver
+
+	private void onData(final ReliableFrame data, final Packet.Priority priority) {
+		RuntimeException error = null;
+		synchronized (receiveLock) {
+			final long seq = data.getSequence();
+			if (seq < expected || seq > expected + mask
+					|| received[(int) (seq & mask)] != null)
+				duplicates.incrementAndGet();
+			else {
+				final Frame frame = new Frame(data.getPayload(), priority);
+				frame.sequence = seq;
+				received[(int) (seq & mask)] = frame;
+				if (seq > highestReceived)
+					highestReceived = seq;
+
+				// deliver in order
+				Frame ready;
+				while ((ready = received[(int) (expected & mask)]) != null) {
+					received[(int) (expected & mask)] = null;
+					expected++;
+					delivered.incrementAndGet();
+					try {
+						handler.handle(thread, new SequencedPacket(
+								ready.sequence, ready.payload, ready.priority));
+					} catch (RuntimeException e) {
+						if (error == null)
+							error = e;
+					}
+				}
+			}
+
+			acknowledge();
+		}
+		if (error != null)
+			throw error;
+	}
+
+	// guarded by receiveLock
+	private void acknowledge() {
+		final long[] blocks = new long[2 * MAX_SACK_BLOCKS];
+		int n = 0;
+		long s = expected + 1;
+		while (s <= highestReceived && n < blocks.length) {
+			if (received[(int) (s & mask)] == null) {
+				s++;
+				continue;
+			}
+			blocks[n++] = s;
+			while (s + 1 <= highestReceived
+					&& received[(int) ((s + 1) & mask)] != null)
+				s++;
+			blocks[n++] = s;
+			s++;
+		}
+
+		final long[] sack = new long[n];
+		System.arraycopy(blocks, 0, sack, 0, n);
+		try {
+			write(ReliableFrame.ack(expected - 1, sack), Packet.Priority.HIGH);
+		} catch (TransportException e) {
+			// the sender retransmits
+		}
+	}
+
+	private void write(final ReliableFrame frame, final Packet.Priority priority)
+			throws TransportException {
+		// packet threads must not be used concurrently
+		synchronized (threadLock) {
+			thread.send(frame, priority);
+		}
+	}
+
+	// statistics
+
+	/**
+	 * Get the number of unacknowledged packets.
+	 * 
+	 * @return the number of packets in flight
+	 */
+	public int getUnacknowledgedCount() {
+		synchronized (sendLock) {
+			return (int) (next - base);
+		}
+	}
+
+	/**
+	 * Get the number of packets waiting for the window to open.
+	 * 
+	 * @return the backlog size
+	 */
+	public int getBacklogCount() {
+		synchronized (sendLock) {
+			return backlog.size();
+		}
+	}
+
+	/**
+	 * Get the smoothed round-trip time.
+	 * 
+	 * @param unit
+	 *            the unit of the result
+	 * @return the smoothed RTT or -1 if there is no sample yet
+	 */
+	public long getSmoothedRtt(final TimeUnit unit) {
+		synchronized (sendLock) {
+			return srtt < 0 ? -1 : unit.convert(srtt, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Get the current retransmission timeout.
+	 * 
+	 * @param unit
+	 *            the unit of the result
+	 * @return the RTO
+	 */
+	public long getRto(final TimeUnit unit) {
+		synchronized (sendLock) {
+			return unit.convert(rto, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Get the number of data frames sent, including retransmissions.
+	 * 
+	 * @return the number of sent frames
+	 */
+	public long getSentCount() {
+		return sent.get();
+	}
+
+	/**
+	 * Get the number of retransmitted data frames.
+	 * 
+	 * @return the number of retransmissions
+	 */
+	public long getRetransmittedCount() {
+		return retransmitted.get();
+	}
+
+	/**
+	 * Get the number of packets delivered to the application handler.
+	 * 
+	 * @return the number of delivered packets
+	 */
+	public long getDeliveredCount() {
+		return delivered.get();
+	}
+
+	/**
+	 * Get the number of received data frames which had already been
+	 * received or were outside the window.
+	 * 
+	 * @return the number of duplicates
+	 */
+	public long getDuplicateCount() {
+		return duplicates.get();
+	}
+
+	/**
+	 * A data frame on the sending or receiving side.
+	 */
+	private static final class Frame {
+		final Object payload;
+		final Packet.Priority priority;
+		long sequence;
+		// sender only
+		long sent;
+		int retransmissions = 0;
+		boolean sacked = false;
+
+		Frame(Object payload, Packet.Priority priority) {
+			this.payload = payload;
+			this.priority = priority;
+		}
+	}
+}
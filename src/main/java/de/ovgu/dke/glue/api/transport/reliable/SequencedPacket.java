@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.reliable;
+
+import net.jcip.annotations.Immutable;
+import de.ovgu.dke.glue.api.transport.Packet;
+
+/**
+ * <p>
+ * A packet delivered by a {@link ReliableSession}. The packet may have been
+ * buffered for reordering, so it only carries the pay-load, the priority and
+ * the sequence number as {@link ReliableSession#SEQUENCE} attribute; the
+ * transport's attributes are not available.
+ * </p>
+ */
+@Immutable
+final class SequencedPacket implements Packet {
+	private final Long sequence;
+	private final Object payload;
+	private final Priority priority;
+
+	SequencedPacket(final long sequence, final Object payload,
+			final Priority priority) {
+		this.sequence = Long.valueOf(sequence);
+		this.payload = payload;
+		this.priority = priority;
+	}
+
+	@Override
+	public Object getPayload() {
+		return payload;
+	}
+
+	@Override
+	public Priority getPriority() {
+		return priority;
+	}
+
+	@Override
+	public Object getAttribute(final String key) {
+		if (key == null)
+			throw new NullPointerException("Key may not be null!");
+		if (ReliableSession.SEQUENCE.getName().equals(key))
+			return sequence;
+		return null;
+	}
+}
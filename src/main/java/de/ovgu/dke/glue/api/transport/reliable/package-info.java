@@ -0,0 +1,32 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * <p>
+ * Reliable, ordered delivery on top of packet threads of lossy transports.
+ * The {@link de.ovgu.dke.glue.api.transport.reliable.ReliableSession} numbers
+ * the packets of a packet thread, retransmits lost packets based on
+ * cumulative and selective acknowledgements and RTT estimates, and reorders
+ * the packets on the receiving side.
+ * </p>
+ */
+package de.ovgu.dke.glue.api.transport.reliable;
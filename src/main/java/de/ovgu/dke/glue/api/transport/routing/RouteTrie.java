@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.routing;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * <p>
+ * A compiled prefix trie over the routes of a {@link RoutingTable}. Each node
+ * keeps its child characters in a sorted array, i.e. a lookup is a walk along
+ * the destination with a binary search per character and does not allocate.
+ * </p>
+ * 
+ * <p>
+ * A prefix only matches at a URI boundary: the destination must be equal to
+ * the prefix, the prefix must end with one of {@code / : ? #} or the
+ * destination must continue with one of these characters. The empty prefix
+ * matches every destination. The longest matching prefix wins.
+ * </p>
+ */
+@Immutable
+final class RouteTrie {
+	private static final char[] NO_KEYS = new char[0];
+	private static final RouteTrie[] NO_CHILDREN = new RouteTrie[0];
+
+	private final char[] keys;
+	private final RouteTrie[] children;
+	private final URI nextHop;
+
+	private RouteTrie(final char[] keys, final RouteTrie[] children,
+			final URI nextHop) {
+		this.keys = keys;
+		this.children = children;
+		this.nextHop = nextHop;
+	}
+
+	/**
+	 * Compile the routes into a trie.
+	 * 
+	 * @param routes
+	 *            the routes, prefix to next hop
+	 * @return the root of the trie
+	 */
+	static RouteTrie compile(final Map<String, URI> routes) {
+		return compile(new TreeMap<String, URI>(routes), 0);
+	}
+
+	private static RouteTrie compile(final SortedMap<String, URI> routes,
+			final int depth) {
+		URI value = null;
+		// routes sharing the character at depth, in order
+		final TreeMap<Character, SortedMap<String, URI>> groups = new TreeMap<Character, SortedMap<String, URI>>();
+		for (final Map.Entry<String, URI> route : routes.entrySet()) {
+			final String prefix = route.getKey();
+			if (prefix.length() == depth) {
+				value = route.getValue();
+				continue;
+			}
+			final Character c = Character.valueOf(prefix.charAt(depth));
+			SortedMap<String, URI> group = groups.get(c);
+			if (group == null) {
+				group = new TreeMap<String, URI>();
+				groups.put(c, group);
+			}
+			group.put(prefix, route.getValue());
+		}
+
+		if (groups.isEmpty())
+			return new RouteTrie(NO_KEYS, NO_CHILDREN, value);
+
+		final char[] keys = new char[groups.size()];
+		final RouteTrie[] children = new RouteTrie[groups.size()];
+		int i = 0;
+		for (final Map.Entry<Character, SortedMap<String, URI>> group : groups
+				.entrySet()) {
+			keys[i] = group.getKey().charValue();
+			children[i] = compile(group.getValue(), depth + 1);
+			i++;
+		}
+		return new RouteTrie(keys, children, value);
+	}
+
+	/**
+	 * Find the next hop of the longest matching prefix.
+	 * 
+	 * @param destination
+	 *            the destination URI as string
+	 * @return the next hop or {@code null} if no prefix matches
+	 */
+	URI lookup(final String destination) {
+		final int length = destination.length();
+		URI best = nextHop;
+		RouteTrie node = this;
+		for (int i = 0; i < length; i++) {
+			final int pos = Arrays.binarySearch(node.keys,
+					destination.charAt(i));
+			if (pos < 0)
+				break;
+			node = node.children[pos];
+			if (node.nextHop != null
+					&& (i + 1 == length || isBoundary(destination.charAt(i)) || isBoundary(destination
+							.charAt(i + 1))))
+				best = node.nextHop;
+		}
+		return best;
+	}
+
+	private static boolean isBoundary(final char c) {
+		return c == '/' || c == ':' || c == '?' || c == '#';
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.routing;
+
+import java.io.Serializable;
+import java.net.URI;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * <p>
+ * The pay-load of the routing schema: an application pay-load in serialized
+ * form plus the routing header, i.e. source, destination, the next hop the
+ * packet has been sent to, the application schema and serialization format,
+ * and the remaining number of hops. Relays only read and rewrite the header.
+ * </p>
+ * 
+ * <p>
+ * This class is immutable and thread safe.
+ * </p>
+ */
+@Immutable
+public final class RoutedPacket implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final URI source;
+	private final URI destination;
+	private final URI nextHop;
+	private final String schema;
+	private final String format;
+	private final int ttl;
+	private final Object payload;
+
+	/**
+	 * Create a routed packet.
+	 * 
+	 * @param source
+	 *            The URI of the originating router.
+	 * @param destination
+	 *            The URI of the destination router.
+	 * @param nextHop
+	 *            The URI of the router the packet is sent to.
+	 * @param schema
+	 *            The application schema.
+	 * @param format
+	 *            The serialization format of the pay-load.
+	 * @param ttl
+	 *            The remaining number of hops.
+	 * @param payload
+	 *            The serialized pay-load, may be {@code null}.
+	 * @throws NullPointerException
+	 *             if one of the URIs, the schema or the format is {@code null}
+	 */
+	public RoutedPacket(final URI source, final URI destination,
+			final URI nextHop, final String schema, final String format,
+			final int ttl, final Object payload) {
+		if (source == null)
+			throw new NullPointerException("Source may not be null!");
+		if (destination == null)
+			throw new NullPointerException("Destination may not be null!");
+		if (nextHop == null)
+			throw new NullPointerException("Next hop may not be null!");
+		if (schema == null)
+			throw new NullPointerException("Schema may not be null!");
+		if (format == null)
+			throw new NullPointerException("Format may not be null!");
+
+		this.source = source;
+		this.destination = destination;
+		this.nextHop = nextHop;
+		this.schema = schema;
+		this.format = format;
+		this.ttl = ttl;
+		this.payload = payload;
+	}
+
+	/**
+	 * Get the URI of the originating router.
+	 * 
+	 * @return the source
+	 */
+	public URI getSource() {
+		return source;
+	}
+
+	/**
+	 * Get the URI of the destination router.
+	 * 
+	 * @return the destination
+	 */
+	public URI getDestination() {
+		return destination;
+	}
+
+	/**
+	 * Get the URI of the router the packet has been sent to.
+	 * 
+	 * @return the next hop
+	 */
+	public URI getNextHop() {
+		return nextHop;
+	}
+
+	/**
+	 * Get the application schema.
+	 * 
+	 * @return the schema
+	 */
+	public String getSchema() {
+		return schema;
+	}
+
+	/**
+	 * Get the serialization format of the pay-load.
+	 * 
+	 * @return the format
+	 */
+	public String getFormat() {
+		return format;
+	}
+
+	/**
+	 * Get the remaining number of hops.
+	 * 
+	 * @return the time to live
+	 */
+	public int getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * Get the serialized pay-load.
+	 * 
+	 * @return the pay-load, may be {@code null}
+	 */
+	public Object getPayload() {
+		return payload;
+	}
+
+	/**
+	 * Create the packet for the next hop, with the time to live decremented.
+	 * The pay-load is shared.
+	 * 
+	 * @param hop
+	 *            the next hop
+	 * @return the forwarded packet
+	 */
+	public RoutedPacket forward(final URI hop) {
+		return new RoutedPacket(source, destination, hop, schema, format,
+				ttl - 1, payload);
+	}
+
+	@Override
+	public String toString() {
+		return source + " -> " + destination + " via " + nextHop + " ("
+				+ schema + ", ttl " + ttl + ")";
+	}
+}
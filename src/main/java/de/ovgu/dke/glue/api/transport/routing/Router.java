@@ -0,0 +1,528 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.routing;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.reporting.ReportListener;
+import de.ovgu.dke.glue.api.reporting.ReportListenerSupport;
+import de.ovgu.dke.glue.api.reporting.Reporter;
+import de.ovgu.dke.glue.api.serialization.SerializationException;
+import de.ovgu.dke.glue.api.serialization.SerializationProvider;
+import de.ovgu.dke.glue.api.serialization.Serializer;
+import de.ovgu.dke.glue.api.transport.AttributeKey;
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.PacketHandler;
+import de.ovgu.dke.glue.api.transport.PacketHandlerFactory;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.SchemaRecord;
+import de.ovgu.dke.glue.api.transport.SchemaRegistry;
+import de.ovgu.dke.glue.api.transport.Transport;
+import de.ovgu.dke.glue.api.transport.TransportException;
+import de.ovgu.dke.glue.api.transport.TransportFactory;
+import de.ovgu.dke.glue.api.transport.TransportLifecycleListener;
+
+/**
+ * <p>
+ * Multi-hop delivery of packets between routers. A router is identified by
+ * its URI, which must be the URI other routers use to create transports to
+ * it, e.g. the local URI of its transport factory. Packets are sent on the
+ * {@link #ROUTE_SCHEMA} as {@link RoutedPacket}s; the next hop of a
+ * destination is taken from the {@link RoutingTable}, destinations without
+ * route are treated as direct peers.
+ * </p>
+ * 
+ * <p>
+ * The application pay-load is serialized once by the originating router, with
+ * the serializer of the application schema for the format of the first hop's
+ * routing connection. Relays forward the serialized pay-load, only the
+ * routing header is decoded and rewritten. At the destination the pay-load is
+ * deserialized and passed to a handler created by the application schema's
+ * {@link PacketHandlerFactory}, with the source router as {@link #SOURCE}
+ * attribute. The packet thread passed to the handler is the routing thread,
+ * i.e. replies must be sent via {@link #send(URI, String, Object, Packet.Priority)}
+ * to the source.
+ * </p>
+ * 
+ * <p>
+ * Resolved routes, i.e. the transport and routing packet thread for a
+ * destination, are cached. The cache is invalidated when the routing table
+ * changes and, if the router is registered as life-cycle listener at its
+ * transport factory, on every status change of a cached transport.
+ * </p>
+ * 
+ * <p>
+ * Incoming routed packets are dispatched to the router registered for their
+ * next hop URI, see {@link #register()}, so several routers may share a
+ * process.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class Router implements TransportLifecycleListener, Reporter {
+	/**
+	 * The schema for routed packets.
+	 */
+	public static final String ROUTE_SCHEMA = "glue://routing";
+
+	/**
+	 * The initial number of hops of a routed packet.
+	 */
+	public static final int DEFAULT_TTL = 16;
+
+	/**
+	 * The originating router of a delivered packet.
+	 */
+	public static final AttributeKey<URI> SOURCE = AttributeKey.valueOf(
+			"route-source", URI.class);
+
+	private static final ConcurrentMap<URI, Router> ROUTERS = new ConcurrentHashMap<URI, Router>();
+
+	/**
+	 * Dispatches incoming routed packets to the addressed router.
+	 */
+	private static final PacketHandler DISPATCHER = new PacketHandler() {
+		@Override
+		public void handle(final PacketThread packetThread, final Packet packet) {
+			final Object payload = packet.getPayload();
+			if (!(payload instanceof RoutedPacket))
+				throw new IllegalStateException(
+						"Routing schema requires routed packets!");
+
+			final RoutedPacket routed = (RoutedPacket) payload;
+			final Router router = ROUTERS.get(routed.getNextHop());
+			if (router == null)
+				throw new IllegalStateException("No router for "
+						+ routed.getNextHop());
+			router.handle(packetThread, packet, routed);
+		}
+	};
+
+	private static final SchemaRecord RECORD = SchemaRecord.valueOf(
+			ROUTE_SCHEMA, new PacketHandlerFactory() {
+				@Override
+				public PacketHandler createPacketHandler() {
+					return DISPATCHER;
+				}
+			}, new RoutingCodec());
+
+	private final TransportFactory factory;
+	private final URI localURI;
+	private final RoutingTable table;
+
+	private final ConcurrentMap<URI, Hop> routes;
+	private final ConcurrentMap<Transport, PacketThread> threads;
+	private final ConcurrentMap<String, Delivery> deliveries;
+
+	private final ReportListenerSupport reportListeners;
+
+	private final AtomicLong delivered;
+	private final AtomicLong forwarded;
+	private final AtomicLong dropped;
+
+	/**
+	 * Create a router.
+	 * 
+	 * @param factory
+	 *            The transport factory for the transports to the next hops.
+	 * @param localURI
+	 *            The URI of this router.
+	 * @param table
+	 *            The routing table.
+	 * @throws NullPointerException
+	 *             if one of the parameters is {@code null}
+	 */
+	public Router(final TransportFactory factory, final URI localURI,
+			final RoutingTable table) {
+		if (factory == null)
+			throw new NullPointerException("Factory may not be null!");
+		if (localURI == null)
+			throw new NullPointerException("Local URI may not be null!");
+		if (table == null)
+			throw new NullPointerException("Routing table may not be null!");
+
+		this.factory = factory;
+		this.localURI = localURI;
+		this.table = table;
+		this.routes = new ConcurrentHashMap<URI, Hop>();
+		this.threads = new ConcurrentHashMap<Transport, PacketThread>();
+		this.deliveries = new ConcurrentHashMap<String, Delivery>();
+		this.reportListeners = new ReportListenerSupport(this);
+		this.delivered = new AtomicLong();
+		this.forwarded = new AtomicLong();
+		this.dropped = new AtomicLong();
+	}
+
+	/**
+	 * Register the router for incoming packets and as life-cycle listener at
+	 * its transport factory. Registers the {@link #ROUTE_SCHEMA} if
+	 * necessary.
+	 * 
+	 * @throws IllegalStateException
+	 *             if another router is registered for the local URI
+	 */
+	public void register() {
+		final Router existing = ROUTERS.putIfAbsent(localURI, this);
+		if (existing != null && existing != this)
+			throw new IllegalStateException("A router for " + localURI
+					+ " is already registered!");
+
+		SchemaRegistry.getInstance().registerSchemaRecordIfAbsent(RECORD);
+		factory.addTransportLifecycleListener(this);
+	}
+
+	/**
+	 * Unregister the router and dispose its routing packet threads. The
+	 * routing schema stays registered.
+	 */
+	public void dispose() {
+		ROUTERS.remove(localURI, this);
+		factory.removeTransportLifecycleListener(this);
+
+		routes.clear();
+		for (final Map.Entry<Transport, PacketThread> e : threads.entrySet())
+			if (threads.remove(e.getKey(), e.getValue()))
+				e.getValue().dispose();
+	}
+
+	/**
+	 * Send a pay-load to a destination router.
+	 * 
+	 * @param destination
+	 *            The URI of the destination router.
+	 * @param schema
+	 *            The application schema, which must be registered at the
+	 *            source and destination.
+	 * @param payload
+	 *            The pay-load.
+	 * @param priority
+	 *            The packet priority.
+	 * @throws TransportException
+	 *             if the schema is unknown, the pay-load cannot be serialized
+	 *             or the packet cannot be sent to the next hop
+	 * @throws IllegalArgumentException
+	 *             if the destination is the local router
+	 * @throws NullPointerException
+	 *             if the destination or schema is {@code null}
+	 */
+	public void send(final URI destination, final String schema,
+			final Object payload, final Packet.Priority priority)
+			throws TransportException {
+		if (destination == null)
+			throw new NullPointerException("Destination may not be null!");
+		if (schema == null)
+			throw new NullPointerException("Schema may not be null!");
+		if (destination.equals(localURI))
+			throw new IllegalArgumentException(
+					"Destination is the local router!");
+
+		final SchemaRecord record = SchemaRegistry.getInstance().getRecord(
+				schema);
+		if (record == null)
+			throw new TransportException("Unknown schema " + schema);
+
+		final Hop hop = resolve(destination);
+		final String format = hop.thread.getConnection()
+				.getSerializationFormat();
+		final Object serialized;
+		try {
+			final SerializationProvider provider = record
+					.getSerializationProvider();
+			final Serializer serializer = provider == null ? null : provider
+					.getSerializer(format);
+			serialized = serializer == null ? payload : serializer
+					.serialize(payload);
+		} catch (SerializationException e) {
+			throw new TransportException("Error on payload serialization: "
+					+ e.getMessage(), e);
+		}
+
+		send(hop, new RoutedPacket(localURI, destination, hop.nextHop,
+				schema, format, DEFAULT_TTL, serialized), priority);
+	}
+
+	/**
+	 * Resolve the next hop for a destination, using the route cache.
+	 * 
+	 * @param destination
+	 *            the destination URI
+	 * @return the transport to the next hop
+	 * @throws TransportException
+	 *             if the transport to the next hop cannot be created
+	 */
+	public Transport resolveTransport(final URI destination)
+			throws TransportException {
+		return resolve(destination).transport;
+	}
+
+	private Hop resolve(final URI destination) throws TransportException {
+		final long version = table.getVersion();
+		final Hop cached = routes.get(destination);
+		if (cached != null && cached.version == version)
+			return cached;
+
+		final URI route = table.lookup(destination);
+		final URI nextHop = route == null ? destination : route;
+		final Transport transport = factory.createTransport(nextHop);
+
+		PacketThread pt = threads.get(transport);
+		if (pt == null) {
+			final PacketThread created = transport.getConnection(ROUTE_SCHEMA)
+					.createThread(DISPATCHER);
+			pt = threads.putIfAbsent(transport, created);
+			if (pt == null)
+				pt = created;
+			else
+				created.dispose();
+		}
+
+		final Hop hop = new Hop(nextHop, transport, pt, version);
+		routes.put(destination, hop);
+		return hop;
+	}
+
+	private void send(final Hop hop, final RoutedPacket packet,
+			final Packet.Priority priority) throws TransportException {
+		// packet threads must not be used concurrently
+		synchronized (hop.thread) {
+			hop.thread.send(packet, priority);
+		}
+	}
+
+	private void handle(final PacketThread pt, final Packet packet,
+			final RoutedPacket routed) {
+		if (localURI.equals(routed.getDestination())) {
+			deliver(pt, packet, routed);
+			return;
+		}
+
+		if (routed.getTtl() <= 1) {
+			drop(routed, "time to live exceeded", null);
+			return;
+		}
+
+		Hop hop = null;
+		try {
+			hop = resolve(routed.getDestination());
+			// counted before the hand-off, the next hop may handle the packet
+			// before send returns
+			forwarded.incrementAndGet();
+			send(hop, routed.forward(hop.nextHop), packet.getPriority());
+		} catch (TransportException e) {
+			dropForward(routed, hop, e);
+		} catch (IllegalStateException e) {
+			dropForward(routed, hop, e);
+		}
+	}
+
+	private void dropForward(final RoutedPacket routed, final Hop hop,
+			final Exception cause) {
+		if (hop != null)
+			// the send failed
+			forwarded.decrementAndGet();
+		drop(routed, cause.getMessage(), cause);
+	}
+
+	private void deliver(final PacketThread pt, final Packet packet,
+			final RoutedPacket routed) {
+		final SchemaRecord record = SchemaRegistry.getInstance().getRecord(
+				routed.getSchema());
+		if (record == null) {
+			drop(routed, "unknown schema", null);
+			return;
+		}
+
+		try {
+			Delivery delivery = deliveries.get(routed.getSchema());
+			if (delivery == null || delivery.record != record) {
+				delivery = new Delivery(record, record
+						.getPacketHandlerFactory().createPacketHandler());
+				deliveries.put(routed.getSchema(), delivery);
+			}
+
+			final SerializationProvider provider = record
+					.getSerializationProvider();
+			final Serializer serializer = provider == null ? null : provider
+					.getSerializer(routed.getFormat());
+			final Object payload = serializer == null
+					|| routed.getPayload() == null ? routed.getPayload()
+					: serializer.deserialize(routed.getPayload());
+
+			// counted before the hand-off, so that the count is up to date
+			// when the handler is done
+			delivered.incrementAndGet();
+			delivery.handler.handle(pt, new DeliveredPacket(packet,
+					routed.getSource(), payload));
+		} catch (InstantiationException e) {
+			drop(routed, "cannot create packet handler", e);
+		} catch (SerializationException e) {
+			drop(routed, e.getMessage(), e);
+		}
+	}
+
+	private void drop(final RoutedPacket routed, final String reason,
+			final Throwable cause) {
+		dropped.incrementAndGet();
+		if (reportListeners.isReportable(Reporter.Level.WARN))
+			reportListeners.fireReport("Dropped routed packet " + routed
+					+ ": " + reason, cause, Reporter.Level.WARN);
+	}
+
+	/**
+	 * Remove all cached routes.
+	 */
+	public void invalidate() {
+		routes.clear();
+	}
+
+	/**
+	 * Remove the cached routes via a transport.
+	 * 
+	 * @param transport
+	 *            the transport
+	 */
+	public void invalidate(final Transport transport) {
+		for (final Map.Entry<URI, Hop> e : routes.entrySet())
+			if (e.getValue().transport == transport)
+				routes.remove(e.getKey(), e.getValue());
+	}
+
+	@Override
+	public void onStatusChange(final Transport transport,
+			final Transport.Status oldStatus, final Transport.Status newStatus) {
+		invalidate(transport);
+		if (newStatus == Transport.Status.CLOSED
+				|| newStatus == Transport.Status.FAILED) {
+			final PacketThread pt = threads.remove(transport);
+			if (pt != null)
+				pt.dispose();
+		}
+	}
+
+	@Override
+	public void onThreadCreation(final PacketThread pt) {
+		// not relevant for routing
+	}
+
+	@Override
+	public void onThreadDisposal(final PacketThread pt) {
+		// not relevant for routing
+	}
+
+	@Override
+	public void addReportListener(final ReportListener listener) {
+		reportListeners.addReportListener(listener);
+	}
+
+	@Override
+	public void removeReportListener(final ReportListener listener) {
+		reportListeners.removeReportListener(listener);
+	}
+
+	/**
+	 * Get the URI of this router.
+	 * 
+	 * @return the local URI
+	 */
+	public URI getLocalURI() {
+		return localURI;
+	}
+
+	/**
+	 * Get the routing table.
+	 * 
+	 * @return the routing table
+	 */
+	public RoutingTable getRoutingTable() {
+		return table;
+	}
+
+	/**
+	 * Get the number of cached routes.
+	 * 
+	 * @return the number of cached destinations
+	 */
+	public int getCachedRouteCount() {
+		return routes.size();
+	}
+
+	/**
+	 * Get the number of packets delivered to a local handler.
+	 * 
+	 * @return the number of delivered packets
+	 */
+	public long getDeliveredCount() {
+		return delivered.get();
+	}
+
+	/**
+	 * Get the number of packets relayed to the next hop.
+	 * 
+	 * @return the number of forwarded packets
+	 */
+	public long getForwardedCount() {
+		return forwarded.get();
+	}
+
+	/**
+	 * Get the number of packets which could neither be delivered nor
+	 * forwarded.
+	 * 
+	 * @return the number of dropped packets
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	private static final class Hop {
+		final URI nextHop;
+		final Transport transport;
+		final PacketThread thread;
+		final long version;
+
+		Hop(URI nextHop, Transport transport, PacketThread thread,
+				long version) {
+			this.nextHop = nextHop;
+			this.transport = transport;
+			this.thread = thread;
+			this.version = version;
+		}
+	}
+
+	private static final class Delivery {
+		final SchemaRecord record;
+		final PacketHandler handler;
+
+		Delivery(SchemaRecord record, PacketHandler handler) {
+			this.record = record;
+			this.handler = handler;
+		}
+	}
+}
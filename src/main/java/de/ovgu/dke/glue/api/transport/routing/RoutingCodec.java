@@ -0,0 +1,155 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.routing;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import net.jcip.annotations.Immutable;
+import de.ovgu.dke.glue.api.serialization.SerializationException;
+import de.ovgu.dke.glue.api.serialization.SerializationProvider;
+import de.ovgu.dke.glue.api.serialization.Serializer;
+
+/**
+ * <p>
+ * Serialization of the routing schema. For the {@code binary} format a
+ * {@link RoutedPacket} is encoded as header followed by the pay-load bytes,
+ * decoding only parses the header and copies the pay-load bytes. For
+ * {@code java} transports the packets are passed as objects, other formats
+ * are not supported.
+ * </p>
+ * 
+ * <p>
+ * This class is immutable and thread safe.
+ * </p>
+ */
+@Immutable
+public final class RoutingCodec implements SerializationProvider, Serializer {
+	private static final byte VERSION = 1;
+
+	@Override
+	public List<String> availableFormats() {
+		return Collections.singletonList(SerializationProvider.BINARY);
+	}
+
+	@Override
+	public Serializer getSerializer(final String format)
+			throws SerializationException {
+		if (SerializationProvider.BINARY.equals(format))
+			return this;
+		if (SerializationProvider.JAVA.equals(format))
+			return null;
+		if (format == null)
+			throw new NullPointerException("Format may not be null!");
+		throw new SerializationException("Unsupported routing format: "
+				+ format);
+	}
+
+	@Override
+	public String getFormat() {
+		return SerializationProvider.BINARY;
+	}
+
+	@Override
+	public Object serialize(final Object o) throws SerializationException {
+		final RoutedPacket packet = (RoutedPacket) o;
+		final Object payload = packet.getPayload();
+		if (payload != null && !(payload instanceof byte[]))
+			throw new SerializationException(
+					"Binary routing requires binary pay-loads!");
+
+		final byte[][] header = new byte[][] {
+				utf8(packet.getSource().toString()),
+				utf8(packet.getDestination().toString()),
+				utf8(packet.getNextHop().toString()),
+				utf8(packet.getSchema()), utf8(packet.getFormat()) };
+		int size = 3;
+		for (final byte[] field : header)
+			size += 2 + field.length;
+		final byte[] data = (byte[]) payload;
+		if (data != null)
+			size += data.length;
+
+		final ByteBuffer buf = ByteBuffer.allocate(size);
+		buf.put(VERSION);
+		buf.putShort((short) packet.getTtl());
+		for (final byte[] field : header) {
+			buf.putShort((short) field.length);
+			buf.put(field);
+		}
+		if (data != null)
+			buf.put(data);
+		return buf.array();
+	}
+
+	@Override
+	public Object deserialize(final Object o) throws SerializationException {
+		try {
+			final ByteBuffer buf = ByteBuffer.wrap((byte[]) o);
+			if (buf.get() != VERSION)
+				throw new SerializationException(
+						"Unsupported routing header version!");
+			final int ttl = buf.getShort();
+			final URI source = new URI(string(buf));
+			final URI destination = new URI(string(buf));
+			final URI nextHop = new URI(string(buf));
+			final String schema = string(buf);
+			final String format = string(buf);
+			final byte[] payload = new byte[buf.remaining()];
+			buf.get(payload);
+			return new RoutedPacket(source, destination, nextHop, schema,
+					format, ttl, payload);
+		} catch (URISyntaxException e) {
+			throw new SerializationException("Invalid routing header: "
+					+ e.getMessage(), e);
+		} catch (UnsupportedEncodingException e) {
+			throw new SerializationException(e.getMessage(), e);
+		} catch (RuntimeException e) {
+			throw new SerializationException("Invalid routing header: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	private static byte[] utf8(final String s) throws SerializationException {
+		try {
+			final byte[] bytes = s.getBytes("UTF-8");
+			if (bytes.length > 0xffff)
+				throw new SerializationException("Routing header too long!");
+			return bytes;
+		} catch (UnsupportedEncodingException e) {
+			throw new SerializationException(e.getMessage(), e);
+		}
+	}
+
+	private static String string(final ByteBuffer buf)
+			throws UnsupportedEncodingException {
+		final int length = buf.getShort() & 0xffff;
+		final String s = new String(buf.array(), buf.position(), length,
+				"UTF-8");
+		buf.position(buf.position() + length);
+		return s;
+	}
+}
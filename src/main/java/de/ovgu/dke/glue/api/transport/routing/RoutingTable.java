@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.routing;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * <p>
+ * Routes from destination URI prefixes to next hops, e.g. all destinations
+ * starting with {@code glue://site-b/} are reached via the relay
+ * {@code glue://gateway}. Lookups use the longest matching prefix, see
+ * {@link RouteTrie} for the matching rules; a route with the empty prefix is
+ * the default route.
+ * </p>
+ * 
+ * <p>
+ * The routes are compiled into a prefix trie on every change and published as
+ * an immutable snapshot, i.e. lookups do not take locks. Routing tables are
+ * expected to change rarely compared to lookups. Every change increments the
+ * version, which caches use to detect stale resolutions.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class RoutingTable {
+	private final Object lock = new Object();
+
+	private volatile Snapshot snapshot;
+
+	/**
+	 * Create an empty routing table.
+	 */
+	public RoutingTable() {
+		final Map<String, URI> routes = Collections.emptyMap();
+		this.snapshot = new Snapshot(0, routes);
+	}
+
+	/**
+	 * Add or replace a route.
+	 * 
+	 * @param prefix
+	 *            The destination prefix, the empty string for the default
+	 *            route.
+	 * @param nextHop
+	 *            The URI of the next hop.
+	 * @return the previous next hop for the prefix or {@code null}
+	 * @throws NullPointerException
+	 *             if one of the parameters is {@code null}
+	 */
+	public URI addRoute(final String prefix, final URI nextHop) {
+		if (prefix == null)
+			throw new NullPointerException("Prefix may not be null!");
+		if (nextHop == null)
+			throw new NullPointerException("Next hop may not be null!");
+
+		synchronized (lock) {
+			final Map<String, URI> routes = new HashMap<String, URI>(
+					snapshot.routes);
+			final URI previous = routes.put(prefix, nextHop);
+			publish(routes);
+			return previous;
+		}
+	}
+
+	/**
+	 * Remove a route.
+	 * 
+	 * @param prefix
+	 *            The destination prefix.
+	 * @return the removed next hop or {@code null} if there was no route
+	 */
+	public URI removeRoute(final String prefix) {
+		synchronized (lock) {
+			if (!snapshot.routes.containsKey(prefix))
+				return null;
+			final Map<String, URI> routes = new HashMap<String, URI>(
+					snapshot.routes);
+			final URI previous = routes.remove(prefix);
+			publish(routes);
+			return previous;
+		}
+	}
+
+	/**
+	 * Find the next hop for a destination.
+	 * 
+	 * @param destination
+	 *            The destination URI.
+	 * @return the next hop of the longest matching route or {@code null} if
+	 *         no route matches
+	 * @throws NullPointerException
+	 *             if the destination is {@code null}
+	 */
+	public URI lookup(final URI destination) {
+		if (destination == null)
+			throw new NullPointerException("Destination may not be null!");
+
+		return snapshot.trie.lookup(destination.toString());
+	}
+
+	/**
+	 * Get the routes.
+	 * 
+	 * @return an unmodifiable map from prefix to next hop
+	 */
+	public Map<String, URI> getRoutes() {
+		return snapshot.routes;
+	}
+
+	/**
+	 * Get the version of the routing table, which is incremented on every
+	 * change.
+	 * 
+	 * @return the version
+	 */
+	public long getVersion() {
+		return snapshot.version;
+	}
+
+	// guarded by lock
+	private void publish(final Map<String, URI> routes) {
+		snapshot = new Snapshot(snapshot.version + 1, routes);
+	}
+
+	private static final class Snapshot {
+		final long version;
+		final Map<String, URI> routes;
+		final RouteTrie trie;
+
+		Snapshot(long version, Map<String, URI> routes) {
+			this.version = version;
+			this.routes = Collections.unmodifiableMap(routes);
+			this.trie = RouteTrie.compile(routes);
+		}
+	}
+}
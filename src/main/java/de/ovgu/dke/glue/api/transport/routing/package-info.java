@@ -0,0 +1,34 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * <p>
+ * Multi-hop delivery of packets. The {@link
+ * de.ovgu.dke.glue.api.transport.routing.RoutingTable} maps destination URI
+ * prefixes to next hops, the {@link
+ * de.ovgu.dke.glue.api.transport.routing.Router} sends packets towards their
+ * destination, relays them on intermediate nodes without deserializing the
+ * pay-load and delivers them to the schema's packet handler at the
+ * destination.
+ * </p>
+ */
+package de.ovgu.dke.glue.api.transport.routing;
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.rpc;
+
+import net.jcip.annotations.Immutable;
+import de.ovgu.dke.glue.api.transport.Packet;
+
+/**
+ * <p>
+ * View of an incoming request, which exposes the application pay-load and the
+ * correlation id as {@link RpcChannel#CORRELATION_ID} attribute. All other
+ * attributes are taken from the transport's packet, i.e. they are only
+ * available while the transport's packet is, see {@link
+ * de.ovgu.dke.glue.api.transport.PooledPacket}.
+ * </p>
+ */
+@Immutable
+final class CorrelatedPacket implements Packet {
+	private final Packet packet;
+	private final Priority priority;
+	private final Long correlationId;
+	private final Object payload;
+
+	CorrelatedPacket(final Packet packet, final RpcEnvelope envelope) {
+		this.packet = packet;
+		this.priority = packet.getPriority();
+		this.correlationId = Long.valueOf(envelope.getCorrelationId());
+		this.payload = envelope.getPayload();
+	}
+
+	@Override
+	public Object getPayload() {
+		return payload;
+	}
+
+	@Override
+	public Priority getPriority() {
+		return priority;
+	}
+
+	@Override
+	public Object getAttribute(final String key) {
+		if (RpcChannel.CORRELATION_ID.getName().equals(key))
+			return correlationId;
+		return packet.getAttribute(key);
+	}
+}
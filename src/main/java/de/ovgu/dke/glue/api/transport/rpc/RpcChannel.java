@@ -0,0 +1,440 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.rpc;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.transport.AttributeKey;
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.PacketHandler;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.TransportException;
+import de.ovgu.dke.glue.api.util.HashedWheelTimer;
+import de.ovgu.dke.glue.api.util.LatencyHistogram;
+
+/**
+ * <p>
+ * Request/response correlation on top of packet threads. The channel is the
+ * packet handler of the packet threads it serves, i.e. create the threads with
+ * the channel as handler or return it from the schema's
+ * {@link de.ovgu.dke.glue.api.transport.PacketHandlerFactory}.
+ * </p>
+ * 
+ * <p>
+ * A request is sent as {@link RpcEnvelope} with a fresh correlation id and
+ * stays in the pending map until the reply with the same id arrives, the
+ * timeout expires or the request is cancelled. Only a reply on the packet
+ * thread the request has been sent on is accepted, as correlation ids are
+ * not unique across peers. The pending map is a
+ * lock-striped hash map, i.e. thousands of outstanding requests per packet
+ * thread do not contend on a single lock. The round-trip times of successful
+ * requests are recorded in a {@link LatencyHistogram}.
+ * </p>
+ * 
+ * <p>
+ * Incoming requests are passed to the request handler with the application
+ * pay-load and the correlation id as {@link #CORRELATION_ID} attribute; the
+ * handler answers via {@link #reply(PacketThread, Packet, Object)}, either
+ * directly or later from another thread. If the request handler throws a
+ * runtime exception, a failure with the exception message is sent back.
+ * Packets without envelope are passed to the request handler unchanged.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe. Note that packet threads are not, i.e. the
+ * caller must not send on the same packet thread from several threads at the
+ * same time.
+ * </p>
+ */
+@ThreadSafe
+public class RpcChannel implements PacketHandler {
+	/**
+	 * The correlation id of an incoming request.
+	 */
+	public static final AttributeKey<Long> CORRELATION_ID = AttributeKey
+			.valueOf("correlation-id", Long.class);
+
+	/**
+	 * Default timeout for requests in milliseconds.
+	 */
+	public static final long DEFAULT_TIMEOUT = 30 * 1000;
+
+	private static final int CONCURRENCY_LEVEL = 64;
+
+	private final PacketHandler requestHandler;
+
+	private final HashedWheelTimer timer;
+
+	private final ConcurrentMap<Long, RpcFuture> pending;
+
+	private final AtomicLong nextId;
+
+	private final LatencyHistogram latencies;
+
+	private final AtomicLong timeouts;
+
+	private final AtomicLong lateReplies;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Create a channel which uses the shared timer for the timeouts.
+	 * 
+	 * @param requestHandler
+	 *            The handler for incoming requests or {@code null} if the
+	 *            channel only sends requests.
+	 */
+	public RpcChannel(final PacketHandler requestHandler) {
+		this(requestHandler, HashedWheelTimer.getShared());
+	}
+
+	/**
+	 * Create a channel.
+	 * 
+	 * @param requestHandler
+	 *            The handler for incoming requests or {@code null} if the
+	 *            channel only sends requests.
+	 * @param timer
+	 *            The timer for the request timeouts, which is not stopped by
+	 *            the channel.
+	 * @throws NullPointerException
+	 *             if the timer is {@code null}
+	 */
+	public RpcChannel(final PacketHandler requestHandler,
+			final HashedWheelTimer timer) {
+		if (timer == null)
+			throw new NullPointerException("Timer may not be null!");
+
+		this.requestHandler = requestHandler;
+		this.timer = timer;
+		this.pending = new ConcurrentHashMap<Long, RpcFuture>(256, 0.75f,
+				CONCURRENCY_LEVEL);
+		this.nextId = new AtomicLong();
+		this.latencies = new LatencyHistogram();
+		this.timeouts = new AtomicLong();
+		this.lateReplies = new AtomicLong();
+	}
+
+	/**
+	 * Send a request and return immediately.
+	 * 
+	 * @param pt
+	 *            The packet thread to send on, which must use this channel as
+	 *            packet handler to receive the reply.
+	 * @param payload
+	 *            The request pay-load.
+	 * @param priority
+	 *            The packet priority.
+	 * @param timeout
+	 *            The time to wait for the reply, must be positive. The
+	 *            precision is one tick of the channel's timer.
+	 * @param unit
+	 *            The unit of the timeout.
+	 * @return the future for the reply
+	 * @throws TransportException
+	 *             if the request cannot be sent
+	 * @throws IllegalStateException
+	 *             if the channel has been closed or the transport is not
+	 *             available
+	 * @throws IllegalArgumentException
+	 *             if the timeout is not positive
+	 * @throws NullPointerException
+	 *             if the packet thread or unit is {@code null}
+	 */
+	public RpcFuture request(final PacketThread pt, final Object payload,
+			final Packet.Priority priority, final long timeout,
+			final TimeUnit unit) throws TransportException {
+		if (pt == null)
+			throw new NullPointerException("Packet thread may not be null!");
+		if (unit == null)
+			throw new NullPointerException("Unit may not be null!");
+		if (timeout <= 0)
+			throw new IllegalArgumentException("Timeout must be positive!");
+		if (closed)
+			throw new IllegalStateException("RPC channel has been closed!");
+
+		final long id = nextId.incrementAndGet();
+		final RpcFuture future = new RpcFuture(this, pt, id);
+		pending.put(Long.valueOf(id), future);
+		future.setTimeout(timer.newTimeout(new Runnable() {
+			@Override
+			public void run() {
+				if (pending.remove(Long.valueOf(id), future)) {
+					timeouts.incrementAndGet();
+					future.fail(new TimeoutException("No reply for request "
+							+ id + " within " + timeout + " " + unit + "."));
+				}
+			}
+		}, timeout, unit));
+
+		try {
+			pt.send(new RpcEnvelope(id, RpcEnvelope.Kind.REQUEST, payload),
+					priority);
+		} catch (TransportException e) {
+			future.cancel(false);
+			throw e;
+		} catch (RuntimeException e) {
+			future.cancel(false);
+			throw e;
+		}
+
+		// closed concurrently, the request may have been missed
+		if (closed && pending.remove(Long.valueOf(id), future))
+			future.fail(new TransportException("RPC channel has been closed!"));
+
+		return future;
+	}
+
+	/**
+	 * Send a request and wait for the reply.
+	 * 
+	 * @param pt
+	 *            The packet thread to send on, which must use this channel as
+	 *            packet handler to receive the reply.
+	 * @param payload
+	 *            The request pay-load.
+	 * @param priority
+	 *            The packet priority.
+	 * @param timeout
+	 *            The time to wait for the reply, must be positive.
+	 * @param unit
+	 *            The unit of the timeout.
+	 * @return the reply pay-load
+	 * @throws TransportException
+	 *             if the request cannot be sent, the peer reported a failure or
+	 *             the channel has been closed
+	 * @throws TimeoutException
+	 *             if there was no reply within the timeout
+	 * @throws InterruptedException
+	 *             if the thread has been interrupted while waiting, the request
+	 *             is cancelled
+	 * @see #request(PacketThread, Object, Packet.Priority, long, TimeUnit)
+	 */
+	public Object call(final PacketThread pt, final Object payload,
+			final Packet.Priority priority, final long timeout,
+			final TimeUnit unit) throws TransportException, TimeoutException,
+			InterruptedException {
+		final RpcFuture future = request(pt, payload, priority, timeout, unit);
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(false);
+			throw e;
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof TimeoutException)
+				throw (TimeoutException) cause;
+			if (cause instanceof TransportException)
+				throw (TransportException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new TransportException("Request failed: "
+					+ cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * Reply to a request.
+	 * 
+	 * @param pt
+	 *            The packet thread the request arrived on.
+	 * @param request
+	 *            The request as passed to the request handler.
+	 * @param payload
+	 *            The reply pay-load.
+	 * @throws TransportException
+	 *             if the reply cannot be sent
+	 * @throws IllegalArgumentException
+	 *             if the packet is not a request
+	 * @throws NullPointerException
+	 *             if the packet thread or request is {@code null}
+	 */
+	public void reply(final PacketThread pt, final Packet request,
+			final Object payload) throws TransportException {
+		send(pt, request, RpcEnvelope.Kind.REPLY, payload);
+	}
+
+	/**
+	 * Report the failure of a request to the requesting peer, where the
+	 * request fails with a {@link TransportException}.
+	 * 
+	 * @param pt
+	 *            The packet thread the request arrived on.
+	 * @param request
+	 *            The request as passed to the request handler.
+	 * @param message
+	 *            The error message.
+	 * @throws TransportException
+	 *             if the failure cannot be sent
+	 * @throws IllegalArgumentException
+	 *             if the packet is not a request
+	 * @throws NullPointerException
+	 *             if the packet thread or request is {@code null}
+	 */
+	public void fail(final PacketThread pt, final Packet request,
+			final String message) throws TransportException {
+		send(pt, request, RpcEnvelope.Kind.FAILURE, message);
+	}
+
+	private void send(final PacketThread pt, final Packet request,
+			final RpcEnvelope.Kind kind, final Object payload)
+			throws TransportException {
+		if (pt == null)
+			throw new NullPointerException("Packet thread may not be null!");
+		if (request == null)
+			throw new NullPointerException("Request may not be null!");
+
+		final Long id = CORRELATION_ID.get(request);
+		if (id == null)
+			throw new IllegalArgumentException("Packet is not a request!");
+
+		pt.send(new RpcEnvelope(id.longValue(), kind, payload),
+				request.getPriority());
+	}
+
+	@Override
+	public void handle(final PacketThread packetThread, final Packet packet) {
+		final Object payload = packet.getPayload();
+		if (!(payload instanceof RpcEnvelope)) {
+			if (requestHandler != null)
+				requestHandler.handle(packetThread, packet);
+			return;
+		}
+
+		final RpcEnvelope envelope = (RpcEnvelope) payload;
+		switch (envelope.getKind()) {
+		case REQUEST:
+			handleRequest(packetThread, packet, envelope);
+			break;
+		case REPLY:
+		case FAILURE:
+			handleReply(packetThread, envelope);
+			break;
+		}
+	}
+
+	private void handleRequest(final PacketThread pt, final Packet packet,
+			final RpcEnvelope envelope) {
+		final Packet request = new CorrelatedPacket(packet, envelope);
+		try {
+			if (requestHandler == null)
+				throw new IllegalStateException("No request handler.");
+			requestHandler.handle(pt, request);
+		} catch (RuntimeException e) {
+			try {
+				fail(pt, request, String.valueOf(e.getMessage()));
+			} catch (TransportException te) {
+				throw new IllegalStateException(
+						"Could not report request failure: " + te.getMessage(),
+						te);
+			}
+		}
+	}
+
+	private void handleReply(final PacketThread pt, final RpcEnvelope envelope) {
+		final Long id = Long.valueOf(envelope.getCorrelationId());
+		final RpcFuture future = pending.get(id);
+		// timed out, cancelled, unknown or a reply from another packet thread
+		if (future == null || future.getPacketThread() != pt
+				|| !pending.remove(id, future)) {
+			lateReplies.incrementAndGet();
+			return;
+		}
+
+		if (envelope.getKind() == RpcEnvelope.Kind.REPLY) {
+			latencies.record(System.nanoTime() - future.getStartNanos());
+			future.complete(envelope.getPayload());
+		} else
+			future.fail(new TransportException("Remote request failed: "
+					+ envelope.getPayload()));
+	}
+
+	void remove(final RpcFuture future) {
+		pending.remove(Long.valueOf(future.getCorrelationId()), future);
+	}
+
+	/**
+	 * Close the channel. New requests are rejected and all pending requests
+	 * fail with a {@link TransportException}. Incoming requests are still
+	 * handled.
+	 */
+	public void close() {
+		closed = true;
+		for (final RpcFuture future : pending.values())
+			if (pending.remove(Long.valueOf(future.getCorrelationId()), future))
+				future.fail(new TransportException(
+						"RPC channel has been closed!"));
+	}
+
+	/**
+	 * Check whether the channel has been closed.
+	 * 
+	 * @return {@code true} if the channel is closed
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Get the number of requests waiting for a reply.
+	 * 
+	 * @return the number of pending requests
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Get the round-trip times of the successful requests.
+	 * 
+	 * @return the latency histogram
+	 */
+	public LatencyHistogram getLatencyHistogram() {
+		return latencies;
+	}
+
+	/**
+	 * Get the number of requests that timed out.
+	 * 
+	 * @return the number of timeouts
+	 */
+	public long getTimeoutCount() {
+		return timeouts.get();
+	}
+
+	/**
+	 * Get the number of replies without pending request, e.g. replies that
+	 * arrived after the timeout or on another packet thread than the
+	 * request.
+	 * 
+	 * @return the number of dropped replies
+	 */
+	public long getLateReplyCount() {
+		return lateReplies.get();
+	}
+}
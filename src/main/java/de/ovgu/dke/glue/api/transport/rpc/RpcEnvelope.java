@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.rpc;
+
+import java.io.Serializable;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * <p>
+ * The pay-load sent by an {@link RpcChannel}: the application pay-load plus
+ * the correlation id and the message kind. The envelope is serialized
+ * together with the application pay-load, i.e. the connection's serializer
+ * must support it.
+ * </p>
+ * 
+ * <p>
+ * This class is immutable and thread safe.
+ * </p>
+ */
+@Immutable
+public final class RpcEnvelope implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The kind of an RPC message.
+	 */
+	public static enum Kind {
+		/**
+		 * A request, which expects a reply with the same correlation id.
+		 */
+		REQUEST,
+		/**
+		 * A successful reply, the pay-load is the result.
+		 */
+		REPLY,
+		/**
+		 * A failed request, the pay-load is the error message.
+		 */
+		FAILURE;
+	}
+
+	private final long correlationId;
+	private final Kind kind;
+	private final Object payload;
+
+	/**
+	 * Create an envelope.
+	 * 
+	 * @param correlationId
+	 *            the correlation id
+	 * @param kind
+	 *            the message kind
+	 * @param payload
+	 *            the application pay-load, may be {@code null}
+	 * @throws NullPointerException
+	 *             if the kind is {@code null}
+	 */
+	public RpcEnvelope(final long correlationId, final Kind kind,
+			final Object payload) {
+		if (kind == null)
+			throw new NullPointerException("Kind may not be null!");
+
+		this.correlationId = correlationId;
+		this.kind = kind;
+		this.payload = payload;
+	}
+
+	/**
+	 * Get the correlation id.
+	 * 
+	 * @return the correlation id
+	 */
+	public long getCorrelationId() {
+		return correlationId;
+	}
+
+	/**
+	 * Get the message kind.
+	 * 
+	 * @return the kind
+	 */
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * Get the application pay-load.
+	 * 
+	 * @return the pay-load, may be {@code null}
+	 */
+	public Object getPayload() {
+		return payload;
+	}
+
+	@Override
+	public String toString() {
+		return kind + "#" + correlationId;
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.rpc;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.util.HashedWheelTimer;
+
+/**
+ * <p>
+ * The pending result of a request sent via an {@link RpcChannel}. The future
+ * completes with the reply pay-load or fails with a
+ * {@link java.util.concurrent.TimeoutException} if no reply arrived in time, a
+ * {@link de.ovgu.dke.glue.api.transport.TransportException} if the peer
+ * reported a failure or the channel has been closed. Cancelling the future
+ * removes the request from the channel, a late reply is dropped.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public final class RpcFuture extends FutureTask<Object> {
+	private static final Callable<Object> NONE = new Callable<Object>() {
+		@Override
+		public Object call() {
+			throw new IllegalStateException("RPC futures cannot be run.");
+		}
+	};
+
+	private final RpcChannel channel;
+	private final PacketThread packetThread;
+	private final long correlationId;
+	private final long started;
+
+	private volatile HashedWheelTimer.Timeout timeout = null;
+
+	RpcFuture(final RpcChannel channel, final PacketThread packetThread,
+			final long correlationId) {
+		super(NONE);
+		this.channel = channel;
+		this.packetThread = packetThread;
+		this.correlationId = correlationId;
+		this.started = System.nanoTime();
+	}
+
+	/**
+	 * Get the correlation id of the request.
+	 * 
+	 * @return the correlation id
+	 */
+	public long getCorrelationId() {
+		return correlationId;
+	}
+
+	/**
+	 * Get the packet thread the request has been sent on.
+	 * 
+	 * @return the packet thread
+	 */
+	public PacketThread getPacketThread() {
+		return packetThread;
+	}
+
+	/**
+	 * Get the time the request was created, as returned by
+	 * {@link System#nanoTime()}.
+	 * 
+	 * @return the start time in nanoseconds
+	 */
+	public long getStartNanos() {
+		return started;
+	}
+
+	@Override
+	public void run() {
+		// completed by the channel only
+	}
+
+	@Override
+	protected void done() {
+		final HashedWheelTimer.Timeout t = timeout;
+		if (t != null)
+			t.cancel();
+		channel.remove(this);
+	}
+
+	void setTimeout(final HashedWheelTimer.Timeout timeout) {
+		this.timeout = timeout;
+		// completed before the timeout was set
+		if (isDone())
+			timeout.cancel();
+	}
+
+	// only called by the thread that removed the future from the channel
+	void complete(final Object result) {
+		set(result);
+	}
+
+	void fail(final Throwable cause) {
+		setException(cause);
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.shm;
+
+import java.nio.ByteBuffer;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * <p>
+ * Single-producer/single-consumer ring buffer for variable sized records in a
+ * (memory-mapped) byte buffer. Producer and consumer may live in different
+ * processes which map the same file.
+ * </p>
+ * 
+ * <p>
+ * The region starts with a header holding the write position (tail) and the
+ * read position (head) on separate cache lines, followed by the data area.
+ * Positions grow monotonically and are reduced modulo the capacity, which is
+ * a power of two. Each record consists of its length and the data, aligned to
+ * four bytes. A record never wraps around the end of the data area; if it
+ * does not fit, the remainder is marked as padding and the record starts at
+ * the beginning.
+ * </p>
+ * 
+ * <p>
+ * The producer publishes a record by writing the tail after the record data,
+ * the consumer releases space by writing the head after reading the data.
+ * Java 6 has no ordered access to mapped memory, thus the ring relies on the
+ * memory fences the JVM emits for volatile field accesses. This holds on
+ * HotSpot and on platforms with a strong memory model like x86.
+ * </p>
+ * 
+ * <p>
+ * This class is not thread safe: at any time, only one thread may act as
+ * producer and one thread as consumer.
+ * </p>
+ */
+@NotThreadSafe
+public final class MappedRing {
+	/**
+	 * Size of the ring header in bytes.
+	 */
+	public static final int HEADER_SIZE = 128;
+
+	private static final int TAIL_OFFSET = 0;
+	private static final int HEAD_OFFSET = 64;
+	private static final int LENGTH_SIZE = 4;
+	private static final int PADDING = -1;
+
+	private final ByteBuffer producer;
+	private final ByteBuffer consumer;
+	private final int capacity;
+	private final int mask;
+
+	/**
+	 * Consumer's last known head, cached by the producer to avoid reading the
+	 * shared position for every record.
+	 */
+	private long cachedHead;
+
+	private volatile int fence;
+
+	/**
+	 * Create a ring on a buffer region. The region content is not changed,
+	 * call {@link #reset()} to initialize a new region.
+	 * 
+	 * @param region
+	 *            the buffer region, starting at position 0 with at least
+	 *            {@link #size(int)} bytes
+	 * @param capacity
+	 *            the capacity of the data area, a power of two
+	 * @throws IllegalArgumentException
+	 *             if the capacity is not a power of two or exceeds the region
+	 */
+	public MappedRing(final ByteBuffer region, final int capacity) {
+		if (capacity < 2 * LENGTH_SIZE || Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException(
+					"Capacity must be a power of two!");
+		if (region.capacity() < size(capacity))
+			throw new IllegalArgumentException("Region is too small!");
+
+		this.producer = region.duplicate();
+		this.consumer = region.duplicate();
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.cachedHead = consumer.getLong(HEAD_OFFSET);
+	}
+
+	/**
+	 * Get the region size needed for a ring.
+	 * 
+	 * @param capacity
+	 *            the capacity of the data area
+	 * @return the region size in bytes
+	 */
+	public static int size(final int capacity) {
+		return HEADER_SIZE + capacity;
+	}
+
+	/**
+	 * Reset the positions, discarding all records. Must not be called while
+	 * the ring is in use.
+	 */
+	public void reset() {
+		producer.putLong(TAIL_OFFSET, 0);
+		producer.putLong(HEAD_OFFSET, 0);
+		cachedHead = 0;
+		storeFence();
+	}
+
+	/**
+	 * Get the capacity of the data area.
+	 * 
+	 * @return the capacity in bytes
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Get the maximum record size. Records are limited to half the capacity,
+	 * so that a record always fits after the consumer has caught up.
+	 * 
+	 * @return the maximum number of bytes per record
+	 */
+	public int getMaxRecordSize() {
+		return capacity / 2 - LENGTH_SIZE;
+	}
+
+	/**
+	 * Append a record. Producer only.
+	 * 
+	 * @param data
+	 *            the record data between position and limit, the buffer is
+	 *            not modified
+	 * @return {@code true} if the record has been written, {@code false} if
+	 *         the ring is full
+	 * @throws IllegalArgumentException
+	 *             if the record exceeds the maximum record size
+	 */
+	public boolean offer(final ByteBuffer data) {
+		return offer(null, data);
+	}
+
+	/**
+	 * Append a record consisting of two parts, e.g. a header and a body.
+	 * Producer only.
+	 * 
+	 * @param head
+	 *            the first part of the record data, may be {@code null}
+	 * @param body
+	 *            the second part of the record data
+	 * @return {@code true} if the record has been written, {@code false} if
+	 *         the ring is full
+	 * @throws IllegalArgumentException
+	 *             if the record exceeds the maximum record size
+	 */
+	public boolean offer(final ByteBuffer head, final ByteBuffer body) {
+		final int length = (head == null ? 0 : head.remaining())
+				+ body.remaining();
+		if (length > getMaxRecordSize())
+			throw new IllegalArgumentException("Record size " + length
+					+ " exceeds the maximum of " + getMaxRecordSize());
+
+		final int aligned = align(LENGTH_SIZE + length);
+		long tail = producer.getLong(TAIL_OFFSET);
+		int index = (int) (tail & mask);
+		final int contiguous = capacity - index;
+		final int required = aligned <= contiguous ? aligned : contiguous
+				+ aligned;
+
+		if (tail + required - cachedHead > capacity) {
+			loadFence();
+			cachedHead = producer.getLong(HEAD_OFFSET);
+			if (tail + required - cachedHead > capacity)
+				return false;
+		}
+
+		if (aligned > contiguous) {
+			producer.putInt(HEADER_SIZE + index, PADDING);
+			tail += contiguous;
+			index = 0;
+		}
+
+		producer.putInt(HEADER_SIZE + index, length);
+		producer.position(HEADER_SIZE + index + LENGTH_SIZE);
+		if (head != null)
+			put(head);
+		put(body);
+		producer.position(0);
+
+		storeFence();
+		producer.putLong(TAIL_OFFSET, tail + aligned);
+		return true;
+	}
+
+	/**
+	 * Remove the next record. Consumer only.
+	 * 
+	 * @return a copy of the record data or {@code null} if the ring is empty
+	 */
+	public ByteBuffer poll() {
+		long head = consumer.getLong(HEAD_OFFSET);
+		if (head == consumer.getLong(TAIL_OFFSET))
+			return null;
+		loadFence();
+
+		int index = (int) (head & mask);
+		int length = consumer.getInt(HEADER_SIZE + index);
+		if (length == PADDING) {
+			head += capacity - index;
+			index = 0;
+			length = consumer.getInt(HEADER_SIZE);
+		}
+
+		final byte[] data = new byte[length];
+		consumer.position(HEADER_SIZE + index + LENGTH_SIZE);
+		consumer.get(data);
+		consumer.position(0);
+
+		storeFence();
+		consumer.putLong(HEAD_OFFSET, head + align(LENGTH_SIZE + length));
+		return ByteBuffer.wrap(data);
+	}
+
+	/**
+	 * Check whether the ring is empty. May be called by producer and
+	 * consumer.
+	 * 
+	 * @return {@code true} if there are no records
+	 */
+	public boolean isEmpty() {
+		return consumer.getLong(HEAD_OFFSET) == consumer.getLong(TAIL_OFFSET);
+	}
+
+	private void put(final ByteBuffer src) {
+		final int pos = src.position();
+		producer.put(src);
+		src.position(pos);
+	}
+
+	private void storeFence() {
+		fence = 0;
+	}
+
+	private int loadFence() {
+		return fence;
+	}
+
+	private static int align(final int size) {
+		return (size + LENGTH_SIZE - 1) & ~(LENGTH_SIZE - 1);
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.shm;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.serialization.SerializationProvider;
+import de.ovgu.dke.glue.api.transport.Connection;
+import de.ovgu.dke.glue.api.transport.PacketHandler;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.SchemaRegistry;
+import de.ovgu.dke.glue.api.transport.Transport;
+import de.ovgu.dke.glue.api.transport.TransportException;
+import de.ovgu.dke.glue.api.transport.mux.MuxLink;
+import de.ovgu.dke.glue.api.transport.mux.MuxPacketThread;
+import de.ovgu.dke.glue.api.transport.mux.Multiplexer;
+
+/**
+ * <p>
+ * A connection over a shared-memory transport. The packet threads of the
+ * connection are multiplexed over the transport's rings, each record carries
+ * a schema header followed by one multiplexer frame. Payloads are exchanged in
+ * the {@code BINARY} serialization format.
+ * </p>
+ * 
+ * <p>
+ * The schema header is the 2 byte schema id from the sender's
+ * {@link SchemaRegistry}. The first record of a schema on a transport has the
+ * {@link #DEFINE} flag set and carries the schema name as well (2 bytes length
+ * and UTF-8 bytes), so that the receiver can map the id to its own schema.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class ShmConnection implements Connection {
+	/**
+	 * Schema header flag for records which define the schema name of an id.
+	 */
+	public static final int DEFINE = 0x8000;
+
+	/**
+	 * Highest schema id which fits into the schema header.
+	 */
+	public static final int MAX_SCHEMA_ID = DEFINE - 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ShmTransport transport;
+	private final String schema;
+	private final int schemaId;
+	private final ByteBuffer idHeader;
+	private final ByteBuffer definingHeader;
+	private final Multiplexer multiplexer;
+
+	ShmConnection(final ShmTransport transport, final String schema,
+			final boolean initiator) throws TransportException {
+		this.transport = transport;
+		this.schema = schema;
+		this.schemaId = SchemaRegistry.getInstance().getSchemaId(schema);
+		if (schemaId > MAX_SCHEMA_ID)
+			throw new TransportException("Schema id " + schemaId
+					+ " exceeds the maximum of " + MAX_SCHEMA_ID);
+		this.idHeader = encodeHeader(schemaId, null);
+		this.definingHeader = encodeHeader(schemaId, schema);
+		this.multiplexer = new Multiplexer(this, new MuxLink() {
+			@Override
+			public void write(ByteBuffer frame) throws TransportException {
+				ShmConnection.this.transport.write(ShmConnection.this, frame);
+			}
+		}, initiator) {
+			@Override
+			protected void writeControl(ByteBuffer frame)
+					throws TransportException {
+				ShmConnection.this.transport.writeControl(ShmConnection.this,
+						frame);
+			}
+
+			@Override
+			protected void onThreadOpened(MuxPacketThread pt) {
+				ShmConnection.this.transport.getFactory().threadOpened(pt);
+			}
+
+			@Override
+			protected void onThreadClosed(MuxPacketThread pt) {
+				ShmConnection.this.transport.getFactory().threadClosed(pt);
+			}
+
+			@Override
+			protected void onHighWatermark(MuxPacketThread pt, int queued) {
+				ShmConnection.this.transport.getFactory().highWatermark(
+						ShmConnection.this, pt, queued);
+			}
+
+			@Override
+			protected void onLowWatermark(MuxPacketThread pt, int queued) {
+				ShmConnection.this.transport.getFactory().lowWatermark(
+						ShmConnection.this, pt, queued);
+			}
+		};
+		this.multiplexer.setMaxFrameSize(transport.getMaxRecordSize()
+				- definingHeader.remaining());
+	}
+
+	@Override
+	public String getConnectionSchema() {
+		return schema;
+	}
+
+	@Override
+	public String getSerializationFormat() {
+		return SerializationProvider.BINARY;
+	}
+
+	@Override
+	public PacketThread createThread(final PacketHandler handler)
+			throws TransportException {
+		transport.checkOpen();
+		return multiplexer.createThread(handler);
+	}
+
+	@Override
+	public Transport getTransport() {
+		return transport;
+	}
+
+	@Override
+	public URI getPeer() {
+		return transport.getPeer();
+	}
+
+	/**
+	 * The shared-memory transport cannot check the peer's schemas, the check
+	 * only tells whether the peer is attached.
+	 */
+	@Override
+	public boolean checkCapabilities() throws TransportException {
+		return transport.isPeerAttached();
+	}
+
+	/**
+	 * Get the multiplexer carrying the packet threads.
+	 * 
+	 * @return the multiplexer
+	 */
+	public Multiplexer getMultiplexer() {
+		return multiplexer;
+	}
+
+	/**
+	 * Get the id of the connection schema in the local schema registry.
+	 */
+	int getSchemaId() {
+		return schemaId;
+	}
+
+	/**
+	 * Get the schema header, either with the schema name or the id only.
+	 */
+	ByteBuffer getHeader(final boolean define) {
+		return define ? definingHeader : idHeader;
+	}
+
+	/**
+	 * Encode a schema header: id (2 bytes) and, if the schema is not
+	 * {@code null}, the length (2 bytes) and UTF-8 bytes of the schema name.
+	 */
+	static ByteBuffer encodeHeader(final int id, final String schema) {
+		final byte[] bytes = schema == null ? new byte[0] : schema
+				.getBytes(UTF8);
+		if (bytes.length > 0xffff)
+			throw new IllegalArgumentException("Schema name is too long!");
+
+		final ByteBuffer buf = ByteBuffer.allocate(schema == null ? 2
+				: 4 + bytes.length);
+		if (schema == null)
+			buf.putShort((short) id);
+		else {
+			buf.putShort((short) (id | DEFINE));
+			buf.putShort((short) bytes.length);
+			buf.put(bytes);
+		}
+		buf.flip();
+		return buf.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Decode the schema name of a defining header, the buffer position must
+	 * be behind the id and is moved behind the header.
+	 */
+	static String decodeSchema(final ByteBuffer record) {
+		final int length = record.getShort() & 0xffff;
+		if (length > record.remaining())
+			throw new IllegalArgumentException("Truncated schema header!");
+
+		final byte[] bytes = new byte[length];
+		record.get(bytes);
+		return new String(bytes, UTF8);
+	}
+}
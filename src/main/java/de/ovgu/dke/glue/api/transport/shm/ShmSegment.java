@@ -0,0 +1,306 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.transport.TransportException;
+
+/**
+ * <p>
+ * A mapping file shared by two peers. The file starts with a header, followed
+ * by two {@link MappedRing}s, one for each direction. A peer claims one of the
+ * two sides by locking a byte of the file, so each ring has exactly one
+ * producer and one consumer process; the lock is released by the operating
+ * system if the process dies. Whether the other peer is alive is decided by
+ * probing the lock of its side.
+ * </p>
+ * 
+ * <p>
+ * The first peer initializes the file, the second one adopts the capacity
+ * from the header. Files left over by a previous session are re-used; a peer
+ * which attaches while the other side is not locked resets both rings, so
+ * that no stale records of a crashed or detached peer are delivered.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+class ShmSegment {
+	private static final int MAGIC = 0x474c5545; // "GLUE"
+	private static final int VERSION = 1;
+
+	private static final int MAGIC_OFFSET = 0;
+	private static final int VERSION_OFFSET = 4;
+	private static final int CAPACITY_OFFSET = 8;
+	private static final int HEADER_SIZE = 128;
+
+	private static final long INIT_LOCK = 2;
+
+	/**
+	 * Serializes the initialization within this JVM, where file locks of
+	 * different channels on the same file overlap.
+	 */
+	private static final Object INIT_MONITOR = new Object();
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileLock sideLock;
+	private final int side;
+	private final MappedByteBuffer map;
+	private final MappedRing outbound;
+	private final MappedRing inbound;
+
+	private boolean detached = false;
+
+	private ShmSegment(final File file, final RandomAccessFile raf,
+			final FileLock sideLock, final int side, final MappedByteBuffer map,
+			final int capacity) {
+		this.file = file;
+		this.raf = raf;
+		this.sideLock = sideLock;
+		this.side = side;
+		this.map = map;
+
+		final MappedRing[] rings = new MappedRing[2];
+		for (int i = 0; i < 2; i++) {
+			final ByteBuffer region = map.duplicate();
+			region.position(HEADER_SIZE + i * MappedRing.size(capacity));
+			rings[i] = new MappedRing(region.slice(), capacity);
+		}
+		this.outbound = rings[side];
+		this.inbound = rings[1 - side];
+	}
+
+	/**
+	 * Map a segment file and claim a free side. The file is created and
+	 * initialized if it does not exist or is empty, other files must be
+	 * segments.
+	 * 
+	 * @param file
+	 *            the mapping file
+	 * @param capacity
+	 *            the ring capacity for a new file, must be a power of two
+	 * @return the attached segment
+	 * @throws TransportException
+	 *             if the file cannot be mapped, is not a segment, has an
+	 *             incompatible format or both sides are in use
+	 */
+	static ShmSegment attach(final File file, final int capacity)
+			throws TransportException {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			final FileChannel channel = raf.getChannel();
+
+			synchronized (INIT_MONITOR) {
+				final FileLock init = channel.lock(INIT_LOCK, 1, false);
+				try {
+					initialize(raf, capacity);
+					raf.seek(CAPACITY_OFFSET);
+					final int size = raf.readInt();
+
+					final long length = HEADER_SIZE + 2L * MappedRing.size(size);
+					final MappedByteBuffer map = channel.map(
+							FileChannel.MapMode.READ_WRITE, 0, length);
+
+					for (int side = 0; side < 2; side++) {
+						final FileLock lock = tryLock(channel, side);
+						if (lock == null)
+							continue;
+
+						final ShmSegment segment = new ShmSegment(file, raf,
+								lock, side, map, size);
+						if (!segment.probePeer()) {
+							// left over from a previous session
+							segment.outbound.reset();
+							segment.inbound.reset();
+						}
+						return segment;
+					}
+				} finally {
+					init.release();
+				}
+			}
+
+			throw new TransportException("Shared memory segment " + file
+					+ " is used by two peers already!");
+		} catch (IOException e) {
+			close(raf);
+			throw new TransportException("Cannot map shared memory segment "
+					+ file + ": " + e.getMessage(), e);
+		} catch (TransportException e) {
+			close(raf);
+			throw e;
+		}
+	}
+
+	/**
+	 * Write the header if the file is new or empty. Other files must be
+	 * segments, so that a wrong path does not overwrite an unrelated file.
+	 */
+	private static void initialize(final RandomAccessFile raf,
+			final int capacity) throws IOException, TransportException {
+		if (raf.length() > 0) {
+			if (raf.length() < HEADER_SIZE)
+				throw new TransportException(
+						"Not a shared memory segment, file is too short!");
+			raf.seek(MAGIC_OFFSET);
+			if (raf.readInt() != MAGIC)
+				throw new TransportException(
+						"Not a shared memory segment, unknown file format!");
+			if (raf.readInt() != VERSION)
+				throw new TransportException(
+						"Unsupported shared memory segment version!");
+			return;
+		}
+
+		raf.setLength(HEADER_SIZE + 2L * MappedRing.size(capacity));
+		raf.seek(VERSION_OFFSET);
+		raf.writeInt(VERSION);
+		raf.writeInt(capacity);
+		raf.seek(MAGIC_OFFSET);
+		raf.writeInt(MAGIC);
+	}
+
+	private static FileLock tryLock(final FileChannel channel, final int side)
+			throws IOException {
+		try {
+			return channel.tryLock(side, 1, false);
+		} catch (OverlappingFileLockException e) {
+			// claimed by another channel in this JVM
+			return null;
+		}
+	}
+
+	/**
+	 * Get the mapping file.
+	 * 
+	 * @return the file
+	 */
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * Get the side claimed by this peer.
+	 * 
+	 * @return 0 for the first, 1 for the second peer
+	 */
+	int getSide() {
+		return side;
+	}
+
+	/**
+	 * Get the ring this peer writes to.
+	 * 
+	 * @return the outbound ring
+	 */
+	MappedRing getOutbound() {
+		return outbound;
+	}
+
+	/**
+	 * Get the ring this peer reads from.
+	 * 
+	 * @return the inbound ring
+	 */
+	MappedRing getInbound() {
+		return inbound;
+	}
+
+	/**
+	 * Check whether the other peer is attached, i.e. a live process holds the
+	 * lock of the other side.
+	 * 
+	 * @return {@code true} if the peer has claimed the other side
+	 */
+	synchronized boolean isPeerAttached() {
+		if (detached)
+			return false;
+
+		synchronized (INIT_MONITOR) {
+			try {
+				// do not race with a peer which is claiming a side
+				final FileLock init = raf.getChannel().lock(INIT_LOCK, 1,
+						false);
+				try {
+					return probePeer();
+				} finally {
+					init.release();
+				}
+			} catch (IOException e) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Probe the lock of the other side, must be called with the
+	 * initialization lock held.
+	 * 
+	 * @return {@code true} if the other side is locked
+	 */
+	private boolean probePeer() throws IOException {
+		final FileLock lock = tryLock(raf.getChannel(), 1 - side);
+		if (lock == null)
+			return true;
+		lock.release();
+		return false;
+	}
+
+	/**
+	 * Release the side and close the file. The mapping is released by the
+	 * garbage collector.
+	 */
+	synchronized void detach() {
+		if (detached)
+			return;
+		detached = true;
+
+		try {
+			sideLock.release();
+		} catch (IOException e) {
+			// released when the file is closed
+		}
+		close(raf);
+	}
+
+	private static void close(final RandomAccessFile raf) {
+		if (raf != null)
+			try {
+				raf.close();
+			} catch (IOException e) {
+				// nothing left to do
+			}
+	}
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.shm;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.reporting.Reporter;
+import de.ovgu.dke.glue.api.transport.Connection;
+import de.ovgu.dke.glue.api.transport.SchemaRegistry;
+import de.ovgu.dke.glue.api.transport.Transport;
+import de.ovgu.dke.glue.api.transport.TransportException;
+import de.ovgu.dke.glue.api.util.WaitStrategy;
+
+/**
+ * <p>
+ * Transport over a shared-memory segment. Outgoing records are written to the
+ * outbound ring by the sending thread, a daemon thread polls the inbound ring
+ * and dispatches the records to the connections. The transport is
+ * {@code CONNECTED} as soon as the peer has attached to the segment and
+ * {@code CLOSED} when the peer detaches or dies, or {@link #close()} is called.
+ * </p>
+ * 
+ * <p>
+ * Records carry the sender's schema id, the schema name is only sent with the
+ * first record of each schema, see {@link ShmConnection}. Incoming records for
+ * a schema without connection open a connection if the schema is registered in
+ * the {@link SchemaRegistry}, otherwise they are dropped with a warning.
+ * </p>
+ * 
+ * <p>
+ * Data records wait for space in a full ring up to the send timeout, without
+ * holding the write lock. Control records and all records written by the
+ * reader thread, e.g. credit grants or data frames released by a credit
+ * grant, never wait: if the ring is full they are kept in a pending queue,
+ * which is written before any further record. The reader thread thus keeps
+ * reading, so that two peers with full rings cannot deadlock.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class ShmTransport implements Transport {
+	/**
+	 * Interval in nanoseconds between two probes of the peer's liveness.
+	 */
+	private static final long PROBE_INTERVAL = 10 * 1000 * 1000;
+
+	private final ShmTransportFactory factory;
+	private final URI peer;
+	private final ShmSegment segment;
+	private final long sendTimeout;
+	private final WaitStrategy waitStrategy;
+
+	private final ConcurrentMap<String, ShmConnection> connections;
+	private final Object writeLock = new Object();
+	private final Thread reader;
+
+	// schema ids already defined to the peer, guarded by writeLock
+	private final BitSet defined = new BitSet();
+
+	// control records waiting for space, written under writeLock
+	private final Queue<PendingRecord> pending = new ConcurrentLinkedQueue<PendingRecord>();
+
+	// peer's schema ids, only accessed by the reader thread
+	private String[] peerSchemas = new String[16];
+	private ShmConnection[] peerConnections = new ShmConnection[16];
+
+	private volatile Transport.Status status = Transport.Status.CREATED;
+	private volatile boolean running = true;
+	private volatile boolean quiesced = false;
+
+	ShmTransport(final ShmTransportFactory factory, final URI peer,
+			final ShmSegment segment, final long sendTimeout,
+			final WaitStrategy waitStrategy) {
+		this.factory = factory;
+		this.peer = peer;
+		this.segment = segment;
+		this.sendTimeout = sendTimeout;
+		this.waitStrategy = waitStrategy;
+		this.connections = new ConcurrentHashMap<String, ShmConnection>();
+
+		this.reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				read();
+			}
+		}, "GLUE shm reader " + segment.getFile());
+		this.reader.setDaemon(true);
+	}
+
+	/**
+	 * Start the reader thread.
+	 */
+	void start() {
+		reader.start();
+	}
+
+	@Override
+	public Connection getConnection(final String schema)
+			throws TransportException {
+		if (schema == null)
+			throw new NullPointerException("Schema may not be null!");
+		checkOpen();
+
+		ShmConnection connection = connections.get(schema);
+		if (connection == null) {
+			final ShmConnection created = new ShmConnection(this, schema,
+					segment.getSide() == 0);
+			connection = connections.putIfAbsent(schema, created);
+			if (connection == null) {
+				connection = created;
+				if (quiesced)
+					connection.getMultiplexer().quiesce();
+			}
+		}
+		return connection;
+	}
+
+	/**
+	 * Get the peer URI, which denotes the mapping file.
+	 * 
+	 * @return the peer URI
+	 */
+	public URI getPeer() {
+		return peer;
+	}
+
+	/**
+	 * Get the transport status.
+	 * 
+	 * @return the current status
+	 */
+	public Transport.Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Check whether the peer is attached to the segment.
+	 * 
+	 * @return {@code true} if the peer is attached
+	 */
+	public boolean isPeerAttached() {
+		return running && segment.isPeerAttached();
+	}
+
+	/**
+	 * Close the transport: dispose all packet threads, stop the reader and
+	 * detach from the segment.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (!running)
+				return;
+			running = false;
+		}
+
+		for (final ShmConnection connection : connections.values())
+			connection.getMultiplexer().close();
+		synchronized (writeLock) {
+			segment.detach();
+			pending.clear();
+		}
+		setStatus(Transport.Status.CLOSED);
+		factory.removeTransport(this, segment.getFile());
+	}
+
+	/**
+	 * Stop accepting packets on all connections.
+	 */
+	void quiesce() {
+		quiesced = true;
+		for (final ShmConnection connection : connections.values())
+			connection.getMultiplexer().quiesce();
+	}
+
+	/**
+	 * Check whether all queued frames have been written and consumed by the
+	 * peer.
+	 */
+	boolean isDrained() {
+		if (!running)
+			return true;
+		for (final ShmConnection connection : connections.values())
+			if (connection.getMultiplexer().getQueuedFrames() > 0)
+				return false;
+		return segment.getOutbound().isEmpty();
+	}
+
+	ShmTransportFactory getFactory() {
+		return factory;
+	}
+
+	void checkOpen() throws TransportException {
+		if (!running)
+			throw new TransportException("Transport to " + peer
+					+ " has been closed!");
+	}
+
+	/**
+	 * Get the maximum record size of the outbound ring.
+	 */
+	int getMaxRecordSize() {
+		return segment.getOutbound().getMaxRecordSize();
+	}
+
+	/**
+	 * Write a record to the outbound ring, wait if the ring is full. The
+	 * write lock is released while waiting. The reader thread never waits, it
+	 * queues the record with the pending records instead.
+	 */
+	void write(final ShmConnection connection, final ByteBuffer frame)
+			throws TransportException {
+		final long deadline = System.currentTimeMillis() + sendTimeout;
+		for (int idle = 0;;) {
+			synchronized (writeLock) {
+				checkOpen();
+				if (flushPending() && offer(connection, frame))
+					return;
+				if (Thread.currentThread() == reader) {
+					// e.g. data frames released by a credit grant
+					pending.offer(new PendingRecord(connection, frame));
+					return;
+				}
+			}
+
+			if (System.currentTimeMillis() > deadline)
+				throw new TransportException(
+						"Timeout writing to shared memory segment "
+								+ segment.getFile());
+			idle = waitStrategy.idle(idle);
+		}
+	}
+
+	/**
+	 * Write a control record without waiting, queue it if the ring is full.
+	 */
+	void writeControl(final ShmConnection connection, final ByteBuffer frame)
+			throws TransportException {
+		synchronized (writeLock) {
+			checkOpen();
+			if (!flushPending() || !offer(connection, frame))
+				pending.offer(new PendingRecord(connection, frame));
+		}
+	}
+
+	/**
+	 * Write the pending control records, must be called with the write lock
+	 * held.
+	 * 
+	 * @return {@code true} if all pending records have been written
+	 */
+	private boolean flushPending() throws TransportException {
+		PendingRecord record;
+		while ((record = pending.peek()) != null) {
+			if (!offer(record.connection, record.frame))
+				return false;
+			pending.poll();
+		}
+		return true;
+	}
+
+	/**
+	 * Append a record to the outbound ring, must be called with the write
+	 * lock held.
+	 * 
+	 * @return {@code false} if the ring is full
+	 */
+	private boolean offer(final ShmConnection connection,
+			final ByteBuffer frame) throws TransportException {
+		final int id = connection.getSchemaId();
+		final boolean define = !defined.get(id);
+		try {
+			if (!segment.getOutbound().offer(connection.getHeader(define),
+					frame))
+				return false;
+		} catch (IllegalArgumentException e) {
+			throw new TransportException(e.getMessage(), e);
+		}
+		if (define)
+			defined.set(id);
+		return true;
+	}
+
+	private void read() {
+		final MappedRing ring = segment.getInbound();
+		int idle = 0;
+		long probed = System.nanoTime() - PROBE_INTERVAL;
+		while (running) {
+			if (!pending.isEmpty())
+				flushControl();
+
+			final ByteBuffer record = ring.poll();
+			if (record != null) {
+				idle = 0;
+				deliver(record);
+				continue;
+			}
+
+			final long now = System.nanoTime();
+			if (now - probed >= PROBE_INTERVAL) {
+				probed = now;
+				updateStatus();
+			}
+			idle = waitStrategy.idle(idle);
+		}
+	}
+
+	private void deliver(final ByteBuffer record) {
+		try {
+			final int field = record.getShort() & 0xffff;
+			final int id = field & ShmConnection.MAX_SCHEMA_ID;
+			if ((field & ShmConnection.DEFINE) != 0)
+				define(id, ShmConnection.decodeSchema(record));
+
+			ShmConnection connection = id < peerConnections.length ? peerConnections[id]
+					: null;
+			if (connection == null) {
+				connection = resolve(id);
+				if (connection == null)
+					return;
+			}
+			connection.getMultiplexer().receive(record);
+		} catch (TransportException e) {
+			factory.report("Error on shared memory receive: " + e.getMessage(),
+					e, Reporter.Level.ERROR);
+		} catch (RuntimeException e) {
+			factory.report("Error on shared memory receive: " + e.getMessage(),
+					e, Reporter.Level.ERROR);
+		}
+	}
+
+	private void define(final int id, final String schema) {
+		if (id >= peerSchemas.length) {
+			final int length = Math.max(id + 1, 2 * peerSchemas.length);
+			final String[] schemas = new String[length];
+			System.arraycopy(peerSchemas, 0, schemas, 0, peerSchemas.length);
+			peerSchemas = schemas;
+			final ShmConnection[] conns = new ShmConnection[length];
+			System.arraycopy(peerConnections, 0, conns, 0,
+					peerConnections.length);
+			peerConnections = conns;
+		}
+		peerSchemas[id] = schema;
+		peerConnections[id] = null;
+	}
+
+	/**
+	 * Write the pending control records from the reader thread.
+	 */
+	private void flushControl() {
+		synchronized (writeLock) {
+			if (!running)
+				return;
+			try {
+				flushPending();
+			} catch (TransportException e) {
+				factory.report("Dropping control records: " + e.getMessage(),
+						e, Reporter.Level.WARN);
+				pending.clear();
+			}
+		}
+	}
+
+	/**
+	 * Get the connection for a peer's schema id, open it if necessary.
+	 */
+	private ShmConnection resolve(final int id) throws TransportException {
+		final String schema = id < peerSchemas.length ? peerSchemas[id] : null;
+		if (schema == null) {
+			factory.report("Dropping packet for undefined schema id " + id,
+					null, Reporter.Level.WARN);
+			return null;
+		}
+
+		ShmConnection connection = connections.get(schema);
+		if (connection == null) {
+			if (SchemaRegistry.getInstance().getRecord(schema) == null) {
+				factory.report("Dropping packet for unknown schema " + schema,
+						null, Reporter.Level.WARN);
+				return null;
+			}
+			connection = (ShmConnection) getConnection(schema);
+		}
+		peerConnections[id] = connection;
+		return connection;
+	}
+
+	private void updateStatus() {
+		final boolean attached = segment.isPeerAttached();
+		final Transport.Status current = status;
+		if (attached && current == Transport.Status.CREATED)
+			setStatus(Transport.Status.CONNECTED);
+		else if (!attached && current == Transport.Status.CONNECTED)
+			// the peer has left
+			close();
+	}
+
+	private void setStatus(final Transport.Status newStatus) {
+		final Transport.Status oldStatus;
+		synchronized (this) {
+			oldStatus = status;
+			if (oldStatus == newStatus)
+				return;
+			status = newStatus;
+		}
+		factory.statusChanged(this, oldStatus, newStatus);
+	}
+
+	/**
+	 * A control record waiting for space in the outbound ring.
+	 */
+	private static final class PendingRecord {
+		final ShmConnection connection;
+		final ByteBuffer frame;
+
+		PendingRecord(final ShmConnection connection, final ByteBuffer frame) {
+			this.connection = connection;
+			this.frame = frame;
+		}
+	}
+}
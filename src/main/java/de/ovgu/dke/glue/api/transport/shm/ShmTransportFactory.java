@@ -0,0 +1,252 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.transport.shm;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import net.jcip.annotations.ThreadSafe;
+import de.ovgu.dke.glue.api.reporting.Reporter;
+import de.ovgu.dke.glue.api.transport.AbstractTransportFactory;
+import de.ovgu.dke.glue.api.transport.Connection;
+import de.ovgu.dke.glue.api.transport.DrainableTransportFactory;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.Transport;
+import de.ovgu.dke.glue.api.transport.TransportException;
+import de.ovgu.dke.glue.api.util.WaitStrategy;
+
+/**
+ * <p>
+ * Factory for shared-memory transports between processes on the same host.
+ * Peer URIs have the form {@code shm:/path/to/segment}, the path denotes the
+ * mapping file. Both peers create a transport for the same URI; the first one
+ * creates the file, the second one attaches to it. A segment can only be used
+ * by two peers and each factory holds at most one transport per segment.
+ * </p>
+ * 
+ * <p>
+ * Configuration properties:
+ * <ul>
+ * <li>{@value #CAPACITY_PROPERTY}: ring capacity in bytes for new segments,
+ * rounded up to a power of two, default {@value #DEFAULT_CAPACITY}</li>
+ * <li>{@value #TIMEOUT_PROPERTY}: time in milliseconds a sender waits for
+ * space in a full ring, default {@value #DEFAULT_TIMEOUT}</li>
+ * <li>{@value #WAIT_PROPERTY}: the {@link WaitStrategy} of the reader and of
+ * senders finding the ring full, default {@code PARK}</li>
+ * </ul>
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class ShmTransportFactory extends AbstractTransportFactory implements
+		DrainableTransportFactory {
+	/**
+	 * URI scheme of shared-memory peers.
+	 */
+	public static final String SCHEME = "shm";
+
+	/**
+	 * Default key in the transport registry.
+	 */
+	public static final String DEFAULT_REGISTRY_KEY = "shm";
+
+	/**
+	 * Configuration key for the ring capacity.
+	 */
+	public static final String CAPACITY_PROPERTY = "shm.capacity";
+
+	/**
+	 * Configuration key for the send timeout.
+	 */
+	public static final String TIMEOUT_PROPERTY = "shm.timeout";
+
+	/**
+	 * Configuration key for the wait strategy.
+	 */
+	public static final String WAIT_PROPERTY = "shm.wait";
+
+	/**
+	 * Default ring capacity in bytes.
+	 */
+	public static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+	/**
+	 * Default send timeout in milliseconds.
+	 */
+	public static final long DEFAULT_TIMEOUT = 30 * 1000;
+
+	private static final int MIN_CAPACITY = 4096;
+
+	private final ConcurrentMap<File, ShmTransport> transports;
+
+	private volatile int capacity = DEFAULT_CAPACITY;
+	private volatile long timeout = DEFAULT_TIMEOUT;
+	private volatile WaitStrategy waitStrategy = WaitStrategy.PARK;
+	private volatile boolean quiesced = false;
+
+	/**
+	 * Create a shared-memory transport factory with default settings.
+	 */
+	public ShmTransportFactory() {
+		this.transports = new ConcurrentHashMap<File, ShmTransport>();
+	}
+
+	@Override
+	public void init(final Properties config) throws TransportException {
+		if (config == null)
+			return;
+
+		try {
+			final String cap = config.getProperty(CAPACITY_PROPERTY);
+			if (cap != null)
+				this.capacity = roundCapacity(Integer.parseInt(cap.trim()));
+			final String to = config.getProperty(TIMEOUT_PROPERTY);
+			if (to != null)
+				this.timeout = Long.parseLong(to.trim());
+			final String wait = config.getProperty(WAIT_PROPERTY);
+			if (wait != null)
+				this.waitStrategy = WaitStrategy.valueOf(wait.trim()
+						.toUpperCase(Locale.ENGLISH));
+		} catch (IllegalArgumentException e) {
+			throw new TransportException("Invalid shared memory configuration: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public Transport createTransport(final URI peer) throws TransportException {
+		if (peer == null)
+			throw new TransportException("Peer may not be null!");
+		if (!SCHEME.equals(peer.getScheme()) || peer.getPath() == null
+				|| peer.getPath().length() == 0)
+			throw new TransportException("Not a shared memory peer: " + peer);
+
+		if (quiesced)
+			throw new TransportException("Factory is shutting down!");
+
+		final File file = new File(peer.getPath()).getAbsoluteFile();
+		synchronized (transports) {
+			ShmTransport transport = transports.get(file);
+			if (transport != null)
+				return transport;
+
+			transport = new ShmTransport(this, peer, ShmSegment.attach(file,
+					capacity), timeout, waitStrategy);
+			transports.put(file, transport);
+			transport.start();
+			return transport;
+		}
+	}
+
+	@Override
+	public String getDefaultRegistryKey() {
+		return DEFAULT_REGISTRY_KEY;
+	}
+
+	/**
+	 * Stop accepting packets on all transports, no new transports are created
+	 * afterwards.
+	 */
+	@Override
+	public void quiesce() {
+		quiesced = true;
+		for (final ShmTransport transport : transports.values())
+			transport.quiesce();
+	}
+
+	/**
+	 * Wait until the queued frames have been written and the peers have
+	 * consumed all records.
+	 */
+	@Override
+	public boolean awaitDrained(final long timeout, final TimeUnit unit)
+			throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (true) {
+			boolean drained = true;
+			for (final ShmTransport transport : transports.values())
+				drained &= transport.isDrained();
+			if (drained)
+				return true;
+			if (System.nanoTime() - deadline >= 0)
+				return false;
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * Close all transports.
+	 */
+	@Override
+	public void dispose() {
+		for (final ShmTransport transport : transports.values())
+			transport.close();
+	}
+
+	void removeTransport(final ShmTransport transport, final File file) {
+		transports.remove(file, transport);
+	}
+
+	void report(final String msg, final Throwable cause,
+			final Reporter.Level level) {
+		fireReport(msg, cause, level);
+	}
+
+	void statusChanged(final Transport transport,
+			final Transport.Status oldStatus, final Transport.Status newStatus) {
+		fireStatusChange(transport, oldStatus, newStatus);
+	}
+
+	void threadOpened(final PacketThread pt) {
+		fireThreadCreation(pt);
+	}
+
+	void threadClosed(final PacketThread pt) {
+		fireThreadDisposal(pt);
+	}
+
+	void highWatermark(final Connection connection, final PacketThread pt,
+			final int queued) {
+		fireHighWatermark(connection, pt, queued);
+	}
+
+	void lowWatermark(final Connection connection, final PacketThread pt,
+			final int queued) {
+		fireLowWatermark(connection, pt, queued);
+	}
+
+	private static int roundCapacity(final int requested) {
+		if (requested <= MIN_CAPACITY)
+			return MIN_CAPACITY;
+		if (requested > 1 << 30)
+			throw new IllegalArgumentException("Capacity is too large!");
+		return Integer.highestOneBit(requested - 1) << 1;
+	}
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * <p>
+ * Shared-memory transport for peers on the same host. Both peers create a
+ * transport for the same {@code shm:} URI, whose path denotes a mapping file.
+ * The file holds two single-producer/single-consumer ring buffers, one per
+ * direction, so packets are exchanged without system calls. Packet threads
+ * of all connections are multiplexed over the rings, see the {@code mux}
+ * package.
+ * </p>
+ */
+package de.ovgu.dke.glue.api.transport.shm;
@@ -0,0 +1,480 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * <p>
+ * A timer for large numbers of short-lived timeouts, such as request
+ * timeouts, TTLs and keep-alives. Timeouts are hashed into the buckets of a
+ * wheel, which a single worker thread advances by one bucket per tick.
+ * Scheduling and cancelling a timeout are O(1) and do not take locks: a new
+ * timeout is appended to a lock-free queue, which the worker drains on the
+ * next tick, a cancelled timeout is only marked and unlinked when the worker
+ * passes its bucket, i.e. within one rotation of the wheel. Timeouts expire
+ * with a precision of one tick, i.e. this timer is not suitable for exact
+ * scheduling.
+ * </p>
+ * 
+ * <p>
+ * Tasks are run in the worker thread and must be short, e.g. complete a
+ * future or hand the work to an executor. Exceptions and errors thrown by a
+ * task are counted, see {@link #getFailureCount()}, and do not affect other
+ * tasks.
+ * The worker thread is a daemon thread, which is started with the first
+ * timeout.
+ * </p>
+ * 
+ * <p>
+ * Transports and packet threads should use the {@link #getShared() shared
+ * timer} instead of creating their own.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class HashedWheelTimer {
+	/**
+	 * Tick duration of the shared timer in milliseconds.
+	 */
+	public static final long SHARED_TICK = 10;
+
+	/**
+	 * Number of buckets of the shared timer.
+	 */
+	public static final int SHARED_WHEEL_SIZE = 512;
+
+	// maximum number of new timeouts moved to the wheel per tick, so that
+	// expiry is not delayed by a burst of new timeouts
+	private static final int TRANSFER_LIMIT = 100000;
+
+	private static final int INIT = 0;
+	private static final int STARTED = 1;
+	private static final int STOPPED = 2;
+
+	/**
+	 * Get the shared timer, with a tick of {@value #SHARED_TICK} ms and
+	 * {@value #SHARED_WHEEL_SIZE} buckets. The shared timer cannot be stopped.
+	 * 
+	 * @return the shared timer
+	 */
+	public static HashedWheelTimer getShared() {
+		return Shared.INSTANCE;
+	}
+
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final Thread worker;
+
+	private final Queue<Timeout> added;
+
+	private final AtomicInteger state;
+	private final AtomicLong pending;
+	private final AtomicLong failures;
+
+	// set once by the worker before the first tick
+	private volatile long startTime = 0;
+
+	/**
+	 * Create a timer.
+	 * 
+	 * @param tick
+	 *            The tick duration, i.e. the precision of the timer, must be
+	 *            at least one millisecond.
+	 * @param unit
+	 *            The unit of the tick duration.
+	 * @param wheelSize
+	 *            The number of buckets, rounded up to a power of two. Timeouts
+	 *            beyond one rotation are kept in the bucket with a round
+	 *            counter.
+	 * @param name
+	 *            The name of the worker thread.
+	 * @throws IllegalArgumentException
+	 *             if the tick duration or wheel size is out of range
+	 * @throws NullPointerException
+	 *             if the unit or name is {@code null}
+	 */
+	public HashedWheelTimer(final long tick, final TimeUnit unit,
+			final int wheelSize, final String name) {
+		if (unit == null)
+			throw new NullPointerException("Unit may not be null!");
+		if (name == null)
+			throw new NullPointerException("Name may not be null!");
+		if (unit.toMillis(tick) < 1)
+			throw new IllegalArgumentException(
+					"Tick duration must be at least 1 ms!");
+		if (wheelSize < 1 || wheelSize > 1 << 30)
+			throw new IllegalArgumentException(
+					"Wheel size must be between 1 and 2^30!");
+
+		int size = 1;
+		while (size < wheelSize)
+			size <<= 1;
+
+		this.tickNanos = unit.toNanos(tick);
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; i++)
+			wheel[i] = new Bucket();
+		this.mask = size - 1;
+
+		this.added = new ConcurrentLinkedQueue<Timeout>();
+		this.state = new AtomicInteger(INIT);
+		this.pending = new AtomicLong();
+		this.failures = new AtomicLong();
+
+		this.worker = new Thread(new Worker(), name);
+		worker.setDaemon(true);
+	}
+
+	/**
+	 * Schedule a task.
+	 * 
+	 * @param task
+	 *            The task to run when the timeout expires.
+	 * @param delay
+	 *            The delay, values below one tick expire on the next tick,
+	 *            values beyond the range of the timer never expire.
+	 * @param unit
+	 *            The unit of the delay.
+	 * @return the timeout, which may be used to cancel the task
+	 * @throws IllegalStateException
+	 *             if the timer has been stopped
+	 * @throws NullPointerException
+	 *             if the task or unit is {@code null}
+	 */
+	public Timeout newTimeout(final Runnable task, final long delay,
+			final TimeUnit unit) {
+		if (task == null)
+			throw new NullPointerException("Task may not be null!");
+		if (unit == null)
+			throw new NullPointerException("Unit may not be null!");
+
+		start();
+
+		final long elapsed = System.nanoTime() - startTime;
+		final long nanos = unit.toNanos(delay);
+		// clamp instead of overflowing into the past
+		final long deadline = nanos > Long.MAX_VALUE - elapsed ? Long.MAX_VALUE
+				: elapsed + nanos;
+		final Timeout timeout = new Timeout(this, task, deadline);
+		pending.incrementAndGet();
+		added.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Stop the timer. The worker thread is terminated, pending timeouts are
+	 * discarded without running their tasks.
+	 * 
+	 * @return the number of discarded timeouts
+	 * @throws IllegalStateException
+	 *             if called from a task or on the shared timer
+	 */
+	public long stop() {
+		if (Thread.currentThread() == worker)
+			throw new IllegalStateException(
+					"Timer cannot be stopped from a task!");
+		if (this == Shared.INSTANCE)
+			throw new IllegalStateException(
+					"The shared timer cannot be stopped!");
+
+		if (state.getAndSet(STOPPED) != STARTED)
+			return pending.getAndSet(0);
+
+		boolean interrupted = false;
+		while (worker.isAlive()) {
+			worker.interrupt();
+			try {
+				worker.join(100);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		return pending.getAndSet(0);
+	}
+
+	/**
+	 * Get the number of scheduled timeouts which have neither expired nor
+	 * been cancelled.
+	 * 
+	 * @return the number of pending timeouts
+	 */
+	public long getPendingCount() {
+		return pending.get();
+	}
+
+	/**
+	 * Get the number of tasks which threw an exception or error.
+	 * 
+	 * @return the number of failed tasks
+	 */
+	public long getFailureCount() {
+		return failures.get();
+	}
+
+	/**
+	 * Get the tick duration.
+	 * 
+	 * @param unit
+	 *            the unit of the result
+	 * @return the tick duration
+	 */
+	public long getTick(final TimeUnit unit) {
+		return unit.convert(tickNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private void start() {
+		switch (state.get()) {
+		case INIT:
+			if (state.compareAndSet(INIT, STARTED)) {
+				worker.start();
+				break;
+			}
+			// started or stopped concurrently
+			start();
+			return;
+		case STARTED:
+			break;
+		default:
+			throw new IllegalStateException("Timer has been stopped!");
+		}
+
+		// wait for the worker to set the start time
+		while (startTime == 0)
+			Thread.yield();
+	}
+
+	private final class Worker implements Runnable {
+		private long tick = 0;
+
+		@Override
+		public void run() {
+			// 0 is reserved for "not started"
+			final long now = System.nanoTime();
+			startTime = now == 0 ? 1 : now;
+
+			while (state.get() == STARTED) {
+				final long deadline = waitForNextTick();
+				if (deadline < 0)
+					break;
+
+				transferAdded();
+				wheel[(int) (tick & mask)].expire(deadline);
+				tick++;
+			}
+		}
+
+		private long waitForNextTick() {
+			final long deadline = tickNanos * (tick + 1);
+			while (true) {
+				final long current = System.nanoTime() - startTime;
+				final long sleepMs = (deadline - current + 999999) / 1000000;
+				if (sleepMs <= 0)
+					return current;
+				try {
+					Thread.sleep(sleepMs);
+				} catch (InterruptedException e) {
+					if (state.get() != STARTED)
+						return -1;
+				}
+			}
+		}
+
+		private void transferAdded() {
+			for (int i = 0; i < TRANSFER_LIMIT; i++) {
+				final Timeout timeout = added.poll();
+				if (timeout == null)
+					return;
+				if (timeout.state != Timeout.ST_INIT)
+					continue;
+
+				final long calculated = timeout.deadline / tickNanos;
+				timeout.remainingRounds = (calculated - tick) / wheel.length;
+				final long ticks = Math.max(calculated, tick);
+				wheel[(int) (ticks & mask)].add(timeout);
+			}
+		}
+	}
+
+	private void run(final Timeout timeout) {
+		try {
+			timeout.task.run();
+		} catch (Throwable t) {
+			// keep the worker alive for the other tasks
+			failures.incrementAndGet();
+		}
+	}
+
+	/**
+	 * A doubly linked list of timeouts, only accessed by the worker thread.
+	 */
+	private final class Bucket {
+		private Timeout head = null;
+		private Timeout tail = null;
+
+		void add(final Timeout timeout) {
+			if (head == null)
+				head = tail = timeout;
+			else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		void expire(final long deadline) {
+			Timeout timeout = head;
+			while (timeout != null) {
+				final Timeout next = timeout.next;
+				if (timeout.state != Timeout.ST_INIT)
+					remove(timeout);
+				else if (timeout.remainingRounds <= 0
+						&& timeout.deadline <= deadline) {
+					remove(timeout);
+					if (timeout.expire())
+						run(timeout);
+				} else
+					timeout.remainingRounds--;
+				timeout = next;
+			}
+		}
+
+		void remove(final Timeout timeout) {
+			if (timeout.prev != null)
+				timeout.prev.next = timeout.next;
+			if (timeout.next != null)
+				timeout.next.prev = timeout.prev;
+			if (timeout == head)
+				head = timeout.next;
+			if (timeout == tail)
+				tail = timeout.prev;
+			timeout.prev = null;
+			timeout.next = null;
+		}
+	}
+
+	/**
+	 * <p>
+	 * A scheduled task of a {@link HashedWheelTimer}.
+	 * </p>
+	 * 
+	 * <p>
+	 * This class is thread safe.
+	 * </p>
+	 */
+	@ThreadSafe
+	public static final class Timeout {
+		private static final int ST_INIT = 0;
+		private static final int ST_CANCELLED = 1;
+		private static final int ST_EXPIRED = 2;
+
+		private static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater
+				.newUpdater(Timeout.class, "state");
+
+		private final HashedWheelTimer timer;
+		private final Runnable task;
+		// relative to the timer's start time
+		private final long deadline;
+
+		private volatile int state = ST_INIT;
+
+		// guarded by the worker thread
+		private long remainingRounds;
+		private Timeout next;
+		private Timeout prev;
+
+		private Timeout(final HashedWheelTimer timer, final Runnable task,
+				final long deadline) {
+			this.timer = timer;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancel the timeout, the task will not be run.
+		 * 
+		 * @return {@code true} if the timeout has been cancelled,
+		 *         {@code false} if it has already expired or been cancelled
+		 */
+		public boolean cancel() {
+			if (!STATE.compareAndSet(this, ST_INIT, ST_CANCELLED))
+				return false;
+			timer.pending.decrementAndGet();
+			return true;
+		}
+
+		/**
+		 * Check whether the timeout has been cancelled.
+		 * 
+		 * @return {@code true} if cancelled
+		 */
+		public boolean isCancelled() {
+			return state == ST_CANCELLED;
+		}
+
+		/**
+		 * Check whether the timeout has expired, i.e. the task has been run
+		 * or is running.
+		 * 
+		 * @return {@code true} if expired
+		 */
+		public boolean isExpired() {
+			return state == ST_EXPIRED;
+		}
+
+		/**
+		 * Get the task of this timeout.
+		 * 
+		 * @return the task
+		 */
+		public Runnable getTask() {
+			return task;
+		}
+
+		private boolean expire() {
+			if (!STATE.compareAndSet(this, ST_INIT, ST_EXPIRED))
+				return false;
+			timer.pending.decrementAndGet();
+			return true;
+		}
+	}
+
+	private static final class Shared {
+		static final HashedWheelTimer INSTANCE = new HashedWheelTimer(
+				SHARED_TICK, TimeUnit.MILLISECONDS, SHARED_WHEEL_SIZE,
+				"glue-timer");
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * <p>
+ * A histogram for latencies in nanoseconds with logarithmic buckets. Each
+ * power of two is split into {@value #SUB_BUCKETS} linear sub-buckets, i.e.
+ * the relative error of a percentile is below 1/{@value #SUB_BUCKETS}. The
+ * histogram has a fixed size of a few kilobytes, recording a value is a single
+ * atomic increment plus the updates of the sum and maximum.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe. Reads are not atomic with respect to concurrent
+ * recordings, i.e. a percentile may be computed over a slightly inconsistent
+ * state.
+ * </p>
+ */
+@ThreadSafe
+public class LatencyHistogram {
+	private static final int SUB_BITS = 4;
+
+	/**
+	 * The number of sub-buckets per power of two.
+	 */
+	public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS)
+			* SUB_BUCKETS;
+
+	private final AtomicLongArray counts;
+	private final AtomicLong count;
+	private final AtomicLong sum;
+	private final AtomicLong max;
+
+	/**
+	 * Create an empty histogram.
+	 */
+	public LatencyHistogram() {
+		this.counts = new AtomicLongArray(BUCKETS);
+		this.count = new AtomicLong();
+		this.sum = new AtomicLong();
+		this.max = new AtomicLong();
+	}
+
+	/**
+	 * Record a latency.
+	 * 
+	 * @param nanos
+	 *            the latency in nanoseconds, negative values are recorded as 0
+	 */
+	public void record(final long nanos) {
+		final long value = nanos < 0 ? 0 : nanos;
+		counts.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long m = max.get();
+		while (value > m && !max.compareAndSet(m, value))
+			m = max.get();
+	}
+
+	/**
+	 * Get the number of recorded values.
+	 * 
+	 * @return the number of values
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Get the largest recorded value.
+	 * 
+	 * @return the maximum in nanoseconds or 0 if the histogram is empty
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Get the mean of the recorded values.
+	 * 
+	 * @return the mean in nanoseconds or 0 if the histogram is empty
+	 */
+	public double getMean() {
+		final long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Get a percentile of the recorded values.
+	 * 
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the upper bound of the bucket containing the percentile in
+	 *         nanoseconds, at most the maximum, or 0 if the histogram is empty
+	 * @throws IllegalArgumentException
+	 *             if the percentile is out of range
+	 */
+	public long getPercentile(final double percentile) {
+		if (percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException(
+					"Percentile must be between 0 and 100!");
+
+		final long n = count.get();
+		if (n == 0)
+			return 0;
+
+		final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Get a percentile in the specified unit.
+	 * 
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @param unit
+	 *            the time unit
+	 * @return the percentile, see {@link #getPercentile(double)}
+	 */
+	public long getPercentile(final double percentile, final TimeUnit unit) {
+		return unit.convert(getPercentile(percentile), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Remove all recorded values. Values recorded concurrently may get lost
+	 * partially.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + " mean=" + (long) getMean() + "ns p50="
+				+ getPercentile(50) + "ns p99=" + getPercentile(99)
+				+ "ns max=" + getMax() + "ns";
+	}
+
+	static int indexOf(final long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS
+				+ (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	static long upperBound(final int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		final int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		final long sub = SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+}
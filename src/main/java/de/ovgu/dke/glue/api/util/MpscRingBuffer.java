@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * <p>
+ * Ring buffer for multiple producers and a single consumer thread. Producers
+ * claim a slot by a compare-and-set on the producer position and publish the
+ * element with an ordered write to the slot; the consumer waits for a slot to
+ * be published before it advances. A producer which has claimed a slot but
+ * not yet published it therefore delays the consumer, but never blocks other
+ * producers.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe for any number of producers and one consumer
+ * thread at a time.
+ * </p>
+ * 
+ * @param <E>
+ *            the element type
+ */
+@ThreadSafe
+public class MpscRingBuffer<E> extends RingBuffer<E> {
+	private final AtomicReferenceArray<E> slots;
+
+	/**
+	 * Create a multi-producer/single-consumer ring buffer.
+	 * 
+	 * @param capacity
+	 *            the minimum capacity, rounded up to a power of two
+	 * @throws IllegalArgumentException
+	 *             if the capacity is not positive or too large
+	 */
+	public MpscRingBuffer(final int capacity) {
+		super(capacity);
+		this.slots = new AtomicReferenceArray<E>(this.capacity);
+	}
+
+	@Override
+	public boolean offer(final E e) {
+		if (e == null)
+			throw new NullPointerException("Element may not be null!");
+
+		long t;
+		do {
+			t = tail.get();
+			if (t - head.get() >= capacity)
+				return false;
+		} while (!tail.compareAndSet(t, t + 1));
+
+		slots.lazySet((int) t & mask, e);
+		return true;
+	}
+
+	@Override
+	public E poll() {
+		final long h = head.get();
+		final int index = (int) h & mask;
+		final E e = slots.get(index);
+		if (e == null)
+			// empty or the producer has not published yet
+			return null;
+
+		slots.lazySet(index, null);
+		head.lazySet(h + 1);
+		return e;
+	}
+}
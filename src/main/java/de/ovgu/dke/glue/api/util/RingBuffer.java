@@ -0,0 +1,173 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.util;
+
+/**
+ * <p>
+ * Base class for bounded, lock-free FIFO ring buffers. The capacity is a
+ * power of two, so positions map to slots with a mask. Producer and consumer
+ * positions are kept in {@link Sequence}s, each on its own cache line.
+ * </p>
+ * 
+ * <p>
+ * The non-blocking {@link #offer(Object)} and {@link #poll()} methods return
+ * immediately, {@link #put(Object, WaitStrategy)} and
+ * {@link #take(WaitStrategy)} wait according to a {@link WaitStrategy}.
+ * Implementations define how many threads may produce and consume
+ * concurrently.
+ * </p>
+ * 
+ * @param <E>
+ *            the element type
+ */
+public abstract class RingBuffer<E> {
+	/**
+	 * The number of slots.
+	 */
+	protected final int capacity;
+
+	/**
+	 * Mask to map a position to a slot index.
+	 */
+	protected final int mask;
+
+	/**
+	 * Position of the next element to be consumed.
+	 */
+	protected final Sequence head = new Sequence();
+
+	/**
+	 * Position of the next element to be produced.
+	 */
+	protected final Sequence tail = new Sequence();
+
+	/**
+	 * Create a ring buffer.
+	 * 
+	 * @param capacity
+	 *            the minimum capacity, rounded up to a power of two
+	 * @throws IllegalArgumentException
+	 *             if the capacity is not positive or too large
+	 */
+	protected RingBuffer(final int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive!");
+		if (capacity > 1 << 30)
+			throw new IllegalArgumentException("Capacity is too large!");
+
+		this.capacity = capacity == 1 ? 1
+				: Integer.highestOneBit(capacity - 1) << 1;
+		this.mask = this.capacity - 1;
+	}
+
+	/**
+	 * Add an element if there is space.
+	 * 
+	 * @param e
+	 *            the element
+	 * @return {@code true} if the element has been added, {@code false} if
+	 *         the buffer is full
+	 * @throws NullPointerException
+	 *             if the element is {@code null}
+	 */
+	public abstract boolean offer(E e);
+
+	/**
+	 * Remove the oldest element.
+	 * 
+	 * @return the element or {@code null} if the buffer is empty
+	 */
+	public abstract E poll();
+
+	/**
+	 * Add an element, wait while the buffer is full.
+	 * 
+	 * @param e
+	 *            the element
+	 * @param strategy
+	 *            the wait strategy
+	 * @throws InterruptedException
+	 *             if the thread has been interrupted while waiting
+	 * @throws NullPointerException
+	 *             if the element is {@code null}
+	 */
+	public void put(final E e, final WaitStrategy strategy)
+			throws InterruptedException {
+		int counter = 0;
+		while (!offer(e)) {
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			counter = strategy.idle(counter);
+		}
+	}
+
+	/**
+	 * Remove the oldest element, wait while the buffer is empty.
+	 * 
+	 * @param strategy
+	 *            the wait strategy
+	 * @return the element
+	 * @throws InterruptedException
+	 *             if the thread has been interrupted while waiting
+	 */
+	public E take(final WaitStrategy strategy) throws InterruptedException {
+		int counter = 0;
+		E e;
+		while ((e = poll()) == null) {
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			counter = strategy.idle(counter);
+		}
+		return e;
+	}
+
+	/**
+	 * Get the number of elements. The value is only a snapshot while other
+	 * threads produce or consume.
+	 * 
+	 * @return the number of elements
+	 */
+	public int size() {
+		// read head first, so that size is never negative
+		final long h = head.get();
+		final long t = tail.get();
+		return (int) Math.max(0, Math.min(capacity, t - h));
+	}
+
+	/**
+	 * Check whether the buffer is empty.
+	 * 
+	 * @return {@code true} if there are no elements
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Get the capacity.
+	 * 
+	 * @return the number of slots
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.util;
+
+import java.util.concurrent.TimeUnit;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * <p>
+ * A time-bounded Bloom filter of {@code long} keys with a fixed memory
+ * budget. The memory is split into generations of equal size; keys are added
+ * to the newest generation and looked up in all of them. Every
+ * {@code ttl / generations} the oldest generation is cleared and becomes the
+ * newest, so a key is remembered for at least
+ * {@code ttl * (generations - 1) / generations} and at most {@code ttl}.
+ * </p>
+ * 
+ * <p>
+ * As any Bloom filter, a lookup may report a key which has not been added
+ * (false positive), but never misses a key within its lifetime.
+ * {@link #getFalsePositiveProbability()} estimates the current false positive
+ * probability from the fill ratio of the generations.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class RotatingBloomFilter {
+	private final int hashes;
+	private final long period;
+	private final int mask;
+
+	// guarded by this
+	private final long[][] generations;
+	private final int[] setBits;
+	private int head = 0;
+	private long rotatedAt;
+	private long inserts = 0;
+	private long rotations = 0;
+
+	/**
+	 * Create a filter.
+	 * 
+	 * @param memoryBytes
+	 *            The memory budget for the bit sets, which is split evenly
+	 *            between the generations; each generation gets the largest
+	 *            power of two bits that fits, at least 64.
+	 * @param hashes
+	 *            The number of hash functions.
+	 * @param generations
+	 *            The number of generations, at least 2.
+	 * @param ttl
+	 *            The time keys are remembered.
+	 * @param unit
+	 *            The unit of the time to live.
+	 * @throws NullPointerException
+	 *             if the unit is {@code null}
+	 * @throws IllegalArgumentException
+	 *             if the memory, hashes or time to live are not positive or
+	 *             there are less than 2 generations
+	 */
+	public RotatingBloomFilter(final long memoryBytes, final int hashes,
+			final int generations, final long ttl, final TimeUnit unit) {
+		if (unit == null)
+			throw new NullPointerException("Unit may not be null!");
+		if (memoryBytes <= 0)
+			throw new IllegalArgumentException("Memory must be positive!");
+		if (hashes <= 0)
+			throw new IllegalArgumentException(
+					"Number of hashes must be positive!");
+		if (generations < 2)
+			throw new IllegalArgumentException(
+					"At least two generations are required!");
+		if (ttl <= 0)
+			throw new IllegalArgumentException("TTL must be positive!");
+
+		long bits = 64;
+		while (bits * 2 * generations <= memoryBytes * 8 && bits < 1L << 30)
+			bits *= 2;
+
+		this.hashes = hashes;
+		this.period = Math.max(1, unit.toNanos(ttl) / generations);
+		this.mask = (int) bits - 1;
+		this.generations = new long[generations][(int) (bits / 64)];
+		this.setBits = new int[generations];
+		this.rotatedAt = nanoTime();
+	}
+
+	/**
+	 * Check whether a key has (probably) been added within its lifetime.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return {@code false} if the key has not been added, {@code true} if it
+	 *         probably has been added
+	 */
+	public synchronized boolean contains(final long key) {
+		rotate();
+		final long h = mix(key);
+		for (final long[] generation : generations)
+			if (contains(generation, h))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Add a key to the newest generation.
+	 * 
+	 * @param key
+	 *            the key
+	 */
+	public synchronized void add(final long key) {
+		rotate();
+		insert(mix(key));
+	}
+
+	/**
+	 * Add a key if it is not contained yet.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return {@code true} if the key has been added, {@code false} if it has
+	 *         probably been added before
+	 */
+	public synchronized boolean addIfAbsent(final long key) {
+		rotate();
+		final long h = mix(key);
+		for (final long[] generation : generations)
+			if (contains(generation, h))
+				return false;
+		insert(h);
+		return true;
+	}
+
+	/**
+	 * Remove all keys.
+	 */
+	public synchronized void clear() {
+		for (int g = 0; g < generations.length; g++)
+			clear(g);
+		rotatedAt = nanoTime();
+	}
+
+	// guarded by this
+	private void rotate() {
+		final long now = nanoTime();
+		final long steps = (now - rotatedAt) / period;
+		if (steps <= 0)
+			return;
+
+		for (long i = 0; i < Math.min(steps, generations.length); i++) {
+			head = (head + 1) % generations.length;
+			clear(head);
+		}
+		rotations += steps;
+		rotatedAt += steps * period;
+	}
+
+	// guarded by this
+	private void clear(final int g) {
+		final long[] generation = generations[g];
+		for (int i = 0; i < generation.length; i++)
+			generation[i] = 0;
+		setBits[g] = 0;
+	}
+
+	// guarded by this
+	private void insert(final long h) {
+		final long[] generation = generations[head];
+		final int h1 = (int) h;
+		final int h2 = (int) (h >>> 32) | 1;
+		for (int i = 0; i < hashes; i++) {
+			final int bit = (h1 + i * h2) & mask;
+			final long word = generation[bit >>> 6];
+			final long set = word | (1L << bit);
+			if (set != word) {
+				generation[bit >>> 6] = set;
+				setBits[head]++;
+			}
+		}
+		inserts++;
+	}
+
+	private boolean contains(final long[] generation, final long h) {
+		final int h1 = (int) h;
+		final int h2 = (int) (h >>> 32) | 1;
+		for (int i = 0; i < hashes; i++) {
+			final int bit = (h1 + i * h2) & mask;
+			if ((generation[bit >>> 6] & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The finalizer of MurmurHash3, spreads the key bits over the hash.
+	 */
+	private static long mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	/**
+	 * Estimate the probability that a lookup of a key which has not been
+	 * added reports it as contained.
+	 * 
+	 * @return the false positive probability
+	 */
+	public synchronized double getFalsePositiveProbability() {
+		rotate();
+		double negative = 1;
+		for (int g = 0; g < generations.length; g++)
+			negative *= 1 - Math.pow((double) setBits[g] / (mask + 1), hashes);
+		return 1 - negative;
+	}
+
+	/**
+	 * Get the memory used by the bit sets.
+	 * 
+	 * @return the memory in bytes
+	 */
+	public long getMemoryBytes() {
+		return (long) generations.length * (mask + 1) / 8;
+	}
+
+	/**
+	 * Get the number of bits per generation.
+	 * 
+	 * @return the bits per generation
+	 */
+	public int getGenerationBits() {
+		return mask + 1;
+	}
+
+	/**
+	 * Get the number of added keys.
+	 * 
+	 * @return the number of insertions
+	 */
+	public synchronized long getInsertCount() {
+		return inserts;
+	}
+
+	/**
+	 * Get the number of rotations, i.e. the number of elapsed rotation
+	 * periods.
+	 * 
+	 * @return the number of rotations
+	 */
+	public synchronized long getRotationCount() {
+		return rotations;
+	}
+
+	/**
+	 * Get the current time in nanoseconds, may be overwritten for testing.
+	 * 
+	 * @return the current time in nanoseconds
+	 */
+	protected long nanoTime() {
+		return System.nanoTime();
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.util;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * <p>
+ * A counter which is padded to occupy its own cache line, so that a producer
+ * and a consumer updating different sequences do not invalidate each other's
+ * caches (false sharing).
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+@ThreadSafe
+public class Sequence extends SequenceValue {
+	private static final AtomicLongFieldUpdater<SequenceValue> UPDATER = AtomicLongFieldUpdater
+			.newUpdater(SequenceValue.class, "value");
+
+	protected long p9, p10, p11, p12, p13, p14, p15;
+
+	/**
+	 * Create a sequence with the initial value 0.
+	 */
+	public Sequence() {
+		this(0);
+	}
+
+	/**
+	 * Create a sequence.
+	 * 
+	 * @param initial
+	 *            the initial value
+	 */
+	public Sequence(final long initial) {
+		this.value = initial;
+	}
+
+	/**
+	 * Get the current value (volatile read).
+	 * 
+	 * @return the value
+	 */
+	public long get() {
+		return value;
+	}
+
+	/**
+	 * Set the value (volatile write).
+	 * 
+	 * @param value
+	 *            the new value
+	 */
+	public void set(final long value) {
+		this.value = value;
+	}
+
+	/**
+	 * Set the value with an ordered write, which is not reordered with
+	 * preceding writes, but may become visible to other threads with a short
+	 * delay. Cheaper than {@link #set(long)}.
+	 * 
+	 * @param value
+	 *            the new value
+	 */
+	public void lazySet(final long value) {
+		UPDATER.lazySet(this, value);
+	}
+
+	/**
+	 * Atomically set the value if it equals the expected value.
+	 * 
+	 * @param expected
+	 *            the expected value
+	 * @param value
+	 *            the new value
+	 * @return {@code true} if successful
+	 */
+	public boolean compareAndSet(final long expected, final long value) {
+		return UPDATER.compareAndSet(this, expected, value);
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(value);
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.util;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * <p>
+ * Ring buffer for a single producer and a single consumer thread. Producer
+ * and consumer only read the other side's position when their cached copy
+ * indicates a full or empty buffer, and publish their own position with an
+ * ordered write, so the common path is free of locks and memory fences.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe for one producer and one consumer thread at a
+ * time.
+ * </p>
+ * 
+ * @param <E>
+ *            the element type
+ */
+@ThreadSafe
+public class SpscRingBuffer<E> extends RingBuffer<E> {
+	private final E[] buffer;
+
+	/**
+	 * Producer's copy of the consumer position.
+	 */
+	private long headCache = 0;
+
+	/**
+	 * Consumer's copy of the producer position.
+	 */
+	private long tailCache = 0;
+
+	/**
+	 * Create a single-producer/single-consumer ring buffer.
+	 * 
+	 * @param capacity
+	 *            the minimum capacity, rounded up to a power of two
+	 * @throws IllegalArgumentException
+	 *             if the capacity is not positive or too large
+	 */
+	@SuppressWarnings("unchecked")
+	public SpscRingBuffer(final int capacity) {
+		super(capacity);
+		this.buffer = (E[]) new Object[this.capacity];
+	}
+
+	@Override
+	public boolean offer(final E e) {
+		if (e == null)
+			throw new NullPointerException("Element may not be null!");
+
+		final long t = tail.get();
+		if (t - headCache >= capacity) {
+			headCache = head.get();
+			if (t - headCache >= capacity)
+				return false;
+		}
+
+		buffer[(int) t & mask] = e;
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	@Override
+	public E poll() {
+		final long h = head.get();
+		if (h >= tailCache) {
+			tailCache = tail.get();
+			if (h >= tailCache)
+				return null;
+		}
+
+		final int index = (int) h & mask;
+		final E e = buffer[index];
+		buffer[index] = null;
+		head.lazySet(h + 1);
+		return e;
+	}
+}
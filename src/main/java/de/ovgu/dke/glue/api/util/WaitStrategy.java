@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012 Stefan Haun, Thomas Low, Sebastian Stober, Andreas Nürnberger
+ * 
+ *      Data and Knowledge Engineering Group, 
+ * 		Faculty of Computer Science,
+ *		Otto-von-Guericke University,
+ *		Magdeburg, Germany
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.ovgu.dke.glue.api.util;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * Strategy for a thread which has to wait for a ring buffer, i.e. a producer
+ * finding the buffer full or a consumer finding it empty. The strategies
+ * trade latency for CPU usage:
+ * </p>
+ * <ul>
+ * <li>{@link #BUSY_SPIN} keeps the core busy, lowest latency, only suitable if
+ * there is a spare core for each waiting thread,</li>
+ * <li>{@link #YIELD} spins for a short while, then yields the processor,</li>
+ * <li>{@link #PARK} spins and yields for a short while, then parks the thread
+ * for {@value #PARK_NANOS} nanoseconds at a time.</li>
+ * </ul>
+ * 
+ * <p>
+ * The waiting thread calls {@link #idle(int)} in a loop with the returned
+ * counter, starting at 0, and resets the counter when it could make progress.
+ * </p>
+ */
+public enum WaitStrategy {
+	/**
+	 * Spin without backing off.
+	 */
+	BUSY_SPIN {
+		@Override
+		public int idle(final int counter) {
+			return counter;
+		}
+	},
+	/**
+	 * Spin, then yield.
+	 */
+	YIELD {
+		@Override
+		public int idle(final int counter) {
+			if (counter < SPIN_LIMIT)
+				return counter + 1;
+			Thread.yield();
+			return counter;
+		}
+	},
+	/**
+	 * Spin, yield, then park.
+	 */
+	PARK {
+		@Override
+		public int idle(final int counter) {
+			if (counter < SPIN_LIMIT)
+				return counter + 1;
+			if (counter < YIELD_LIMIT) {
+				Thread.yield();
+				return counter + 1;
+			}
+			LockSupport.parkNanos(PARK_NANOS);
+			return counter;
+		}
+	};
+
+	/**
+	 * Time a parking thread sleeps per idle call.
+	 */
+	public static final long PARK_NANOS = 50 * 1000;
+
+	private static final int SPIN_LIMIT = 100;
+	private static final int YIELD_LIMIT = 200;
+
+	/**
+	 * Wait once.
+	 * 
+	 * @param counter
+	 *            the number of idle calls since the last progress
+	 * @return the counter to pass to the next call
+	 */
+	public abstract int idle(int counter);
+}
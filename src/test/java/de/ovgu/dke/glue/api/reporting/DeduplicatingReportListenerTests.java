@@ -0,0 +1,176 @@
+package de.ovgu.dke.glue.api.reporting;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ovgu.dke.glue.api.reporting.Reporter.Level;
+
+/**
+ * <p>
+ * Tests for {@link DeduplicatingReportListener}.
+ * </p>
+ * 
+ */
+public class DeduplicatingReportListenerTests {
+
+	private Reporter source;
+	private ReportListener delegate;
+	private long now;
+	private DeduplicatingReportListener listener;
+
+	@Before
+	public void setUp() {
+		source = EasyMock.createMock(Reporter.class);
+		delegate = EasyMock.createMock(ReportListener.class);
+		now = 0;
+		listener = new DeduplicatingReportListener(delegate, 100, 2) {
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+	}
+
+	/**
+	 * <p>
+	 * Identical reports within the window are delivered only once, a summary
+	 * follows on flush.
+	 * </p>
+	 */
+	@Test
+	public void T00_onReport_Suppress() {
+		final IOException cause = new IOException("down");
+		delegate.onReport(source, "flap", cause, Level.ERROR);
+		EasyMock.expectLastCall().once();
+		delegate.onReport(source, "Suppressed 2 similar report(s): flap",
+				null, Level.ERROR);
+		EasyMock.expectLastCall().once();
+		EasyMock.replay(delegate);
+
+		listener.onReport(source, "flap", cause, Level.ERROR);
+		listener.onReport(source, "flap", new IOException("again"),
+				Level.ERROR);
+		listener.onReport(source, "flap", cause, Level.WARN);
+		listener.flush();
+
+		EasyMock.verify(delegate);
+		assertEquals(0, listener.getTrackedCount());
+	}
+
+	/**
+	 * <p>
+	 * Reports with different cause types are different kinds.
+	 * </p>
+	 */
+	@Test
+	public void T01_onReport_DifferentCause() {
+		delegate.onReport(EasyMock.eq(source), EasyMock.eq("flap"),
+				EasyMock.<Throwable> anyObject(), EasyMock.eq(Level.ERROR));
+		EasyMock.expectLastCall().times(2);
+		EasyMock.replay(delegate);
+
+		listener.onReport(source, "flap", new IOException(), Level.ERROR);
+		listener.onReport(source, "flap", new IllegalStateException(),
+				Level.ERROR);
+
+		EasyMock.verify(delegate);
+	}
+
+	/**
+	 * <p>
+	 * After the window expired, the summary is delivered before the next
+	 * report.
+	 * </p>
+	 */
+	@Test
+	public void T02_onReport_WindowExpired() {
+		delegate.onReport(source, "flap", null, Level.WARN);
+		delegate.onReport(source, "Suppressed 1 similar report(s): flap",
+				null, Level.WARN);
+		delegate.onReport(source, "flap", null, Level.WARN);
+		EasyMock.replay(delegate);
+
+		listener.onReport(source, "flap", null, Level.WARN);
+		now = 50;
+		listener.onReport(source, "flap", null, Level.WARN);
+		now = 150;
+		listener.onReport(source, "flap", null, Level.WARN);
+
+		EasyMock.verify(delegate);
+	}
+
+	/**
+	 * <p>
+	 * If the key limit is reached, reports are passed through.
+	 * </p>
+	 */
+	@Test
+	public void T03_onReport_KeyLimit() {
+		delegate.onReport(EasyMock.eq(source), EasyMock.<String> anyObject(),
+				EasyMock.<Throwable> isNull(), EasyMock.eq(Level.INFO));
+		EasyMock.expectLastCall().times(4);
+		EasyMock.replay(delegate);
+
+		listener.onReport(source, "a", null, Level.INFO);
+		listener.onReport(source, "b", null, Level.INFO);
+		listener.onReport(source, "c", null, Level.INFO);
+		listener.onReport(source, "c", null, Level.INFO);
+
+		EasyMock.verify(delegate);
+		assertEquals(2, listener.getTrackedCount());
+	}
+
+	/**
+	 * <p>
+	 * Reports counted while their window is summarized by a concurrent flush
+	 * are not lost.
+	 * </p>
+	 */
+	@Test
+	public void T04_onReport_ConcurrentFlush() throws Exception {
+		final int threads = 4;
+		final int reports = 20000;
+		final AtomicInteger delivered = new AtomicInteger();
+		final DeduplicatingReportListener dedup = new DeduplicatingReportListener(
+				new ReportListener() {
+					@Override
+					public void onReport(Reporter src, String msg,
+							Throwable cause, Level level) {
+						if (msg.startsWith("Suppressed "))
+							delivered.addAndGet(Integer.parseInt(msg
+									.substring(11, msg.indexOf(' ', 11))));
+						else
+							delivered.incrementAndGet();
+					}
+				});
+
+		final Thread[] reporters = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			reporters[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < reports; j++)
+						dedup.onReport(source, "flap", null, Level.WARN);
+				}
+			};
+			reporters[i].start();
+		}
+		boolean running = true;
+		while (running) {
+			dedup.flush();
+			Thread.yield();
+			running = false;
+			for (final Thread t : reporters)
+				running |= t.isAlive();
+		}
+		dedup.flush();
+
+		assertEquals(threads * reports, delivered.get());
+	}
+}
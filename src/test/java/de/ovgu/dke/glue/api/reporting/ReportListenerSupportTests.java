@@ -0,0 +1,120 @@
+package de.ovgu.dke.glue.api.reporting;
+
+import static org.junit.Assert.*;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ovgu.dke.glue.api.reporting.Reporter.Level;
+
+/**
+ * <p>
+ * Tests for {@link ReportListenerSupport}.
+ * </p>
+ * 
+ */
+public class ReportListenerSupportTests {
+
+	private Reporter source;
+	private ReportListenerSupport support;
+
+	@Before
+	public void setUp() {
+		source = EasyMock.createMock(Reporter.class);
+		support = new ReportListenerSupport(source);
+	}
+
+	/**
+	 * <p>
+	 * Without listeners no level is reportable.
+	 * </p>
+	 */
+	@Test
+	public void T00_isReportable_NoListeners() {
+		for (Level level : Level.values())
+			assertFalse("Level should not be reportable: " + level,
+					support.isReportable(level));
+	}
+
+	/**
+	 * <p>
+	 * A plain listener gets all reports.
+	 * </p>
+	 */
+	@Test
+	public void T10_fireReport_AllLevels() {
+		ReportListener listener = EasyMock.createMock(ReportListener.class);
+		listener.onReport(source, "info", null, Level.INFO);
+		listener.onReport(source, "error", null, Level.ERROR);
+		EasyMock.replay(listener);
+
+		support.addReportListener(listener);
+		assertTrue(support.isReportable(Level.INFO));
+
+		support.fireReport("info", null, Level.INFO);
+		support.fireReport("error", null, Level.ERROR);
+		EasyMock.verify(listener);
+	}
+
+	/**
+	 * <p>
+	 * Listeners subscribed with a minimum level do not get lower reports.
+	 * </p>
+	 */
+	@Test
+	public void T11_fireReport_MinimumLevel() {
+		ReportListener listener = EasyMock.createMock(ReportListener.class);
+		listener.onReport(source, "error", null, Level.ERROR);
+		EasyMock.replay(listener);
+
+		support.addReportListener(listener, Level.WARN);
+		assertFalse(support.isReportable(Level.INFO));
+		assertTrue(support.isReportable(Level.WARN));
+
+		support.fireReport("info", null, Level.INFO);
+		support.fireReport("error", null, Level.ERROR);
+		EasyMock.verify(listener);
+	}
+
+	/**
+	 * <p>
+	 * The minimum level of a leveled listener is honored on registration and
+	 * removing it resets the threshold.
+	 * </p>
+	 */
+	@Test
+	public void T12_addReportListener_Leveled() {
+		LeveledReportListener listener = EasyMock
+				.createMock(LeveledReportListener.class);
+		EasyMock.expect(listener.getMinimumLevel()).andReturn(Level.ERROR)
+				.anyTimes();
+		EasyMock.replay(listener);
+
+		support.addReportListener(listener);
+		assertFalse(support.isReportable(Level.WARN));
+		assertTrue(support.isReportable(Level.ERROR));
+
+		support.removeReportListener(listener);
+		assertFalse(support.isReportable(Level.ERROR));
+	}
+
+	/**
+	 * <p>
+	 * Adding a listener twice updates its level instead of duplicating it.
+	 * </p>
+	 */
+	@Test
+	public void T13_addReportListener_Twice() {
+		ReportListener listener = EasyMock.createMock(ReportListener.class);
+		listener.onReport(source, "warn", null, Level.WARN);
+		EasyMock.expectLastCall().once();
+		EasyMock.replay(listener);
+
+		support.addReportListener(listener, Level.ERROR);
+		support.addReportListener(listener, Level.WARN);
+
+		support.fireReport("warn", null, Level.WARN);
+		EasyMock.verify(listener);
+	}
+}
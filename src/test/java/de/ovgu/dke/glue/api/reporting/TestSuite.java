@@ -0,0 +1,19 @@
+package de.ovgu.dke.glue.api.reporting;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+/**
+ * <p>
+ * Test suite for the reporting package, see the transport package test suite
+ * for the naming conventions.
+ * </p>
+ * 
+ */
+@RunWith(Suite.class)
+@SuiteClasses({ ReportListenerSupportTests.class,
+		DeduplicatingReportListenerTests.class })
+public class TestSuite {
+
+}
@@ -0,0 +1,61 @@
+package de.ovgu.dke.glue.api.serialization;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests for {@link SerializationProviders}, the test provider is listed in the
+ * service resource of the test class path.
+ * </p>
+ * 
+ */
+public class SerializationProvidersTests {
+
+	/**
+	 * Provider for the {@code STRING} format, which does not serialize.
+	 */
+	public static class StringProvider implements SerializationProvider {
+		@Override
+		public List<String> availableFormats() {
+			return Collections.singletonList(STRING);
+		}
+
+		@Override
+		public Serializer getSerializer(String format)
+				throws SerializationException {
+			return null;
+		}
+	}
+
+	/**
+	 * <p>
+	 * The test provider is discovered once.
+	 * </p>
+	 */
+	@Test
+	public void T00_getProviders() throws SerializationException {
+		List<SerializationProvider> providers = SerializationProviders
+				.getProviders();
+		assertEquals(1, providers.size());
+		assertTrue(providers.get(0) instanceof StringProvider);
+		assertSame(providers, SerializationProviders.getProviders());
+	}
+
+	/**
+	 * <p>
+	 * Providers are selected by format.
+	 * </p>
+	 */
+	@Test
+	public void T01_getProvider() throws SerializationException {
+		assertTrue(SerializationProviders
+				.getProvider(SerializationProvider.STRING) instanceof StringProvider);
+		assertNull(SerializationProviders
+				.getProvider(SerializationProvider.XML));
+	}
+}
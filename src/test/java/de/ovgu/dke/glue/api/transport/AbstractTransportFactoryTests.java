@@ -0,0 +1,170 @@
+package de.ovgu.dke.glue.api.transport;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ovgu.dke.glue.api.reporting.ReportListener;
+import de.ovgu.dke.glue.api.reporting.Reporter;
+
+/**
+ * <p>
+ * Tests for {@link AbstractTransportFactory}.
+ * </p>
+ * 
+ */
+public class AbstractTransportFactoryTests {
+
+	private TransportFactoryTestImpl factory;
+	private Transport transport;
+
+	@Before
+	public void setUp() {
+		factory = new TransportFactoryTestImpl();
+		transport = EasyMock.createMock(Transport.class);
+	}
+
+	/**
+	 * <p>
+	 * Registered listeners are invoked synchronously, a listener registered
+	 * twice is only called once.
+	 * </p>
+	 */
+	@Test
+	public void T00_fireStatusChange_Synchronous() {
+		TransportLifecycleListener listener = EasyMock
+				.createMock(TransportLifecycleListener.class);
+		listener.onStatusChange(transport, Transport.Status.CREATED,
+				Transport.Status.CONNECTED);
+		EasyMock.expectLastCall().once();
+		EasyMock.replay(listener);
+
+		factory.addTransportLifecycleListener(listener);
+		factory.addTransportLifecycleListener(listener);
+		factory.fireStatusChange(transport, Transport.Status.CREATED,
+				Transport.Status.CONNECTED);
+
+		EasyMock.verify(listener);
+	}
+
+	/**
+	 * <p>
+	 * Removed listeners are no longer called.
+	 * </p>
+	 */
+	@Test
+	public void T01_removeTransportLifecycleListener() {
+		TransportLifecycleListener listener = EasyMock
+				.createMock(TransportLifecycleListener.class);
+		EasyMock.replay(listener);
+
+		factory.addTransportLifecycleListener(listener);
+		assertTrue(factory.hasTransportLifecycleListeners());
+		factory.removeTransportLifecycleListener(listener);
+		assertFalse(factory.hasTransportLifecycleListeners());
+
+		factory.fireThreadCreation(null);
+		EasyMock.verify(listener);
+	}
+
+	/**
+	 * <p>
+	 * With a listener executor, events are handed to the executor instead of
+	 * being delivered in the caller's thread.
+	 * </p>
+	 */
+	@Test
+	public void T10_fireThreadCreation_Asynchronous() {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		factory.setListenerExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				tasks.add(command);
+			}
+		});
+
+		TransportLifecycleListener listener = EasyMock
+				.createMock(TransportLifecycleListener.class);
+		listener.onThreadCreation(null);
+		EasyMock.expectLastCall().once();
+		EasyMock.replay(listener);
+
+		factory.addTransportLifecycleListener(listener);
+		factory.fireThreadCreation(null);
+		assertEquals("Event should have been queued.", 1, tasks.size());
+
+		tasks.get(0).run();
+		EasyMock.verify(listener);
+	}
+
+	/**
+	 * <p>
+	 * A failing listener is reported and does not prevent delivery to the
+	 * other listeners.
+	 * </p>
+	 */
+	@Test
+	public void T20_fireThreadDisposal_FailingListener() {
+		TransportLifecycleListener failing = EasyMock
+				.createMock(TransportLifecycleListener.class);
+		failing.onThreadDisposal(null);
+		EasyMock.expectLastCall().andThrow(new IllegalStateException("fail"));
+		EasyMock.replay(failing);
+
+		TransportLifecycleListener listener = EasyMock
+				.createMock(TransportLifecycleListener.class);
+		listener.onThreadDisposal(null);
+		EasyMock.expectLastCall().once();
+		EasyMock.replay(listener);
+
+		ReportListener reportListener = EasyMock
+				.createMock(ReportListener.class);
+		reportListener.onReport(EasyMock.same(factory),
+				EasyMock.<String> anyObject(),
+				EasyMock.isA(IllegalStateException.class),
+				EasyMock.eq(Reporter.Level.WARN));
+		EasyMock.replay(reportListener);
+
+		factory.addReportListener(reportListener);
+		factory.addTransportLifecycleListener(failing);
+		factory.addTransportLifecycleListener(listener);
+		factory.fireThreadDisposal(null);
+
+		EasyMock.verify(failing, listener, reportListener);
+	}
+
+	/**
+	 * <p>
+	 * Minimal transport factory based on {@link AbstractTransportFactory}.
+	 * </p>
+	 */
+	class TransportFactoryTestImpl extends AbstractTransportFactory {
+		@Override
+		public Transport createTransport(URI peer) throws TransportException {
+			return null;
+		}
+
+		@Override
+		public String getDefaultRegistryKey() {
+			return "test";
+		}
+
+		@Override
+		public void init(Properties config) throws TransportException {
+			// do nothing
+		}
+
+		@Override
+		public void dispose() {
+			// do nothing
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package de.ovgu.dke.glue.api.transport;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests for {@link AttributeKey} and the typed attributes of
+ * {@link PooledPacket}.
+ * </p>
+ * 
+ */
+public class AttributeKeyTests {
+
+	private static final AttributeKey<String> NAME = AttributeKey.valueOf(
+			"test.name", String.class);
+
+	private static final AttributeKey<URI> PEER = AttributeKey.valueOf(
+			"test.peer", URI.class);
+
+	/**
+	 * <p>
+	 * Keys are registered once per name with distinct indexes.
+	 * </p>
+	 */
+	@Test
+	public void T00_valueOf() {
+		assertSame(NAME, AttributeKey.valueOf("test.name", String.class));
+		assertSame(NAME, AttributeKey.forName(new String("test.name")));
+		assertNull(AttributeKey.forName("test.unknown"));
+		assertTrue(NAME.getIndex() != PEER.getIndex());
+		assertTrue(PEER.getIndex() < AttributeKey.count());
+		assertEquals(String.class, NAME.getType());
+	}
+
+	/**
+	 * <p>
+	 * A name cannot be registered with two types.
+	 * </p>
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void T01_valueOf_TypeMismatch() {
+		AttributeKey.valueOf("test.name", Integer.class);
+	}
+
+	/**
+	 * <p>
+	 * Typed and string-based access see the same attributes.
+	 * </p>
+	 */
+	@Test
+	public void T10_typedAccess() {
+		PooledPacket packet = new PacketPool().acquire(null,
+				Packet.Priority.NORMAL);
+		final URI peer = URI.create("local:peer");
+
+		packet.setAttribute(NAME, "a");
+		packet.setAttribute(PEER, peer);
+		assertEquals("a", packet.getAttribute(NAME));
+		assertEquals("a", packet.getAttribute("test.name"));
+		assertSame(peer, PEER.get(packet));
+
+		packet.setAttribute("test.name", "b");
+		assertEquals("b", NAME.get(packet));
+
+		packet.release();
+		packet = new PacketPool().acquire(null, Packet.Priority.NORMAL);
+		assertNull(packet.getAttribute(NAME));
+	}
+
+	/**
+	 * <p>
+	 * String-based access checks the type of registered keys.
+	 * </p>
+	 */
+	@Test(expected = ClassCastException.class)
+	public void T11_typedAccess_WrongType() {
+		PooledPacket packet = new PacketPool().acquire(null,
+				Packet.Priority.NORMAL);
+		packet.setAttribute("test.peer", "not a URI");
+	}
+
+	/**
+	 * <p>
+	 * Other packet implementations are read by name.
+	 * </p>
+	 */
+	@Test
+	public void T20_get_OtherPacket() {
+		Packet packet = EasyMock.createMock(Packet.class);
+		EasyMock.expect(packet.getAttribute("test.name")).andReturn("c");
+		EasyMock.replay(packet);
+
+		assertEquals("c", NAME.get(packet));
+		EasyMock.verify(packet);
+	}
+}
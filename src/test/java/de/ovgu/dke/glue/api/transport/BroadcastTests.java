@@ -0,0 +1,177 @@
+package de.ovgu.dke.glue.api.transport;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ovgu.dke.glue.api.serialization.SerializationException;
+import de.ovgu.dke.glue.api.serialization.SerializationProvider;
+import de.ovgu.dke.glue.api.serialization.Serializer;
+
+/**
+ * <p>
+ * Tests for {@link Broadcast}.
+ * </p>
+ * 
+ */
+public class BroadcastTests {
+
+	private static final String SCHEMA = "glue://broadcast-test";
+
+	private CountingSerializer binary;
+	private CountingSerializer string;
+
+	@Before
+	public void setUp() throws Exception {
+		binary = new CountingSerializer(SerializationProvider.BINARY);
+		string = new CountingSerializer(SerializationProvider.STRING);
+
+		SerializationProvider provider = EasyMock
+				.createMock(SerializationProvider.class);
+		EasyMock.expect(provider.getSerializer(SerializationProvider.BINARY))
+				.andReturn(binary).anyTimes();
+		EasyMock.expect(provider.getSerializer(SerializationProvider.STRING))
+				.andReturn(string).anyTimes();
+		PacketHandlerFactory handlerFactory = EasyMock
+				.createMock(PacketHandlerFactory.class);
+		EasyMock.replay(provider, handlerFactory);
+		SchemaRegistry.getInstance().registerSchemaRecord(
+				SchemaRecord.valueOf(SCHEMA, handlerFactory, provider));
+	}
+
+	@After
+	public void tearDown() {
+		SchemaRegistry.getInstance().unregisterSchemaRecord(SCHEMA);
+	}
+
+	/**
+	 * <p>
+	 * The payload is serialized once per format, all packet threads of a
+	 * format get the same serialized payload, buffers as separate views.
+	 * </p>
+	 */
+	@Test
+	public void T00_send_Grouped() {
+		List<RecordingPacketThread> threads = new ArrayList<RecordingPacketThread>();
+		for (int i = 0; i < 10; i++)
+			threads.add(new RecordingPacketThread(connection(
+					i % 2 == 0 ? SerializationProvider.BINARY
+							: SerializationProvider.STRING, true)));
+
+		Map<PacketThread, Exception> failures = Broadcast.send(threads,
+				"payload", Packet.Priority.HIGH);
+
+		assertTrue(failures.isEmpty());
+		assertEquals(1, binary.count);
+		assertEquals(1, string.count);
+		for (int i = 0; i < threads.size(); i++) {
+			RecordingPacketThread pt = threads.get(i);
+			assertEquals(Packet.Priority.HIGH, pt.priority);
+			if (i % 2 == 0) {
+				ByteBuffer buf = (ByteBuffer) pt.payload;
+				assertTrue(buf.isReadOnly());
+				assertTrue(i == 0 || threads.get(0).payload != buf);
+				assertEquals(binary.buffer.remaining(), buf.remaining());
+			} else
+				assertSame(threads.get(1).payload, pt.payload);
+		}
+	}
+
+	/**
+	 * <p>
+	 * A failing packet thread does not stop the broadcast.
+	 * </p>
+	 */
+	@Test
+	public void T01_send_Failures() {
+		RecordingPacketThread ok = new RecordingPacketThread(connection(
+				SerializationProvider.STRING, true));
+		RecordingPacketThread closed = new RecordingPacketThread(connection(
+				SerializationProvider.STRING, false));
+		RecordingPacketThread failing = new RecordingPacketThread(connection(
+				SerializationProvider.BINARY, true));
+		binary.fail = true;
+
+		Map<PacketThread, Exception> failures = Broadcast.send(
+				Arrays.asList(closed, failing, ok), "payload",
+				Packet.Priority.NORMAL);
+
+		assertEquals(2, failures.size());
+		assertTrue(failures.get(closed) instanceof IllegalStateException);
+		assertTrue(failures.get(failing) instanceof TransportException);
+		assertEquals("payload", ok.payload);
+		assertNull(failing.payload);
+	}
+
+	private Connection connection(String format, boolean available) {
+		Connection connection = EasyMock.createMock(Connection.class);
+		EasyMock.expect(connection.getTransport())
+				.andReturn(available ? EasyMock.createMock(Transport.class)
+						: null).anyTimes();
+		EasyMock.expect(connection.getConnectionSchema()).andReturn(SCHEMA)
+				.anyTimes();
+		EasyMock.expect(connection.getSerializationFormat()).andReturn(format)
+				.anyTimes();
+		EasyMock.replay(connection);
+		return connection;
+	}
+
+	private static class CountingSerializer implements Serializer {
+		final String format;
+		final ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+		int count = 0;
+		boolean fail = false;
+
+		CountingSerializer(String format) {
+			this.format = format;
+		}
+
+		@Override
+		public String getFormat() {
+			return format;
+		}
+
+		@Override
+		public Object serialize(Object o) throws SerializationException {
+			count++;
+			if (fail)
+				throw new SerializationException("failed");
+			return SerializationProvider.BINARY.equals(format) ? buffer : o;
+		}
+
+		@Override
+		public Object deserialize(Object o) {
+			return o;
+		}
+	}
+
+	private static class RecordingPacketThread extends PacketThread {
+		Object payload;
+		Packet.Priority priority;
+
+		RecordingPacketThread(Connection connection) {
+			super(connection);
+		}
+
+		@Override
+		protected void sendSerializedPayload(Object payload,
+				Packet.Priority priority) {
+			this.payload = payload;
+			this.priority = priority;
+		}
+
+		@Override
+		public void dispose() {
+			// nothing to dispose
+		}
+	}
+}
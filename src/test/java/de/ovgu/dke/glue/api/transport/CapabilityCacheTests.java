@@ -0,0 +1,146 @@
+package de.ovgu.dke.glue.api.transport;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ovgu.dke.glue.api.serialization.SerializationProvider;
+
+/**
+ * <p>
+ * Tests for {@link CapabilityCache}.
+ * </p>
+ * 
+ */
+public class CapabilityCacheTests {
+
+	private long now;
+	private CapabilityCache cache;
+	private Transport transport;
+
+	@Before
+	public void setUp() {
+		now = 0;
+		cache = new CapabilityCache(100) {
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+		transport = EasyMock.createMock(Transport.class);
+	}
+
+	private Connection createConnectionMock() {
+		Connection connection = EasyMock.createMock(Connection.class);
+		EasyMock.expect(connection.getPeer())
+				.andReturn(URI.create("test://peer")).anyTimes();
+		EasyMock.expect(connection.getConnectionSchema())
+				.andReturn("glue://test").anyTimes();
+		EasyMock.expect(connection.getSerializationFormat())
+				.andReturn(SerializationProvider.BINARY).anyTimes();
+		EasyMock.expect(connection.getTransport()).andReturn(transport)
+				.anyTimes();
+		return connection;
+	}
+
+	/**
+	 * <p>
+	 * Within the TTL the check is only performed once, afterwards it is
+	 * repeated.
+	 * </p>
+	 */
+	@Test
+	public void T00_checkCapabilities_Cached() throws TransportException {
+		Connection connection = createConnectionMock();
+		EasyMock.expect(connection.checkCapabilities()).andReturn(true)
+				.times(2);
+		EasyMock.replay(connection);
+
+		assertTrue(cache.checkCapabilities(connection));
+		now = 50;
+		assertTrue(cache.checkCapabilities(connection));
+		now = 100;
+		assertTrue(cache.checkCapabilities(connection));
+
+		EasyMock.verify(connection);
+	}
+
+	/**
+	 * <p>
+	 * A status change of the transport invalidates the cached result.
+	 * </p>
+	 */
+	@Test
+	public void T10_onStatusChange_Invalidate() throws TransportException {
+		Connection connection = createConnectionMock();
+		EasyMock.expect(connection.checkCapabilities()).andReturn(true);
+		EasyMock.expect(connection.checkCapabilities()).andReturn(false);
+		EasyMock.replay(connection);
+
+		assertTrue(cache.checkCapabilities(connection));
+		cache.onStatusChange(transport, Transport.Status.CHECKED,
+				Transport.Status.FAILED);
+		assertEquals(0, cache.size());
+		assertFalse(cache.checkCapabilities(connection));
+
+		EasyMock.verify(connection);
+	}
+
+	/**
+	 * <p>
+	 * A change of the schema registry invalidates the cached result.
+	 * </p>
+	 */
+	@Test
+	public void T11_schemaRegistryChange_Invalidate()
+			throws TransportException {
+		Connection connection = createConnectionMock();
+		EasyMock.expect(connection.checkCapabilities()).andReturn(true)
+				.times(2);
+		EasyMock.replay(connection);
+
+		assertTrue(cache.checkCapabilities(connection));
+		assertTrue(cache.checkCapabilities(connection));
+
+		SchemaRecord record = EasyMock.createMock(SchemaRecord.class);
+		EasyMock.expect(record.getSchema()).andReturn("glue://cache")
+				.anyTimes();
+		EasyMock.replay(record);
+		SchemaRegistry.getInstance().registerSchemaRecord(record);
+		try {
+			assertTrue(cache.checkCapabilities(connection));
+		} finally {
+			SchemaRegistry.getInstance().unregisterSchemaRecord("glue://cache");
+		}
+
+		EasyMock.verify(connection);
+	}
+
+	/**
+	 * <p>
+	 * Failed checks are not cached.
+	 * </p>
+	 */
+	@Test
+	public void T20_checkCapabilities_Exception() throws TransportException {
+		Connection connection = createConnectionMock();
+		EasyMock.expect(connection.checkCapabilities()).andThrow(
+				new TransportException("unreachable"));
+		EasyMock.expect(connection.checkCapabilities()).andReturn(true);
+		EasyMock.replay(connection);
+
+		try {
+			cache.checkCapabilities(connection);
+			fail("TransportException expected.");
+		} catch (TransportException e) {
+			assertEquals("unreachable", e.getMessage());
+		}
+		assertTrue(cache.checkCapabilities(connection));
+
+		EasyMock.verify(connection);
+	}
+}
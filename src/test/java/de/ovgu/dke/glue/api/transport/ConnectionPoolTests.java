@@ -0,0 +1,205 @@
+package de.ovgu.dke.glue.api.transport;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests for {@link ConnectionPool}.
+ * </p>
+ * 
+ */
+public class ConnectionPoolTests {
+
+	private static final URI PEER = URI.create("test://peer");
+
+	private volatile long now;
+	private ConnectionPool pool;
+	private TransportFactory factory;
+	private Transport transport;
+
+	@Before
+	public void setUp() {
+		now = 0;
+		pool = new ConnectionPool(2, 100) {
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+		factory = EasyMock.createNiceMock(TransportFactory.class);
+		transport = EasyMock.createMock(Transport.class);
+	}
+
+	/**
+	 * <p>
+	 * The second request for the same peer and schema is a pool hit, the
+	 * transport is only created once.
+	 * </p>
+	 */
+	@Test
+	public void T00_getConnection_Reuse() throws TransportException {
+		Connection connection = EasyMock.createMock(Connection.class);
+		EasyMock.expect(factory.createTransport(PEER)).andReturn(transport)
+				.once();
+		EasyMock.expect(transport.getConnection("glue://test"))
+				.andReturn(connection).once();
+		EasyMock.replay(factory, transport);
+
+		assertSame(connection,
+				pool.getConnection(factory, PEER, "glue://test"));
+		assertSame(connection,
+				pool.getConnection(factory, PEER, "glue://test"));
+
+		EasyMock.verify(factory, transport);
+		assertEquals(1, pool.getHitCount());
+		assertEquals(1, pool.getMissCount());
+	}
+
+	/**
+	 * <p>
+	 * If the maximum number of connections per peer is exceeded, the least
+	 * recently used one is dropped.
+	 * </p>
+	 */
+	@Test
+	public void T10_getConnection_MaxPerPeer() throws TransportException {
+		EasyMock.expect(factory.createTransport(PEER)).andReturn(transport);
+		EasyMock.expect(transport.getConnection(EasyMock.<String> anyObject()))
+				.andReturn(EasyMock.createMock(Connection.class)).times(4);
+		EasyMock.replay(factory, transport);
+
+		pool.getConnection(factory, PEER, "a");
+		now = 10;
+		pool.getConnection(factory, PEER, "b");
+		now = 20;
+		pool.getConnection(factory, PEER, "c");
+		assertEquals(2, pool.size());
+
+		// "a" has been dropped, "b" and "c" are hits
+		now = 30;
+		pool.getConnection(factory, PEER, "b");
+		pool.getConnection(factory, PEER, "c");
+		pool.getConnection(factory, PEER, "a");
+
+		EasyMock.verify(transport);
+		assertEquals(2, pool.getHitCount());
+	}
+
+	/**
+	 * <p>
+	 * Idle connections are evicted.
+	 * </p>
+	 */
+	@Test
+	public void T20_evictIdle() throws TransportException {
+		EasyMock.expect(factory.createTransport(PEER)).andReturn(transport);
+		EasyMock.expect(transport.getConnection(EasyMock.<String> anyObject()))
+				.andReturn(EasyMock.createMock(Connection.class)).times(2);
+		EasyMock.replay(factory, transport);
+
+		pool.warmUp(factory, Collections.singleton(PEER),
+				Arrays.asList("a", "b"));
+		now = 60;
+		pool.getConnection(factory, PEER, "b");
+
+		now = 120;
+		assertEquals(1, pool.evictIdle());
+		assertEquals(1, pool.size());
+
+		now = 200;
+		assertEquals(1, pool.evictIdle());
+		assertEquals(0, pool.size());
+	}
+
+	/**
+	 * <p>
+	 * A connection which has just been handed out is not evicted by a
+	 * concurrent eviction run.
+	 * </p>
+	 */
+	@Test
+	public void T21_evictIdle_Concurrent() throws Exception {
+		EasyMock.expect(factory.createTransport(PEER)).andReturn(transport)
+				.anyTimes();
+		EasyMock.expect(transport.getConnection(EasyMock.<String> anyObject()))
+				.andReturn(EasyMock.createMock(Connection.class)).anyTimes();
+		EasyMock.replay(factory, transport);
+
+		final Thread evictor = new Thread() {
+			@Override
+			public void run() {
+				while (!isInterrupted()) {
+					pool.evictIdle();
+					Thread.yield();
+				}
+			}
+		};
+		evictor.start();
+		try {
+			for (int i = 0; i < 50000; i++) {
+				// the previous use is idle, the current one must survive
+				now += 100;
+				pool.getConnection(factory, PEER, "a");
+				assertEquals(1, pool.size());
+			}
+		} finally {
+			evictor.interrupt();
+			evictor.join();
+		}
+	}
+
+	/**
+	 * <p>
+	 * A failed transport is dropped from the pool.
+	 * </p>
+	 */
+	@Test
+	public void T30_onStatusChange_Failed() throws TransportException {
+		EasyMock.expect(factory.createTransport(PEER)).andReturn(transport)
+				.times(2);
+		EasyMock.expect(transport.getConnection(EasyMock.<String> anyObject()))
+				.andReturn(EasyMock.createMock(Connection.class)).times(2);
+		EasyMock.replay(factory, transport);
+
+		pool.getConnection(factory, PEER, "a");
+		pool.onStatusChange(transport, Transport.Status.CONNECTED,
+				Transport.Status.FAILED);
+		assertEquals(0, pool.size());
+
+		pool.getConnection(factory, PEER, "a");
+		EasyMock.verify(factory, transport);
+	}
+
+	/**
+	 * <p>
+	 * Clearing the pool unregisters it from the factories, it registers again
+	 * when it is used.
+	 * </p>
+	 */
+	@Test
+	public void T31_clear_Unregister() throws TransportException {
+		factory = EasyMock.createMock(TransportFactory.class);
+		factory.addTransportLifecycleListener(pool);
+		EasyMock.expectLastCall().times(2);
+		factory.removeTransportLifecycleListener(pool);
+		EasyMock.expectLastCall().once();
+		EasyMock.expect(factory.createTransport(PEER)).andReturn(transport)
+				.times(2);
+		EasyMock.replay(factory);
+
+		pool.getTransport(factory, PEER);
+		pool.clear();
+		assertEquals(0, pool.size());
+		pool.getTransport(factory, PEER);
+
+		EasyMock.verify(factory);
+	}
+}
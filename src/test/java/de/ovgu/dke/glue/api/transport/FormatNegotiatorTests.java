@@ -0,0 +1,123 @@
+package de.ovgu.dke.glue.api.transport;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ovgu.dke.glue.api.serialization.SerializationProvider;
+
+/**
+ * <p>
+ * Tests for {@link FormatNegotiator}.
+ * </p>
+ * 
+ */
+public class FormatNegotiatorTests {
+	private static final URI PEER = URI.create("test://peer");
+	private static final String SCHEMA = "glue://test";
+
+	private FormatNegotiator negotiator;
+	private Transport transport;
+
+	@Before
+	public void setUp() {
+		negotiator = new FormatNegotiator();
+		transport = EasyMock.createMock(Transport.class);
+	}
+
+	/**
+	 * <p>
+	 * The fastest common format is chosen, regardless of the order in the
+	 * formats lists; unranked formats follow the local order.
+	 * </p>
+	 */
+	@Test
+	public void T00_select() {
+		List<String> local = Arrays.asList(SerializationProvider.SERIALIZABLE,
+				SerializationProvider.STRING, SerializationProvider.BINARY);
+		List<String> remote = Arrays.asList(SerializationProvider.SERIALIZABLE,
+				SerializationProvider.BINARY);
+		assertEquals(SerializationProvider.BINARY,
+				negotiator.select(local, remote));
+
+		assertEquals("other", negotiator.select(
+				Arrays.asList("other", "custom"),
+				Arrays.asList("custom", "other")));
+		assertNull(negotiator.select(local,
+				Collections.singletonList(SerializationProvider.JAVA)));
+
+		FormatNegotiator custom = new FormatNegotiator(
+				Arrays.asList(SerializationProvider.SERIALIZABLE));
+		assertEquals(SerializationProvider.SERIALIZABLE,
+				custom.select(local, remote));
+	}
+
+	/**
+	 * <p>
+	 * The agreement is cached per peer and schema.
+	 * </p>
+	 */
+	@Test
+	public void T01_negotiate_Cached() throws TransportException {
+		List<String> formats = Arrays.asList(SerializationProvider.BINARY,
+				SerializationProvider.STRING);
+		assertNull(negotiator.getCachedFormat(PEER, SCHEMA));
+		assertEquals(SerializationProvider.BINARY,
+				negotiator.negotiate(transport, PEER, SCHEMA, formats, formats));
+		assertEquals(SerializationProvider.BINARY,
+				negotiator.getCachedFormat(PEER, SCHEMA));
+
+		// the cached agreement is used, even if the lists differ
+		assertEquals(SerializationProvider.BINARY, negotiator.negotiate(
+				transport, PEER, SCHEMA, formats,
+				Collections.<String> emptyList()));
+		assertEquals(1, negotiator.size());
+
+		negotiator.invalidate(PEER);
+		assertEquals(0, negotiator.size());
+	}
+
+	/**
+	 * <p>
+	 * Without a common format, negotiation fails and nothing is cached.
+	 * </p>
+	 */
+	@Test
+	public void T02_negotiate_NoCommonFormat() {
+		try {
+			negotiator.negotiate(transport, PEER, SCHEMA,
+					Collections.singletonList(SerializationProvider.BINARY),
+					Collections.singletonList(SerializationProvider.STRING));
+			fail("Negotiation without common format succeeded.");
+		} catch (TransportException e) {
+			// expected
+		}
+		assertEquals(0, negotiator.size());
+	}
+
+	/**
+	 * <p>
+	 * A status change of the transport invalidates its agreements.
+	 * </p>
+	 */
+	@Test
+	public void T10_onStatusChange_Invalidate() throws TransportException {
+		List<String> formats = Collections
+				.singletonList(SerializationProvider.STRING);
+		negotiator.negotiate(transport, PEER, SCHEMA, formats, formats);
+		negotiator.onStatusChange(EasyMock.createMock(Transport.class),
+				Transport.Status.CONNECTED, Transport.Status.CLOSED);
+		assertEquals(1, negotiator.size());
+
+		negotiator.onStatusChange(transport, Transport.Status.CONNECTED,
+				Transport.Status.CLOSED);
+		assertNull(negotiator.getCachedFormat(PEER, SCHEMA));
+	}
+}
@@ -0,0 +1,161 @@
+package de.ovgu.dke.glue.api.transport;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests for {@link LazyTransportFactory}.
+ * </p>
+ * 
+ */
+public class LazyTransportFactoryTests {
+
+	/**
+	 * <p>
+	 * The wrapped factory is initialized once, on first use, with the
+	 * configuration passed on construction.
+	 * </p>
+	 */
+	@Test
+	public void T00_createTransport_InitOnce() throws Exception {
+		final Properties config = new Properties();
+		final URI peer = URI.create("test://peer");
+		final Transport transport = EasyMock.createMock(Transport.class);
+
+		TransportFactory delegate = EasyMock.createMock(TransportFactory.class);
+		delegate.init(config);
+		EasyMock.expectLastCall().once();
+		EasyMock.expect(delegate.createTransport(peer)).andReturn(transport)
+				.times(2);
+		EasyMock.replay(delegate);
+
+		LazyTransportFactory factory = new LazyTransportFactory(delegate,
+				config, 0);
+		assertFalse(factory.getReadiness().isDone());
+		assertSame(transport, factory.createTransport(peer));
+		assertSame(transport, factory.createTransport(peer));
+		assertTrue(factory.isInitialized());
+		assertSame(delegate, factory.getReadiness().get());
+
+		EasyMock.verify(delegate);
+	}
+
+	/**
+	 * <p>
+	 * A failed initialization is not repeated, the failure is reported to
+	 * every caller and via the readiness future.
+	 * </p>
+	 */
+	@Test
+	public void T01_ensureInitialized_Failure() throws Exception {
+		final TransportException failure = new TransportException("failed");
+
+		TransportFactory delegate = EasyMock.createMock(TransportFactory.class);
+		delegate.init(null);
+		EasyMock.expectLastCall().andThrow(failure).once();
+		EasyMock.replay(delegate);
+
+		LazyTransportFactory factory = new LazyTransportFactory(delegate, null,
+				0);
+		for (int i = 0; i < 2; i++)
+			try {
+				factory.ensureInitialized();
+				fail("Initialization failure has not been thrown.");
+			} catch (TransportException e) {
+				assertSame(failure, e);
+			}
+		assertFalse(factory.isInitialized());
+
+		try {
+			factory.getReadiness().get();
+			fail("Readiness future has not failed.");
+		} catch (ExecutionException e) {
+			assertSame(failure, e.getCause());
+		}
+
+		// not initialized, so not disposed
+		factory.dispose();
+		EasyMock.verify(delegate);
+	}
+
+	/**
+	 * <p>
+	 * Quiesce and dispose during a running initialization are applied when
+	 * the initialization completes, draining waits for it.
+	 * </p>
+	 */
+	@Test
+	public void T02_dispose_DuringInit() throws Exception {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		DrainableTransportFactory delegate = EasyMock
+				.createMock(DrainableTransportFactory.class);
+		delegate.init(null);
+		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+			@Override
+			public Object answer() throws Throwable {
+				entered.countDown();
+				release.await();
+				return null;
+			}
+		});
+		delegate.dispose();
+		EasyMock.expectLastCall().once();
+		EasyMock.replay(delegate);
+
+		LazyTransportFactory factory = new LazyTransportFactory(delegate, null,
+				0);
+		factory.initialize(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				new Thread(command).start();
+			}
+		});
+		assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+		factory.quiesce();
+		factory.dispose();
+		assertFalse(factory.awaitDrained(10, TimeUnit.MILLISECONDS));
+
+		release.countDown();
+		assertSame(delegate, factory.getReadiness().get());
+		EasyMock.verify(delegate);
+	}
+
+	/**
+	 * <p>
+	 * A factory disposed before its initialization is not initialized
+	 * anymore.
+	 * </p>
+	 */
+	@Test
+	public void T03_dispose_BeforeInit() throws Exception {
+		TransportFactory delegate = EasyMock.createMock(TransportFactory.class);
+		EasyMock.replay(delegate);
+
+		LazyTransportFactory factory = new LazyTransportFactory(delegate, null,
+				0);
+		factory.dispose();
+		try {
+			factory.ensureInitialized();
+			fail("A disposed factory has been initialized.");
+		} catch (TransportException e) {
+			// expected
+		}
+		assertFalse(factory.isInitialized());
+		assertTrue(factory.awaitDrained(0, TimeUnit.MILLISECONDS));
+		EasyMock.verify(delegate);
+	}
+}
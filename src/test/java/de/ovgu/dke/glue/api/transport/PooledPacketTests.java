@@ -0,0 +1,140 @@
+package de.ovgu.dke.glue.api.transport;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests for {@link PooledPacket} and {@link PacketPool}.
+ * </p>
+ * 
+ */
+public class PooledPacketTests {
+
+	private static final String KEY = "key";
+
+	/**
+	 * <p>
+	 * Attributes are resolved by name, also for non-interned strings, and
+	 * removed by setting {@code null}.
+	 * </p>
+	 */
+	@Test
+	public void T00_attributes() {
+		PooledPacket packet = new PacketPool().acquire("payload",
+				Packet.Priority.HIGH);
+		assertEquals("payload", packet.getPayload());
+		assertEquals(Packet.Priority.HIGH, packet.getPriority());
+
+		packet.setAttribute(KEY, "a");
+		packet.setAttribute("other", "b");
+		assertEquals("a", packet.getAttribute(KEY));
+		assertEquals("a", packet.getAttribute(new String("key")));
+		packet.setAttribute(KEY, "c");
+		assertEquals("c", packet.getAttribute(KEY));
+
+		packet.setAttribute(KEY, null);
+		assertNull(packet.getAttribute(KEY));
+		assertEquals("b", packet.getAttribute("other"));
+	}
+
+	/**
+	 * <p>
+	 * The number of attributes is limited.
+	 * </p>
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void T01_attributes_SlotsExhausted() {
+		PooledPacket packet = new PacketPool().acquire(null,
+				Packet.Priority.NORMAL);
+		for (int i = 0; i <= PooledPacket.ATTRIBUTE_SLOTS; i++)
+			packet.setAttribute("key" + i, Integer.valueOf(i));
+	}
+
+	/**
+	 * <p>
+	 * A released packet is reset, cannot be accessed and is re-used by the
+	 * next acquisition.
+	 * </p>
+	 */
+	@Test
+	public void T10_release_Recycle() {
+		PacketPool pool = new PacketPool();
+		PooledPacket packet = pool.acquire("payload", Packet.Priority.NORMAL);
+		packet.setAttribute(KEY, "a");
+		assertTrue(packet.release());
+		assertEquals(0, packet.getReferenceCount());
+
+		try {
+			packet.getPayload();
+			fail("Released packet must not be accessible.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		PooledPacket next = pool.acquire("next", Packet.Priority.NORMAL);
+		assertSame(packet, next);
+		assertNull(next.getAttribute(KEY));
+		assertEquals(1, pool.getAllocatedCount());
+	}
+
+	/**
+	 * <p>
+	 * A retained packet is only recycled after the last release.
+	 * </p>
+	 */
+	@Test
+	public void T11_retain() {
+		PooledPacket packet = new PacketPool().acquire("payload",
+				Packet.Priority.NORMAL);
+		packet.retain();
+		assertFalse(packet.release());
+		assertEquals("payload", packet.getPayload());
+		assertTrue(packet.release());
+
+		try {
+			packet.release();
+			fail("Double release must fail.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * <p>
+	 * Packets acquired in one thread and released in another flow back via
+	 * the shared stack, so the pool stops allocating.
+	 * </p>
+	 */
+	@Test
+	public void T20_crossThread_SteadyState() throws Exception {
+		final PacketPool pool = new PacketPool(4, 64);
+		final PooledPacket[] batch = new PooledPacket[16];
+		final ExecutorService releaser = Executors.newSingleThreadExecutor();
+
+		try {
+			for (int round = 0; round < 100; round++) {
+				for (int i = 0; i < batch.length; i++)
+					batch[i] = pool.acquire(Integer.valueOf(i),
+							Packet.Priority.NORMAL);
+
+				releaser.submit(new Runnable() {
+					@Override
+					public void run() {
+						for (PooledPacket p : batch)
+							p.release();
+					}
+				}).get();
+			}
+		} finally {
+			releaser.shutdown();
+		}
+
+		// the first round allocates, later rounds re-use
+		assertTrue(pool.getAllocatedCount() <= 2 * batch.length);
+	}
+}
@@ -0,0 +1,272 @@
+package de.ovgu.dke.glue.api.transport;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ovgu.dke.glue.api.serialization.SerializationProvider;
+import de.ovgu.dke.glue.api.transport.flow.OverflowPolicy;
+import de.ovgu.dke.glue.api.transport.local.LocalTransportFactory;
+import de.ovgu.dke.glue.api.util.HashedWheelTimer;
+
+/**
+ * <p>
+ * Tests for {@link ReconnectingTransport} and {@link ReconnectPolicy}, using
+ * the in-process transport.
+ * </p>
+ * 
+ */
+public class ReconnectingTransportTests {
+
+	private static final String SCHEMA = "glue://reconnect-test";
+
+	private static final ReconnectPolicy POLICY = new ReconnectPolicy(5, 20,
+			TimeUnit.MILLISECONDS, ReconnectPolicy.UNLIMITED);
+
+	private final List<Object> received = new ArrayList<Object>();
+
+	private HashedWheelTimer timer;
+	private LocalTransportFactory client;
+	private LocalTransportFactory server;
+	private ReconnectingTransport transport;
+	private final List<Transport.Status> events = new ArrayList<Transport.Status>();
+
+	@Before
+	public void setUp() throws Exception {
+		PacketHandlerFactory handlerFactory = EasyMock
+				.createMock(PacketHandlerFactory.class);
+		EasyMock.expect(handlerFactory.createPacketHandler())
+				.andReturn(new PacketHandler() {
+					@Override
+					public void handle(PacketThread packetThread, Packet packet) {
+						synchronized (received) {
+							received.add(packet.getPayload());
+						}
+					}
+				}).anyTimes();
+		SerializationProvider provider = EasyMock
+				.createMock(SerializationProvider.class);
+		EasyMock.expect(provider.getSerializer(SerializationProvider.JAVA))
+				.andReturn(null).anyTimes();
+		EasyMock.replay(handlerFactory, provider);
+		SchemaRegistry.getInstance().registerSchemaRecord(
+				SchemaRecord.valueOf(SCHEMA, handlerFactory, provider));
+
+		timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64,
+				"reconnect-test-timer");
+		client = new LocalTransportFactory();
+		client.init(null);
+		server = startServer();
+	}
+
+	@After
+	public void tearDown() {
+		if (transport != null)
+			transport.dispose();
+		client.dispose();
+		server.dispose();
+		timer.stop();
+		SchemaRegistry.getInstance().unregisterSchemaRecord(SCHEMA);
+	}
+
+	private static LocalTransportFactory startServer()
+			throws TransportException {
+		LocalTransportFactory factory = new LocalTransportFactory();
+		Properties config = new Properties();
+		config.setProperty(LocalTransportFactory.NAME_PROPERTY, "reconnect");
+		factory.init(config);
+		return factory;
+	}
+
+	private void connect(final ReconnectPolicy policy, final URI peer,
+			final int capacity) {
+		transport = new ReconnectingTransport(client, peer, policy, capacity,
+				OverflowPolicy.DROP_OLDEST, timer);
+		transport.addTransportLifecycleListener(new TransportLifecycleListener() {
+			@Override
+			public void onStatusChange(Transport t, Transport.Status oldStatus,
+					Transport.Status newStatus) {
+				synchronized (events) {
+					events.add(newStatus);
+				}
+			}
+
+			@Override
+			public void onThreadCreation(PacketThread pt) {
+			}
+
+			@Override
+			public void onThreadDisposal(PacketThread pt) {
+			}
+		});
+	}
+
+	/**
+	 * <p>
+	 * Packets sent during an outage are queued and sent in priority order
+	 * after the reconnect.
+	 * </p>
+	 */
+	@Test
+	public void T00_send_Reconnect() throws Exception {
+		connect(POLICY, server.getLocalURI(), 100);
+		PacketThread pt = transport.getConnection(SCHEMA).createThread(null);
+		pt.send("a", Packet.Priority.NORMAL);
+		awaitReceived(1);
+
+		server.dispose();
+		awaitStatus(Transport.Status.FAILED);
+		pt.send("n1", Packet.Priority.NORMAL);
+		pt.send("d1", Packet.Priority.DEFERRABLE);
+		pt.send("h1", Packet.Priority.HIGH);
+		assertEquals(3, transport.getQueuedCount());
+
+		server = startServer();
+		awaitStatus(Transport.Status.CONNECTED);
+		// the outbox is drained on another thread
+		awaitReceived(4);
+		pt.send("b", Packet.Priority.NORMAL);
+		awaitReceived(5);
+
+		synchronized (received) {
+			assertEquals("a", received.get(0));
+			assertEquals("h1", received.get(1));
+			assertEquals("n1", received.get(2));
+			assertEquals("d1", received.get(3));
+			assertEquals("b", received.get(4));
+		}
+		assertEquals(0, transport.getQueuedCount());
+		assertEquals(1, transport.getReconnectCount());
+		synchronized (events) {
+			assertEquals(Transport.Status.FAILED, events.get(0));
+			assertEquals(Transport.Status.CONNECTED, events.get(1));
+		}
+	}
+
+	/**
+	 * <p>
+	 * The transport is closed when the policy gives up.
+	 * </p>
+	 */
+	@Test
+	public void T01_attempt_GiveUp() throws Exception {
+		connect(new ReconnectPolicy(1, 2, TimeUnit.MILLISECONDS, 3),
+				URI.create("local:nowhere"), 100);
+		awaitStatus(Transport.Status.CLOSED);
+		assertEquals(Transport.Status.CLOSED, transport.getStatus());
+
+		try {
+			transport.getConnection(SCHEMA);
+			fail("Connection on a transport which never connected must fail.");
+		} catch (TransportException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * <p>
+	 * A full outbox drops packets according to the overflow policy.
+	 * </p>
+	 */
+	@Test
+	public void T02_send_OutboxFull() throws Exception {
+		connect(POLICY, server.getLocalURI(), 2);
+		PacketThread pt = transport.getConnection(SCHEMA).createThread(null);
+		server.dispose();
+		awaitStatus(Transport.Status.FAILED);
+
+		for (int i = 0; i < 3; i++)
+			pt.send(Integer.valueOf(i), Packet.Priority.NORMAL);
+		assertEquals(2, transport.getQueuedCount());
+		assertEquals(1, transport.getDroppedCount());
+	}
+
+	/**
+	 * <p>
+	 * Connecting does not reset the backoff, only a successful send does.
+	 * </p>
+	 */
+	@Test
+	public void T03_send_ResetAttempts() throws Exception {
+		connect(POLICY, server.getLocalURI(), 100);
+		PacketThread pt = transport.getConnection(SCHEMA).createThread(null);
+		server.dispose();
+		awaitStatus(Transport.Status.FAILED);
+		assertTrue(transport.getAttemptCount() > 0);
+
+		server = startServer();
+		awaitStatus(Transport.Status.CONNECTED);
+		assertTrue(transport.getAttemptCount() > 0);
+
+		pt.send("a", Packet.Priority.NORMAL);
+		awaitReceived(1);
+		assertEquals(0, transport.getAttemptCount());
+	}
+
+	/**
+	 * <p>
+	 * Delays grow exponentially up to the maximum and are jittered between
+	 * half and the full value.
+	 * </p>
+	 */
+	@Test
+	public void T10_ReconnectPolicy_getDelay() {
+		ReconnectPolicy policy = new ReconnectPolicy(100, 1000,
+				TimeUnit.NANOSECONDS, 5);
+		Random random = new Random(1);
+		for (int attempt = 0; attempt < 40; attempt++) {
+			long full = Math.min(100L << Math.min(attempt, 20), 1000);
+			long delay = policy.getDelay(attempt, random);
+			assertTrue(delay >= full / 2 && delay <= full);
+		}
+		assertTrue(policy.isAttemptAllowed(4));
+		assertFalse(policy.isAttemptAllowed(5));
+	}
+
+	/**
+	 * <p>
+	 * Delays do not overflow with a very large maximum.
+	 * </p>
+	 */
+	@Test
+	public void T11_ReconnectPolicy_getDelay_Overflow() {
+		ReconnectPolicy policy = new ReconnectPolicy(3, Long.MAX_VALUE,
+				TimeUnit.NANOSECONDS, ReconnectPolicy.UNLIMITED);
+		Random random = new Random(1);
+		for (int attempt = 62; attempt < 100; attempt++) {
+			long delay = policy.getDelay(attempt, random);
+			assertTrue(delay >= Long.MAX_VALUE / 2);
+		}
+	}
+
+	private void awaitReceived(final int count) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (System.currentTimeMillis() < deadline) {
+			synchronized (received) {
+				if (received.size() >= count)
+					return;
+			}
+			Thread.sleep(1);
+		}
+		fail("Packets have not been received.");
+	}
+
+	private void awaitStatus(final Transport.Status status)
+			throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (transport.getStatus() != status
+				&& System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+		assertEquals(status, transport.getStatus());
+	}
+}
@@ -271,6 +271,97 @@ public class SchemaRegistryTests {
 		SchemaRegistry.getInstance().getSerializationProvider(null);
 	}
 
+	/**
+	 * <p>
+	 * Schemas get stable ids, which resolve to the current record.
+	 * </p>
+	 */
+	@Test
+	public void T40_getSchemaId() {
+		SchemaRecord record1 = createSchemaRecordMock("glue:\\test");
+		SchemaRecord record2 = createSchemaRecordMock("glue:\\test");
+
+		SchemaRegistry.getInstance().registerSchemaRecord(record1);
+		final int id = SchemaRegistry.getInstance().getSchemaId("glue:\\test");
+		assertEquals("Schema id is not stable.", id, SchemaRegistry
+				.getInstance().getSchemaId(new String("glue:\\test")));
+		assertEquals("Schema registry didn't return expected schema.",
+				"glue:\\test", SchemaRegistry.getInstance().getSchema(id));
+		assertSame("Schema registry didn't return expected schema record.",
+				record1, SchemaRegistry.getInstance().getRecord(id));
+
+		SchemaRegistry.getInstance().registerSchemaRecord(record2);
+		assertSame("Schema registry didn't return expected schema record.",
+				record2, SchemaRegistry.getInstance().getRecord(id));
+	}
+
+	/**
+	 * <p>
+	 * Unregistered schemas keep their id, but have no record.
+	 * </p>
+	 */
+	@Test
+	public void T41_getSchemaId_Unregistered() {
+		final String schema = "glue:\\ids";
+		final int id = SchemaRegistry.getInstance().getSchemaId(schema);
+		assertNull("Expected NULL value but got schema record.", SchemaRegistry
+				.getInstance().getRecord(id));
+
+		SchemaRegistry.getInstance().registerSchemaRecord(
+				createSchemaRecordMock(schema));
+		assertNotNull("Expected schema record.", SchemaRegistry.getInstance()
+				.getRecord(id));
+
+		SchemaRegistry.getInstance().unregisterSchemaRecord(schema);
+		assertNull("Expected NULL value but got schema record.", SchemaRegistry
+				.getInstance().getRecord(id));
+		assertEquals("Schema id is not stable.", id, SchemaRegistry
+				.getInstance().getSchemaId(schema));
+
+		assertNull("Expected NULL value for unknown id.", SchemaRegistry
+				.getInstance().getRecord(-1));
+		assertNull("Expected NULL value for unknown id.", SchemaRegistry
+				.getInstance().getSchema(Integer.MAX_VALUE));
+	}
+
+	/**
+	 * <p>
+	 * Every change publishes a new snapshot with a higher version, former
+	 * snapshots are not changed.
+	 * </p>
+	 */
+	@Test
+	public void T50_getSnapshot() {
+		final String schema = "glue:\\snapshot";
+		SchemaRegistry.Snapshot before = SchemaRegistry.getInstance()
+				.getSnapshot();
+
+		SchemaRecord record = createSchemaRecordMock(schema);
+		SchemaRegistry.getInstance().registerSchemaRecord(record);
+		SchemaRegistry.Snapshot after = SchemaRegistry.getInstance()
+				.getSnapshot();
+		assertTrue("Version has not been incremented.",
+				after.getVersion() > before.getVersion());
+		assertEquals("Unexpected registry version.", after.getVersion(),
+				SchemaRegistry.getInstance().getVersion());
+		assertNull("Former snapshot has been changed.",
+				before.getRecord(schema));
+		assertSame("Snapshot didn't return expected schema record.", record,
+				after.getRecord(schema));
+
+		assertSame("Registered record has not been returned.", record,
+				SchemaRegistry.getInstance().registerSchemaRecordIfAbsent(
+						createSchemaRecordMock(schema)));
+		assertEquals("Version has been incremented without change.",
+				after.getVersion(), SchemaRegistry.getInstance().getVersion());
+
+		SchemaRegistry.getInstance().unregisterSchemaRecord(schema);
+		assertSame("Former snapshot has been changed.", record,
+				after.getRecord(schema));
+		assertNull("Expected NULL value but got schema record.", SchemaRegistry
+				.getInstance().getRecord(schema));
+	}
+
 	private SchemaRecord createSchemaRecordMock(String schema) {
 		SchemaRecord record = EasyMock.createMock(SchemaRecord.class);
 		PacketHandlerFactory handlerFactory = EasyMock
@@ -0,0 +1,207 @@
+package de.ovgu.dke.glue.api.transport;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ovgu.dke.glue.api.serialization.SerializationProvider;
+import de.ovgu.dke.glue.api.transport.journal.Journal;
+
+/**
+ * <p>
+ * Tests for {@link StoreAndForward}.
+ * </p>
+ * 
+ */
+public class StoreAndForwardTests {
+
+	private static final String SCHEMA = "glue://journal-test";
+
+	private File directory;
+	private Journal journal;
+	private Transport transport;
+	private FlakyPacketThread pt;
+	private StoreAndForward sender;
+
+	@Before
+	public void setUp() throws Exception {
+		SerializationProvider provider = EasyMock
+				.createMock(SerializationProvider.class);
+		EasyMock.expect(provider.getSerializer(SerializationProvider.JAVA))
+				.andReturn(null).anyTimes();
+		PacketHandlerFactory handlerFactory = EasyMock
+				.createMock(PacketHandlerFactory.class);
+		EasyMock.replay(provider, handlerFactory);
+		SchemaRegistry.getInstance().registerSchemaRecord(
+				SchemaRecord.valueOf(SCHEMA, handlerFactory, provider));
+
+		transport = EasyMock.createMock(Transport.class);
+		Connection connection = EasyMock.createMock(Connection.class);
+		EasyMock.expect(connection.getTransport()).andReturn(transport)
+				.anyTimes();
+		EasyMock.expect(connection.getConnectionSchema()).andReturn(SCHEMA)
+				.anyTimes();
+		EasyMock.expect(connection.getSerializationFormat())
+				.andReturn(SerializationProvider.JAVA).anyTimes();
+		EasyMock.replay(transport, connection);
+
+		directory = File.createTempFile("glue-journal", "");
+		directory.delete();
+		journal = new Journal(directory, 4096, Journal.UNLIMITED);
+		pt = new FlakyPacketThread(connection);
+		sender = new StoreAndForward(pt, journal, true);
+	}
+
+	@After
+	public void tearDown() {
+		journal.close();
+		for (File file : directory.listFiles())
+			file.delete();
+		directory.delete();
+		SchemaRegistry.getInstance().unregisterSchemaRecord(SCHEMA);
+	}
+
+	/**
+	 * <p>
+	 * Online packets are journaled and forwarded immediately, the pay-load
+	 * types are retained.
+	 * </p>
+	 */
+	@Test
+	public void T00_send_Online() throws Exception {
+		sender.send("text", Packet.Priority.HIGH);
+		sender.send(new byte[] { 1, 2 }, Packet.Priority.DEFERRABLE);
+		sender.send(ByteBuffer.wrap(new byte[] { 3 }), Packet.Priority.NORMAL);
+		sender.send(Integer.valueOf(42), Packet.Priority.DEFAULT);
+
+		assertEquals(4, sender.getForwardedCount());
+		assertFalse(journal.hasPending());
+		assertEquals("text", pt.payloads.get(0));
+		assertEquals(Packet.Priority.HIGH, pt.priorities.get(0));
+		assertEquals(2, ((byte[]) pt.payloads.get(1)).length);
+		assertEquals(Packet.Priority.DEFERRABLE, pt.priorities.get(1));
+		assertEquals(3, ((ByteBuffer) pt.payloads.get(2)).get());
+		assertEquals(Integer.valueOf(42), pt.payloads.get(3));
+	}
+
+	/**
+	 * <p>
+	 * Packets sent while the peer is down are kept in the journal and
+	 * forwarded in order when the transport is connected.
+	 * </p>
+	 */
+	@Test
+	public void T01_send_OfflineReplay() throws Exception {
+		pt.down = true;
+		sender.send("a", Packet.Priority.NORMAL);
+		sender.send("b", Packet.Priority.NORMAL);
+		assertFalse(sender.isOnline());
+		assertTrue(journal.hasPending());
+		assertTrue(pt.payloads.isEmpty());
+
+		pt.down = false;
+		sender.onStatusChange(transport, Transport.Status.CREATED,
+				Transport.Status.CONNECTED);
+		sender.send("c", Packet.Priority.NORMAL);
+
+		assertTrue(sender.isOnline());
+		assertEquals(3, pt.payloads.size());
+		assertEquals("a", pt.payloads.get(0));
+		assertEquals("b", pt.payloads.get(1));
+		assertEquals("c", pt.payloads.get(2));
+		assertFalse(journal.hasPending());
+	}
+
+	/**
+	 * <p>
+	 * Journaled packets survive a restart and are replayed from a re-opened
+	 * journal.
+	 * </p>
+	 */
+	@Test
+	public void T02_replay_Restart() throws Exception {
+		pt.down = true;
+		sender.send("a", Packet.Priority.NORMAL);
+		sender.send("b", Packet.Priority.NORMAL);
+		journal.close();
+
+		pt.down = false;
+		journal = new Journal(directory, 4096, Journal.UNLIMITED);
+		sender = new StoreAndForward(pt, journal, true);
+		assertEquals(2, sender.replay());
+		assertEquals("a", pt.payloads.get(0));
+		assertEquals("b", pt.payloads.get(1));
+	}
+
+	/**
+	 * <p>
+	 * A failure on a connected transport does not stop forwarding, the failed
+	 * packet is forwarded with the next one.
+	 * </p>
+	 */
+	@Test
+	public void T03_send_TransientFailure() throws Exception {
+		sender.onStatusChange(transport, Transport.Status.CREATED,
+				Transport.Status.CONNECTED);
+		pt.down = true;
+		sender.send("a", Packet.Priority.NORMAL);
+		assertTrue(sender.isOnline());
+		assertTrue(journal.hasPending());
+
+		pt.down = false;
+		sender.send("b", Packet.Priority.NORMAL);
+		assertEquals(2, pt.payloads.size());
+		assertEquals("a", pt.payloads.get(0));
+		assertEquals("b", pt.payloads.get(1));
+		assertFalse(journal.hasPending());
+	}
+
+	/**
+	 * <p>
+	 * Status changes of other transports are ignored.
+	 * </p>
+	 */
+	@Test
+	public void T10_onStatusChange_OtherTransport() throws Exception {
+		pt.down = true;
+		sender.send("a", Packet.Priority.NORMAL);
+		pt.down = false;
+
+		Transport other = EasyMock.createMock(Transport.class);
+		sender.onStatusChange(other, Transport.Status.CREATED,
+				Transport.Status.CHECKED);
+		assertTrue(pt.payloads.isEmpty());
+		assertFalse(sender.isOnline());
+	}
+
+	private static class FlakyPacketThread extends PacketThread {
+		final List<Object> payloads = new ArrayList<Object>();
+		final List<Packet.Priority> priorities = new ArrayList<Packet.Priority>();
+		volatile boolean down = false;
+
+		FlakyPacketThread(Connection connection) {
+			super(connection);
+		}
+
+		@Override
+		protected void sendSerializedPayload(Object payload,
+				Packet.Priority priority) throws TransportException {
+			if (down)
+				throw new TransportException("Peer is down.");
+			payloads.add(payload);
+			priorities.add(priority);
+		}
+
+		@Override
+		public void dispose() {
+		}
+	}
+}
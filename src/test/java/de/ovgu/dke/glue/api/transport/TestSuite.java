@@ -20,7 +20,12 @@ import org.junit.runners.Suite.SuiteClasses;
  */
 @RunWith(Suite.class)
 @SuiteClasses({ SchemaRegistryTests.class, TransportRegistryTests.class,
-		SchemaRecordTests.class, PacketThreadTests.class })
+		SchemaRecordTests.class, PacketThreadTests.class,
+		AbstractTransportFactoryTests.class, ConnectionPoolTests.class,
+		CapabilityCacheTests.class, PooledPacketTests.class,
+		AttributeKeyTests.class, LazyTransportFactoryTests.class,
+		BroadcastTests.class, StoreAndForwardTests.class,
+		ReconnectingTransportTests.class, FormatNegotiatorTests.class })
 public class TestSuite {
 
 }
@@ -2,11 +2,20 @@ package de.ovgu.dke.glue.api.transport;
 
 import static org.junit.Assert.*;
 
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import org.easymock.EasyMock;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import de.ovgu.dke.glue.api.transport.local.LocalTransportFactory;
+
 public class TransportRegistryTests {
 
 	private static String FACTORY_ONE_KEY = "FactoryOne";
@@ -333,4 +342,161 @@ public class TransportRegistryTests {
 						.contains(DEFAULT_REGISTRY_KEY));
 	}
 
+	/**
+	 * <p>
+	 * Snapshots are not affected by later changes or disposal.
+	 * </p>
+	 */
+	@Test
+	public void T50_getSnapshot() {
+		TransportRegistry.getInstance().registerTransportFactory(
+				FACTORY_ONE_KEY, factoryOne, TransportRegistry.AS_DEFAULT);
+		TransportRegistry.Snapshot snapshot = TransportRegistry.getInstance()
+				.getSnapshot();
+		assertEquals("Unexpected registry version.", snapshot.getVersion(),
+				TransportRegistry.getInstance().getVersion());
+
+		TransportRegistry.getInstance().disposeAll();
+		assertTrue("Version has not been incremented.", TransportRegistry
+				.getInstance().getVersion() > snapshot.getVersion());
+		assertNull("Expected NULL but factory was returned!", TransportRegistry
+				.getInstance().getTransportFactory(FACTORY_ONE_KEY));
+		assertSame("Snapshot has been changed.", factoryOne,
+				snapshot.getTransportFactory(FACTORY_ONE_KEY));
+		assertSame("Snapshot has been changed.", factoryOne,
+				snapshot.getDefaultTransportFactory());
+	}
+
+	/**
+	 * <p>
+	 * The factories of this library are discovered and registered for lazy
+	 * initialization, registered keys are not overwritten.
+	 * </p>
+	 */
+	@Test
+	public void T60_discoverTransportFactories() throws TransportException {
+		TransportRegistry.getInstance().registerTransportFactory("shm",
+				factoryOne, TransportRegistry.NO_DEFAULT);
+
+		Set<String> keys = TransportRegistry.getInstance()
+				.discoverTransportFactories(null);
+		assertEquals("Unexpected discovered factories.",
+				Collections.singleton("local"), keys);
+		assertSame("Registered factory has been overwritten.", factoryOne,
+				TransportRegistry.getInstance().getTransportFactory("shm"));
+		assertTrue("Discovery time has not been recorded.", TransportRegistry
+				.getInstance().getDiscoveryNanos() >= 0);
+
+		LazyTransportFactory local = (LazyTransportFactory) TransportRegistry
+				.getInstance().getTransportFactory("local");
+		assertTrue("Unexpected factory class.",
+				local.getDelegate() instanceof LocalTransportFactory);
+		assertFalse("Factory has been initialized too early.",
+				local.isInitialized());
+
+		try {
+			local.createTransport(URI.create("local:unknown"));
+			fail("Transport to unknown endpoint has been created.");
+		} catch (TransportException e) {
+			// expected
+		}
+		assertTrue("Factory has not been initialized on first use.",
+				local.isInitialized());
+		assertTrue("Init time has not been recorded.",
+				local.getInitNanos() >= 0);
+
+		assertTrue("Factories have been discovered twice.", TransportRegistry
+				.getInstance().discoverTransportFactories(null).isEmpty());
+	}
+
+	/**
+	 * <p>
+	 * Lazily loaded factories are registered immediately and can be
+	 * initialized in parallel, the readiness futures complete after
+	 * initialization.
+	 * </p>
+	 */
+	@Test
+	public void T70_initializeAll() throws Exception {
+		LazyTransportFactory lazy = TransportRegistry.getInstance()
+				.loadTransportFactoryLazily(
+						LocalTransportFactory.class.getName(), null,
+						TransportRegistry.NO_DEFAULT, FACTORY_ONE_KEY);
+		TransportRegistry.getInstance().registerTransportFactory(
+				FACTORY_TWO_KEY, factoryTwo, TransportRegistry.NO_DEFAULT);
+		assertSame("Returned factory is not the registered one!", lazy,
+				TransportRegistry.getInstance().getTransportFactory(
+						FACTORY_ONE_KEY));
+		assertFalse("Factory has been initialized too early.",
+				lazy.isInitialized());
+		assertTrue("Unexpected init timings.", TransportRegistry
+				.getInstance().getInitTimings().isEmpty());
+
+		Map<String, Future<TransportFactory>> ready = TransportRegistry
+				.getInstance().initializeAll(2);
+		assertEquals("Unexpected number of readiness futures.", 2,
+				ready.size());
+		assertSame("Unexpected ready factory.", lazy.getDelegate(), ready
+				.get(FACTORY_ONE_KEY).get(5, TimeUnit.SECONDS));
+		assertSame("Unexpected ready factory.", factoryTwo,
+				ready.get(FACTORY_TWO_KEY).get());
+
+		assertTrue("Factory has not been initialized.", lazy.isInitialized());
+		assertNotNull("Local endpoint has not been created.",
+				((LocalTransportFactory) lazy.getDelegate()).getLocalURI());
+		assertTrue("Init time has not been recorded.", TransportRegistry
+				.getInstance().getInitTimings().containsKey(FACTORY_ONE_KEY));
+	}
+
+	/**
+	 * <p>
+	 * Graceful shutdown quiesces and drains the drainable factories before
+	 * they are disposed and reports the factories which did not drain.
+	 * </p>
+	 */
+	@Test
+	public void T80_disposeAll_Drain() throws Exception {
+		DrainableTransportFactory drained = EasyMock
+				.createStrictMock(DrainableTransportFactory.class);
+		drained.quiesce();
+		EasyMock.expect(
+				drained.awaitDrained(EasyMock.anyLong(),
+						EasyMock.eq(TimeUnit.NANOSECONDS))).andReturn(true);
+		drained.dispose();
+		DrainableTransportFactory stuck = EasyMock
+				.createMock(DrainableTransportFactory.class);
+		stuck.quiesce();
+		EasyMock.expect(
+				stuck.awaitDrained(EasyMock.anyLong(),
+						EasyMock.eq(TimeUnit.NANOSECONDS))).andReturn(false);
+		stuck.dispose();
+		factoryOne.dispose();
+		EasyMock.expectLastCall().once();
+		EasyMock.replay(drained, stuck, factoryOne);
+
+		TransportRegistry.getInstance().registerTransportFactory("drained",
+				drained, TransportRegistry.NO_DEFAULT);
+		TransportRegistry.getInstance().registerTransportFactory("stuck",
+				stuck, TransportRegistry.NO_DEFAULT);
+		TransportRegistry.getInstance().registerTransportFactory(
+				FACTORY_ONE_KEY, factoryOne, TransportRegistry.NO_DEFAULT);
+
+		ShutdownReport report = TransportRegistry.getInstance().disposeAll(
+				100, TimeUnit.MILLISECONDS);
+		EasyMock.verify(drained, stuck, factoryOne);
+
+		assertTrue("Registry has not been cleared.", TransportRegistry
+				.getInstance().getTransportFactoryKeys().isEmpty());
+		assertEquals("Unexpected number of factory reports.", 3, report
+				.getFactoryReports().size());
+		assertTrue("Factory has not been drained.", report
+				.getFactoryReports().get("drained").isDrained());
+		assertTrue("Factory has not been drained.", report
+				.getFactoryReports().get(FACTORY_ONE_KEY).isDrained());
+		assertFalse("Stuck factory has been drained.", report
+				.getFactoryReports().get("stuck").isDrained());
+		assertTrue("Close time has not been recorded.", report
+				.getFactoryReports().get("stuck").getCloseNanos() >= 0);
+		assertFalse("Shutdown has been reported as clean.", report.isClean());
+	}
 }
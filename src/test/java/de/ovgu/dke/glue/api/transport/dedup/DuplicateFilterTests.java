@@ -0,0 +1,157 @@
+package de.ovgu.dke.glue.api.transport.dedup;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ovgu.dke.glue.api.transport.AttributeKey;
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.PacketHandler;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.util.RotatingBloomFilter;
+
+/**
+ * <p>
+ * Tests for {@link SequenceWindow} and {@link DuplicateFilter}.
+ * </p>
+ * 
+ */
+public class DuplicateFilterTests {
+	private static final AttributeKey<Long> ID = AttributeKey.valueOf(
+			"dedup.test.id", Long.class);
+
+	private List<Long> delivered;
+	private PacketHandler handler;
+	private PacketThread pt;
+
+	@Before
+	public void setUp() {
+		delivered = new ArrayList<Long>();
+		handler = new PacketHandler() {
+			@Override
+			public void handle(PacketThread packetThread, Packet packet) {
+				delivered.add(ID.get(packet));
+			}
+		};
+		pt = EasyMock.createMock(PacketThread.class);
+		EasyMock.replay(pt);
+	}
+
+	private static Packet packet(final Long id) {
+		final Packet packet = EasyMock.createMock(Packet.class);
+		EasyMock.expect(packet.getAttribute(ID.getName())).andReturn(id)
+				.anyTimes();
+		EasyMock.replay(packet);
+		return packet;
+	}
+
+	/**
+	 * <p>
+	 * The window accepts every id once, in any order within the window, and
+	 * cannot decide ids below it.
+	 * </p>
+	 */
+	@Test
+	public void T00_SequenceWindow_Check() {
+		final SequenceWindow window = new SequenceWindow(100);
+		assertEquals(128, window.size());
+
+		assertEquals(SequenceWindow.Result.NEW, window.check(5));
+		assertEquals(SequenceWindow.Result.NEW, window.check(3));
+		assertEquals(SequenceWindow.Result.DUPLICATE, window.check(5));
+		assertEquals(SequenceWindow.Result.DUPLICATE, window.check(3));
+		assertEquals(SequenceWindow.Result.NEW, window.check(4));
+
+		// move the window, slots of skipped ids are cleared
+		assertEquals(SequenceWindow.Result.NEW, window.check(130));
+		assertEquals(SequenceWindow.Result.TOO_OLD, window.check(2));
+		assertEquals(SequenceWindow.Result.NEW, window.check(129));
+		assertEquals(SequenceWindow.Result.NEW, window.check(6));
+		assertEquals(SequenceWindow.Result.DUPLICATE, window.check(130));
+
+		// jump beyond the window
+		assertEquals(SequenceWindow.Result.NEW, window.check(10000));
+		assertEquals(SequenceWindow.Result.TOO_OLD, window.check(130));
+		assertEquals(SequenceWindow.Result.NEW, window.check(9999));
+	}
+
+	/**
+	 * <p>
+	 * Duplicates are dropped per packet thread, packets without id pass.
+	 * </p>
+	 */
+	@Test
+	public void T01_handle_Window() {
+		final DuplicateFilter filter = new DuplicateFilter(handler, ID);
+		final PacketThread other = EasyMock.createMock(PacketThread.class);
+		EasyMock.replay(other);
+
+		filter.handle(pt, packet(1L));
+		filter.handle(pt, packet(2L));
+		filter.handle(pt, packet(1L));
+		filter.handle(other, packet(1L));
+		filter.handle(pt, packet(null));
+		filter.handle(pt, packet(null));
+
+		assertEquals(5, delivered.size());
+		assertEquals(5, filter.getDeliveredCount());
+		assertEquals(2, filter.getPassedCount());
+		assertEquals(1, filter.getDuplicateCount());
+		assertEquals(2, filter.getWindowCount());
+		assertEquals(0, filter.getFalsePositiveProbability(), 0);
+
+		filter.onThreadDisposal(other);
+		assertEquals(1, filter.getWindowCount());
+		assertEquals(DuplicateFilter.DEFAULT_WINDOW / 8,
+				filter.getMemoryBytes());
+	}
+
+	/**
+	 * <p>
+	 * Without Bloom filter, ids below the window are dropped.
+	 * </p>
+	 */
+	@Test
+	public void T02_handle_TooOld() {
+		final DuplicateFilter filter = new DuplicateFilter(handler, ID, 64,
+				null);
+		filter.handle(pt, packet(1000L));
+		filter.handle(pt, packet(1L));
+
+		assertEquals(1, delivered.size());
+		assertEquals(1, filter.getTooOldCount());
+	}
+
+	/**
+	 * <p>
+	 * With Bloom filter, ids below the window are delivered once.
+	 * </p>
+	 */
+	@Test
+	public void T03_handle_Filter() {
+		final RotatingBloomFilter bloom = new RotatingBloomFilter(4096, 4, 2,
+				1, TimeUnit.HOURS);
+		final DuplicateFilter filter = new DuplicateFilter(handler, ID, 64,
+				bloom);
+
+		filter.handle(pt, packet(1L));
+		filter.handle(pt, packet(1000L));
+		// delivered before, remembered by the filter
+		filter.handle(pt, packet(1L));
+		// below the window, but never delivered
+		filter.handle(pt, packet(2L));
+		filter.handle(pt, packet(2L));
+
+		assertEquals(3, delivered.size());
+		assertEquals(2, filter.getFilterDropCount());
+		assertEquals(0, filter.getTooOldCount());
+		assertTrue(filter.getFalsePositiveProbability() > 0);
+		assertEquals(4096 + 64 / 8, filter.getMemoryBytes());
+	}
+}
@@ -0,0 +1,318 @@
+package de.ovgu.dke.glue.api.transport.flow;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.TransportException;
+
+/**
+ * <p>
+ * Tests for {@link BoundedSendQueue}.
+ * </p>
+ * 
+ */
+public class BoundedSendQueueTests {
+
+	/**
+	 * <p>
+	 * Elements are taken in priority order, {@code DEFAULT} is treated as
+	 * {@code NORMAL}.
+	 * </p>
+	 */
+	@Test
+	public void T00_priorityOrder() throws TransportException {
+		BoundedSendQueue<String> queue = new BoundedSendQueue<String>(10,
+				OverflowPolicy.FAIL);
+		queue.offer("d", Packet.Priority.DEFERRABLE);
+		queue.offer("n1", Packet.Priority.NORMAL);
+		queue.offer("h", Packet.Priority.HIGH);
+		queue.offer("n2", Packet.Priority.DEFAULT);
+
+		assertEquals(4, queue.size());
+		assertEquals("h", queue.peek());
+		assertEquals("h", queue.poll());
+		assertEquals("n1", queue.poll());
+		assertEquals("n2", queue.poll());
+		assertEquals("d", queue.poll());
+		assertNull(queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+
+	/**
+	 * <p>
+	 * A peeked element is only removed while it is still the next element,
+	 * i.e. not after a concurrent offer with higher priority.
+	 * </p>
+	 */
+	@Test
+	public void T01_pollIfHead() throws TransportException {
+		BoundedSendQueue<String> queue = new BoundedSendQueue<String>(10,
+				OverflowPolicy.FAIL);
+		queue.offer("n", Packet.Priority.NORMAL);
+		final String head = queue.peek();
+		queue.offer("h", Packet.Priority.HIGH);
+
+		assertFalse(queue.pollIfHead(head));
+		assertEquals(2, queue.size());
+		assertEquals("h", queue.poll());
+		assertTrue(queue.pollIfHead(head));
+		assertTrue(queue.isEmpty());
+	}
+
+	/**
+	 * <p>
+	 * The next element is removed only if the window has credit, which is
+	 * charged with the element's cost.
+	 * </p>
+	 */
+	@Test
+	public void T02_pollIfFits() throws TransportException {
+		BoundedSendQueue<String> queue = new BoundedSendQueue<String>(10,
+				OverflowPolicy.FAIL) {
+			@Override
+			protected int getCost(String element) {
+				return element.length();
+			}
+		};
+		CreditWindow window = new CreditWindow(4);
+		queue.offer("abc", Packet.Priority.NORMAL);
+		queue.offer("defgh", Packet.Priority.NORMAL);
+
+		assertEquals("abc", queue.pollIfFits(window));
+		assertEquals("defgh", queue.pollIfFits(window));
+		assertEquals(-4, window.getAvailable());
+		queue.offer("i", Packet.Priority.HIGH);
+		assertNull(queue.pollIfFits(window));
+		assertTrue(window.isStalled());
+		assertEquals(1, queue.size());
+		assertEquals("i", queue.pollIfFits(null));
+	}
+
+	/**
+	 * <p>
+	 * Elements are removed by identity from any priority, a missing element
+	 * is ignored.
+	 * </p>
+	 */
+	@Test
+	public void T03_remove() throws TransportException {
+		BoundedSendQueue<String> queue = new BoundedSendQueue<String>(10,
+				OverflowPolicy.FAIL);
+		final String n = new String("n");
+		queue.offer(n, Packet.Priority.NORMAL);
+		queue.offer("h", Packet.Priority.HIGH);
+
+		assertFalse(queue.remove(new String("n")));
+		assertTrue(queue.remove(n));
+		assertFalse(queue.remove(n));
+		assertEquals(1, queue.size());
+		assertEquals("h", queue.poll());
+	}
+
+	/**
+	 * <p>
+	 * The {@code FAIL} policy rejects elements if the queue is full.
+	 * </p>
+	 */
+	@Test(expected = TransportException.class)
+	public void T10_fail() throws TransportException {
+		BoundedSendQueue<String> queue = new BoundedSendQueue<String>(1,
+				OverflowPolicy.FAIL);
+		queue.offer("a", Packet.Priority.NORMAL);
+		queue.offer("b", Packet.Priority.HIGH);
+	}
+
+	/**
+	 * <p>
+	 * The {@code DROP_DEFERRABLE} policy drops the oldest deferrable element,
+	 * or the incoming one if it is deferrable itself.
+	 * </p>
+	 */
+	@Test
+	public void T11_dropDeferrable() throws TransportException {
+		BoundedSendQueue<String> queue = new BoundedSendQueue<String>(2,
+				OverflowPolicy.DROP_DEFERRABLE);
+		queue.offer("d1", Packet.Priority.DEFERRABLE);
+		queue.offer("n1", Packet.Priority.NORMAL);
+
+		assertTrue(queue.offer("n2", Packet.Priority.NORMAL));
+		assertFalse(queue.offer("d2", Packet.Priority.DEFERRABLE));
+		assertEquals(2, queue.getDroppedCount());
+		assertEquals("n1", queue.poll());
+		assertEquals("n2", queue.poll());
+
+		queue.offer("n3", Packet.Priority.NORMAL);
+		queue.offer("n4", Packet.Priority.NORMAL);
+		try {
+			queue.offer("h", Packet.Priority.HIGH);
+			fail("Queue without deferrable elements must reject.");
+		} catch (TransportException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * <p>
+	 * The {@code DROP_OLDEST} policy drops the oldest element of the lowest
+	 * priority, but never an element with a higher priority than the incoming
+	 * one.
+	 * </p>
+	 */
+	@Test
+	public void T12_dropOldest() throws TransportException {
+		BoundedSendQueue<String> queue = new BoundedSendQueue<String>(2,
+				OverflowPolicy.DROP_OLDEST);
+		queue.offer("h1", Packet.Priority.HIGH);
+		queue.offer("n1", Packet.Priority.NORMAL);
+
+		assertTrue(queue.offer("n2", Packet.Priority.NORMAL));
+		assertFalse(queue.offer("d", Packet.Priority.DEFERRABLE));
+		assertTrue(queue.offer("h2", Packet.Priority.HIGH));
+		assertEquals(3, queue.getDroppedCount());
+		assertEquals("h1", queue.poll());
+		assertEquals("h2", queue.poll());
+		assertNull(queue.poll());
+	}
+
+	/**
+	 * <p>
+	 * The {@code BLOCK} policy waits for space and times out.
+	 * </p>
+	 */
+	@Test
+	public void T13_block() throws Exception {
+		final BoundedSendQueue<String> queue = new BoundedSendQueue<String>(1,
+				OverflowPolicy.BLOCK);
+		queue.setBlockTimeout(10, TimeUnit.MILLISECONDS);
+		queue.offer("a", Packet.Priority.NORMAL);
+		try {
+			queue.offer("b", Packet.Priority.NORMAL);
+			fail("Blocking offer must time out.");
+		} catch (TransportException e) {
+			// expected
+		}
+
+		queue.setBlockTimeout(5, TimeUnit.SECONDS);
+		Thread consumer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+				queue.poll();
+			}
+		};
+		consumer.start();
+		assertTrue(queue.offer("c", Packet.Priority.NORMAL));
+		consumer.join();
+		assertEquals("c", queue.poll());
+	}
+
+	/**
+	 * <p>
+	 * Watermark hooks are called once per crossing.
+	 * </p>
+	 */
+	@Test
+	public void T20_watermarks() throws TransportException {
+		final List<String> events = new ArrayList<String>();
+		BoundedSendQueue<String> queue = new BoundedSendQueue<String>(4, 3, 1,
+				OverflowPolicy.FAIL, Packet.Priority.NORMAL) {
+			@Override
+			protected void onHighWatermark(int queued) {
+				events.add("high:" + queued);
+			}
+
+			@Override
+			protected void onLowWatermark(int queued) {
+				events.add("low:" + queued);
+			}
+		};
+
+		for (int i = 0; i < 4; i++)
+			queue.offer("x" + i, Packet.Priority.NORMAL);
+		queue.poll();
+		queue.offer("y", Packet.Priority.NORMAL);
+		queue.poll();
+		queue.poll();
+		queue.poll();
+		queue.poll();
+
+		assertEquals(2, events.size());
+		assertEquals("high:3", events.get(0));
+		assertEquals("low:1", events.get(1));
+	}
+
+	/**
+	 * <p>
+	 * Watermark hooks alternate between high and low, also with concurrent
+	 * producers and consumers.
+	 * </p>
+	 */
+	@Test
+	public void T21_watermarks_Concurrent() throws Exception {
+		final AtomicInteger violations = new AtomicInteger();
+		final AtomicInteger crossings = new AtomicInteger();
+		final BoundedSendQueue<String> queue = new BoundedSendQueue<String>(
+				100000, 2, 1, OverflowPolicy.FAIL, Packet.Priority.NORMAL) {
+			private boolean above = false;
+
+			@Override
+			protected void onHighWatermark(int queued) {
+				// give other threads a chance to cross the other watermark
+				LockSupport.parkNanos(10000);
+				if (above)
+					violations.incrementAndGet();
+				above = true;
+				crossings.incrementAndGet();
+			}
+
+			@Override
+			protected void onLowWatermark(int queued) {
+				// give other threads a chance to cross the other watermark
+				LockSupport.parkNanos(10000);
+				if (!above)
+					violations.incrementAndGet();
+				above = false;
+				crossings.incrementAndGet();
+			}
+		};
+
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final boolean producer = t % 2 == 0;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 20000; i++)
+						if (producer)
+							try {
+								queue.offer("x", Packet.Priority.NORMAL);
+							} catch (TransportException e) {
+								violations.incrementAndGet();
+							}
+						else
+							queue.poll();
+				}
+			});
+		}
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+		queue.clear();
+
+		assertTrue(crossings.get() > 0);
+		assertEquals(0, violations.get());
+	}
+}
@@ -0,0 +1,102 @@
+package de.ovgu.dke.glue.api.transport.flow;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests for {@link CreditWindow} and {@link ReceiveWindow}.
+ * </p>
+ * 
+ */
+public class CreditWindowTests {
+
+	/**
+	 * <p>
+	 * Credit can be consumed while the window is positive, even beyond its
+	 * size.
+	 * </p>
+	 */
+	@Test
+	public void T00_tryConsume() {
+		CreditWindow window = new CreditWindow(10);
+		assertTrue(window.tryConsume(6));
+		assertTrue(window.tryConsume(6));
+		assertEquals(-2, window.getAvailable());
+		assertFalse(window.tryConsume(1));
+		assertTrue(window.isStalled());
+		assertEquals(1, window.getStallCount());
+		assertEquals(12, window.getConsumed());
+	}
+
+	/**
+	 * <p>
+	 * A grant ends the stall.
+	 * </p>
+	 */
+	@Test
+	public void T01_grant() {
+		CreditWindow window = new CreditWindow(0);
+		assertFalse(window.tryConsume(1));
+		window.grant(5);
+		assertFalse(window.isStalled());
+		assertTrue(window.tryConsume(1));
+	}
+
+	/**
+	 * <p>
+	 * A stall is only recorded if the window is exhausted.
+	 * </p>
+	 */
+	@Test
+	public void T03_recordStall() {
+		CreditWindow window = new CreditWindow(1);
+		assertFalse(window.recordStall());
+		assertEquals(0, window.getStallCount());
+		window.tryConsume(1);
+		assertTrue(window.recordStall());
+		assertTrue(window.recordStall());
+		assertEquals(1, window.getStallCount());
+		assertEquals(1, window.getConsumed());
+	}
+
+	/**
+	 * <p>
+	 * Waiting for credit times out or returns when credit is granted by
+	 * another thread.
+	 * </p>
+	 */
+	@Test
+	public void T02_awaitCredit() throws InterruptedException {
+		final CreditWindow window = new CreditWindow(0);
+		assertFalse(window.awaitCredit(10, TimeUnit.MILLISECONDS));
+
+		Thread granter = new Thread() {
+			@Override
+			public void run() {
+				window.grant(1);
+			}
+		};
+		granter.start();
+		assertTrue(window.awaitCredit(10, TimeUnit.SECONDS));
+		granter.join();
+	}
+
+	/**
+	 * <p>
+	 * The receiver grants credit in batches of half the window.
+	 * </p>
+	 */
+	@Test
+	public void T10_receiveWindow_consume() {
+		ReceiveWindow window = new ReceiveWindow(10);
+		assertEquals(0, window.consume(3));
+		assertEquals(6, window.consume(3));
+		assertEquals(0, window.getPending());
+		assertEquals(6, window.getGranted());
+		assertEquals(1, window.getGrantCount());
+	}
+}
@@ -0,0 +1,85 @@
+package de.ovgu.dke.glue.api.transport.journal;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * <p>
+ * Write throughput of {@link Journal}: appends without sync, and appends
+ * with a sync per record by several threads, which shows the effect of the
+ * group commit. Not part of the test suite, run the main method with the
+ * record size and the number of records per run:
+ * </p>
+ * 
+ * <pre>
+ * java -cp target/classes:target/test-classes de.ovgu.dke.glue.api.transport.journal.JournalBenchmark [size] [records]
+ * </pre>
+ * 
+ */
+public class JournalBenchmark {
+	private static final int ROUNDS = 3;
+
+	private static final int[] THREADS = { 1, 4, 16 };
+
+	public static void main(String[] args) throws Exception {
+		final int size = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		final int records = args.length > 1 ? Integer.parseInt(args[1])
+				: 1000000;
+		System.out.println("Record size: " + size + " bytes, records: "
+				+ records);
+
+		for (int round = 0; round < ROUNDS; round++) {
+			run(round, size, records, 1, false);
+			for (int threads : THREADS)
+				run(round, size, records / 50, threads, true);
+		}
+	}
+
+	private static void run(final int round, final int size,
+			final int records, final int threads, final boolean sync)
+			throws Exception {
+		final File directory = File.createTempFile("glue-journal-bench", "");
+		directory.delete();
+		final Journal journal = new Journal(directory);
+		final byte[] record = new byte[size];
+		final CountDownLatch start = new CountDownLatch(1);
+		final Thread[] writers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			writers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < records / threads; i++) {
+							final long position = journal.append(record);
+							if (sync)
+								journal.sync(position);
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			writers[t].start();
+		}
+
+		final long t0 = System.nanoTime();
+		start.countDown();
+		for (Thread writer : writers)
+			writer.join();
+		final long elapsed = System.nanoTime() - t0;
+
+		final long appended = journal.getAppendCount();
+		System.out.println(String.format(
+				"  %-6s %2d threads round %d: %10.0f records/s, %7.1f MB/s,"
+						+ " %6.1f records per force", sync ? "sync" : "append",
+				threads, round, appended * 1e9 / elapsed, appended * size
+						* 1e3 / elapsed, journal.getSyncCount() == 0 ? 0.0
+						: (double) appended / journal.getSyncCount()));
+
+		journal.close();
+		for (File file : directory.listFiles())
+			file.delete();
+		directory.delete();
+	}
+}
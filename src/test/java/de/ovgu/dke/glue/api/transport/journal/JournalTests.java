@@ -0,0 +1,240 @@
+package de.ovgu.dke.glue.api.transport.journal;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests for {@link Journal}.
+ * </p>
+ * 
+ */
+public class JournalTests {
+
+	private File directory;
+	private Journal journal;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("glue-journal", "");
+		directory.delete();
+		journal = new Journal(directory, 4096, Journal.UNLIMITED);
+	}
+
+	@After
+	public void tearDown() {
+		journal.close();
+		delete(directory);
+	}
+
+	/**
+	 * <p>
+	 * Records are replayed once and in append order, across segments.
+	 * </p>
+	 */
+	@Test
+	public void T00_append_Replay() throws Exception {
+		long position = 0;
+		for (int i = 0; i < 1000; i++)
+			position = journal.append(record(i));
+		journal.sync(position);
+		assertTrue(journal.getSegmentCount() > 1);
+		assertTrue(journal.hasPending());
+
+		Recorder recorder = new Recorder(Integer.MAX_VALUE);
+		assertEquals(1000, journal.replay(recorder));
+		for (int i = 0; i < 1000; i++)
+			assertEquals("record-" + i, recorder.records.get(i));
+
+		assertFalse(journal.hasPending());
+		assertEquals(0, journal.replay(recorder));
+		assertEquals(1, journal.getSegmentCount());
+	}
+
+	/**
+	 * <p>
+	 * A handler stops the replay by rejecting a record, the next replay
+	 * starts with this record.
+	 * </p>
+	 */
+	@Test
+	public void T01_replay_Stop() throws Exception {
+		for (int i = 0; i < 10; i++)
+			journal.append(record(i));
+
+		assertEquals(5, journal.replay(new Recorder(5)));
+		Recorder recorder = new Recorder(Integer.MAX_VALUE);
+		assertEquals(5, journal.replay(recorder));
+		assertEquals("record-5", recorder.records.get(0));
+	}
+
+	/**
+	 * <p>
+	 * A re-opened journal continues after the checkpoint and ignores a torn
+	 * record at the end.
+	 * </p>
+	 */
+	@Test
+	public void T02_open_Recover() throws Exception {
+		// segment header and record headers
+		int end = 16;
+		for (int i = 0; i < 10; i++) {
+			journal.append(record(i));
+			end += 8 + record(i).length;
+		}
+		journal.replay(new Recorder(4));
+		journal.close();
+
+		// torn write: length without valid data
+		RandomAccessFile raf = new RandomAccessFile(new File(directory,
+				String.format("%016x.journal", 0)), "rw");
+		raf.seek(end);
+		raf.writeInt(100);
+		raf.writeInt(12345);
+		raf.close();
+
+		journal = new Journal(directory, 4096, Journal.UNLIMITED);
+		journal.append(record(10));
+		Recorder recorder = new Recorder(Integer.MAX_VALUE);
+		assertEquals(7, journal.replay(recorder));
+		assertEquals("record-4", recorder.records.get(0));
+		assertEquals("record-10", recorder.records.get(6));
+	}
+
+	/**
+	 * <p>
+	 * A segment whose header has not reached the device is opened as an empty
+	 * segment.
+	 * </p>
+	 */
+	@Test
+	public void T05_open_ZeroHeader() throws Exception {
+		journal.append(record(0));
+		journal.replay(new Recorder(Integer.MAX_VALUE));
+		journal.close();
+
+		RandomAccessFile raf = new RandomAccessFile(new File(directory,
+				String.format("%016x.journal", 0)), "rw");
+		raf.write(new byte[16]);
+		raf.close();
+
+		journal = new Journal(directory, 4096, Journal.UNLIMITED);
+		assertFalse(journal.hasPending());
+		journal.append(record(1));
+		Recorder recorder = new Recorder(Integer.MAX_VALUE);
+		assertEquals(1, journal.replay(recorder));
+		assertEquals("record-1", recorder.records.get(0));
+	}
+
+	/**
+	 * <p>
+	 * The retention deletes the oldest segments, the replay continues with
+	 * the oldest remaining one.
+	 * </p>
+	 */
+	@Test
+	public void T03_append_Retention() throws Exception {
+		journal.close();
+		delete(directory);
+		journal = new Journal(directory, 1024, 3 * 1024);
+
+		for (int i = 0; i < 200; i++)
+			journal.append(record(i));
+
+		assertTrue(journal.getSegmentCount() <= 3);
+		assertTrue(journal.getDroppedSegmentCount() > 0);
+
+		Recorder recorder = new Recorder(Integer.MAX_VALUE);
+		int replayed = journal.replay(recorder);
+		assertTrue(replayed > 0 && replayed < 200);
+		assertEquals("record-199", recorder.records.get(replayed - 1));
+	}
+
+	/**
+	 * <p>
+	 * Concurrent syncs are grouped into fewer forces.
+	 * </p>
+	 */
+	@Test
+	public void T04_sync_GroupCommit() throws Exception {
+		final int threads = 8;
+		final int records = 100;
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<Exception> error = new AtomicReference<Exception>();
+		List<Thread> writers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			Thread writer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < records; i++)
+							journal.sync(journal.append(record(i)));
+					} catch (Exception e) {
+						error.set(e);
+					}
+				}
+			};
+			writer.start();
+			writers.add(writer);
+		}
+		start.countDown();
+		for (Thread writer : writers)
+			writer.join();
+
+		assertNull(error.get());
+		assertEquals(threads * records, journal.getAppendCount());
+		assertTrue(journal.getSyncCount() <= threads * records);
+		assertEquals(threads * records,
+				journal.replay(new Recorder(Integer.MAX_VALUE)));
+	}
+
+	/**
+	 * <p>
+	 * Records must fit into a segment.
+	 * </p>
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void T10_append_TooLarge() throws Exception {
+		journal.append(new byte[4096]);
+	}
+
+	private static byte[] record(final int i) {
+		return ("record-" + i).getBytes();
+	}
+
+	private static void delete(final File file) {
+		final File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+
+	private static class Recorder implements Journal.RecordHandler {
+		final List<String> records = new ArrayList<String>();
+		final int limit;
+
+		Recorder(final int limit) {
+			this.limit = limit;
+		}
+
+		@Override
+		public boolean handle(byte[] record) {
+			if (records.size() >= limit)
+				return false;
+			records.add(new String(record));
+			return true;
+		}
+	}
+}
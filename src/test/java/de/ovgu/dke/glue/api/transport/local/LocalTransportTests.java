@@ -0,0 +1,258 @@
+package de.ovgu.dke.glue.api.transport.local;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ovgu.dke.glue.api.serialization.SerializationProvider;
+import de.ovgu.dke.glue.api.transport.FormatNegotiator;
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.PacketHandler;
+import de.ovgu.dke.glue.api.transport.PacketHandlerFactory;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.SchemaRecord;
+import de.ovgu.dke.glue.api.transport.SchemaRegistry;
+import de.ovgu.dke.glue.api.transport.Transport;
+import de.ovgu.dke.glue.api.transport.TransportException;
+
+/**
+ * <p>
+ * Tests for the in-process transport.
+ * </p>
+ * 
+ */
+public class LocalTransportTests {
+
+	private static final String SCHEMA = "glue://local-test";
+
+	private LocalTransportFactory client;
+	private LocalTransportFactory server;
+
+	@Before
+	public void setUp() throws Exception {
+		// the server echoes every packet
+		PacketHandlerFactory handlerFactory = EasyMock
+				.createMock(PacketHandlerFactory.class);
+		EasyMock.expect(handlerFactory.createPacketHandler())
+				.andReturn(new PacketHandler() {
+					@Override
+					public void handle(PacketThread packetThread,
+							Packet packet) {
+						try {
+							packetThread.send(packet.getPayload(),
+									packet.getPriority());
+						} catch (TransportException e) {
+							throw new IllegalStateException(e);
+						}
+					}
+				}).anyTimes();
+		SerializationProvider provider = EasyMock
+				.createMock(SerializationProvider.class);
+		EasyMock.expect(provider.getSerializer(SerializationProvider.JAVA))
+				.andReturn(null).anyTimes();
+		EasyMock.replay(handlerFactory, provider);
+		SchemaRegistry.getInstance().registerSchemaRecord(
+				SchemaRecord.valueOf(SCHEMA, handlerFactory, provider));
+
+		client = new LocalTransportFactory();
+		client.init(null);
+		server = new LocalTransportFactory();
+		Properties config = new Properties();
+		config.setProperty(LocalTransportFactory.NAME_PROPERTY, "echo");
+		config.setProperty(LocalTransportFactory.WAIT_PROPERTY, "yield");
+		server.init(config);
+	}
+
+	@After
+	public void tearDown() {
+		client.dispose();
+		server.dispose();
+		SchemaRegistry.getInstance().unregisterSchemaRecord(SCHEMA);
+	}
+
+	/**
+	 * <p>
+	 * Packets are passed by reference to the peer's default handler, replies
+	 * arrive at the sending thread's handler in order.
+	 * </p>
+	 */
+	@Test
+	public void T00_send_Echo() throws Exception {
+		assertEquals(URI.create("local:echo"), server.getLocalURI());
+		Transport transport = client.createTransport(server.getLocalURI());
+		assertSame(transport, client.createTransport(server.getLocalURI()));
+
+		final int count = 10000;
+		final Object payload = new Object();
+		final CountDownLatch latch = new CountDownLatch(count);
+		PacketThread pt = transport.getConnection(SCHEMA).createThread(
+				new PacketHandler() {
+					@Override
+					public void handle(PacketThread packetThread,
+							Packet packet) {
+						assertSame(payload, packet.getPayload());
+						latch.countDown();
+					}
+				});
+		for (int i = 0; i < count; i++)
+			pt.send(payload, Packet.Priority.NORMAL);
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(1, ((LocalConnection) ((LocalTransport) server
+				.createTransport(client.getLocalURI())).getConnection(SCHEMA))
+				.getThreadCount());
+	}
+
+	/**
+	 * <p>
+	 * Disposing a thread also disposes its counterpart.
+	 * </p>
+	 */
+	@Test
+	public void T01_dispose_Counterpart() throws Exception {
+		Transport transport = client.createTransport(server.getLocalURI());
+		PacketThread pt = transport.getConnection(SCHEMA).createThread(
+				PacketThread.DEFAULT_HANDLER);
+		pt.send("ping", Packet.Priority.NORMAL);
+
+		LocalConnection remote = (LocalConnection) server.createTransport(
+				client.getLocalURI()).getConnection(SCHEMA);
+		assertEquals(1, remote.getThreadCount());
+		pt.dispose();
+		assertEquals(0, remote.getThreadCount());
+		assertTrue(((LocalPacketThread) pt).isDisposed());
+	}
+
+	/**
+	 * <p>
+	 * Unknown endpoints and duplicate names are rejected, transports to a
+	 * disposed endpoint are closed.
+	 * </p>
+	 */
+	@Test
+	public void T10_endpoints() throws Exception {
+		try {
+			client.createTransport(URI.create("local:unknown"));
+			fail("Unknown endpoint must be rejected.");
+		} catch (TransportException e) {
+			// expected
+		}
+
+		LocalTransportFactory duplicate = new LocalTransportFactory();
+		Properties config = new Properties();
+		config.setProperty(LocalTransportFactory.NAME_PROPERTY, "echo");
+		try {
+			duplicate.init(config);
+			fail("Duplicate endpoint name must be rejected.");
+		} catch (TransportException e) {
+			// expected
+		}
+
+		LocalTransport transport = (LocalTransport) client
+				.createTransport(server.getLocalURI());
+		server.dispose();
+		assertEquals(Transport.Status.CLOSED, transport.getStatus());
+		try {
+			client.createTransport(URI.create("local:echo"));
+			fail("Disposed endpoint must be unknown.");
+		} catch (TransportException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * <p>
+	 * A quiesced endpoint rejects sends, the queued packets are still
+	 * delivered.
+	 * </p>
+	 */
+	@Test
+	public void T20_quiesce_Drain() throws Exception {
+		Transport transport = client.createTransport(server.getLocalURI());
+		final int count = 1000;
+		final CountDownLatch latch = new CountDownLatch(count);
+		PacketThread pt = transport.getConnection(SCHEMA).createThread(
+				new PacketHandler() {
+					@Override
+					public void handle(PacketThread packetThread,
+							Packet packet) {
+						latch.countDown();
+					}
+				});
+		for (int i = 0; i < count; i++)
+			pt.send("payload", Packet.Priority.NORMAL);
+
+		client.quiesce();
+		try {
+			pt.send("payload", Packet.Priority.NORMAL);
+			fail("Quiesced endpoint accepted a packet.");
+		} catch (TransportException e) {
+			// expected
+		}
+
+		// the echoes are queued at the client after the server has drained
+		assertTrue(server.awaitDrained(5, TimeUnit.SECONDS));
+		assertTrue(client.awaitDrained(5, TimeUnit.SECONDS));
+		assertEquals(0, latch.getCount());
+	}
+
+	/**
+	 * <p>
+	 * With negotiation, connections choose the fastest format both endpoints
+	 * support and the peer adopts the agreed format.
+	 * </p>
+	 */
+	@Test
+	public void T30_negotiate_Format() throws Exception {
+		final String schema = "glue://local-test-formats";
+		PacketHandlerFactory handlerFactory = EasyMock
+				.createMock(PacketHandlerFactory.class);
+		EasyMock.expect(handlerFactory.createPacketHandler())
+				.andReturn(PacketThread.DEFAULT_HANDLER).anyTimes();
+		SerializationProvider provider = EasyMock
+				.createMock(SerializationProvider.class);
+		EasyMock.expect(provider.availableFormats())
+				.andReturn(Arrays.asList(SerializationProvider.SERIALIZABLE,
+						SerializationProvider.BINARY)).anyTimes();
+		EasyMock.replay(handlerFactory, provider);
+		SchemaRegistry.getInstance().registerSchemaRecord(
+				SchemaRecord.valueOf(schema, handlerFactory, provider));
+
+		try {
+			client.setFormatNegotiator(new FormatNegotiator());
+			Transport transport = client.createTransport(server
+					.getLocalURI());
+
+			// the server does not negotiate, i.e. only supports JAVA
+			try {
+				transport.getConnection(schema);
+				fail("Connection without common format has been created.");
+			} catch (TransportException e) {
+				// expected
+			}
+
+			// a different preference order on the server side
+			server.setFormatNegotiator(new FormatNegotiator(Arrays
+					.asList(SerializationProvider.SERIALIZABLE)));
+			assertEquals(SerializationProvider.BINARY, transport
+					.getConnection(schema).getSerializationFormat());
+			assertEquals(SerializationProvider.BINARY, client
+					.getFormatNegotiator().getCachedFormat(
+							server.getLocalURI(), schema));
+			assertEquals(SerializationProvider.BINARY, server
+					.createTransport(client.getLocalURI())
+					.getConnection(schema).getSerializationFormat());
+		} finally {
+			SchemaRegistry.getInstance().unregisterSchemaRecord(schema);
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package de.ovgu.dke.glue.api.transport.local;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+/**
+ * <p>
+ * Test suite for the in-process transport, see the transport package test
+ * suite for the naming conventions.
+ * </p>
+ * 
+ */
+@RunWith(Suite.class)
+@SuiteClasses({ LocalTransportTests.class })
+public class TestSuite {
+
+}
@@ -0,0 +1,348 @@
+package de.ovgu.dke.glue.api.transport.mux;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ovgu.dke.glue.api.serialization.SerializationProvider;
+import de.ovgu.dke.glue.api.transport.Connection;
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.PacketHandler;
+import de.ovgu.dke.glue.api.transport.PacketHandlerFactory;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.SchemaRecord;
+import de.ovgu.dke.glue.api.transport.SchemaRegistry;
+import de.ovgu.dke.glue.api.transport.Transport;
+import de.ovgu.dke.glue.api.transport.TransportException;
+import de.ovgu.dke.glue.api.transport.flow.FlowControlPolicy;
+
+/**
+ * <p>
+ * Tests for {@link Multiplexer} and {@link MuxFrame}.
+ * </p>
+ * 
+ */
+public class MultiplexerTests {
+
+	private static final String SCHEMA = "glue://mux-test";
+
+	private RecordingHandler defaultHandler;
+	private Connection connection;
+
+	@After
+	public void tearDown() {
+		SchemaRegistry.getInstance().unregisterSchemaRecord(SCHEMA);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		defaultHandler = new RecordingHandler();
+
+		PacketHandlerFactory handlerFactory = EasyMock
+				.createMock(PacketHandlerFactory.class);
+		EasyMock.expect(handlerFactory.createPacketHandler())
+				.andReturn(defaultHandler).anyTimes();
+		SerializationProvider provider = EasyMock
+				.createMock(SerializationProvider.class);
+		EasyMock.expect(provider.getSerializer(SerializationProvider.BINARY))
+				.andReturn(null).anyTimes();
+		EasyMock.replay(handlerFactory, provider);
+		SchemaRegistry.getInstance().registerSchemaRecord(
+				SchemaRecord.valueOf(SCHEMA, handlerFactory, provider));
+
+		connection = EasyMock.createMock(Connection.class);
+		EasyMock.expect(connection.getConnectionSchema()).andReturn(SCHEMA)
+				.anyTimes();
+		EasyMock.expect(connection.getSerializationFormat())
+				.andReturn(SerializationProvider.BINARY).anyTimes();
+		EasyMock.expect(connection.getTransport())
+				.andReturn(EasyMock.createMock(Transport.class)).anyTimes();
+		EasyMock.replay(connection);
+	}
+
+	/**
+	 * <p>
+	 * Frames survive an encode/decode round trip, incomplete frames are not
+	 * consumed.
+	 * </p>
+	 */
+	@Test
+	public void T00_frame_RoundTrip() {
+		byte[] payload = new byte[300];
+		payload[299] = 42;
+		ByteBuffer buf = MuxFrame.encode(100000, MuxFrame.DATA,
+				Packet.Priority.HIGH, payload);
+
+		ByteBuffer partial = buf.duplicate();
+		partial.limit(10);
+		assertNull(MuxFrame.decode(partial));
+		assertEquals(0, partial.position());
+
+		MuxFrame frame = MuxFrame.decode(buf);
+		assertEquals(100000, frame.getThreadId());
+		assertEquals(MuxFrame.DATA, frame.getType());
+		assertEquals(Packet.Priority.HIGH, frame.getPriority());
+		assertEquals(300, frame.getPayload().remaining());
+		assertEquals(42, frame.getPayload().get(299));
+		assertFalse(buf.hasRemaining());
+	}
+
+	/**
+	 * <p>
+	 * Lengths which do not fit into an {@code int} or exceed the maximum
+	 * frame size are rejected instead of waiting for more data.
+	 * </p>
+	 */
+	@Test
+	public void T01_frame_InvalidLength() {
+		// thread 1, data frame, length 2^31 as five byte variable integer
+		ByteBuffer buf = ByteBuffer.wrap(new byte[] { 1, 0, (byte) 0x80,
+				(byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08 });
+		try {
+			MuxFrame.decode(buf);
+			fail("Negative length must be rejected.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		buf = MuxFrame.encode(1, MuxFrame.DATA, Packet.Priority.NORMAL,
+				new byte[300]);
+		ByteBuffer partial = buf.duplicate();
+		partial.limit(10);
+		try {
+			MuxFrame.decode(partial, 100);
+			fail("Oversized frame must be rejected.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertNotNull(MuxFrame.decode(buf, 304));
+	}
+
+	/**
+	 * <p>
+	 * Packets from many threads arrive at the peer on the same thread ids,
+	 * unknown ids use the default handler.
+	 * </p>
+	 */
+	@Test
+	public void T10_send_Loopback() throws TransportException {
+		final List<ByteBuffer> wire = new ArrayList<ByteBuffer>();
+		Multiplexer local = new Multiplexer(connection, new MuxLink() {
+			@Override
+			public void write(ByteBuffer frame) {
+				wire.add(frame);
+			}
+		}, true);
+		Multiplexer remote = new Multiplexer(connection, new MuxLink() {
+			@Override
+			public void write(ByteBuffer frame) {
+				// ignore replies
+			}
+		}, false);
+
+		for (int i = 0; i < 100; i++)
+			local.createThread(new RecordingHandler()).send(
+					new byte[] { (byte) i }, Packet.Priority.NORMAL);
+		assertEquals(100, wire.size());
+
+		for (ByteBuffer frame : wire)
+			remote.receive(frame);
+
+		assertEquals(100, remote.getThreadCount());
+		assertEquals(100, defaultHandler.packets.size());
+		assertEquals(1, remote.getThread(1).getId());
+	}
+
+	/**
+	 * <p>
+	 * While another thread writes, frames of different threads are
+	 * interleaved round-robin.
+	 * </p>
+	 */
+	@Test
+	public void T20_flush_FairInterleaving() throws TransportException {
+		final List<Integer> order = new ArrayList<Integer>();
+		final Multiplexer[] mux = new Multiplexer[1];
+		final MuxPacketThread[] threads = new MuxPacketThread[2];
+
+		mux[0] = new Multiplexer(connection, new MuxLink() {
+			boolean burst = false;
+
+			@Override
+			public void write(ByteBuffer frame) throws TransportException {
+				order.add(Integer.valueOf(MuxFrame.decode(frame).getThreadId()));
+				if (!burst) {
+					burst = true;
+					// queue frames while the link is busy
+					for (int i = 0; i < 3; i++) {
+						threads[0].send(new byte[0], Packet.Priority.NORMAL);
+						threads[1].send(new byte[0], Packet.Priority.NORMAL);
+					}
+				}
+			}
+		}, true);
+		threads[0] = mux[0].createThread(new RecordingHandler());
+		threads[1] = mux[0].createThread(new RecordingHandler());
+
+		threads[1].send(new byte[0], Packet.Priority.NORMAL);
+
+		assertEquals(7, order.size());
+		for (int i = 1; i < order.size(); i++)
+			assertFalse("Thread was not interleaved.",
+					order.get(i).equals(order.get(i - 1)));
+	}
+
+	/**
+	 * <p>
+	 * Disposing a thread closes it on the peer as well.
+	 * </p>
+	 */
+	@Test
+	public void T30_dispose_Close() throws TransportException {
+		final Multiplexer remote = new Multiplexer(connection, new MuxLink() {
+			@Override
+			public void write(ByteBuffer frame) {
+			}
+		}, false);
+		Multiplexer local = new Multiplexer(connection, new MuxLink() {
+			@Override
+			public void write(ByteBuffer frame) throws TransportException {
+				remote.receive(frame);
+			}
+		}, true);
+
+		PacketThread pt = local.createThread(new RecordingHandler());
+		pt.send(new byte[] { 1 }, Packet.Priority.NORMAL);
+		assertEquals(1, remote.getThreadCount());
+
+		pt.dispose();
+		assertEquals(0, local.getThreadCount());
+		assertEquals(0, remote.getThreadCount());
+	}
+
+	/**
+	 * <p>
+	 * Data frames in flight when a thread is closed do not re-open it, the
+	 * tombstone is removed when the peer acknowledges the close.
+	 * </p>
+	 */
+	@Test
+	public void T31_close_StaleData() throws TransportException {
+		final List<ByteBuffer> toLocal = new ArrayList<ByteBuffer>();
+		final List<ByteBuffer> toRemote = new ArrayList<ByteBuffer>();
+		Multiplexer remote = new Multiplexer(connection, new MuxLink() {
+			@Override
+			public void write(ByteBuffer frame) {
+				toLocal.add(frame);
+			}
+		}, false);
+		Multiplexer local = new Multiplexer(connection, new MuxLink() {
+			@Override
+			public void write(ByteBuffer frame) {
+				toRemote.add(frame);
+			}
+		}, true);
+
+		// the remote side opens a thread and sends twice
+		MuxPacketThread pt = remote.createThread(new RecordingHandler());
+		pt.send(new byte[] { 1 }, Packet.Priority.NORMAL);
+		pt.send(new byte[] { 2 }, Packet.Priority.NORMAL);
+		local.receive(toLocal.remove(0));
+		assertEquals(1, local.getThreadCount());
+
+		// closed locally while the second frame is in flight
+		local.getThread(2).dispose();
+		local.receive(toLocal.remove(0));
+		assertEquals(0, local.getThreadCount());
+		assertEquals(1, local.getStaleFrames());
+		assertEquals(1, local.getTombstoneCount());
+
+		// the peer acknowledges, the close frame is last on the link
+		remote.receive(toRemote.remove(toRemote.size() - 1));
+		assertTrue(pt.isDisposed());
+		local.receive(toLocal.remove(toLocal.size() - 1));
+		assertEquals(0, local.getTombstoneCount());
+
+		// unknown ids of the own parity are never opened
+		remote.receive(MuxFrame.encode(4, MuxFrame.DATA,
+				Packet.Priority.NORMAL, new byte[] { 3 }));
+		assertEquals(0, remote.getThreadCount());
+		assertEquals(1, remote.getStaleFrames());
+	}
+
+	/**
+	 * <p>
+	 * Without credit, frames are held back until the peer grants credit.
+	 * </p>
+	 */
+	@Test
+	public void T40_flowControl_Queue() throws TransportException {
+		final List<ByteBuffer> wire = new ArrayList<ByteBuffer>();
+		final Multiplexer[] local = new Multiplexer[1];
+		Multiplexer remote = new Multiplexer(connection, new MuxLink() {
+			@Override
+			public void write(ByteBuffer frame) throws TransportException {
+				local[0].receive(frame);
+			}
+		}, false, 8, 10, FlowControlPolicy.QUEUE);
+		local[0] = new Multiplexer(connection, new MuxLink() {
+			@Override
+			public void write(ByteBuffer frame) {
+				wire.add(frame);
+			}
+		}, true, 8, 10, FlowControlPolicy.QUEUE);
+
+		MuxPacketThread pt = local[0].createThread(new RecordingHandler());
+		for (int i = 0; i < 3; i++)
+			pt.send(new byte[8], Packet.Priority.NORMAL);
+
+		assertEquals("Only one frame fits into the window.", 1, wire.size());
+		assertEquals(2, pt.getQueuedFrames());
+		assertTrue(pt.getSendWindow().isStalled());
+
+		// the remote side processes the frame and grants credit
+		remote.receive(wire.get(0));
+		assertEquals(2, wire.size());
+		assertEquals(2, pt.getSendWindow().getStallCount());
+
+		remote.receive(wire.get(1));
+		assertEquals(3, wire.size());
+		assertEquals(0, pt.getQueuedFrames());
+		assertEquals(2, remote.getThread(1).getReceiveWindow()
+				.getGrantCount());
+	}
+
+	/**
+	 * <p>
+	 * With the fail-fast policy, sending without credit is rejected.
+	 * </p>
+	 */
+	@Test(expected = TransportException.class)
+	public void T41_flowControl_FailFast() throws TransportException {
+		Multiplexer local = new Multiplexer(connection, new MuxLink() {
+			@Override
+			public void write(ByteBuffer frame) {
+			}
+		}, true, 8, 10, FlowControlPolicy.FAIL_FAST);
+
+		MuxPacketThread pt = local.createThread(new RecordingHandler());
+		pt.send(new byte[8], Packet.Priority.NORMAL);
+		pt.send(new byte[8], Packet.Priority.NORMAL);
+	}
+
+	static class RecordingHandler implements PacketHandler {
+		final List<Packet> packets = new ArrayList<Packet>();
+
+		@Override
+		public void handle(PacketThread packetThread, Packet packet) {
+			packets.add(packet);
+		}
+	}
+}
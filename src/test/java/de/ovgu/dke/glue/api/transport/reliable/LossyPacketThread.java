@@ -0,0 +1,163 @@
+package de.ovgu.dke.glue.api.transport.reliable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+
+import de.ovgu.dke.glue.api.serialization.SerializationException;
+import de.ovgu.dke.glue.api.serialization.SerializationProvider;
+import de.ovgu.dke.glue.api.transport.Connection;
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.PacketHandler;
+import de.ovgu.dke.glue.api.transport.PacketHandlerFactory;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.SchemaRecord;
+import de.ovgu.dke.glue.api.transport.SchemaRegistry;
+import de.ovgu.dke.glue.api.transport.Transport;
+
+/**
+ * <p>
+ * One direction of a simulated link for the reliable session tests: frames
+ * are dropped at random or on request, the others are delivered
+ * asynchronously and in order to the peer's handler.
+ * </p>
+ * 
+ */
+class LossyPacketThread extends PacketThread {
+	static final String SCHEMA = "glue://reliable-test";
+
+	private final ExecutorService executor;
+	private final Random random;
+	private final double loss;
+
+	// guarded by this
+	private final Set<Long> dropOnce = new HashSet<Long>();
+	private final List<Long> sequences = new ArrayList<Long>();
+	private int dropped = 0;
+
+	private volatile PacketThread peer;
+	private volatile PacketHandler peerHandler;
+
+	static void registerSchema() throws SerializationException {
+		PacketHandlerFactory handlerFactory = EasyMock
+				.createMock(PacketHandlerFactory.class);
+		SerializationProvider provider = EasyMock
+				.createMock(SerializationProvider.class);
+		EasyMock.expect(provider.getSerializer(SerializationProvider.JAVA))
+				.andReturn(null).anyTimes();
+		EasyMock.replay(handlerFactory, provider);
+		SchemaRegistry.getInstance().registerSchemaRecord(
+				SchemaRecord.valueOf(SCHEMA, handlerFactory, provider));
+	}
+
+	static void unregisterSchema() {
+		SchemaRegistry.getInstance().unregisterSchemaRecord(SCHEMA);
+	}
+
+	/**
+	 * Connect two link directions, the handlers receive the frames sent by
+	 * the other side.
+	 */
+	static void connect(final LossyPacketThread a, final PacketHandler ha,
+			final LossyPacketThread b, final PacketHandler hb) {
+		a.peer = b;
+		a.peerHandler = hb;
+		b.peer = a;
+		b.peerHandler = ha;
+	}
+
+	private static Connection connection() {
+		Connection connection = EasyMock.createMock(Connection.class);
+		EasyMock.expect(connection.getTransport())
+				.andReturn(EasyMock.createMock(Transport.class)).anyTimes();
+		EasyMock.expect(connection.getConnectionSchema()).andReturn(SCHEMA)
+				.anyTimes();
+		EasyMock.expect(connection.getSerializationFormat())
+				.andReturn(SerializationProvider.JAVA).anyTimes();
+		EasyMock.replay(connection);
+		return connection;
+	}
+
+	LossyPacketThread(final double loss, final long seed) {
+		super(connection());
+		this.executor = Executors.newSingleThreadExecutor();
+		this.random = new Random(seed);
+		this.loss = loss;
+	}
+
+	synchronized void dropOnce(final long sequence) {
+		dropOnce.add(Long.valueOf(sequence));
+	}
+
+	/**
+	 * @return the sequence numbers of all data frames sent, including the
+	 *         dropped ones
+	 */
+	synchronized List<Long> getSequences() {
+		return new ArrayList<Long>(sequences);
+	}
+
+	synchronized int getDropped() {
+		return dropped;
+	}
+
+	@Override
+	protected void sendSerializedPayload(final Object payload,
+			final Packet.Priority priority) {
+		synchronized (this) {
+			if (payload instanceof ReliableFrame
+					&& !((ReliableFrame) payload).isAck()) {
+				final Long seq = Long.valueOf(((ReliableFrame) payload)
+						.getSequence());
+				sequences.add(seq);
+				if (dropOnce.remove(seq)) {
+					dropped++;
+					return;
+				}
+			}
+			if (loss > 0 && random.nextDouble() < loss) {
+				dropped++;
+				return;
+			}
+		}
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				peerHandler.handle(peer, new Packet() {
+					@Override
+					public Object getPayload() {
+						return payload;
+					}
+
+					@Override
+					public Priority getPriority() {
+						return priority;
+					}
+
+					@Override
+					public Object getAttribute(String key) {
+						return null;
+					}
+				});
+			}
+		});
+	}
+
+	@Override
+	public void dispose() {
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
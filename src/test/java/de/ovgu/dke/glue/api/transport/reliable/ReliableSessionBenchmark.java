@@ -0,0 +1,88 @@
+package de.ovgu.dke.glue.api.transport.reliable;
+
+import java.util.concurrent.TimeUnit;
+
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.PacketHandler;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.util.HashedWheelTimer;
+
+/**
+ * <p>
+ * Throughput of {@link ReliableSession} over a simulated link with random
+ * loss in both directions. Not part of the test suite, run the main method
+ * with the number of packets per run:
+ * </p>
+ * 
+ * <pre>
+ * java -cp target/classes:target/test-classes de.ovgu.dke.glue.api.transport.reliable.ReliableSessionBenchmark [packets]
+ * </pre>
+ * 
+ */
+public class ReliableSessionBenchmark {
+	private static final double[] LOSS = { 0, 0.01, 0.05, 0.1, 0.2 };
+
+	private static final int ROUNDS = 3;
+
+	public static void main(String[] args) throws Exception {
+		final int packets = args.length > 0 ? Integer.parseInt(args[0])
+				: 200000;
+		System.out.println("Packets: " + packets + ", window: "
+				+ ReliableSession.DEFAULT_WINDOW);
+
+		LossyPacketThread.registerSchema();
+		final HashedWheelTimer timer = new HashedWheelTimer(1,
+				TimeUnit.MILLISECONDS, 256, "benchmark-timer");
+		try {
+			for (int round = 0; round < ROUNDS; round++)
+				for (double loss : LOSS)
+					run(timer, round, loss, packets);
+		} finally {
+			timer.stop();
+			LossyPacketThread.unregisterSchema();
+		}
+	}
+
+	private static void run(final HashedWheelTimer timer, final int round,
+			final double loss, final int packets) throws Exception {
+		final LossyPacketThread forward = new LossyPacketThread(loss, round);
+		final LossyPacketThread backward = new LossyPacketThread(loss,
+				-round - 1);
+		final PacketHandler discard = new PacketHandler() {
+			@Override
+			public void handle(PacketThread packetThread, Packet packet) {
+				// only counted
+			}
+		};
+		final ReliableSession sender = new ReliableSession(discard, timer,
+				ReliableSession.DEFAULT_WINDOW, 10, TimeUnit.MILLISECONDS);
+		final ReliableSession receiver = new ReliableSession(discard, timer,
+				ReliableSession.DEFAULT_WINDOW, 10, TimeUnit.MILLISECONDS);
+		LossyPacketThread.connect(forward, sender, backward, receiver);
+		sender.bind(forward);
+
+		final Integer payload = Integer.valueOf(42);
+		final long t0 = System.nanoTime();
+		for (int i = 0; i < packets; i++) {
+			// keep the backlog small, as a flow controlled sender would
+			while (sender.getBacklogCount() > ReliableSession.DEFAULT_WINDOW)
+				Thread.yield();
+			sender.send(payload, Packet.Priority.NORMAL);
+		}
+		while (receiver.getDeliveredCount() < packets)
+			Thread.sleep(1);
+		final long elapsed = System.nanoTime() - t0;
+
+		System.out.println(String.format(
+				"  loss %4.1f%% round %d: %10.0f packets/s, "
+						+ "%5.1f%% retransmitted, %d duplicates",
+				loss * 100, round, packets * 1e9 / elapsed,
+				sender.getRetransmittedCount() * 100.0 / packets,
+				receiver.getDuplicateCount()));
+
+		sender.close();
+		receiver.close();
+		forward.dispose();
+		backward.dispose();
+	}
+}
@@ -0,0 +1,254 @@
+package de.ovgu.dke.glue.api.transport.reliable;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.PacketHandler;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.TransportException;
+import de.ovgu.dke.glue.api.util.HashedWheelTimer;
+
+/**
+ * <p>
+ * Tests for {@link ReliableSession}, using a simulated lossy link.
+ * </p>
+ * 
+ */
+public class ReliableSessionTests {
+
+	private HashedWheelTimer timer;
+
+	private LossyPacketThread forward;
+	private LossyPacketThread backward;
+
+	private ReliableSession sender;
+	private ReliableSession receiver;
+	private Recorder recorder;
+
+	@Before
+	public void setUp() throws Exception {
+		LossyPacketThread.registerSchema();
+		timer = new HashedWheelTimer(5, TimeUnit.MILLISECONDS, 64,
+				"reliable-test-timer");
+	}
+
+	@After
+	public void tearDown() {
+		if (sender != null)
+			sender.close();
+		if (receiver != null)
+			receiver.close();
+		if (forward != null)
+			forward.dispose();
+		if (backward != null)
+			backward.dispose();
+		timer.stop();
+		LossyPacketThread.unregisterSchema();
+	}
+
+	private void link(final double loss, final int window) {
+		forward = new LossyPacketThread(loss, 1);
+		backward = new LossyPacketThread(loss, 2);
+		recorder = new Recorder();
+		sender = new ReliableSession(new Recorder(), timer, window, 20,
+				TimeUnit.MILLISECONDS);
+		receiver = new ReliableSession(recorder, timer, window, 20,
+				TimeUnit.MILLISECONDS);
+		LossyPacketThread.connect(forward, sender, backward, receiver);
+		sender.bind(forward);
+	}
+
+	/**
+	 * <p>
+	 * Without loss all packets are delivered in order and nothing is
+	 * retransmitted.
+	 * </p>
+	 */
+	@Test
+	public void T00_send_InOrder() throws Exception {
+		link(0, ReliableSession.DEFAULT_WINDOW);
+		final int count = 1000;
+		for (int i = 0; i < count; i++)
+			sender.send(Integer.valueOf(i), Packet.Priority.NORMAL);
+
+		recorder.await(count);
+		assertInOrder(count);
+		awaitAcknowledged();
+		assertEquals(0, sender.getRetransmittedCount());
+		assertEquals(count, sender.getSentCount());
+		assertTrue(sender.getSmoothedRtt(TimeUnit.NANOSECONDS) > 0);
+	}
+
+	/**
+	 * <p>
+	 * With random loss of data frames and acknowledgements every packet is
+	 * delivered exactly once and in order.
+	 * </p>
+	 */
+	@Test
+	public void T01_send_Loss() throws Exception {
+		link(0.1, 64);
+		final int count = 2000;
+		for (int i = 0; i < count; i++)
+			sender.send(Integer.valueOf(i), Packet.Priority.NORMAL);
+
+		recorder.await(count);
+		assertInOrder(count);
+		awaitAcknowledged();
+		assertTrue(sender.getRetransmittedCount() > 0);
+		assertEquals(count, receiver.getDeliveredCount());
+	}
+
+	/**
+	 * <p>
+	 * A single lost frame is retransmitted, the frames after it have been
+	 * acknowledged selectively and are not sent again.
+	 * </p>
+	 */
+	@Test
+	public void T02_send_SelectiveRetransmission() throws Exception {
+		link(0, ReliableSession.DEFAULT_WINDOW);
+		forward.dropOnce(3);
+		final int count = 10;
+		for (int i = 0; i < count; i++)
+			sender.send(Integer.valueOf(i), Packet.Priority.NORMAL);
+
+		recorder.await(count);
+		assertInOrder(count);
+		awaitAcknowledged();
+
+		assertTrue(sender.getRetransmittedCount() > 0);
+		Set<Long> seen = new HashSet<Long>();
+		for (Long seq : forward.getSequences())
+			if (!seen.add(seq))
+				assertEquals(Long.valueOf(3), seq);
+	}
+
+	/**
+	 * <p>
+	 * At most a window of packets is unacknowledged, the others wait in the
+	 * backlog. A closed session rejects new packets.
+	 * </p>
+	 */
+	@Test
+	public void T03_send_Window() throws Exception {
+		link(1, 4);
+		for (int i = 0; i < 10; i++)
+			sender.send(Integer.valueOf(i), Packet.Priority.NORMAL);
+
+		assertEquals(4, sender.getUnacknowledgedCount());
+		assertEquals(6, sender.getBacklogCount());
+
+		sender.close();
+		assertEquals(0, sender.getUnacknowledgedCount());
+		assertEquals(0, sender.getBacklogCount());
+		try {
+			sender.send("closed", Packet.Priority.NORMAL);
+			fail("Closed session must reject packets.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * <p>
+	 * A session is bound to a single packet thread.
+	 * </p>
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void T10_bind_Other() {
+		link(0, ReliableSession.DEFAULT_WINDOW);
+		sender.bind(backward);
+	}
+
+	/**
+	 * <p>
+	 * Duplicate and early frames are buffered or dropped, the application
+	 * gets every packet once and in order.
+	 * </p>
+	 */
+	@Test
+	public void T11_handle_Duplicate() throws TransportException {
+		link(0, ReliableSession.DEFAULT_WINDOW);
+		receiver.handle(backward, frame(2, "b"));
+		receiver.handle(backward, frame(1, "a"));
+		receiver.handle(backward, frame(1, "a"));
+		receiver.handle(backward, frame(2, "b"));
+
+		assertEquals(2, receiver.getDeliveredCount());
+		assertEquals(2, receiver.getDuplicateCount());
+		assertEquals("a", recorder.payloads.get(0));
+		assertEquals("b", recorder.payloads.get(1));
+		assertEquals(Long.valueOf(2), recorder.sequences.get(1));
+	}
+
+	private void assertInOrder(final int count) {
+		synchronized (recorder) {
+			assertEquals(count, recorder.payloads.size());
+			for (int i = 0; i < count; i++) {
+				assertEquals(Integer.valueOf(i), recorder.payloads.get(i));
+				assertEquals(Long.valueOf(i + 1), recorder.sequences.get(i));
+			}
+		}
+	}
+
+	private void awaitAcknowledged() throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (sender.getUnacknowledgedCount() > 0
+				&& System.currentTimeMillis() < deadline)
+			Thread.sleep(5);
+		assertEquals(0, sender.getUnacknowledgedCount());
+	}
+
+	private static Packet frame(final long seq, final Object payload) {
+		final ReliableFrame frame = ReliableFrame.data(seq, payload);
+		return new Packet() {
+			@Override
+			public Object getPayload() {
+				return frame;
+			}
+
+			@Override
+			public Priority getPriority() {
+				return Priority.NORMAL;
+			}
+
+			@Override
+			public Object getAttribute(String key) {
+				return null;
+			}
+		};
+	}
+
+	private static class Recorder implements PacketHandler {
+		final List<Object> payloads = new ArrayList<Object>();
+		final List<Long> sequences = new ArrayList<Long>();
+
+		@Override
+		public synchronized void handle(PacketThread packetThread,
+				Packet packet) {
+			payloads.add(packet.getPayload());
+			sequences.add((Long) packet.getAttribute(ReliableSession.SEQUENCE
+					.getName()));
+			notifyAll();
+		}
+
+		synchronized void await(final int count) throws InterruptedException {
+			final long deadline = System.currentTimeMillis() + 10000;
+			long remaining;
+			while (payloads.size() < count
+					&& (remaining = deadline - System.currentTimeMillis()) > 0)
+				wait(remaining);
+		}
+	}
+}
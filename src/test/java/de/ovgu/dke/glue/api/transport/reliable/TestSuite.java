@@ -0,0 +1,18 @@
+package de.ovgu.dke.glue.api.transport.reliable;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+/**
+ * <p>
+ * Test suite for the reliable package, see the transport package test suite
+ * for the naming conventions.
+ * </p>
+ * 
+ */
+@RunWith(Suite.class)
+@SuiteClasses({ ReliableSessionTests.class })
+public class TestSuite {
+
+}
@@ -0,0 +1,198 @@
+package de.ovgu.dke.glue.api.transport.routing;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ovgu.dke.glue.api.serialization.SerializationException;
+import de.ovgu.dke.glue.api.serialization.SerializationProvider;
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.PacketHandler;
+import de.ovgu.dke.glue.api.transport.PacketHandlerFactory;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.SchemaRecord;
+import de.ovgu.dke.glue.api.transport.SchemaRegistry;
+import de.ovgu.dke.glue.api.transport.local.LocalTransportFactory;
+
+/**
+ * <p>
+ * Tests for {@link Router} and {@link RoutingCodec}, using three in-process
+ * endpoints a, b and c.
+ * </p>
+ * 
+ */
+public class RouterTests {
+
+	private static final String SCHEMA = "glue://routing-test";
+
+	private final BlockingQueue<Packet> received = new LinkedBlockingQueue<Packet>();
+
+	private LocalTransportFactory[] factories;
+	private Router a;
+	private Router b;
+	private Router c;
+
+	@Before
+	public void setUp() throws Exception {
+		PacketHandlerFactory handlerFactory = EasyMock
+				.createMock(PacketHandlerFactory.class);
+		EasyMock.expect(handlerFactory.createPacketHandler())
+				.andReturn(new PacketHandler() {
+					@Override
+					public void handle(PacketThread packetThread,
+							Packet packet) {
+						received.add(packet);
+					}
+				}).anyTimes();
+		SerializationProvider provider = EasyMock
+				.createMock(SerializationProvider.class);
+		EasyMock.expect(provider.getSerializer(SerializationProvider.JAVA))
+				.andReturn(null).anyTimes();
+		EasyMock.replay(handlerFactory, provider);
+		SchemaRegistry.getInstance().registerSchemaRecord(
+				SchemaRecord.valueOf(SCHEMA, handlerFactory, provider));
+
+		factories = new LocalTransportFactory[3];
+		Router[] routers = new Router[3];
+		for (int i = 0; i < 3; i++) {
+			factories[i] = new LocalTransportFactory();
+			Properties config = new Properties();
+			config.setProperty(LocalTransportFactory.NAME_PROPERTY, "route-"
+					+ (char) ('a' + i));
+			factories[i].init(config);
+			routers[i] = new Router(factories[i],
+					factories[i].getLocalURI(), new RoutingTable());
+			routers[i].register();
+		}
+		a = routers[0];
+		b = routers[1];
+		c = routers[2];
+	}
+
+	@After
+	public void tearDown() {
+		for (Router router : new Router[] { a, b, c })
+			router.dispose();
+		for (LocalTransportFactory factory : factories)
+			factory.dispose();
+		SchemaRegistry.getInstance().unregisterSchemaRecord(SCHEMA);
+		SchemaRegistry.getInstance().unregisterSchemaRecord(
+				Router.ROUTE_SCHEMA);
+	}
+
+	/**
+	 * <p>
+	 * A packet to c is relayed by b and delivered to the schema handler at c
+	 * with the source attribute; the pay-load is passed through unchanged.
+	 * </p>
+	 */
+	@Test
+	public void T00_send_Relay() throws Exception {
+		a.getRoutingTable().addRoute(c.getLocalURI().toString(),
+				b.getLocalURI());
+
+		Object payload = new Object();
+		a.send(c.getLocalURI(), SCHEMA, payload, Packet.Priority.HIGH);
+
+		Packet packet = received.poll(5, TimeUnit.SECONDS);
+		assertNotNull(packet);
+		assertSame(payload, packet.getPayload());
+		assertEquals(Packet.Priority.HIGH, packet.getPriority());
+		assertEquals(a.getLocalURI(), Router.SOURCE.get(packet));
+		assertEquals(1, b.getForwardedCount());
+		assertEquals(0, b.getDeliveredCount());
+		assertEquals(1, c.getDeliveredCount());
+	}
+
+	/**
+	 * <p>
+	 * Resolutions are cached until the routing table or the transport status
+	 * changes.
+	 * </p>
+	 */
+	@Test
+	public void T01_resolve_Cache() throws Exception {
+		a.send(c.getLocalURI(), SCHEMA, "direct", Packet.Priority.NORMAL);
+		assertNotNull(received.poll(5, TimeUnit.SECONDS));
+		assertEquals(0, b.getForwardedCount());
+		assertEquals(1, a.getCachedRouteCount());
+
+		a.getRoutingTable().addRoute(c.getLocalURI().toString(),
+				b.getLocalURI());
+		assertNotSame(a.resolveTransport(c.getLocalURI()),
+				factories[0].createTransport(c.getLocalURI()));
+
+		// closing the transport to b invalidates the route via b
+		factories[1].dispose();
+		assertEquals(0, a.getCachedRouteCount());
+	}
+
+	/**
+	 * <p>
+	 * Packets in a routing loop are dropped when their time to live is
+	 * exceeded.
+	 * </p>
+	 */
+	@Test
+	public void T02_send_Loop() throws Exception {
+		URI unknown = URI.create("local:route-x");
+		a.getRoutingTable().addRoute(unknown.toString(), b.getLocalURI());
+		b.getRoutingTable().addRoute(unknown.toString(), a.getLocalURI());
+
+		a.send(unknown, SCHEMA, "loop", Packet.Priority.NORMAL);
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (a.getDroppedCount() + b.getDroppedCount() == 0
+				&& System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+		assertEquals(1, a.getDroppedCount() + b.getDroppedCount());
+		assertEquals(Router.DEFAULT_TTL - 1,
+				a.getForwardedCount() + b.getForwardedCount());
+	}
+
+	/**
+	 * <p>
+	 * The binary codec keeps the header and copies the pay-load bytes.
+	 * </p>
+	 */
+	@Test
+	public void T10_codec() throws Exception {
+		RoutingCodec codec = new RoutingCodec();
+		assertNull(codec.getSerializer(SerializationProvider.JAVA));
+
+		RoutedPacket packet = new RoutedPacket(a.getLocalURI(),
+				c.getLocalURI(), b.getLocalURI(), SCHEMA,
+				SerializationProvider.BINARY, 7, new byte[] { 1, 2, 3 });
+		RoutedPacket decoded = (RoutedPacket) codec.deserialize(codec
+				.getSerializer(SerializationProvider.BINARY).serialize(packet));
+
+		assertEquals(packet.getSource(), decoded.getSource());
+		assertEquals(packet.getDestination(), decoded.getDestination());
+		assertEquals(packet.getNextHop(), decoded.getNextHop());
+		assertEquals(SCHEMA, decoded.getSchema());
+		assertEquals(SerializationProvider.BINARY, decoded.getFormat());
+		assertEquals(7, decoded.getTtl());
+		assertArrayEquals(new byte[] { 1, 2, 3 },
+				(byte[]) decoded.getPayload());
+	}
+
+	/**
+	 * <p>
+	 * A pay-load which is not a byte array is rejected as invalid routing
+	 * header.
+	 * </p>
+	 */
+	@Test(expected = SerializationException.class)
+	public void T11_codec_InvalidPayload() throws Exception {
+		new RoutingCodec().deserialize("not a routed packet");
+	}
+}
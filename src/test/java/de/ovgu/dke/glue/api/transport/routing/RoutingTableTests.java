@@ -0,0 +1,80 @@
+package de.ovgu.dke.glue.api.transport.routing;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests for {@link RoutingTable} and {@link RouteTrie}.
+ * </p>
+ * 
+ */
+public class RoutingTableTests {
+
+	private static final URI GATEWAY = URI.create("glue://gateway");
+	private static final URI SITE = URI.create("glue://site-b");
+	private static final URI HOST = URI.create("glue://site-b/host");
+	private static final URI DEFAULT = URI.create("glue://default");
+
+	/**
+	 * <p>
+	 * The longest prefix wins, prefixes only match at URI boundaries.
+	 * </p>
+	 */
+	@Test
+	public void T00_lookup_LongestPrefix() {
+		RoutingTable table = new RoutingTable();
+		table.addRoute("glue://site-b", GATEWAY);
+		table.addRoute("glue://site-b/host", SITE);
+		table.addRoute("local:", HOST);
+
+		assertEquals(GATEWAY, table.lookup(URI.create("glue://site-b")));
+		assertEquals(GATEWAY, table.lookup(URI.create("glue://site-b/other")));
+		assertEquals(SITE, table.lookup(URI.create("glue://site-b/host")));
+		assertEquals(SITE, table.lookup(URI.create("glue://site-b/host/x")));
+		assertEquals(GATEWAY, table.lookup(URI.create("glue://site-b/hostile")));
+		assertEquals(HOST, table.lookup(URI.create("local:echo")));
+		assertNull(table.lookup(URI.create("glue://site-bb")));
+		assertNull(table.lookup(URI.create("glue://other")));
+	}
+
+	/**
+	 * <p>
+	 * The empty prefix is the default route.
+	 * </p>
+	 */
+	@Test
+	public void T01_lookup_Default() {
+		RoutingTable table = new RoutingTable();
+		table.addRoute("", DEFAULT);
+		table.addRoute("glue://site-b", GATEWAY);
+
+		assertEquals(DEFAULT, table.lookup(URI.create("glue://other")));
+		assertEquals(GATEWAY, table.lookup(URI.create("glue://site-b/x")));
+	}
+
+	/**
+	 * <p>
+	 * Every change increments the version and is visible to lookups.
+	 * </p>
+	 */
+	@Test
+	public void T10_version() {
+		RoutingTable table = new RoutingTable();
+		assertEquals(0, table.getVersion());
+		assertNull(table.addRoute("glue://site-b", GATEWAY));
+		assertEquals(GATEWAY, table.addRoute("glue://site-b", SITE));
+		assertEquals(2, table.getVersion());
+		assertEquals(SITE, table.lookup(URI.create("glue://site-b")));
+
+		assertNull(table.removeRoute("glue://unknown"));
+		assertEquals(2, table.getVersion());
+		assertEquals(SITE, table.removeRoute("glue://site-b"));
+		assertEquals(3, table.getVersion());
+		assertNull(table.lookup(URI.create("glue://site-b")));
+		assertTrue(table.getRoutes().isEmpty());
+	}
+}
@@ -0,0 +1,18 @@
+package de.ovgu.dke.glue.api.transport.routing;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+/**
+ * <p>
+ * Test suite for the routing package, see the transport package test suite
+ * for the naming conventions.
+ * </p>
+ * 
+ */
+@RunWith(Suite.class)
+@SuiteClasses({ RoutingTableTests.class, RouterTests.class })
+public class TestSuite {
+
+}
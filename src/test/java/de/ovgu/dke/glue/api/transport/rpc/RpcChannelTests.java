@@ -0,0 +1,221 @@
+package de.ovgu.dke.glue.api.transport.rpc;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ovgu.dke.glue.api.serialization.SerializationProvider;
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.PacketHandler;
+import de.ovgu.dke.glue.api.transport.PacketHandlerFactory;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.SchemaRecord;
+import de.ovgu.dke.glue.api.transport.SchemaRegistry;
+import de.ovgu.dke.glue.api.transport.TransportException;
+import de.ovgu.dke.glue.api.transport.local.LocalTransportFactory;
+
+/**
+ * <p>
+ * Tests for {@link RpcChannel}, using the in-process transport.
+ * </p>
+ * 
+ */
+public class RpcChannelTests {
+
+	private static final String SCHEMA = "glue://rpc-test";
+
+	private LocalTransportFactory client;
+	private LocalTransportFactory server;
+
+	private RpcChannel channel;
+	private PacketThread pt;
+
+	@Before
+	public void setUp() throws Exception {
+		// the server answers "fail" with a failure, ignores "drop" and
+		// echoes everything else
+		final RpcChannel[] serverChannel = new RpcChannel[1];
+		serverChannel[0] = new RpcChannel(new PacketHandler() {
+			@Override
+			public void handle(PacketThread packetThread, Packet packet) {
+				if ("fail".equals(packet.getPayload()))
+					throw new IllegalArgumentException("failed");
+				if ("drop".equals(packet.getPayload()))
+					return;
+				try {
+					serverChannel[0].reply(packetThread, packet,
+							packet.getPayload());
+				} catch (TransportException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+
+		PacketHandlerFactory handlerFactory = EasyMock
+				.createMock(PacketHandlerFactory.class);
+		EasyMock.expect(handlerFactory.createPacketHandler())
+				.andReturn(serverChannel[0]).anyTimes();
+		SerializationProvider provider = EasyMock
+				.createMock(SerializationProvider.class);
+		EasyMock.expect(provider.getSerializer(SerializationProvider.JAVA))
+				.andReturn(null).anyTimes();
+		EasyMock.replay(handlerFactory, provider);
+		SchemaRegistry.getInstance().registerSchemaRecord(
+				SchemaRecord.valueOf(SCHEMA, handlerFactory, provider));
+
+		client = new LocalTransportFactory();
+		client.init(null);
+		server = new LocalTransportFactory();
+		Properties config = new Properties();
+		config.setProperty(LocalTransportFactory.NAME_PROPERTY, "rpc");
+		server.init(config);
+
+		channel = new RpcChannel(null);
+		pt = client.createTransport(server.getLocalURI())
+				.getConnection(SCHEMA).createThread(channel);
+	}
+
+	@After
+	public void tearDown() {
+		channel.close();
+		client.dispose();
+		server.dispose();
+		SchemaRegistry.getInstance().unregisterSchemaRecord(SCHEMA);
+	}
+
+	/**
+	 * <p>
+	 * Thousands of outstanding requests on one packet thread are matched to
+	 * their replies, the round-trip times are recorded.
+	 * </p>
+	 */
+	@Test
+	public void T00_request_Outstanding() throws Exception {
+		final int count = 5000;
+		List<RpcFuture> futures = new ArrayList<RpcFuture>(count);
+		for (int i = 0; i < count; i++)
+			futures.add(channel.request(pt, Integer.valueOf(i),
+					Packet.Priority.NORMAL, 10, TimeUnit.SECONDS));
+
+		for (int i = 0; i < count; i++)
+			assertEquals(Integer.valueOf(i),
+					futures.get(i).get(10, TimeUnit.SECONDS));
+
+		assertEquals(0, channel.getPendingCount());
+		assertEquals(count, channel.getLatencyHistogram().getCount());
+		assertTrue(channel.getLatencyHistogram().getPercentile(99) > 0);
+		assertEquals("ping", channel.call(pt, "ping", Packet.Priority.HIGH,
+				10, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * <p>
+	 * A request without reply times out and is removed from the pending map.
+	 * </p>
+	 */
+	@Test
+	public void T01_call_Timeout() throws Exception {
+		try {
+			channel.call(pt, "drop", Packet.Priority.NORMAL, 50,
+					TimeUnit.MILLISECONDS);
+			fail("Request without reply must time out.");
+		} catch (TimeoutException e) {
+			// expected
+		}
+		assertEquals(0, channel.getPendingCount());
+		assertEquals(1, channel.getTimeoutCount());
+	}
+
+	/**
+	 * <p>
+	 * An exception in the remote request handler fails the request.
+	 * </p>
+	 */
+	@Test
+	public void T02_call_RemoteFailure() throws Exception {
+		try {
+			channel.call(pt, "fail", Packet.Priority.NORMAL, 10,
+					TimeUnit.SECONDS);
+			fail("Remote failure must be reported.");
+		} catch (TransportException e) {
+			assertTrue(e.getMessage().contains("failed"));
+		}
+		assertEquals(0, channel.getPendingCount());
+	}
+
+	/**
+	 * <p>
+	 * A reply with a pending correlation id on another packet thread does not
+	 * complete the request and is counted as late reply.
+	 * </p>
+	 */
+	@Test
+	public void T03_reply_OtherThread() throws Exception {
+		RpcFuture future = channel.request(pt, "drop",
+				Packet.Priority.NORMAL, 10, TimeUnit.SECONDS);
+		assertSame(pt, future.getPacketThread());
+
+		PacketThread other = EasyMock.createMock(PacketThread.class);
+		Packet reply = EasyMock.createMock(Packet.class);
+		EasyMock.expect(reply.getPayload()).andReturn(
+				new RpcEnvelope(future.getCorrelationId(),
+						RpcEnvelope.Kind.REPLY, "spoofed")).anyTimes();
+		EasyMock.replay(other, reply);
+
+		channel.handle(other, reply);
+		assertFalse(future.isDone());
+		assertEquals(1, channel.getPendingCount());
+		assertEquals(1, channel.getLateReplyCount());
+	}
+
+	/**
+	 * <p>
+	 * Closing the channel fails the pending requests and rejects new ones.
+	 * </p>
+	 */
+	@Test
+	public void T10_close() throws Exception {
+		RpcFuture future = channel.request(pt, "drop",
+				Packet.Priority.NORMAL, 10, TimeUnit.SECONDS);
+		channel.close();
+		try {
+			future.get();
+			fail("Pending request must fail on close.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TransportException);
+		}
+		assertEquals(0, channel.getPendingCount());
+
+		try {
+			channel.request(pt, "ping", Packet.Priority.NORMAL, 1,
+					TimeUnit.SECONDS);
+			fail("Closed channel must reject requests.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * <p>
+	 * Only requests carry a correlation id, which is required for a reply.
+	 * </p>
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void T11_reply_NoRequest() throws Exception {
+		Packet packet = EasyMock.createMock(Packet.class);
+		EasyMock.expect(packet.getAttribute(RpcChannel.CORRELATION_ID.getName()))
+				.andReturn(null);
+		EasyMock.replay(packet);
+		channel.reply(pt, packet, "reply");
+	}
+}
@@ -0,0 +1,343 @@
+package de.ovgu.dke.glue.api.transport.shm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ovgu.dke.glue.api.serialization.SerializationProvider;
+import de.ovgu.dke.glue.api.transport.Connection;
+import de.ovgu.dke.glue.api.transport.Packet;
+import de.ovgu.dke.glue.api.transport.PacketHandler;
+import de.ovgu.dke.glue.api.transport.PacketHandlerFactory;
+import de.ovgu.dke.glue.api.transport.PacketThread;
+import de.ovgu.dke.glue.api.transport.SchemaRecord;
+import de.ovgu.dke.glue.api.transport.SchemaRegistry;
+import de.ovgu.dke.glue.api.transport.Transport;
+import de.ovgu.dke.glue.api.transport.TransportException;
+import de.ovgu.dke.glue.api.transport.flow.OverflowPolicy;
+
+/**
+ * <p>
+ * Tests for the shared-memory transport and {@link MappedRing}.
+ * </p>
+ * 
+ */
+public class ShmTransportTests {
+
+	private static final String SCHEMA = "glue://shm-test";
+
+	private static final int PACKETS = 1000;
+
+	private File file;
+	private ShmTransportFactory first;
+	private ShmTransportFactory second;
+	private LatchHandler defaultHandler;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("glue-shm", ".seg");
+		first = new ShmTransportFactory();
+		second = new ShmTransportFactory();
+
+		defaultHandler = new LatchHandler(PACKETS);
+		PacketHandlerFactory handlerFactory = EasyMock
+				.createMock(PacketHandlerFactory.class);
+		EasyMock.expect(handlerFactory.createPacketHandler())
+				.andReturn(defaultHandler).anyTimes();
+		SerializationProvider provider = EasyMock
+				.createMock(SerializationProvider.class);
+		EasyMock.expect(provider.getSerializer(SerializationProvider.BINARY))
+				.andReturn(null).anyTimes();
+		EasyMock.replay(handlerFactory, provider);
+		SchemaRegistry.getInstance().registerSchemaRecord(
+				SchemaRecord.valueOf(SCHEMA, handlerFactory, provider));
+	}
+
+	@After
+	public void tearDown() {
+		first.dispose();
+		second.dispose();
+		SchemaRegistry.getInstance().unregisterSchemaRecord(SCHEMA);
+		file.delete();
+	}
+
+	/**
+	 * <p>
+	 * Records of varying size wrap around the end of the ring and come out in
+	 * order; a full ring rejects records.
+	 * </p>
+	 */
+	@Test
+	public void T00_ring_Wrap() {
+		MappedRing ring = new MappedRing(
+				ByteBuffer.allocate(MappedRing.size(64)), 64);
+		ring.reset();
+
+		for (int i = 0; i < 50; i++) {
+			ByteBuffer data = ByteBuffer.allocate(1 + i % 13);
+			data.put(0, (byte) i);
+			assertTrue(ring.offer(data));
+			assertEquals(0, data.position());
+
+			ByteBuffer out = ring.poll();
+			assertEquals(1 + i % 13, out.remaining());
+			assertEquals((byte) i, out.get(0));
+		}
+		assertNull(ring.poll());
+		assertTrue(ring.isEmpty());
+
+		int count = 0;
+		while (ring.offer(ByteBuffer.allocate(12)))
+			count++;
+		assertEquals(4, count);
+	}
+
+	/**
+	 * <p>
+	 * Records larger than half the capacity are rejected.
+	 * </p>
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void T01_ring_RecordTooLarge() {
+		MappedRing ring = new MappedRing(
+				ByteBuffer.allocate(MappedRing.size(64)), 64);
+		ring.offer(ByteBuffer.allocate(29));
+	}
+
+	/**
+	 * <p>
+	 * Two peers attached to the same segment exchange packets, the receiving
+	 * side opens the connection and thread on the first packet.
+	 * </p>
+	 */
+	@Test
+	public void T10_send_Packets() throws Exception {
+		URI peer = new URI("shm", null, file.getAbsolutePath(), null);
+
+		Transport a = first.createTransport(peer);
+		Transport b = second.createTransport(peer);
+		assertSame(a, first.createTransport(peer));
+
+		PacketThread pt = a.getConnection(SCHEMA).createThread(
+				new LatchHandler(0));
+		for (int i = 0; i < PACKETS; i++)
+			pt.send(new byte[] { (byte) i, 1, 2, 3 }, Packet.Priority.NORMAL);
+
+		assertTrue(defaultHandler.latch.await(5, TimeUnit.SECONDS));
+		assertEquals(PACKETS, defaultHandler.received.get());
+
+		Connection remote = b.getConnection(SCHEMA);
+		assertEquals(SCHEMA, remote.getConnectionSchema());
+		assertEquals(1, ((ShmConnection) remote).getMultiplexer()
+				.getThreadCount());
+	}
+
+	/**
+	 * <p>
+	 * Packets which do not fit into a ring record are rejected when they are
+	 * sent.
+	 * </p>
+	 */
+	@Test
+	public void T11_send_TooLarge() throws Exception {
+		URI peer = new URI("shm", null, file.getAbsolutePath(), null);
+		Properties config = new Properties();
+		config.setProperty(ShmTransportFactory.CAPACITY_PROPERTY, "4096");
+		first.init(config);
+
+		PacketThread pt = first.createTransport(peer).getConnection(SCHEMA)
+				.createThread(new LatchHandler(0));
+		try {
+			pt.send(new byte[4096], Packet.Priority.NORMAL);
+			fail("An oversized packet must be rejected.");
+		} catch (TransportException e) {
+			// expected
+		}
+		pt.send(new byte[1024], Packet.Priority.NORMAL);
+	}
+
+	/**
+	 * <p>
+	 * Both peers send more than their rings hold at the same time; the reader
+	 * threads keep reading, so that all packets arrive well within the send
+	 * timeout.
+	 * </p>
+	 */
+	@Test
+	public void T12_send_BothRingsFull() throws Exception {
+		URI peer = new URI("shm", null, file.getAbsolutePath(), null);
+		Properties config = new Properties();
+		config.setProperty(ShmTransportFactory.CAPACITY_PROPERTY, "4096");
+		first.init(config);
+		second.init(config);
+
+		final PacketThread[] threads = new PacketThread[2];
+		int i = 0;
+		for (ShmTransportFactory factory : new ShmTransportFactory[] { first,
+				second }) {
+			ShmConnection connection = (ShmConnection) factory
+					.createTransport(peer).getConnection(SCHEMA);
+			connection.getMultiplexer().setOverflowPolicy(
+					OverflowPolicy.BLOCK);
+			threads[i++] = connection.createThread(new LatchHandler(0));
+		}
+
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		Thread[] senders = new Thread[2];
+		for (i = 0; i < 2; i++) {
+			final PacketThread pt = threads[i];
+			senders[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < PACKETS / 2; j++)
+							pt.send(new byte[1500], Packet.Priority.NORMAL);
+					} catch (Exception e) {
+						failure.set(e);
+					}
+				}
+			});
+			senders[i].start();
+		}
+		for (Thread sender : senders)
+			sender.join(10000);
+
+		assertNull(failure.get());
+		assertTrue(defaultHandler.latch.await(10, TimeUnit.SECONDS));
+		assertEquals(PACKETS, defaultHandler.received.get());
+	}
+
+	/**
+	 * <p>
+	 * A third peer cannot attach, a transport is closed when its peer
+	 * detaches.
+	 * </p>
+	 */
+	@Test
+	public void T20_attach_TwoPeersOnly() throws Exception {
+		URI peer = new URI("shm", null, file.getAbsolutePath(), null);
+		ShmTransport a = (ShmTransport) first.createTransport(peer);
+		ShmTransport b = (ShmTransport) second.createTransport(peer);
+
+		ShmTransportFactory third = new ShmTransportFactory();
+		try {
+			third.createTransport(peer);
+			fail("A third peer must not attach.");
+		} catch (TransportException e) {
+			// expected
+		}
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (a.getStatus() != Transport.Status.CONNECTED
+				&& System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+		assertEquals(Transport.Status.CONNECTED, a.getStatus());
+		assertTrue(a.isPeerAttached());
+
+		b.close();
+		while (a.getStatus() != Transport.Status.CLOSED
+				&& System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+		assertEquals(Transport.Status.CLOSED, a.getStatus());
+		assertEquals(Transport.Status.CLOSED, b.getStatus());
+	}
+
+	/**
+	 * <p>
+	 * Liveness follows the side locks: a peer which attaches to a left-over
+	 * file while the other side is free discards the stale records.
+	 * </p>
+	 */
+	@Test
+	public void T22_attach_StaleSegment() throws Exception {
+		ShmSegment old = ShmSegment.attach(file, 4096);
+		assertTrue(old.getOutbound().offer(ByteBuffer.allocate(8)));
+		assertFalse(old.isPeerAttached());
+		// the process dies, the operating system releases the lock
+		old.detach();
+
+		ShmSegment a = ShmSegment.attach(file, 4096);
+		try {
+			assertTrue(a.getInbound().isEmpty());
+			assertTrue(a.getOutbound().isEmpty());
+
+			ShmSegment b = ShmSegment.attach(file, 4096);
+			assertTrue(a.isPeerAttached());
+			assertTrue(b.isPeerAttached());
+			assertTrue(a.getOutbound().offer(ByteBuffer.allocate(8)));
+			// a live peer does not reset the rings
+			assertFalse(b.getInbound().isEmpty());
+
+			b.detach();
+			assertFalse(a.isPeerAttached());
+		} finally {
+			a.detach();
+		}
+	}
+
+	/**
+	 * <p>
+	 * A non-empty file which is not a segment is neither attached nor
+	 * overwritten.
+	 * </p>
+	 */
+	@Test
+	public void T23_attach_ForeignFile() throws Exception {
+		byte[] content = "not a segment".getBytes("UTF-8");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.write(content);
+		raf.close();
+
+		try {
+			ShmSegment.attach(file, 4096);
+			fail("A foreign file must not be attached.");
+		} catch (TransportException e) {
+			// expected
+		}
+
+		assertEquals(content.length, file.length());
+		byte[] read = new byte[content.length];
+		raf = new RandomAccessFile(file, "r");
+		raf.readFully(read);
+		raf.close();
+		assertArrayEquals(content, read);
+	}
+
+	/**
+	 * <p>
+	 * Only {@code shm} URIs are accepted.
+	 * </p>
+	 */
+	@Test(expected = TransportException.class)
+	public void T21_createTransport_WrongScheme() throws Exception {
+		first.createTransport(new URI("xmpp:peer@example.com"));
+	}
+
+	private static class LatchHandler implements PacketHandler {
+		final CountDownLatch latch;
+		final AtomicInteger received = new AtomicInteger();
+
+		LatchHandler(int count) {
+			this.latch = new CountDownLatch(count);
+		}
+
+		@Override
+		public void handle(PacketThread packetThread, Packet packet) {
+			received.incrementAndGet();
+			latch.countDown();
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package de.ovgu.dke.glue.api.transport.shm;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+/**
+ * <p>
+ * Test suite for the shared-memory transport, see the transport package test
+ * suite for the naming conventions.
+ * </p>
+ * 
+ */
+@RunWith(Suite.class)
+@SuiteClasses({ ShmTransportTests.class })
+public class TestSuite {
+
+}
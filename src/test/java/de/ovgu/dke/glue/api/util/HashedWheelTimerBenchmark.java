@@ -0,0 +1,92 @@
+package de.ovgu.dke.glue.api.util;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Schedule and cancel throughput of {@link HashedWheelTimer} compared to
+ * {@link ScheduledThreadPoolExecutor} with a large number of outstanding
+ * timers: all timers are scheduled first, then all are cancelled. Not part of
+ * the test suite, run the main method with the number of timers:
+ * </p>
+ * 
+ * <pre>
+ * java -cp target/classes:target/test-classes de.ovgu.dke.glue.api.util.HashedWheelTimerBenchmark [timers]
+ * </pre>
+ * 
+ */
+public class HashedWheelTimerBenchmark {
+	private static final int ROUNDS = 5;
+
+	private static final Runnable TASK = new Runnable() {
+		@Override
+		public void run() {
+			// never expires
+		}
+	};
+
+	public static void main(String[] args) throws Exception {
+		final int timers = args.length > 0 ? Integer.parseInt(args[0])
+				: 1000000;
+		System.out.println("Outstanding timers: " + timers);
+
+		for (int round = 0; round < ROUNDS; round++) {
+			runWheel(round, timers);
+			runExecutor(round, timers);
+		}
+	}
+
+	private static void runWheel(final int round, final int timers)
+			throws InterruptedException {
+		final HashedWheelTimer timer = new HashedWheelTimer(
+				HashedWheelTimer.SHARED_TICK, TimeUnit.MILLISECONDS,
+				HashedWheelTimer.SHARED_WHEEL_SIZE, "benchmark-timer");
+		final HashedWheelTimer.Timeout[] timeouts = new HashedWheelTimer.Timeout[timers];
+
+		long t0 = System.nanoTime();
+		for (int i = 0; i < timers; i++)
+			timeouts[i] = timer.newTimeout(TASK, 60 + i % 60,
+					TimeUnit.SECONDS);
+		report("HashedWheelTimer", "schedule", round, timers,
+				System.nanoTime() - t0);
+
+		t0 = System.nanoTime();
+		for (int i = 0; i < timers; i++)
+			timeouts[i].cancel();
+		report("HashedWheelTimer", "cancel", round, timers,
+				System.nanoTime() - t0);
+
+		timer.stop();
+	}
+
+	private static void runExecutor(final int round, final int timers) {
+		final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+				1);
+		final ScheduledFuture<?>[] futures = new ScheduledFuture<?>[timers];
+
+		long t0 = System.nanoTime();
+		for (int i = 0; i < timers; i++)
+			futures[i] = executor.schedule(TASK, 60 + i % 60,
+					TimeUnit.SECONDS);
+		report("ScheduledExecutor", "schedule", round, timers,
+				System.nanoTime() - t0);
+
+		t0 = System.nanoTime();
+		for (int i = 0; i < timers; i++)
+			futures[i].cancel(false);
+		// cancelled tasks stay in the queue until purged
+		executor.purge();
+		report("ScheduledExecutor", "cancel", round, timers,
+				System.nanoTime() - t0);
+
+		executor.shutdownNow();
+	}
+
+	private static void report(String name, String op, int round, int timers,
+			long nanos) {
+		System.out.printf("  %-18s %-8s round %d: %8.2f Mops/s%n", name, op,
+				round, timers * 1000.0 / nanos);
+	}
+}
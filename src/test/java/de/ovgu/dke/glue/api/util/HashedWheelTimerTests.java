@@ -0,0 +1,192 @@
+package de.ovgu.dke.glue.api.util;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests for {@link HashedWheelTimer}.
+ * </p>
+ * 
+ */
+public class HashedWheelTimerTests {
+
+	private HashedWheelTimer timer;
+
+	@Before
+	public void setUp() {
+		// a small wheel, so that timeouts span several rounds
+		timer = new HashedWheelTimer(5, TimeUnit.MILLISECONDS, 4,
+				"test-timer");
+	}
+
+	@After
+	public void tearDown() {
+		timer.stop();
+	}
+
+	/**
+	 * <p>
+	 * Timeouts expire in deadline order, not before their delay.
+	 * </p>
+	 */
+	@Test
+	public void T00_newTimeout_Expire() throws Exception {
+		final int count = 20;
+		final CountDownLatch latch = new CountDownLatch(count);
+		final AtomicInteger early = new AtomicInteger();
+		final AtomicInteger unordered = new AtomicInteger();
+		final AtomicInteger last = new AtomicInteger(-1);
+		final long start = System.nanoTime();
+		for (int i = count - 1; i >= 0; i--) {
+			final int n = i;
+			timer.newTimeout(new Runnable() {
+				@Override
+				public void run() {
+					if (System.nanoTime() - start < TimeUnit.MILLISECONDS
+							.toNanos(n * 10))
+						early.incrementAndGet();
+					if (last.getAndSet(n) > n)
+						unordered.incrementAndGet();
+					latch.countDown();
+				}
+			}, n * 10, TimeUnit.MILLISECONDS);
+		}
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(0, early.get());
+		assertEquals(0, unordered.get());
+		assertEquals(0, timer.getPendingCount());
+		assertEquals(0, timer.getFailureCount());
+	}
+
+	/**
+	 * <p>
+	 * Cancelled timeouts do not run, a timeout can only be cancelled once.
+	 * </p>
+	 */
+	@Test
+	public void T01_cancel() throws Exception {
+		final AtomicInteger runs = new AtomicInteger();
+		final CountDownLatch latch = new CountDownLatch(1);
+		HashedWheelTimer.Timeout cancelled = timer.newTimeout(new Runnable() {
+			@Override
+			public void run() {
+				runs.incrementAndGet();
+			}
+		}, 20, TimeUnit.MILLISECONDS);
+		HashedWheelTimer.Timeout expired = timer.newTimeout(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, 40, TimeUnit.MILLISECONDS);
+		assertEquals(2, timer.getPendingCount());
+
+		assertTrue(cancelled.cancel());
+		assertFalse(cancelled.cancel());
+		assertTrue(cancelled.isCancelled());
+		assertEquals(1, timer.getPendingCount());
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertTrue(expired.isExpired());
+		assertFalse(expired.cancel());
+		assertEquals(0, runs.get());
+	}
+
+	/**
+	 * <p>
+	 * Failing tasks, including errors, do not stop the timer.
+	 * </p>
+	 */
+	@Test
+	public void T02_newTimeout_Failure() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		timer.newTimeout(new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("failed");
+			}
+		}, 0, TimeUnit.MILLISECONDS);
+		timer.newTimeout(new Runnable() {
+			@Override
+			public void run() {
+				throw new AssertionError("failed");
+			}
+		}, 0, TimeUnit.MILLISECONDS);
+		timer.newTimeout(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, 10, TimeUnit.MILLISECONDS);
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(2, timer.getFailureCount());
+	}
+
+	/**
+	 * <p>
+	 * A delay beyond the range of the timer does not overflow into an
+	 * immediate expiry.
+	 * </p>
+	 */
+	@Test
+	public void T03_newTimeout_HugeDelay() throws Exception {
+		final AtomicInteger runs = new AtomicInteger();
+		HashedWheelTimer.Timeout timeout = timer.newTimeout(new Runnable() {
+			@Override
+			public void run() {
+				runs.incrementAndGet();
+			}
+		}, Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+		Thread.sleep(50);
+		assertEquals(0, runs.get());
+		assertFalse(timeout.isExpired());
+		assertEquals(1, timer.getPendingCount());
+	}
+
+	/**
+	 * <p>
+	 * Stopping the timer discards the pending timeouts and rejects new ones.
+	 * </p>
+	 */
+	@Test
+	public void T10_stop() {
+		timer.newTimeout(new Runnable() {
+			@Override
+			public void run() {
+				fail("Timeout must be discarded.");
+			}
+		}, 1, TimeUnit.HOURS);
+		assertEquals(1, timer.stop());
+		try {
+			timer.newTimeout(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}, 1, TimeUnit.MILLISECONDS);
+			fail("Stopped timer must reject timeouts.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * <p>
+	 * The shared timer cannot be stopped.
+	 * </p>
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void T11_stop_Shared() {
+		HashedWheelTimer.getShared().stop();
+	}
+}
@@ -0,0 +1,72 @@
+package de.ovgu.dke.glue.api.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests for {@link LatencyHistogram}.
+ * </p>
+ * 
+ */
+public class LatencyHistogramTests {
+
+	/**
+	 * <p>
+	 * Each value falls into a bucket whose upper bound is within the
+	 * sub-bucket precision.
+	 * </p>
+	 */
+	@Test
+	public void T00_buckets() {
+		long value = 1;
+		while (value > 0) {
+			for (long v : new long[] { value - 1, value, value + 1 }) {
+				long upper = LatencyHistogram.upperBound(LatencyHistogram
+						.indexOf(v));
+				assertTrue(upper >= v);
+				assertTrue(upper - v <= v / LatencyHistogram.SUB_BUCKETS);
+			}
+			value = value * 3 / 2 + 1;
+		}
+		assertEquals(Long.MAX_VALUE, LatencyHistogram
+				.upperBound(LatencyHistogram.indexOf(Long.MAX_VALUE)));
+	}
+
+	/**
+	 * <p>
+	 * Percentiles, mean and maximum of a uniform distribution.
+	 * </p>
+	 */
+	@Test
+	public void T10_percentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentile(99));
+
+		for (int i = 1; i <= 10000; i++)
+			histogram.record(i * 1000L);
+
+		assertEquals(10000, histogram.getCount());
+		assertEquals(10000000, histogram.getMax());
+		assertEquals(5000500, histogram.getMean(), 1);
+		assertEquals(5000000, histogram.getPercentile(50), 5000000 / 16);
+		assertEquals(9900000, histogram.getPercentile(99), 9900000 / 16);
+		assertEquals(10000000, histogram.getPercentile(100));
+		assertEquals(1000, histogram.getPercentile(0), 1000 / 16);
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+	}
+
+	/**
+	 * <p>
+	 * Percentiles must be between 0 and 100.
+	 * </p>
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void T11_percentiles_Range() {
+		new LatencyHistogram().getPercentile(101);
+	}
+}
@@ -0,0 +1,112 @@
+package de.ovgu.dke.glue.api.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * <p>
+ * Throughput comparison of the ring buffers with {@link ArrayBlockingQueue}
+ * and {@link LinkedBlockingQueue} for one and several producer threads and a
+ * single consumer. Not part of the test suite, run the main method with the
+ * number of messages and the ring buffer wait strategy; {@code BUSY_SPIN}
+ * needs a spare core per thread:
+ * </p>
+ * 
+ * <pre>
+ * java -cp target/classes:target/test-classes de.ovgu.dke.glue.api.util.RingBufferBenchmark [messages [strategy]]
+ * </pre>
+ * 
+ */
+public class RingBufferBenchmark {
+	private static final int CAPACITY = 1024;
+	private static final int ROUNDS = 5;
+	private static final Integer ELEMENT = Integer.valueOf(42);
+
+	public static void main(String[] args) throws Exception {
+		final int messages = args.length > 0 ? Integer.parseInt(args[0])
+				: 10000000;
+		final WaitStrategy strategy = args.length > 1 ? WaitStrategy
+				.valueOf(args[1]) : WaitStrategy.YIELD;
+		System.out.println("Wait strategy: " + strategy);
+
+		for (int producers : new int[] { 1, 4 }) {
+			System.out.println("Producers: " + producers);
+			for (int round = 0; round < ROUNDS; round++) {
+				if (producers == 1)
+					report("SpscRingBuffer", round, messages,
+							runRing(new SpscRingBuffer<Integer>(CAPACITY),
+									strategy, producers, messages));
+				report("MpscRingBuffer", round, messages,
+						runRing(new MpscRingBuffer<Integer>(CAPACITY),
+								strategy, producers, messages));
+				report("ArrayBlockingQueue", round, messages,
+						runQueue(new ArrayBlockingQueue<Integer>(CAPACITY),
+								producers, messages));
+				report("LinkedBlockingQueue", round, messages,
+						runQueue(new LinkedBlockingQueue<Integer>(CAPACITY),
+								producers, messages));
+			}
+		}
+	}
+
+	private static long runRing(final RingBuffer<Integer> ring,
+			final WaitStrategy strategy, final int producers,
+			final int messages)
+			throws InterruptedException {
+		final int perProducer = messages / producers;
+		final CountDownLatch start = new CountDownLatch(1);
+		for (int p = 0; p < producers; p++)
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < perProducer; i++)
+							ring.put(ELEMENT, strategy);
+					} catch (InterruptedException e) {
+						// stop
+					}
+				}
+			}.start();
+
+		final long t0 = System.nanoTime();
+		start.countDown();
+		for (int i = 0; i < perProducer * producers; i++)
+			ring.take(strategy);
+		return System.nanoTime() - t0;
+	}
+
+	private static long runQueue(final BlockingQueue<Integer> queue,
+			final int producers, final int messages)
+			throws InterruptedException {
+		final int perProducer = messages / producers;
+		final CountDownLatch start = new CountDownLatch(1);
+		for (int p = 0; p < producers; p++)
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < perProducer; i++)
+							queue.put(ELEMENT);
+					} catch (InterruptedException e) {
+						// stop
+					}
+				}
+			}.start();
+
+		final long t0 = System.nanoTime();
+		start.countDown();
+		for (int i = 0; i < perProducer * producers; i++)
+			queue.take();
+		return System.nanoTime() - t0;
+	}
+
+	private static void report(String name, int round, int messages,
+			long nanos) {
+		System.out.printf("  %-20s round %d: %8.2f Mops/s%n", name, round,
+				messages * 1000.0 / nanos);
+	}
+}
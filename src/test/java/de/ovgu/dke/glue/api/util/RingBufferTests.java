@@ -0,0 +1,135 @@
+package de.ovgu.dke.glue.api.util;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests for {@link SpscRingBuffer} and {@link MpscRingBuffer}.
+ * </p>
+ * 
+ */
+public class RingBufferTests {
+
+	/**
+	 * <p>
+	 * The capacity is rounded up to a power of two, elements come out in
+	 * order and a full buffer rejects elements.
+	 * </p>
+	 */
+	@Test
+	public void T00_offerPoll_Spsc() {
+		RingBuffer<Integer> ring = new SpscRingBuffer<Integer>(5);
+		checkFifo(ring);
+	}
+
+	/**
+	 * <p>
+	 * Same as T00 for the multi-producer buffer.
+	 * </p>
+	 */
+	@Test
+	public void T01_offerPoll_Mpsc() {
+		RingBuffer<Integer> ring = new MpscRingBuffer<Integer>(5);
+		checkFifo(ring);
+	}
+
+	/**
+	 * <p>
+	 * Null elements are rejected.
+	 * </p>
+	 */
+	@Test(expected = NullPointerException.class)
+	public void T02_offer_Null() {
+		new MpscRingBuffer<Object>(4).offer(null);
+	}
+
+	/**
+	 * <p>
+	 * A producer and a consumer thread transfer elements in order.
+	 * </p>
+	 */
+	@Test
+	public void T10_transfer_Spsc() throws InterruptedException {
+		final RingBuffer<Long> ring = new SpscRingBuffer<Long>(64);
+		final int count = 100000;
+
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (long i = 0; i < count; i++)
+						ring.put(Long.valueOf(i), WaitStrategy.YIELD);
+				} catch (InterruptedException e) {
+					// test fails
+				}
+			}
+		};
+		producer.start();
+
+		for (long i = 0; i < count; i++)
+			assertEquals(i, ring.take(WaitStrategy.YIELD).longValue());
+		producer.join();
+		assertTrue(ring.isEmpty());
+	}
+
+	/**
+	 * <p>
+	 * Elements of several producer threads all arrive at the consumer, the
+	 * order per producer is retained.
+	 * </p>
+	 */
+	@Test
+	public void T11_transfer_Mpsc() throws InterruptedException {
+		final RingBuffer<long[]> ring = new MpscRingBuffer<long[]>(64);
+		final int producers = 4;
+		final int count = 25000;
+
+		final Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final long id = p;
+			threads[p] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (long i = 0; i < count; i++)
+							ring.put(new long[] { id, i }, WaitStrategy.PARK);
+					} catch (InterruptedException e) {
+						// test fails
+					}
+				}
+			};
+			threads[p].start();
+		}
+
+		final long[] next = new long[producers];
+		final AtomicLong total = new AtomicLong();
+		for (int i = 0; i < producers * count; i++) {
+			long[] e = ring.take(WaitStrategy.PARK);
+			assertEquals(next[(int) e[0]]++, e[1]);
+			total.incrementAndGet();
+		}
+		for (Thread t : threads)
+			t.join();
+		assertEquals(producers * count, total.get());
+		assertNull(ring.poll());
+	}
+
+	private void checkFifo(RingBuffer<Integer> ring) {
+		assertEquals(8, ring.getCapacity());
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 8; i++)
+				assertTrue(ring.offer(Integer.valueOf(i)));
+			assertFalse(ring.offer(Integer.valueOf(8)));
+			assertEquals(8, ring.size());
+
+			for (int i = 0; i < 8; i++)
+				assertEquals(i, ring.poll().intValue());
+			assertNull(ring.poll());
+			assertTrue(ring.isEmpty());
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package de.ovgu.dke.glue.api.util;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Tests for {@link RotatingBloomFilter}.
+ * </p>
+ * 
+ */
+public class RotatingBloomFilterTests {
+	private long now;
+
+	private RotatingBloomFilter filter;
+
+	@Before
+	public void setUp() {
+		now = 0;
+		// 4 generations of 8 KiB, rotated every 10 seconds
+		filter = new RotatingBloomFilter(32 * 1024, 4, 4, 40,
+				TimeUnit.SECONDS) {
+			@Override
+			protected long nanoTime() {
+				return now;
+			}
+		};
+	}
+
+	/**
+	 * <p>
+	 * Added keys are contained, the memory is split between generations.
+	 * </p>
+	 */
+	@Test
+	public void T00_add_Contains() {
+		assertEquals(32 * 1024, filter.getMemoryBytes());
+		assertEquals(64 * 1024, filter.getGenerationBits());
+		assertEquals(0, filter.getFalsePositiveProbability(), 0);
+
+		for (long key = 0; key < 1000; key++)
+			assertTrue(filter.addIfAbsent(key));
+		for (long key = 0; key < 1000; key++) {
+			assertTrue(filter.contains(key));
+			assertFalse(filter.addIfAbsent(key));
+		}
+		assertEquals(1000, filter.getInsertCount());
+
+		filter.clear();
+		assertFalse(filter.contains(1));
+	}
+
+	/**
+	 * <p>
+	 * Keys are remembered for at least three quarters of the time to live and
+	 * forgotten after it.
+	 * </p>
+	 */
+	@Test
+	public void T01_rotate_Expire() {
+		filter.add(42);
+		now = TimeUnit.SECONDS.toNanos(30);
+		assertTrue(filter.contains(42));
+		assertEquals(3, filter.getRotationCount());
+
+		now = TimeUnit.SECONDS.toNanos(40);
+		assertFalse(filter.contains(42));
+
+		// a long idle time clears all generations at once
+		filter.add(43);
+		now = TimeUnit.DAYS.toNanos(1);
+		assertFalse(filter.contains(43));
+	}
+
+	/**
+	 * <p>
+	 * The estimated false positive probability matches the measured rate.
+	 * </p>
+	 */
+	@Test
+	public void T02_getFalsePositiveProbability() {
+		for (long key = 0; key < 8000; key++)
+			filter.add(key);
+		final double estimate = filter.getFalsePositiveProbability();
+
+		int positives = 0;
+		final int probes = 100000;
+		for (long key = 1L << 40; key < (1L << 40) + probes; key++)
+			if (filter.contains(key))
+				positives++;
+		final double measured = (double) positives / probes;
+
+		assertTrue(estimate > 0.001 && estimate < 0.1);
+		assertEquals(estimate, measured, estimate / 2);
+	}
+}
@@ -0,0 +1,19 @@
+package de.ovgu.dke.glue.api.util;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+/**
+ * <p>
+ * Test suite for the utility package, see the transport package test suite
+ * for the naming conventions.
+ * </p>
+ * 
+ */
+@RunWith(Suite.class)
+@SuiteClasses({ RingBufferTests.class, LatencyHistogramTests.class,
+		HashedWheelTimerTests.class, RotatingBloomFilterTests.class })
+public class TestSuite {
+
+}